@@ -35,6 +35,50 @@ tasks.compileTestJava {
 
 tasks.test {
     useJUnitPlatform()
+    // 테스트는 내장 브로커에서 돌리므로 로그를 루트의 logback-test.xml로 맞춥니다.
+    systemProperty("logback.configurationFile", file("logback-test.xml").path)
+}
+
+// JMH 벤치마크는 src/jmh/java에 둡니다. 같은 패키지에 두면 예제의 package-private 멤버도 쓸 수 있습니다.
+// 테스트 인증서와 TLS 에코 서버 같은 도구는 src/test/java에 두고 테스트와 함께 씁니다.
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.test.get().output
+        runtimeClasspath += sourceSets.main.get().output + sourceSets.test.get().output
+    }
+}
+val jmhImplementation: Configuration by configurations.getting {
+    extendsFrom(configurations.implementation.get())
+}
+val jmhAnnotationProcessor: Configuration by configurations.getting
+
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.encoding = "UTF-8"
+}
+
+// ./gradlew jmh -Pjmh.includes=RpcBenchmark -Pjmh.args="-prof gc"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks against the embedded broker."
+    dependsOn("jmhClasses")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val resultFile = file("$buildDir/reports/jmh/results.json")
+    doFirst { resultFile.parentFile.mkdirs() }
+    args = listOf(project.findProperty("jmh.includes")?.toString() ?: "kr.pe.elex.rabbitmq") +
+            (project.findProperty("jmh.args")?.toString()?.split(" ")?.filter { it.isNotEmpty() } ?: emptyList()) +
+            listOf("-rf", "json", "-rff", resultFile.path)
+}
+// ./gradlew perf -Pperf.args="--pattern fanout --producers 2 --consumers 4 --duration 30"
+tasks.register<JavaExec>("perf") {
+    group = "benchmark"
+    description = "Runs the load generator, against the embedded broker unless --uri is given."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("kr.pe.elex.rabbitmq.perf.PerfRunner")
+    jvmArgs("-Dlogback.configurationFile=${file("logback.xml")}")
+    val summaryFile = file("$buildDir/reports/perf/summary.json")
+    args = (project.findProperty("perf.args")?.toString()?.split(" ")?.filter { it.isNotEmpty() } ?: emptyList()) +
+            listOf("--json", summaryFile.path)
 }
 dependencies {
     implementation("org.slf4j:slf4j-api:1.7.30")
@@ -51,6 +95,12 @@ dependencies {
     implementation("org.bouncycastle:bcprov-jdk15on:1.68")
     // https://mvnrepository.com/artifact/org.bouncycastle/bcpkix-jdk15on
     implementation("org.bouncycastle:bcpkix-jdk15on:1.68")
+    // TlsConfig.TlsProvider.BCJSSE
+    // https://mvnrepository.com/artifact/org.bouncycastle/bctls-jdk15on
+    runtimeOnly("org.bouncycastle:bctls-jdk15on:1.68")
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+
     testImplementation("org.junit.jupiter:junit-jupiter:5.7.0")
     testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.7.0")
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 코덱마다 주문 레코드 하나를 본문으로 만들고 읽는 처리량을 잰다.
+ * <ul>
+ *     <li>{@code binary*}: {@link BinaryCodec}과 {@link Schema}</li>
+ *     <li>{@code text*}: {@link TextCodec}. 필드를 구분자로 이어 붙인 문자열을 만들고 다시 쪼개서 읽는다.</li>
+ *     <li>{@code raw*}: {@link RawCodec}. 이미 만들어진 본문을 그대로 넘기는 기준선</li>
+ * </ul>
+ * 할당량은 {@code -prof gc}로 본다.
+ *
+ * @author Elex
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+	private static final Schema<Order> ORDER = Schema.builder(Order::new)
+			.longField(Order::getId, Order::setId)
+			.stringField(Order::getSymbol, Order::setSymbol)
+			.intField(Order::getQuantity, Order::setQuantity)
+			.doubleField(Order::getPrice, Order::setPrice)
+			.booleanField(Order::isBuy, Order::setBuy)
+			.build();
+
+	private Order order;
+	private Encoder<Order> binaryEncoder;
+	private Decoder<Order> binaryDecoder;
+	private Encoder<CharSequence> textEncoder;
+	private Decoder<String> textDecoder;
+	private Encoder<byte[]> rawEncoder;
+	private Decoder<Payload> rawDecoder;
+	private byte[] binaryBody;
+	private byte[] textBody;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		CodecRegistry codecs = CodecRegistry.defaults()
+				.register(new BinaryCodec().register(Order.class, ORDER));
+		Codec binary = codecs.codec(BinaryCodec.CONTENT_TYPE, null);
+		Codec text = codecs.codec(TextCodec.CONTENT_TYPE, TextCodec.CONTENT_ENCODING);
+		Codec raw = codecs.codec(RawCodec.CONTENT_TYPE, null);
+		binaryEncoder = binary.encoder(Order.class);
+		binaryDecoder = binary.decoder(Order.class);
+		textEncoder = text.encoder(CharSequence.class);
+		textDecoder = text.decoder(String.class);
+		rawEncoder = raw.encoder(byte[].class);
+		rawDecoder = raw.decoder(Payload.class);
+
+		order = new Order();
+		order.setId(1_234_567_890L);
+		order.setSymbol("ELEX");
+		order.setQuantity(100);
+		order.setPrice(123.45);
+		order.setBuy(true);
+		binaryBody = encodeBinary(order);
+		textBody = encodeText(order);
+	}
+
+	private byte[] encodeBinary(Order value) {
+		PayloadBuffer out = PayloadBuffer.local();
+		binaryEncoder.encode(value, out);
+		return out.body();
+	}
+
+	private byte[] encodeText(Order value) {
+		StringBuilder line = new StringBuilder(64)
+				.append(value.getId()).append('|')
+				.append(value.getSymbol()).append('|')
+				.append(value.getQuantity()).append('|')
+				.append(value.getPrice()).append('|')
+				.append(value.isBuy());
+		PayloadBuffer out = PayloadBuffer.local();
+		textEncoder.encode(line, out);
+		return out.body();
+	}
+
+	@Benchmark
+	public byte[] binaryEncode() {
+		return encodeBinary(order);
+	}
+
+	@Benchmark
+	public Order binaryDecode() {
+		return binaryDecoder.decode(Payload.wrap(binaryBody));
+	}
+
+	@Benchmark
+	public byte[] textEncode() {
+		return encodeText(order);
+	}
+
+	@Benchmark
+	public Order textDecode() {
+		String[] fields = textDecoder.decode(Payload.wrap(textBody)).split("\\|");
+		Order value = new Order();
+		value.setId(Long.parseLong(fields[0]));
+		value.setSymbol(fields[1]);
+		value.setQuantity(Integer.parseInt(fields[2]));
+		value.setPrice(Double.parseDouble(fields[3]));
+		value.setBuy(Boolean.parseBoolean(fields[4]));
+		return value;
+	}
+
+	@Benchmark
+	public byte[] rawEncode() {
+		PayloadBuffer out = PayloadBuffer.local();
+		rawEncoder.encode(binaryBody, out);
+		return out.body();
+	}
+
+	@Benchmark
+	public Payload rawDecode() {
+		return rawDecoder.decode(Payload.wrap(binaryBody));
+	}
+
+	public static final class Order {
+		private long id;
+		private String symbol;
+		private int quantity;
+		private double price;
+		private boolean buy;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+
+		public void setQuantity(int quantity) {
+			this.quantity = quantity;
+		}
+
+		public double getPrice() {
+			return price;
+		}
+
+		public void setPrice(double price) {
+			this.price = price;
+		}
+
+		public boolean isBuy() {
+			return buy;
+		}
+
+		public void setBuy(boolean buy) {
+			this.buy = buy;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.compress;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON 비슷한 레코드를 이어 붙인 본문을 압축하고 푸는 시간을 잰다.
+ * <p>
+ * {@code dictionary}가 {@code true}이면 레코드 하나를 사전으로 쓴다. 본문이 작을수록 사전의 효과가 크다.
+ * 들어간 바이트와 나온 바이트는 {@link Bytes}로 내보낸다. 압축률은 {@code compress:outputBytes}를 {@code compress:inputBytes}로 나눈 값이다.
+ *
+ * @author Elex
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+	private static final String RECORD = "{\"id\":%d,\"symbol\":\"ELEX\",\"side\":\"BUY\",\"quantity\":%d,\"price\":%d.25}";
+
+	@Param({"64", "4096", "65536"})
+	public int length;
+
+	@Param({"false", "true"})
+	public boolean dictionary;
+
+	private CompressionAlgorithm algorithm;
+	private byte[] body;
+	private byte[] compressed;
+	private final PayloadBuffer out = new PayloadBuffer();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StringBuilder text = new StringBuilder(length + 128);
+		for (int i = 0; text.length() < length; i++) {
+			text.append(String.format(RECORD, i, i * 10, 100 + i % 7));
+		}
+		body = text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+		algorithm = dictionary
+				? DeflateAlgorithm.withDictionary("bench", DeflateAlgorithm.dictionary(Collections.singletonList(
+				String.format(RECORD, 0, 0, 100).getBytes(StandardCharsets.UTF_8)), DeflateAlgorithm.MAX_DICTIONARY_LENGTH))
+				: new DeflateAlgorithm();
+		algorithm.compress(Payload.wrap(body), out.clear());
+		compressed = out.view().toByteArray();
+	}
+
+	/**
+	 * 반복 하나 동안 들어가고 나온 바이트 수.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Bytes {
+		public long inputBytes;
+		public long outputBytes;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			inputBytes = outputBytes = 0;
+		}
+	}
+
+	@Benchmark
+	public int compress(Bytes bytes) {
+		algorithm.compress(Payload.wrap(body), out.clear());
+		bytes.inputBytes += body.length;
+		bytes.outputBytes += out.length();
+		return out.length();
+	}
+
+	@Benchmark
+	public int decompress(Bytes bytes) {
+		algorithm.decompress(Payload.wrap(compressed), out.clear(), Compression.DEFAULT_MAX_LENGTH);
+		bytes.inputBytes += compressed.length;
+		bytes.outputBytes += out.length();
+		return out.length();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.confirm;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 발행 처리량을 컨펌 방식별로 잰다.
+ * <ul>
+ *     <li>{@code none}: 컨펌 없이 보낸다.</li>
+ *     <li>{@code sync}: 메시지마다 {@link Channel#waitForConfirmsOrDie(long)}로 기다린다.</li>
+ *     <li>{@code async}: {@link AsyncConfirmPublisher}로 보내고 기다리지 않는다.</li>
+ * </ul>
+ * 받는 쪽은 autoAck 컨슈머가 계속 비운다.
+ *
+ * @author Elex
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishBenchmark {
+	private static final String QUEUE = "elex.bench.publish";
+
+	@Param({"none", "sync", "async"})
+	public String confirms;
+
+	@Param({"16", "1024"})
+	public int payloadSize;
+
+	private EmbeddedBroker broker;
+	private Channel channel;
+	private AsyncConfirmPublisher publisher;
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		broker = new EmbeddedBroker();
+		Connection consumerConnection = broker.newConnection("consumer");
+		Channel consumerChannel = consumerConnection.createChannel();
+		consumerChannel.queueDeclare(QUEUE, false, false, false, null);
+		consumerChannel.basicConsume(QUEUE, true, new DefaultConsumer(consumerChannel));
+
+		channel = broker.newConnection("publisher").createChannel();
+		if ("sync".equals(confirms)) {
+			channel.confirmSelect();
+		} else if ("async".equals(confirms)) {
+			publisher = new AsyncConfirmPublisher(channel, 1024);
+		}
+		payload = new byte[payloadSize];
+	}
+
+	@Benchmark
+	public void publish() throws Exception {
+		if (null != publisher) {
+			publisher.publish("", QUEUE, null, payload);
+			return;
+		}
+		channel.basicPublish("", QUEUE, null, payload);
+		if ("sync".equals(confirms)) {
+			channel.waitForConfirmsOrDie(5000);
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void drain() throws InterruptedException {
+		if (null != publisher) {
+			publisher.awaitAll(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		broker.close();
+	}
+}
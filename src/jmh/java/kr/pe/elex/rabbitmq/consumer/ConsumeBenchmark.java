@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 큐에 쌓인 메시지를 수동 ack로 모두 받아가는 처리량을 prefetch와 ack 방식별로 잰다.
+ * <p>
+ * 매 호출 전에 큐를 {@value #MESSAGES}개로 채워두고, 호출 안에서 컨슈머를 붙여 모두 ack할 때까지 기다린다.
+ * {@code single}은 메시지마다 ack를 보내고, {@code coalesced}는 {@link AckCoalescer}로 모아서 보낸다.
+ *
+ * @author Elex
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ConsumeBenchmark.MESSAGES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsumeBenchmark {
+	static final int MESSAGES = 10_000;
+	private static final String QUEUE = "elex.bench.consume";
+
+	@Param({"1", "16", "128", "1024"})
+	public int prefetch;
+
+	@Param({"single", "coalesced"})
+	public String ack;
+
+	private EmbeddedBroker broker;
+	private Channel publishChannel;
+	private Channel channel;
+	private AckCoalescer ackCoalescer;
+	private final byte[] payload = new byte[64];
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		broker = new EmbeddedBroker();
+		publishChannel = broker.newConnection("publisher").createChannel();
+		publishChannel.queueDeclare(QUEUE, false, false, false, null);
+		channel = broker.newConnection("consumer").createChannel();
+		channel.basicQos(prefetch);
+		if ("coalesced".equals(ack)) {
+			// 배치가 prefetch보다 크면 ack가 linger를 기다리게 됩니다.
+			ackCoalescer = new AckCoalescer(channel, Math.max(1, Math.min(32, prefetch / 2)))
+					.start(WorkerExecutors.sharedScheduler(), 1, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void fill() throws IOException {
+		for (int i = 0; i < MESSAGES; i++) {
+			publishChannel.basicPublish("", QUEUE, null, payload);
+		}
+	}
+
+	@Benchmark
+	public void consume() throws IOException, InterruptedException {
+		CountDownLatch done = new CountDownLatch(MESSAGES);
+		String tag = channel.basicConsume(QUEUE, false, new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+				if (null != ackCoalescer) {
+					ackCoalescer.ack(envelope.getDeliveryTag());
+				} else {
+					getChannel().basicAck(envelope.getDeliveryTag(), false);
+				}
+				done.countDown();
+			}
+		});
+		done.await();
+		channel.basicCancel(tag);
+		if (null != ackCoalescer) {
+			ackCoalescer.flush();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (null != ackCoalescer) {
+			ackCoalescer.close();
+		}
+		broker.close();
+	}
+}
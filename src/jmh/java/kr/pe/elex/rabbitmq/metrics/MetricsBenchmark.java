@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 지표를 기록하는 비용을 잰다. 스레드 4개가 같은 카운터와 분포에 동시에 기록한다.
+ * <ul>
+ *     <li>{@code counter}: {@link LongAdder} 하나를 올린다.</li>
+ *     <li>{@code histogram}: {@link LatencyHistogram}에 지연 시간 하나를 기록한다.</li>
+ *     <li>{@code lookupAndRecord}: 매번 이름으로 분포를 찾아서 기록한다. 미리 찾아 두지 않을 때의 비용이다.</li>
+ * </ul>
+ * 기록할 때 할당이 없는지는 {@code -prof gc}로 본다.
+ *
+ * @author Elex
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class MetricsBenchmark {
+	private Metrics metrics;
+	private LongAdder counter;
+	private LatencyHistogram histogram;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		metrics = new Metrics();
+		counter = metrics.counter(Metrics.DELIVERED);
+		histogram = metrics.histogram(Metrics.DELIVERY_TO_ACK);
+	}
+
+	@State(Scope.Thread)
+	public static class Latency {
+		private long value = 1;
+
+		long next() {
+			// 수백 나노초에서 수십 밀리초까지 고르게 퍼지도록 합니다.
+			value = value * 6364136223846793005L + 1442695040888963407L;
+			return (value >>> 40) & 0x1FFFFFF;
+		}
+	}
+
+	@Benchmark
+	public void counter() {
+		counter.increment();
+	}
+
+	@Benchmark
+	public void histogram(Latency latency) {
+		histogram.record(latency.next());
+	}
+
+	@Benchmark
+	public void lookupAndRecord(Latency latency) {
+		metrics.histogram(Metrics.DELIVERY_TO_ACK).record(latency.next());
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.rpc;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 본문을 만들고 읽는 데 드는 할당을 비교한다. {@code -prof gc}로 돌려서 {@code gc.alloc.rate.norm}(바이트/op)을 본다.
+ * <ul>
+ *     <li>{@code encodeString} / {@code encodeBuffer}: 발행할 본문을 {@link String#getBytes}로 만들 때와 {@link PayloadBuffer}로 만들 때</li>
+ *     <li>{@code decodeString} / {@code decodeView}: 받은 본문을 문자열로 바꿔 비교할 때와 {@link Payload}로 비교할 때</li>
+ *     <li>{@code serverString} / {@code serverPayload}: RPC 서버가 요청을 대문자로 바꿔 응답 본문을 만드는 과정 전체</li>
+ * </ul>
+ *
+ * @author Elex
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+	@Param({"16", "256"})
+	public int length;
+
+	private String message;
+	private byte[] body;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		char[] chars = new char[length];
+		Arrays.fill(chars, 'a');
+		message = new String(chars);
+		body = message.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] encodeString() {
+		return message.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] encodeBuffer() {
+		return PayloadBuffer.local().append(message).body();
+	}
+
+	@Benchmark
+	public boolean decodeString() {
+		return message.equals(new String(body, StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public boolean decodeView() {
+		return Payload.wrap(body).contentEqualsAscii(message);
+	}
+
+	@Benchmark
+	public byte[] serverString() {
+		return new String(body, StandardCharsets.UTF_8).toUpperCase().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] serverPayload() throws Exception {
+		PayloadBuffer response = PayloadBuffer.local();
+		HelloRabbitServer.UPPER_CASE.handle(Payload.wrap(body), response);
+		return response.body();
+	}
+}
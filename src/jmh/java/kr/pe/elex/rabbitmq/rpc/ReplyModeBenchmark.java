@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.rpc;
+
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 응답 방식({@link ReplyMode})에 따라 브로커가 RPC 한 번에 처리하는 메시지 개수를 비교한다. 왕복 시간은 {@link RpcBenchmark}가 잰다.
+ * <p>
+ * {@link ReplyMode#QUEUE}에서는 응답마다 큐에 한 번 쌓였다가 전달되고 ack가 오가지만,
+ * {@link ReplyMode#DIRECT}에서는 응답이 큐를 거치지 않고 ack도 없다.
+ * 개수는 {@link EmbeddedBroker}가 센 값을 {@link Messages}로 내보낸다. 요청도 세므로 호출마다 {@code enqueued}가
+ * QUEUE면 2, DIRECT면 1 가까이 나온다. ack는 모아서 늦게 보내므로 반복 경계에서 조금씩 다음 반복으로 넘어간다.
+ * <pre>
+ * ./gradlew jmh -Pjmh.includes=ReplyModeBenchmark -Pjmh.args="-t 8"
+ * </pre>
+ *
+ * @author Elex
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplyModeBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Server {
+		@Param({"QUEUE", "DIRECT"})
+		public ReplyMode replyMode;
+
+		EmbeddedBroker broker;
+		ConnectionManager connectionManager;
+		HelloRabbitServer server;
+
+		// 반복을 시작할 때 브로커가 센 값입니다.
+		private long published;
+		private long enqueued;
+		private long delivered;
+		private long acknowledged;
+		private long ackFrames;
+		private final AtomicBoolean reported = new AtomicBoolean();
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			broker = new EmbeddedBroker();
+			connectionManager = broker.connectionManager(2, 16);
+			server = new HelloRabbitServer(connectionManager);
+		}
+
+		@Setup(Level.Iteration)
+		public void mark() {
+			published = broker.getPublished();
+			enqueued = broker.getEnqueued();
+			delivered = broker.getDelivered();
+			acknowledged = broker.getAcknowledged();
+			ackFrames = broker.getAckFrames();
+			reported.set(false);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			server.close();
+			connectionManager.close();
+			broker.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Client {
+		HelloRabbit client;
+
+		@Setup(Level.Trial)
+		public void setUp(Server server) throws IOException {
+			client = new HelloRabbit(server.connectionManager, server.replyMode);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			client.close();
+		}
+	}
+
+	/**
+	 * 반복 하나 동안 브로커가 센 메시지 개수. 브로커 전체의 값이므로 스레드 하나만 보고하고 나머지는 0을 보고한다.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Messages {
+		public long calls;
+		public long published;
+		public long enqueued;
+		public long delivered;
+		public long acknowledged;
+		public long ackFrames;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			calls = published = enqueued = delivered = acknowledged = ackFrames = 0;
+		}
+
+		@TearDown(Level.Iteration)
+		public void collect(Server server) {
+			if (!server.reported.compareAndSet(false, true)) {
+				return;
+			}
+			EmbeddedBroker broker = server.broker;
+			published = broker.getPublished() - server.published;
+			enqueued = broker.getEnqueued() - server.enqueued;
+			delivered = broker.getDelivered() - server.delivered;
+			acknowledged = broker.getAcknowledged() - server.acknowledged;
+			ackFrames = broker.getAckFrames() - server.ackFrames;
+		}
+	}
+
+	@Benchmark
+	public String call(Client client, Messages messages) throws Exception {
+		String reply = client.client.call("Hello, rabbit.").get(5, TimeUnit.SECONDS);
+		messages.calls++;
+		return reply;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.rpc;
+
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RPC 한 번의 왕복 시간을 응답 방식별로 잰다. 브로커가 처리한 메시지 개수는 {@link ReplyModeBenchmark}가 센다.
+ * <p>
+ * 스레드 여러 개로 돌리면({@code -t 8}) 클라이언트가 스레드마다 하나씩 생기고 서버 하나를 함께 쓴다.
+ *
+ * @author Elex
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RpcBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Server {
+		EmbeddedBroker broker;
+		ConnectionManager connectionManager;
+		HelloRabbitServer server;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			broker = new EmbeddedBroker();
+			connectionManager = broker.connectionManager(2, 16);
+			server = new HelloRabbitServer(connectionManager);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			server.close();
+			connectionManager.close();
+			broker.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Client {
+		@Param({"QUEUE", "DIRECT"})
+		public ReplyMode replyMode;
+
+		HelloRabbit client;
+
+		@Setup(Level.Trial)
+		public void setUp(Server server) throws IOException {
+			client = new HelloRabbit(server.connectionManager, replyMode);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			client.close();
+		}
+	}
+
+	@Benchmark
+	public String roundTrip(Client client) throws Exception {
+		return client.client.call("Hello, rabbit.").get(5, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TLS 연결에 드는 비용을 잰다.
+ * <ul>
+ *     <li>{@code jsseContext}: {@link TlsHelper}로 PKCS12에서 {@link SSLContext}를 만드는 시간</li>
+ *     <li>{@code bouncyCastleContext}: {@link TlsHelperWithBouncyCastle}로 PEM에서 만드는 시간</li>
+ *     <li>{@code handshake}: 만들어둔 컨텍스트로 클라이언트 인증까지 포함한 핸드셰이크 한 번</li>
+ *     <li>{@code coldConnect}: 연결할 때마다 컨텍스트를 새로 만드는 경우. 세션 캐시가 비어 있으므로 항상 전체 핸드셰이크를 한다.</li>
+ *     <li>{@code cachedConnect}: {@link SslContextCache}에서 컨텍스트를 가져오는 경우. 앞선 연결의 세션을 재개한다.</li>
+ * </ul>
+ * 핸드셰이크는 소켓 없이 두 {@link SSLEngine} 사이에서 버퍼를 주고받으므로 네트워크 지연이 섞이지 않는다.
+ *
+ * @author Elex
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsBenchmark {
+	private TestCertificates certificates;
+	private SSLContext clientContext;
+	private KeyMaterial keyMaterial;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		certificates = new TestCertificates();
+		clientContext = jsseContext();
+		keyMaterial = KeyMaterial.pkcs12(certificates.clientKeyStore, TestCertificates.PASSWORD, TestCertificates.PASSWORD,
+				certificates.trustStore, TestCertificates.PASSWORD);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SslContextCache.evict(keyMaterial);
+	}
+
+	@Benchmark
+	public SSLContext jsseContext() throws Exception {
+		return TlsHelper.context(new ByteArrayInputStream(certificates.clientKeyStore), TestCertificates.PASSWORD,
+				TestCertificates.PASSWORD, new ByteArrayInputStream(certificates.trustStore), TestCertificates.PASSWORD);
+	}
+
+	@Benchmark
+	public SSLContext bouncyCastleContext() throws Exception {
+		return TlsHelperWithBouncyCastle.context(new ByteArrayInputStream(certificates.clientCertPem),
+				new ByteArrayInputStream(certificates.clientKeyPem), TestCertificates.PASSWORD,
+				new ByteArrayInputStream(certificates.caCertPem));
+	}
+
+	@Benchmark
+	public String handshake() throws SSLException {
+		return connect(clientContext);
+	}
+
+	@Benchmark
+	public String coldConnect() throws Exception {
+		return connect(keyMaterial.build());
+	}
+
+	@Benchmark
+	public String cachedConnect() throws Exception {
+		return connect(SslContextCache.get(keyMaterial));
+	}
+
+	private String connect(SSLContext context) throws SSLException {
+		// 세션 캐시는 호스트와 포트로 찾으므로 매번 같은 값을 줍니다.
+		SSLEngine client = context.createSSLEngine("localhost", 5671);
+		client.setUseClientMode(true);
+		SSLEngine server = certificates.serverContext.createSSLEngine();
+		server.setUseClientMode(false);
+		server.setNeedClientAuth(true);
+		handshake(client, server);
+		return client.getSession().getCipherSuite();
+	}
+
+	/**
+	 * 두 엔진 사이에서 핸드셰이크가 끝나고 주고받을 레코드가 남지 않을 때까지 레코드를 주고받는다.
+	 * TLS 1.3에서는 서버가 핸드셰이크 뒤에 세션 티켓을 보내므로, 이것까지 클라이언트가 읽어야 다음 연결에서 재개할 수 있다.
+	 */
+	static void handshake(SSLEngine client, SSLEngine server) throws SSLException {
+		int packetSize = client.getSession().getPacketBufferSize();
+		int applicationSize = client.getSession().getApplicationBufferSize();
+		ByteBuffer empty = ByteBuffer.allocate(0);
+		ByteBuffer clientToServer = ByteBuffer.allocate(packetSize);
+		ByteBuffer serverToClient = ByteBuffer.allocate(packetSize);
+		ByteBuffer clientIn = ByteBuffer.allocate(applicationSize);
+		ByteBuffer serverIn = ByteBuffer.allocate(applicationSize);
+
+		client.beginHandshake();
+		server.beginHandshake();
+		for (int round = 0; round < 100; round++) {
+			if (isDone(client) && isDone(server)
+					&& 0 == clientToServer.position() && 0 == serverToClient.position()) {
+				return;
+			}
+			client.wrap(empty, clientToServer);
+			runTasks(client);
+			server.wrap(empty, serverToClient);
+			runTasks(server);
+
+			clientToServer.flip();
+			server.unwrap(clientToServer, serverIn);
+			runTasks(server);
+			clientToServer.compact();
+
+			serverToClient.flip();
+			client.unwrap(serverToClient, clientIn);
+			runTasks(client);
+			serverToClient.compact();
+		}
+		throw new SSLException("Handshake did not finish.");
+	}
+
+	private static boolean isDone(SSLEngine engine) {
+		SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+		return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+				|| status == SSLEngineResult.HandshakeStatus.FINISHED;
+	}
+
+	private static void runTasks(SSLEngine engine) {
+		Runnable task;
+		while (null != (task = engine.getDelegatedTask())) {
+			task.run();
+		}
+	}
+}
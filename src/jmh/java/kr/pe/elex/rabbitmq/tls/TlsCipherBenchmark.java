@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 핸드셰이크가 끝난 연결에서 암호 스위트별로 큰 페이로드를 암호화하고 푸는 처리량을 잰다.
+ * <p>
+ * {@code plaintext}는 같은 크기를 복사만 하므로, 5672 포트의 평문 연결과 비교한 암호화 비용을 볼 수 있다.
+ * 처리량(ops/s)에 {@code payloadSize}를 곱하면 초당 바이트가 된다.
+ * BouncyCastle JSSE는 bctls가 클래스패스에 있을 때 {@code -p provider=BCJSSE}로 잰다.
+ *
+ * @author Elex
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsCipherBenchmark {
+	@Param({"plaintext",
+			"TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384", "TLS_CHACHA20_POLY1305_SHA256",
+			"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256"})
+	public String suite;
+
+	@Param({"JSSE"})
+	public String provider;
+
+	@Param({"65536"})
+	public int payloadSize;
+
+	private SSLEngine client;
+	private SSLEngine server;
+	private ByteBuffer payload;
+	private ByteBuffer network;
+	private ByteBuffer received;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		byte[] bytes = new byte[payloadSize];
+		ThreadLocalRandom.current().nextBytes(bytes);
+		payload = ByteBuffer.wrap(bytes);
+		if ("plaintext".equals(suite)) {
+			received = ByteBuffer.allocate(payloadSize);
+			return;
+		}
+
+		TestCertificates certificates = new TestCertificates();
+		// TLS 1.3 스위트는 TLS_AES_, TLS_CHACHA20_으로 시작합니다. 나머지는 TLS 1.2 스위트입니다.
+		boolean tls13 = suite.startsWith("TLS_AES_") || suite.startsWith("TLS_CHACHA20_");
+		TlsConfig config = new TlsConfig.Builder()
+				.provider(TlsConfig.TlsProvider.valueOf(provider))
+				.protocols(tls13 ? "TLSv1.3" : "TLSv1.2")
+				.cipherSuites(suite)
+				.build();
+		client = TlsHelper.context(new ByteArrayInputStream(certificates.clientKeyStore), TestCertificates.PASSWORD,
+				TestCertificates.PASSWORD, new ByteArrayInputStream(certificates.trustStore), TestCertificates.PASSWORD, config)
+				.createSSLEngine("localhost", 5671);
+		client.setUseClientMode(true);
+		config.configure(client);
+		server = certificates.serverContext.createSSLEngine();
+		server.setUseClientMode(false);
+		server.setNeedClientAuth(true);
+		config.configure(server);
+		TlsBenchmark.handshake(client, server);
+		if (!suite.equals(client.getSession().getCipherSuite())) {
+			throw new IllegalStateException("Negotiated " + client.getSession().getCipherSuite() + " instead of " + suite);
+		}
+
+		int records = payloadSize / client.getSession().getApplicationBufferSize() + 2;
+		network = ByteBuffer.allocate(records * client.getSession().getPacketBufferSize());
+		received = ByteBuffer.allocate(payloadSize + server.getSession().getApplicationBufferSize());
+	}
+
+	@Benchmark
+	public int transfer() throws SSLException {
+		payload.clear();
+		received.clear();
+		if (null == client) {
+			received.put(payload);
+			return received.position();
+		}
+		network.clear();
+		while (payload.hasRemaining()) {
+			client.wrap(payload, network);
+		}
+		network.flip();
+		while (network.hasRemaining()) {
+			server.unwrap(network, received);
+		}
+		return received.position();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 로컬 TLS 에코 서버에 다시 연결하는 시간을 잰다.
+ * <ul>
+ *     <li>{@code resumed}: 세션 캐시가 있는 컨텍스트 하나를 계속 쓴다. 첫 연결 뒤로는 세션을 재개한다.</li>
+ *     <li>{@code full}: 연결하기 전에 캐시된 세션을 모두 무효로 만든다. 항상 전체 핸드셰이크를 한다.</li>
+ * </ul>
+ * {@link HandshakeMetrics}로 모은 핸드셰이크 횟수와 걸린 시간의 합을 {@link Handshakes}로 내보낸다.
+ *
+ * @author Elex
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsReconnectBenchmark {
+	@Param({"resumed", "full"})
+	public String sessions;
+
+	private TlsEchoServer server;
+	private SSLContext context;
+	private HandshakeTimingSocketFactory socketFactory;
+	private HandshakeMetrics metrics;
+	private final AtomicBoolean reported = new AtomicBoolean();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		TestCertificates certificates = new TestCertificates();
+		server = new TlsEchoServer(certificates.serverContext);
+		KeyMaterial keyMaterial = KeyMaterial.pkcs12(certificates.clientKeyStore, TestCertificates.PASSWORD,
+				TestCertificates.PASSWORD, certificates.trustStore, TestCertificates.PASSWORD);
+		context = TlsHelper.sessionCache(keyMaterial.build(), 1024, 3600);
+	}
+
+	/**
+	 * 반복마다 새로 센다. 세션 캐시는 컨텍스트에 있으므로 그대로 남는다.
+	 */
+	@Setup(Level.Iteration)
+	public void resetMetrics() {
+		metrics = new HandshakeMetrics();
+		socketFactory = new HandshakeTimingSocketFactory(name -> context, metrics);
+		reported.set(false);
+	}
+
+	@Setup(Level.Invocation)
+	public void forgetSessions() {
+		if ("full".equals(sessions)) {
+			SSLSessionContext cache = context.getClientSessionContext();
+			for (byte[] id : Collections.list(cache.getIds())) {
+				SSLSession session = cache.getSession(id);
+				if (null != session) {
+					session.invalidate();
+				}
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * 반복 하나 동안의 핸드셰이크 횟수와 걸린 시간의 합. 평균은 시간을 횟수로 나눈 값이다.
+	 * 모든 스레드가 같은 값을 보므로 스레드 하나만 보고하고 나머지는 0을 보고한다.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Handshakes {
+		public long full;
+		public long fullMicros;
+		public long resumed;
+		public long resumedMicros;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			full = fullMicros = resumed = resumedMicros = 0;
+		}
+
+		@TearDown(Level.Iteration)
+		public void collect(TlsReconnectBenchmark benchmark) {
+			if (!benchmark.reported.compareAndSet(false, true)) {
+				return;
+			}
+			HandshakeMetrics metrics = benchmark.metrics;
+			full = metrics.getFullHandshakes();
+			fullMicros = TimeUnit.NANOSECONDS.toMicros(metrics.getFullNanos());
+			resumed = metrics.getResumedHandshakes();
+			resumedMicros = TimeUnit.NANOSECONDS.toMicros(metrics.getResumedNanos());
+		}
+	}
+
+	@Benchmark
+	public int reconnect(Handshakes handshakes) throws IOException {
+		try (Socket socket = socketFactory.createSocket()) {
+			socket.connect(new InetSocketAddress("localhost", server.getPort()));
+			socket.getOutputStream().write(1);
+			socket.getOutputStream().flush();
+			return socket.getInputStream().read();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.topic;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 패턴 10,000개에서 라우팅-키에 맞는 패턴을 찾는 처리량을 잰다.
+ * <ul>
+ *     <li>{@code trie}: {@link TopicTrie}</li>
+ *     <li>{@code linear}: 패턴을 하나씩 비교하는 기준선. 키를 매번 단어로 쪼갠다.</li>
+ * </ul>
+ * 패턴은 {@code region.service.event} 모양이고 일부 단어는 {@code *}나 {@code #}이다.
+ *
+ * @author Elex
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicMatchBenchmark {
+	private static final int KEYS = 1024;
+
+	@Param({"10000"})
+	public int patterns;
+
+	private final TopicTrie<Integer> trie = new TopicTrie<>();
+	private String[][] split;
+	private String[] keys;
+	private final List<Integer> out = new ArrayList<>();
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(42);
+		split = new String[patterns][];
+		for (int i = 0; i < patterns; i++) {
+			String region = random.nextInt(10) == 0 ? "*" : "region" + random.nextInt(20);
+			String service = random.nextInt(10) == 0 ? "*" : "service" + random.nextInt(100);
+			String event = random.nextInt(5) == 0 ? "#" : "event" + random.nextInt(50);
+			String pattern = region + "." + service + "." + event;
+			trie.add(pattern, i);
+			split[i] = pattern.split("\\.", -1);
+		}
+		keys = new String[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = "region" + random.nextInt(20) + ".service" + random.nextInt(100) + ".event" + random.nextInt(50);
+		}
+	}
+
+	private String nextKey() {
+		return keys[next++ & (KEYS - 1)];
+	}
+
+	@Benchmark
+	public int trie() {
+		out.clear();
+		trie.match(nextKey(), out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int linear() {
+		String[] words = nextKey().split("\\.", -1);
+		int count = 0;
+		for (String[] pattern : split) {
+			if (matches(pattern, 0, words, 0)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static boolean matches(String[] pattern, int p, String[] words, int w) {
+		while (p < pattern.length) {
+			if ("#".equals(pattern[p])) {
+				for (int skip = w; skip <= words.length; skip++) {
+					if (matches(pattern, p + 1, words, skip)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			if (w >= words.length || !("*".equals(pattern[p]) || pattern[p].equals(words[w]))) {
+				return false;
+			}
+			p++;
+			w++;
+		}
+		return w == words.length;
+	}
+}
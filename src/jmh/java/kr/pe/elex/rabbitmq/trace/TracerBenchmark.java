@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.trace;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import kr.pe.elex.rabbitmq.payload.Payload;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 메시지 하나를 로그로 남길 때 보내는 스레드가 치르는 비용을 잰다.
+ * 로그는 예제와 같은 패턴으로 만들어 버리는 어펜더에 쓴다.
+ * <ul>
+ *     <li>{@code logPayload}: 예전처럼 메시지마다 본문을 디코딩해서 INFO로 남긴다.</li>
+ *     <li>{@code disabled}: {@link Sampler#never()}로 끈 추적기</li>
+ *     <li>{@code sampled}: 1,000개에 하나를 남기는 추적기</li>
+ *     <li>{@code always}: 모두 남기는 추적기. 버퍼가 차면 버리므로 보내는 쪽은 기다리지 않는다.</li>
+ * </ul>
+ * 할당량은 {@code -prof gc}로 본다. 추적기가 로그 문장을 만드는 스레드의 할당도 함께 잡힌다.
+ *
+ * @author Elex
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TracerBenchmark {
+	private static final String BENCH_LOGGER = MessageTracer.LOGGER + ".bench";
+	private static final String PATTERN = "%d{HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n";
+
+	private final byte[] body = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor."
+			.getBytes(StandardCharsets.UTF_8);
+	private Logger logger;
+	private OutputStreamAppender<ILoggingEvent> appender;
+	private MessageTracer disabled;
+	private MessageTracer sampled;
+	private MessageTracer always;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// 벤치마크 설정의 루트 로거는 WARN이므로, 이 로거만 INFO로 켜고 버리는 어펜더를 붙입니다.
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(context);
+		encoder.setPattern(PATTERN);
+		encoder.start();
+		appender = new OutputStreamAppender<>();
+		appender.setContext(context);
+		appender.setEncoder(encoder);
+		appender.setOutputStream(OutputStream.nullOutputStream());
+		appender.start();
+		logger = context.getLogger(BENCH_LOGGER);
+		logger.setLevel(ch.qos.logback.classic.Level.INFO);
+		logger.setAdditive(false);
+		logger.addAppender(appender);
+
+		disabled = MessageTracer.builder().sampler(Sampler.never()).logger(BENCH_LOGGER).build();
+		sampled = MessageTracer.builder().sampler(Sampler.everyNth(1000)).logger(BENCH_LOGGER).build();
+		always = MessageTracer.builder().sampler(Sampler.always()).logger(BENCH_LOGGER).build();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		disabled.close();
+		sampled.close();
+		always.close();
+		logger.detachAppender(appender);
+		appender.stop();
+	}
+
+	@Benchmark
+	public void logPayload() {
+		logger.info("Rx: [{}] {}", "bench", Payload.wrap(body));
+	}
+
+	@Benchmark
+	public void disabled() {
+		disabled.rx("bench", "rk", body);
+	}
+
+	@Benchmark
+	public void sampled() {
+		sampled.rx("bench", "rk", body);
+	}
+
+	@Benchmark
+	public void always() {
+		always.rx("bench", "rk", body);
+	}
+}
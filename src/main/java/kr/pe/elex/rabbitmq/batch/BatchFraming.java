@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.batch;
+
+import com.rabbitmq.client.AMQP;
+
+import java.util.Arrays;
+
+/**
+ * 여러 메시지를 AMQP 메시지 하나에 담는 형식.
+ * <p>
+ * 본문은 {@code [길이][내용]}의 반복이다. 길이는 7비트씩 끊어 쓰는 가변 길이 정수(varint)이므로
+ * 128바이트보다 짧은 메시지는 1바이트만 더 든다.
+ * 묶음 메시지의 contentType은 {@link #CONTENT_TYPE}이고, {@link #COUNT_HEADER} 헤더에 메시지 개수가 들어간다.
+ *
+ * @author Elex
+ */
+public final class BatchFraming {
+	public static final String CONTENT_TYPE = "application/vnd.elex.batch";
+	public static final String COUNT_HEADER = "x-batch-count";
+
+	private BatchFraming() {
+	}
+
+	/**
+	 * @param properties 메시지 속성
+	 * @return 묶음 메시지이면 참
+	 */
+	public static boolean isBatch(AMQP.BasicProperties properties) {
+		return null != properties && CONTENT_TYPE.equals(properties.getContentType());
+	}
+
+	/**
+	 * 묶음을 풀어서 메시지마다 {@code visitor}를 호출한다.
+	 *
+	 * @param body    묶음 메시지의 본문
+	 * @param visitor 메시지 하나를 받을 콜백
+	 * @return 메시지 개수
+	 * @throws IllegalArgumentException 형식이 잘못된 경우
+	 */
+	public static <E extends Exception> int unpack(byte[] body, FrameVisitor<E> visitor) throws E {
+		int count = 0;
+		int position = 0;
+		while (position < body.length) {
+			// 길이를 읽습니다.
+			int length = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (position >= body.length || shift > 28) {
+					throw new IllegalArgumentException("Malformed batch length at " + position);
+				}
+				b = body[position++];
+				length |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			if (length < 0 || length > body.length - position) {
+				throw new IllegalArgumentException("Malformed batch frame at " + position);
+			}
+			visitor.visit(Arrays.copyOfRange(body, position, position + length));
+			position += length;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @param length 메시지 길이
+	 * @return 메시지 하나에 붙는 길이 필드의 크기
+	 */
+	static int lengthSize(int length) {
+		int size = 1;
+		while ((length >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * 길이 필드를 쓴다.
+	 *
+	 * @return 다음 위치
+	 */
+	static int writeLength(byte[] buffer, int position, int length) {
+		while ((length & ~0x7f) != 0) {
+			buffer[position++] = (byte) ((length & 0x7f) | 0x80);
+			length >>>= 7;
+		}
+		buffer[position++] = (byte) length;
+		return position;
+	}
+
+	/**
+	 * 묶음에서 꺼낸 메시지 하나를 받는다.
+	 */
+	@FunctionalInterface
+	public interface FrameVisitor<E extends Exception> {
+		void visit(byte[] body) throws E;
+	}
+}
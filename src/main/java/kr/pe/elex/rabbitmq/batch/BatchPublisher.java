@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.batch;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 작은 메시지 여러 개를 AMQP 메시지 하나로 묶어서 보낸다.
+ * <p>
+ * 메시지마다 {@code basicPublish}를 하면 메시지마다 프레임 세 개와 라우팅 한 번이 든다.
+ * 수십 바이트짜리 메시지라면 본문보다 이런 부담이 더 크다.
+ * 이 클래스는 익스체인지와 라우팅-키가 같은 메시지를 {@link BatchFraming} 형식으로 모아두었다가,
+ * 모인 크기가 {@code maxBytes}를 넘거나 첫 메시지를 넣은 뒤 {@code linger}가 지나면 한 번에 보낸다.
+ * <p>
+ * 받는 쪽은 {@link UnbatchingConsumer}로 묶음을 풀어야 한다.
+ * 묶음 안의 메시지들은 같은 딜리버리 태그를 가지므로 함께 ack되고, 함께 다시 전달된다.
+ * <p>
+ * 묶음은 풀에서 빌린 채널이 아니라 이 객체만 쓰는 채널 하나로 보낸다. 풀의 채널은 여러 연결에 흩어져 있어
+ * 먼저 보낸 묶음이 나중에 도착할 수 있기 때문이다. 그래서 같은 익스체인지와 라우팅-키로 보낸 메시지의 순서는 유지된다.
+ * 채널이 닫히면 다음 묶음을 보낼 때 새로 만든다.
+ * <p>
+ * 라우팅-키마다 묶음을 하나씩 두므로, 보낸 뒤에도 비어 있는 묶음은 다음 주기(또는 다음 {@link #flush()})에 치운다.
+ * 토픽마다 라우팅-키가 다른 곳에서도 쓰지 않는 라우팅-키의 묶음이 쌓이지 않는다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class BatchPublisher implements AutoCloseable {
+	private static final AMQP.BasicProperties DEFAULT_PROPERTIES = new AMQP.BasicProperties.Builder().build();
+
+	private final ConnectionManager connectionManager;
+	private final int maxBytes;
+	private final AMQP.BasicProperties properties;
+	private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+	// 묶음을 보내는 채널입니다. 여러 묶음이 동시에 보내지 않도록 이 잠금으로 보호합니다.
+	private final Object channelLock = new Object();
+	private Channel channel;
+	private long lingerNanos = Long.MAX_VALUE;
+	private ScheduledFuture<?> task;
+
+	/**
+	 * @param connectionManager 발행에 쓸 채널을 만들 연결 관리자
+	 * @param maxBytes          묶음 하나의 최대 크기 (바이트)
+	 */
+	public BatchPublisher(ConnectionManager connectionManager, int maxBytes) {
+		this(connectionManager, maxBytes, DEFAULT_PROPERTIES);
+	}
+
+	/**
+	 * @param connectionManager 발행에 쓸 채널을 만들 연결 관리자
+	 * @param maxBytes          묶음 하나의 최대 크기 (바이트)
+	 * @param properties        묶음 메시지에 쓸 속성. contentType과 헤더는 덮어쓴다.
+	 */
+	public BatchPublisher(ConnectionManager connectionManager, int maxBytes, AMQP.BasicProperties properties) {
+		if (maxBytes < 16) {
+			throw new IllegalArgumentException("maxBytes too small: " + maxBytes);
+		}
+		this.connectionManager = connectionManager;
+		this.maxBytes = maxBytes;
+		this.properties = properties;
+	}
+
+	/**
+	 * 오래 기다린 묶음을 주기적으로 보내기 시작한다.
+	 *
+	 * @param scheduler 스케줄러
+	 * @param linger    첫 메시지를 넣은 뒤 묶음을 보내기까지 기다릴 최대 시간
+	 * @param unit      시간 단위
+	 * @return 이 객체
+	 */
+	public synchronized BatchPublisher start(ScheduledExecutorService scheduler, long linger, TimeUnit unit) {
+		lingerNanos = unit.toNanos(linger);
+		task = scheduler.scheduleWithFixedDelay(this::flushExpired, linger, linger, unit);
+		return this;
+	}
+
+	/**
+	 * 메시지를 묶음에 넣는다. 묶음이 가득 차면 보낸다.
+	 *
+	 * @param exchange   익스체인지
+	 * @param routingKey 라우팅-키
+	 * @param body       메시지 본문
+	 * @throws IOException 가득 찬 묶음을 보내지 못한 경우
+	 */
+	public void publish(String exchange, String routingKey, byte[] body) throws IOException {
+		String key = exchange + '\u0000' + routingKey;
+		while (true) {
+			Batch batch = batches.computeIfAbsent(key, k -> new Batch(exchange, routingKey));
+			if (batch.add(body)) {
+				return;
+			}
+			// 넣으려는 사이에 비어서 치운 묶음이면 새 묶음에 넣습니다.
+			batches.remove(key, batch);
+		}
+	}
+
+	/**
+	 * 모인 묶음을 모두 지금 보낸다. 지난번부터 비어 있던 묶음은 치운다.
+	 *
+	 * @throws IOException 보내지 못한 경우
+	 */
+	public void flush() throws IOException {
+		for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+			Batch batch = entry.getValue();
+			if (batch.retireIfEmpty()) {
+				batches.remove(entry.getKey(), batch);
+			} else {
+				batch.flush();
+			}
+		}
+	}
+
+	private void flushExpired() {
+		long now = System.nanoTime();
+		for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+			Batch batch = entry.getValue();
+			if (batch.retireIfEmpty()) {
+				batches.remove(entry.getKey(), batch);
+				continue;
+			}
+			try {
+				batch.flushIfOlder(now - lingerNanos);
+			} catch (IOException | AlreadyClosedException e) {
+				log.warn("Failed to flush a batch.", e);
+			}
+		}
+	}
+
+	/**
+	 * @return 묶음을 두고 있는 익스체인지와 라우팅-키 조합의 개수
+	 */
+	public int getBatchCount() {
+		return batches.size();
+	}
+
+	/**
+	 * 주기적인 전송을 멈추고 모인 묶음을 보낸 다음 채널을 닫는다.
+	 *
+	 * @throws IOException 보내지 못한 경우
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (null != task) {
+				task.cancel(false);
+				task = null;
+			}
+		}
+		try {
+			flush();
+		} finally {
+			synchronized (channelLock) {
+				if (null != channel && channel.isOpen()) {
+					try {
+						channel.close();
+					} catch (TimeoutException | AlreadyClosedException e) {
+						log.warn("Failed to close the batch channel.", e);
+					}
+				}
+				channel = null;
+			}
+		}
+	}
+
+	private void basicPublish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body)
+			throws IOException {
+		synchronized (channelLock) {
+			if (null == channel || !channel.isOpen()) {
+				channel = connectionManager.createChannel();
+			}
+			channel.basicPublish(exchange, routingKey, properties, body);
+		}
+	}
+
+	/**
+	 * 익스체인지와 라우팅-키가 같은 메시지를 모으는 버퍼. 보낼 때도 잠금을 쥐고 있어 순서가 바뀌지 않는다.
+	 */
+	private final class Batch {
+		private final String exchange;
+		private final String routingKey;
+		private byte[] buffer = new byte[256];
+		private int size;
+		private int count;
+		private long firstAt;
+		// 맵에서 치운 묶음입니다. 더는 메시지를 받지 않습니다.
+		private boolean retired;
+
+		private Batch(String exchange, String routingKey) {
+			this.exchange = exchange;
+			this.routingKey = routingKey;
+		}
+
+		/**
+		 * @return 치운 묶음이라 넣지 못했으면 {@code false}
+		 */
+		private synchronized boolean add(byte[] body) throws IOException {
+			if (retired) {
+				return false;
+			}
+			int frameSize = BatchFraming.lengthSize(body.length) + body.length;
+			if (size > 0 && size + frameSize > maxBytes) {
+				send();
+			}
+			if (size + frameSize > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + frameSize));
+			}
+			if (count == 0) {
+				firstAt = System.nanoTime();
+			}
+			size = BatchFraming.writeLength(buffer, size, body.length);
+			System.arraycopy(body, 0, buffer, size, body.length);
+			size += body.length;
+			count++;
+			if (size >= maxBytes) {
+				send();
+			}
+			return true;
+		}
+
+		private synchronized boolean retireIfEmpty() {
+			if (count == 0) {
+				retired = true;
+			}
+			return retired;
+		}
+
+		private synchronized void flush() throws IOException {
+			if (count > 0) {
+				send();
+			}
+		}
+
+		private synchronized void flushIfOlder(long deadline) throws IOException {
+			if (count > 0 && firstAt - deadline <= 0) {
+				send();
+			}
+		}
+
+		private void send() throws IOException {
+			AMQP.BasicProperties batchProperties = properties.builder()
+					.contentType(BatchFraming.CONTENT_TYPE)
+					.headers(Collections.singletonMap(BatchFraming.COUNT_HEADER, count))
+					.build();
+			byte[] body = Arrays.copyOf(buffer, size);
+			// 보내지 못해도 버퍼는 비웁니다. 같은 묶음을 다시 보내면 중복이 되기 때문입니다.
+			size = 0;
+			count = 0;
+			basicPublish(exchange, routingKey, batchProperties, body);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.batch;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+
+/**
+ * {@link BatchPublisher}가 묶어서 보낸 메시지를 풀어서, 메시지마다 {@code delegate}의
+ * {@link Consumer#handleDelivery}를 호출한다. 묶음이 아닌 메시지는 그대로 넘긴다.
+ * <p>
+ * 풀린 메시지들은 모두 묶음의 딜리버리 태그를 가진다. autoAck 없이 받는다면 같은 태그를 여러 번 ack하지 않도록
+ * {@link #handleBatchEnd}를 재정의해서 묶음마다 한 번만 ack해야 한다.
+ * 형식이 잘못된 묶음은 {@link #handleBatchEnd} 대신 {@link #handleMalformed}로 넘어오므로, 거기서 reject해야 태그가 남지 않는다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class UnbatchingConsumer implements Consumer {
+	private final Consumer delegate;
+
+	/**
+	 * @param delegate 풀린 메시지를 하나씩 받을 컨슈머
+	 */
+	public UnbatchingConsumer(Consumer delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+		if (!BatchFraming.isBatch(properties)) {
+			delegate.handleDelivery(consumerTag, envelope, properties, body);
+			return;
+		}
+		// 묶음에 붙인 속성은 떼어내고 넘깁니다.
+		AMQP.BasicProperties messageProperties = properties.builder()
+				.contentType(null)
+				.headers(null)
+				.build();
+		int count;
+		try {
+			count = BatchFraming.unpack(body,
+					message -> delegate.handleDelivery(consumerTag, envelope, messageProperties, message));
+		} catch (IllegalArgumentException e) {
+			handleMalformed(consumerTag, envelope, properties, body, e);
+			return;
+		}
+		handleBatchEnd(consumerTag, envelope, count);
+	}
+
+	/**
+	 * 묶음 하나를 모두 넘긴 다음에 호출된다.
+	 *
+	 * @param consumerTag 컨슈머 태그
+	 * @param envelope    묶음 메시지의 봉투
+	 * @param count       묶음에 든 메시지 개수
+	 * @throws IOException ack 등에 실패한 경우
+	 */
+	protected void handleBatchEnd(String consumerTag, Envelope envelope, int count) throws IOException {
+	}
+
+	/**
+	 * 풀 수 없는 묶음을 받는다. 잘못된 곳 앞의 메시지는 이미 넘겼을 수 있다.
+	 * 기본 구현은 로그만 남긴다. autoAck 없이 받는다면 재정의해서 다시 넣지 않도록 reject해야 한다.
+	 *
+	 * @param consumerTag 컨슈머 태그
+	 * @param envelope    묶음 메시지의 봉투
+	 * @param properties  묶음 메시지의 속성
+	 * @param body        묶음 메시지의 본문
+	 * @param cause       잘못된 곳
+	 * @throws IOException reject 등에 실패한 경우
+	 */
+	protected void handleMalformed(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+	                               byte[] body, IllegalArgumentException cause) throws IOException {
+		log.error("Malformed batch, tag={}", envelope.getDeliveryTag(), cause);
+	}
+
+	@Override
+	public void handleConsumeOk(String consumerTag) {
+		delegate.handleConsumeOk(consumerTag);
+	}
+
+	@Override
+	public void handleCancelOk(String consumerTag) {
+		delegate.handleCancelOk(consumerTag);
+	}
+
+	@Override
+	public void handleCancel(String consumerTag) throws IOException {
+		delegate.handleCancel(consumerTag);
+	}
+
+	@Override
+	public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+		delegate.handleShutdownSignal(consumerTag, sig);
+	}
+
+	@Override
+	public void handleRecoverOk(String consumerTag) {
+		delegate.handleRecoverOk(consumerTag);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 필드 이름 없이 값만 순서대로 쓰는 작은 이진 형식.
+ * <p>
+ * 타입마다 {@link Schema}를 등록해 둔다. 스키마가 곧 인코더이자 디코더이므로, 메시지마다 하는 일은
+ * 타입으로 스키마를 찾는 것뿐이다.
+ *
+ * @author Elex
+ * @see Schema
+ */
+public final class BinaryCodec implements Codec {
+	public static final String CONTENT_TYPE = "application/vnd.elex.binary";
+
+	private final Map<Class<?>, Schema<?>> schemas = new ConcurrentHashMap<>();
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	/**
+	 * 타입의 스키마를 등록한다.
+	 *
+	 * @return 이 코덱
+	 */
+	public <T> BinaryCodec register(Class<T> type, Schema<T> schema) {
+		schemas.put(type, schema);
+		return this;
+	}
+
+	@Override
+	public <T> Encoder<T> encoder(Class<T> type) {
+		return schema(type);
+	}
+
+	@Override
+	public <T> Decoder<T> decoder(Class<T> type) {
+		return schema(type);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Schema<T> schema(Class<T> type) {
+		Schema<T> schema = (Schema<T>) schemas.get(type);
+		if (null == schema) {
+			throw new IllegalArgumentException("No schema registered for " + type.getName());
+		}
+		return schema;
+	}
+}
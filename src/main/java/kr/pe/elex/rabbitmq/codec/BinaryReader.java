@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+/**
+ * {@link BinaryCodec} 형식을 읽고 쓴다.
+ * <p>
+ * 정수는 지그재그 가변 길이 정수(varint)로, 실수는 8바이트 빅 엔디언으로 쓴다.
+ * 문자열과 바이트 배열은 길이에 1을 더해서 앞에 쓴다. 0은 null이다.
+ *
+ * @author Elex
+ */
+final class BinaryReader {
+	private final Payload in;
+	private int position;
+
+	BinaryReader(Payload in) {
+		this.in = in;
+	}
+
+	boolean hasRemaining() {
+		return position < in.length();
+	}
+
+	long readVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = next();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint at " + position);
+	}
+
+	long readLong() {
+		long raw = readVarLong();
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	int readInt() {
+		return (int) readLong();
+	}
+
+	boolean readBoolean() {
+		return 0 != next();
+	}
+
+	double readDouble() {
+		long bits = 0;
+		for (int i = 0; i < 8; i++) {
+			bits = (bits << 8) | (next() & 0xff);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * @return 길이. null이면 -1
+	 */
+	int readLength() {
+		long length = readVarLong() - 1;
+		if (length < -1 || length > in.length() - position) {
+			throw new IllegalArgumentException("Length " + length + " exceeds body at " + position);
+		}
+		return (int) length;
+	}
+
+	String readString() {
+		int length = readLength();
+		if (length < 0) {
+			return null;
+		}
+		String value = in.decode(position, length);
+		position += length;
+		return value;
+	}
+
+	byte[] readBytes() {
+		int length = readLength();
+		if (length < 0) {
+			return null;
+		}
+		byte[] value = in.toByteArray(position, length);
+		position += length;
+		return value;
+	}
+
+	private byte next() {
+		if (position >= in.length()) {
+			throw new IllegalArgumentException("Unexpected end of body at " + position);
+		}
+		return in.get(position++);
+	}
+
+	static void writeVarLong(PayloadBuffer out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	static void writeLong(PayloadBuffer out, long value) {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	static void writeDouble(PayloadBuffer out, double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			out.put((byte) (bits >>> shift));
+		}
+	}
+
+	static void writeString(PayloadBuffer out, String value) {
+		if (null == value) {
+			out.put((byte) 0);
+			return;
+		}
+		writeVarLong(out, utf8Length(value) + 1L);
+		out.append(value);
+	}
+
+	static void writeBytes(PayloadBuffer out, byte[] value) {
+		if (null == value) {
+			out.put((byte) 0);
+			return;
+		}
+		writeVarLong(out, value.length + 1L);
+		out.append(value);
+	}
+
+	/**
+	 * {@link PayloadBuffer#append(CharSequence)}가 쓸 바이트 수.
+	 */
+	static int utf8Length(CharSequence value) {
+		int length = 0;
+		for (int i = 0, n = value.length(); i < n; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// 짝이 맞지 않는 서로게이트는 '?' 한 바이트가 됩니다.
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * 메시지 본문의 형식. contentType(과 contentEncoding)으로 찾는다.
+ * <p>
+ * 타입마다 {@link Encoder}와 {@link Decoder}를 한 번 만들어 두고 다시 쓴다.
+ * 메시지마다 리플렉션이나 타입 검사를 하지 않도록, 만든 인코더와 디코더는 코덱이 캐시해야 한다.
+ * <p>
+ * 다른 코덱은 {@link java.util.ServiceLoader}로 등록할 수 있다.
+ * {@code META-INF/services/kr.pe.elex.rabbitmq.codec.Codec}에 구현 클래스 이름을 적는다.
+ *
+ * @author Elex
+ * @see CodecRegistry
+ */
+public interface Codec {
+	/**
+	 * @return 메시지의 contentType
+	 */
+	String getContentType();
+
+	/**
+	 * @return 메시지의 contentEncoding. 없으면 null
+	 */
+	default String getContentEncoding() {
+		return null;
+	}
+
+	/**
+	 * @param type 값의 타입
+	 * @return 인코더. 같은 타입이면 같은 인스턴스를 돌려준다.
+	 * @throws IllegalArgumentException 다룰 수 없는 타입인 경우
+	 */
+	<T> Encoder<T> encoder(Class<T> type);
+
+	/**
+	 * @param type 값의 타입
+	 * @return 디코더. 같은 타입이면 같은 인스턴스를 돌려준다.
+	 * @throws IllegalArgumentException 다룰 수 없는 타입인 경우
+	 */
+	<T> Decoder<T> decoder(Class<T> type);
+
+	/**
+	 * contentType과 contentEncoding을 붙인다.
+	 *
+	 * @param properties 메시지 속성. null이면 새로 만든다.
+	 * @return 새 메시지 속성
+	 */
+	default AMQP.BasicProperties properties(AMQP.BasicProperties properties) {
+		AMQP.BasicProperties.Builder builder = null == properties
+				? new AMQP.BasicProperties.Builder()
+				: properties.builder();
+		return builder.contentType(getContentType())
+				.contentEncoding(getContentEncoding())
+				.build();
+	}
+}
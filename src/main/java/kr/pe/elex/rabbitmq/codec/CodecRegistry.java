@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import com.rabbitmq.client.AMQP;
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * contentType과 contentEncoding으로 코덱을 찾는다.
+ * <p>
+ * contentType과 contentEncoding이 모두 맞는 코덱을 먼저 찾고, 없으면 contentType만 맞는 코덱을 쓴다.
+ * contentType이 없는 메시지는 {@link RawCodec}으로 읽는다.
+ *
+ * @author Elex
+ */
+public final class CodecRegistry {
+	private final Map<String, Codec> codecs = new ConcurrentHashMap<>();
+	private final Codec raw = new RawCodec();
+
+	/**
+	 * {@link RawCodec}, {@link TextCodec}과 {@link ServiceLoader}로 찾은 코덱을 등록한다.
+	 */
+	public static CodecRegistry defaults() {
+		CodecRegistry registry = new CodecRegistry()
+				.register(new RawCodec())
+				.register(new TextCodec());
+		for (Codec codec : ServiceLoader.load(Codec.class)) {
+			registry.register(codec);
+		}
+		return registry;
+	}
+
+	/**
+	 * 코덱을 등록한다. 같은 contentType과 contentEncoding의 코덱이 있으면 바꾼다.
+	 *
+	 * @return 이 레지스트리
+	 */
+	public CodecRegistry register(Codec codec) {
+		codecs.put(key(codec.getContentType(), codec.getContentEncoding()), codec);
+		if (null != codec.getContentEncoding()) {
+			// contentEncoding 없이 온 메시지도 읽을 수 있게 합니다.
+			codecs.putIfAbsent(codec.getContentType(), codec);
+		}
+		return this;
+	}
+
+	/**
+	 * @param contentType     메시지의 contentType
+	 * @param contentEncoding 메시지의 contentEncoding
+	 * @return 코덱
+	 * @throws IllegalArgumentException 등록된 코덱이 없는 경우
+	 */
+	public Codec codec(String contentType, String contentEncoding) {
+		if (null == contentType) {
+			return raw;
+		}
+		Codec codec = null == contentEncoding ? null : codecs.get(key(contentType, contentEncoding));
+		if (null == codec) {
+			codec = codecs.get(contentType);
+		}
+		if (null == codec) {
+			throw new IllegalArgumentException("No codec for " + key(contentType, contentEncoding));
+		}
+		return codec;
+	}
+
+	/**
+	 * @param properties 메시지 속성
+	 * @return 코덱
+	 * @throws IllegalArgumentException 등록된 코덱이 없는 경우
+	 */
+	public Codec codec(AMQP.BasicProperties properties) {
+		return null == properties ? raw : codec(properties.getContentType(), properties.getContentEncoding());
+	}
+
+	/**
+	 * 메시지 속성으로 코덱을 찾아서 본문을 읽는다.
+	 */
+	public <T> T decode(AMQP.BasicProperties properties, byte[] body, Class<T> type) {
+		return codec(properties).decoder(type).decode(Payload.wrap(body));
+	}
+
+	/**
+	 * 값을 이 스레드의 {@link PayloadBuffer}에 쓴다.
+	 *
+	 * @return 본문을 쓴 버퍼. {@link PayloadBuffer#body()}로 발행한다.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> PayloadBuffer encode(Codec codec, T value) {
+		PayloadBuffer out = PayloadBuffer.local();
+		codec.encoder((Class<T>) value.getClass()).encode(value, out);
+		return out;
+	}
+
+	private static String key(String contentType, String contentEncoding) {
+		return null == contentEncoding ? contentType : contentType + ";" + contentEncoding;
+	}
+}
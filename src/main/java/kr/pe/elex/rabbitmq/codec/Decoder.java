@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+
+/**
+ * 메시지 본문을 값으로 읽는다. 여러 스레드에서 동시에 호출된다.
+ *
+ * @author Elex
+ */
+@FunctionalInterface
+public interface Decoder<T> {
+	/**
+	 * @param in 메시지 본문
+	 * @return 값
+	 * @throws IllegalArgumentException 형식이 잘못된 경우
+	 */
+	T decode(Payload in);
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.payload.Payload;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * 메시지의 contentType과 contentEncoding에 맞는 디코더로 본문을 읽어서 {@link #handleMessage}로 넘긴다.
+ * <p>
+ * 바로 앞 메시지와 형식이 같으면 찾아둔 디코더를 그대로 쓴다. 큐 하나에는 대개 한 형식만 오므로,
+ * 메시지마다 하는 일은 문자열 두 개를 비교하는 것뿐이다.
+ * 읽을 수 없는 메시지는 {@link #handleMalformed}로 넘긴다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public abstract class DecodingConsumer<T> extends DefaultConsumer {
+	private final CodecRegistry codecs;
+	private final Class<T> type;
+	// 한 채널의 딜리버리는 차례로 호출되므로 잠그지 않습니다.
+	private String lastContentType;
+	private String lastContentEncoding;
+	private Decoder<T> lastDecoder;
+
+	protected DecodingConsumer(Channel channel, CodecRegistry codecs, Class<T> type) {
+		super(channel);
+		this.codecs = codecs;
+		this.type = type;
+	}
+
+	@Override
+	public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+		T message;
+		try {
+			message = decoder(properties).decode(Payload.wrap(body));
+		} catch (IllegalArgumentException e) {
+			handleMalformed(consumerTag, envelope, properties, body, e);
+			return;
+		}
+		handleMessage(consumerTag, envelope, properties, message);
+	}
+
+	private Decoder<T> decoder(AMQP.BasicProperties properties) {
+		String contentType = null == properties ? null : properties.getContentType();
+		String contentEncoding = null == properties ? null : properties.getContentEncoding();
+		Decoder<T> decoder = lastDecoder;
+		if (null != decoder && Objects.equals(contentType, lastContentType)
+				&& Objects.equals(contentEncoding, lastContentEncoding)) {
+			return decoder;
+		}
+		decoder = codecs.codec(contentType, contentEncoding).decoder(type);
+		lastContentType = contentType;
+		lastContentEncoding = contentEncoding;
+		lastDecoder = decoder;
+		return decoder;
+	}
+
+	/**
+	 * 읽은 메시지를 받는다.
+	 */
+	protected abstract void handleMessage(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+	                                      T message) throws IOException;
+
+	/**
+	 * 읽을 수 없는 메시지를 받는다. 기본 구현은 로그만 남긴다. ack를 직접 보낸다면 여기서도 처리해야 한다.
+	 */
+	protected void handleMalformed(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+	                               byte[] body, IllegalArgumentException cause) throws IOException {
+		log.error("Malformed message, tag={}", envelope.getDeliveryTag(), cause);
+	}
+}
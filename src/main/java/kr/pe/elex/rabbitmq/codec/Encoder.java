@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+/**
+ * 값을 메시지 본문으로 쓴다. 여러 스레드에서 동시에 호출된다.
+ *
+ * @author Elex
+ */
+@FunctionalInterface
+public interface Encoder<T> {
+	/**
+	 * @param value 값
+	 * @param out   본문을 쓸 버퍼
+	 */
+	void encode(T value, PayloadBuffer out);
+}
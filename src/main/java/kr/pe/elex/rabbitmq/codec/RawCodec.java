@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 본문을 그대로 넘기는 코덱. {@code byte[]}, {@link Payload}, {@link ByteBuffer}를 다룬다.
+ * <p>
+ * {@link Payload}로 받으면 복사하지 않는다. {@code byte[]}나 {@link ByteBuffer}로 받으면 복사한다.
+ *
+ * @author Elex
+ */
+public final class RawCodec implements Codec {
+	public static final String CONTENT_TYPE = "application/octet-stream";
+
+	private static final Encoder<byte[]> BYTES_ENCODER = (value, out) -> out.append(value);
+	private static final Decoder<byte[]> BYTES_DECODER = Payload::toByteArray;
+	private static final Encoder<Payload> PAYLOAD_ENCODER = Payload::writeTo;
+	private static final Decoder<Payload> PAYLOAD_DECODER = in -> in;
+	// 버퍼의 위치를 옮기지 않도록 복제해서 씁니다.
+	private static final Encoder<ByteBuffer> BUFFER_ENCODER = (value, out) -> out.append(value.duplicate());
+	private static final Decoder<ByteBuffer> BUFFER_DECODER = in -> ByteBuffer.wrap(in.toByteArray());
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Encoder<T> encoder(Class<T> type) {
+		if (type == byte[].class) {
+			return (Encoder<T>) BYTES_ENCODER;
+		} else if (type == Payload.class) {
+			return (Encoder<T>) PAYLOAD_ENCODER;
+		} else if (ByteBuffer.class.isAssignableFrom(type)) {
+			return (Encoder<T>) BUFFER_ENCODER;
+		}
+		throw new IllegalArgumentException(CONTENT_TYPE + " can't encode " + type.getName());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Decoder<T> decoder(Class<T> type) {
+		if (type == byte[].class) {
+			return (Decoder<T>) BYTES_DECODER;
+		} else if (type == Payload.class) {
+			return (Decoder<T>) PAYLOAD_DECODER;
+		} else if (type == ByteBuffer.class) {
+			return (Decoder<T>) BUFFER_DECODER;
+		}
+		throw new IllegalArgumentException(CONTENT_TYPE + " can't decode " + type.getName());
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.*;
+
+/**
+ * {@link BinaryCodec}로 주고받을 타입의 필드 순서와 접근자.
+ * <p>
+ * 필드는 게터와 세터 람다로 적는다. 리플렉션을 쓰지 않으므로 메시지마다 드는 비용은 람다 호출뿐이다.
+ * <pre>{@code
+ * Schema<Order> schema = Schema.builder(Order::new)
+ *         .longField(Order::getId, Order::setId)
+ *         .stringField(Order::getSymbol, Order::setSymbol)
+ *         .build();
+ * }</pre>
+ * 본문 앞에는 필드 개수를 쓴다. 필드를 뒤에 덧붙인 스키마는 예전 메시지를 읽을 수 있고, 빠진 필드는 기본값으로 남는다.
+ * 필드의 순서를 바꾸거나 중간에 넣으면 안 된다.
+ *
+ * @author Elex
+ */
+public final class Schema<T> implements Encoder<T>, Decoder<T> {
+	private final Supplier<T> factory;
+	private final Field<T>[] fields;
+
+	private Schema(Supplier<T> factory, Field<T>[] fields) {
+		this.factory = factory;
+		this.fields = fields;
+	}
+
+	/**
+	 * @param factory 빈 인스턴스를 만든다
+	 */
+	public static <T> Builder<T> builder(Supplier<T> factory) {
+		return new Builder<>(factory);
+	}
+
+	@Override
+	public void encode(T value, PayloadBuffer out) {
+		BinaryReader.writeVarLong(out, fields.length);
+		write(value, out);
+	}
+
+	@Override
+	public T decode(Payload in) {
+		BinaryReader reader = new BinaryReader(in);
+		T value = read(reader);
+		if (reader.hasRemaining()) {
+			throw new IllegalArgumentException("Trailing bytes after " + fields.length + " fields");
+		}
+		return value;
+	}
+
+	private void write(T value, PayloadBuffer out) {
+		for (Field<T> field : fields) {
+			field.write(value, out);
+		}
+	}
+
+	private T read(BinaryReader in) {
+		long count = in.readVarLong();
+		if (count > fields.length) {
+			throw new IllegalArgumentException("Message has " + count + " fields, schema knows " + fields.length);
+		}
+		T value = factory.get();
+		for (int i = 0; i < count; i++) {
+			fields[i].read(value, in);
+		}
+		return value;
+	}
+
+	private interface Field<T> {
+		void write(T value, PayloadBuffer out);
+
+		void read(T target, BinaryReader in);
+	}
+
+	/**
+	 * {@link Schema}를 만든다. 필드는 적은 순서대로 쓴다.
+	 */
+	public static final class Builder<T> {
+		private final Supplier<T> factory;
+		private final List<Field<T>> fields = new ArrayList<>();
+
+		private Builder(Supplier<T> factory) {
+			this.factory = factory;
+		}
+
+		public Builder<T> intField(ToIntFunction<T> getter, ObjIntConsumer<T> setter) {
+			return add(new Field<T>() {
+				@Override
+				public void write(T value, PayloadBuffer out) {
+					BinaryReader.writeLong(out, getter.applyAsInt(value));
+				}
+
+				@Override
+				public void read(T target, BinaryReader in) {
+					setter.accept(target, in.readInt());
+				}
+			});
+		}
+
+		public Builder<T> longField(ToLongFunction<T> getter, ObjLongConsumer<T> setter) {
+			return add(new Field<T>() {
+				@Override
+				public void write(T value, PayloadBuffer out) {
+					BinaryReader.writeLong(out, getter.applyAsLong(value));
+				}
+
+				@Override
+				public void read(T target, BinaryReader in) {
+					setter.accept(target, in.readLong());
+				}
+			});
+		}
+
+		public Builder<T> doubleField(ToDoubleFunction<T> getter, ObjDoubleConsumer<T> setter) {
+			return add(new Field<T>() {
+				@Override
+				public void write(T value, PayloadBuffer out) {
+					BinaryReader.writeDouble(out, getter.applyAsDouble(value));
+				}
+
+				@Override
+				public void read(T target, BinaryReader in) {
+					setter.accept(target, in.readDouble());
+				}
+			});
+		}
+
+		public Builder<T> booleanField(Predicate<T> getter, BiConsumer<T, Boolean> setter) {
+			return add(new Field<T>() {
+				@Override
+				public void write(T value, PayloadBuffer out) {
+					out.put(getter.test(value) ? (byte) 1 : (byte) 0);
+				}
+
+				@Override
+				public void read(T target, BinaryReader in) {
+					setter.accept(target, in.readBoolean());
+				}
+			});
+		}
+
+		public Builder<T> stringField(Function<T, String> getter, BiConsumer<T, String> setter) {
+			return add(new Field<T>() {
+				@Override
+				public void write(T value, PayloadBuffer out) {
+					BinaryReader.writeString(out, getter.apply(value));
+				}
+
+				@Override
+				public void read(T target, BinaryReader in) {
+					setter.accept(target, in.readString());
+				}
+			});
+		}
+
+		public Builder<T> bytesField(Function<T, byte[]> getter, BiConsumer<T, byte[]> setter) {
+			return add(new Field<T>() {
+				@Override
+				public void write(T value, PayloadBuffer out) {
+					BinaryReader.writeBytes(out, getter.apply(value));
+				}
+
+				@Override
+				public void read(T target, BinaryReader in) {
+					setter.accept(target, in.readBytes());
+				}
+			});
+		}
+
+		/**
+		 * 다른 스키마로 쓰는 필드. null일 수 있다.
+		 */
+		public <V> Builder<T> objectField(Function<T, V> getter, BiConsumer<T, V> setter, Schema<V> schema) {
+			return add(new Field<T>() {
+				@Override
+				public void write(T value, PayloadBuffer out) {
+					V field = getter.apply(value);
+					if (null == field) {
+						out.put((byte) 0);
+					} else {
+						BinaryReader.writeVarLong(out, schema.fields.length + 1L);
+						schema.write(field, out);
+					}
+				}
+
+				@Override
+				public void read(T target, BinaryReader in) {
+					setter.accept(target, readNested(in, schema));
+				}
+			});
+		}
+
+		/**
+		 * 다른 스키마로 쓰는 값의 목록. null일 수 있다.
+		 */
+		public <V> Builder<T> listField(Function<T, List<V>> getter, BiConsumer<T, List<V>> setter, Schema<V> schema) {
+			return add(new Field<T>() {
+				@Override
+				public void write(T value, PayloadBuffer out) {
+					List<V> list = getter.apply(value);
+					if (null == list) {
+						out.put((byte) 0);
+						return;
+					}
+					BinaryReader.writeVarLong(out, list.size() + 1L);
+					for (V element : list) {
+						schema.encode(element, out);
+					}
+				}
+
+				@Override
+				public void read(T target, BinaryReader in) {
+					int size = in.readLength();
+					if (size < 0) {
+						setter.accept(target, null);
+						return;
+					}
+					List<V> list = new ArrayList<>(size);
+					for (int i = 0; i < size; i++) {
+						list.add(schema.read(in));
+					}
+					setter.accept(target, list);
+				}
+			});
+		}
+
+		@SuppressWarnings("unchecked")
+		public Schema<T> build() {
+			// 제네릭 배열은 만들 수 없으므로 와일드카드 배열을 만들어 바꿉니다.
+			return new Schema<>(factory, (Field<T>[]) fields.toArray(new Field<?>[0]));
+		}
+
+		private Builder<T> add(Field<T> field) {
+			fields.add(field);
+			return this;
+		}
+	}
+
+	private static <V> V readNested(BinaryReader in, Schema<V> schema) {
+		long marker = in.readVarLong();
+		if (0 == marker) {
+			return null;
+		}
+		long count = marker - 1;
+		if (count > schema.fields.length) {
+			throw new IllegalArgumentException("Nested value has " + count + " fields, schema knows " + schema.fields.length);
+		}
+		V value = schema.factory.get();
+		for (int i = 0; i < count; i++) {
+			schema.fields[i].read(value, in);
+		}
+		return value;
+	}
+}
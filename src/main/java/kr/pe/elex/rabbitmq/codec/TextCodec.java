@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 문자열. 예제들이 보내던 {@code text/plain} 메시지이다.
+ *
+ * @author Elex
+ */
+public final class TextCodec implements Codec {
+	public static final String CONTENT_TYPE = "text/plain";
+	public static final String CONTENT_ENCODING = StandardCharsets.UTF_8.name();
+
+	private static final Encoder<CharSequence> ENCODER = (value, out) -> out.append(value);
+	private static final Decoder<String> DECODER = Payload::decode;
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public String getContentEncoding() {
+		return CONTENT_ENCODING;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Encoder<T> encoder(Class<T> type) {
+		if (CharSequence.class.isAssignableFrom(type)) {
+			return (Encoder<T>) ENCODER;
+		}
+		throw new IllegalArgumentException(CONTENT_TYPE + " can't encode " + type.getName());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Decoder<T> decoder(Class<T> type) {
+		if (type == String.class || type == CharSequence.class) {
+			return (Decoder<T>) DECODER;
+		}
+		throw new IllegalArgumentException(CONTENT_TYPE + " can't decode " + type.getName());
+	}
+}
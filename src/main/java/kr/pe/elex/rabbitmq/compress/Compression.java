@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.compress;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 큰 본문만 압축해서 보내고, 받은 본문을 알고리즘 이름으로 찾아서 푼다.
+ * <p>
+ * 압축한 메시지는 contentEncoding 끝에 알고리즘 이름을 덧붙인다. 원래 contentEncoding이 {@code UTF-8}이었다면
+ * {@code UTF-8, deflate}가 되고, 풀고 나면 다시 {@code UTF-8}로 돌려놓는다. 그래서 코덱은 압축을 모른다.
+ * <p>
+ * {@link #getThreshold()}보다 작은 본문과, 압축해도 줄지 않는 본문은 그대로 보낸다.
+ *
+ * @author Elex
+ * @see DecompressingConsumer
+ */
+public final class Compression {
+	/**
+	 * 이보다 작은 본문은 압축하지 않는다. 작은 메시지는 잘 줄지 않고 압축기를 부르는 비용이 더 크다.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+	/**
+	 * 풀어낸 본문의 기본 최대 길이. 작은 본문이 아주 크게 풀리는 메시지를 막는다.
+	 */
+	public static final int DEFAULT_MAX_LENGTH = 64 * 1024 * 1024;
+	private static final Compression DEFAULTS = builder().build();
+
+	private final CompressionAlgorithm algorithm;
+	private final int threshold;
+	private final int maxLength;
+	private final Map<String, CompressionAlgorithm> algorithms;
+
+	private Compression(Builder builder) {
+		this.algorithm = builder.algorithm;
+		this.threshold = builder.threshold;
+		this.maxLength = builder.maxLength;
+		this.algorithms = new HashMap<>(builder.algorithms);
+		this.algorithms.put(algorithm.getName(), algorithm);
+	}
+
+	/**
+	 * @return {@link DeflateAlgorithm}으로 {@link #DEFAULT_THRESHOLD}보다 큰 본문을 압축한다.
+	 */
+	public static Compression defaults() {
+		return DEFAULTS;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public CompressionAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * 본문이 충분히 크면 압축해서 발행한다.
+	 */
+	public void publish(Channel channel, String exchange, String routingKey, AMQP.BasicProperties properties,
+	                    byte[] body) throws IOException {
+		if (body.length < threshold) {
+			channel.basicPublish(exchange, routingKey, properties, body);
+			return;
+		}
+		PayloadBuffer out = PayloadBuffer.local();
+		algorithm.compress(Payload.wrap(body), out);
+		if (out.length() >= body.length) {
+			channel.basicPublish(exchange, routingKey, properties, body);
+			return;
+		}
+		// 길이가 다르므로 body()가 원래 본문의 배열을 다시 쓰는 일은 없습니다.
+		channel.basicPublish(exchange, routingKey, mark(properties), out.body());
+	}
+
+	/**
+	 * @return 메시지를 압축한 알고리즘. 압축하지 않은 메시지면 null
+	 * @throws IllegalArgumentException 모르는 알고리즘으로 압축한 경우
+	 */
+	CompressionAlgorithm algorithm(AMQP.BasicProperties properties) {
+		String encoding = null == properties ? null : properties.getContentEncoding();
+		if (null == encoding) {
+			return null;
+		}
+		String name = encoding.substring(encoding.lastIndexOf(',') + 1).trim();
+		CompressionAlgorithm found = algorithms.get(name);
+		if (null == found && name.startsWith(DeflateAlgorithm.NAME)) {
+			throw new IllegalArgumentException("Unknown compression " + name);
+		}
+		return found;
+	}
+
+	/**
+	 * @return 풀어낸 본문. 다른 스레드로 넘겨도 되도록 새 배열이다.
+	 * @throws IllegalArgumentException 본문이 잘못된 경우
+	 */
+	byte[] decompress(CompressionAlgorithm algorithm, byte[] body) {
+		PayloadBuffer out = PayloadBuffer.local();
+		algorithm.decompress(Payload.wrap(body), out, maxLength);
+		return out.view().toByteArray();
+	}
+
+	AMQP.BasicProperties mark(AMQP.BasicProperties properties) {
+		AMQP.BasicProperties.Builder builder = null == properties
+				? new AMQP.BasicProperties.Builder()
+				: properties.builder();
+		String encoding = null == properties ? null : properties.getContentEncoding();
+		return builder.contentEncoding(null == encoding ? algorithm.getName() : encoding + ", " + algorithm.getName())
+				.build();
+	}
+
+	/**
+	 * 압축하면서 붙인 알고리즘 이름을 contentEncoding에서 뗀다.
+	 */
+	static AMQP.BasicProperties unmark(AMQP.BasicProperties properties) {
+		String encoding = properties.getContentEncoding();
+		int comma = encoding.lastIndexOf(',');
+		return properties.builder()
+				.contentEncoding(comma < 0 ? null : encoding.substring(0, comma).trim())
+				.build();
+	}
+
+	/**
+	 * {@link Compression}을 만든다.
+	 */
+	public static final class Builder {
+		private CompressionAlgorithm algorithm = new DeflateAlgorithm();
+		private int threshold = DEFAULT_THRESHOLD;
+		private int maxLength = DEFAULT_MAX_LENGTH;
+		private final Map<String, CompressionAlgorithm> algorithms = new HashMap<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * 보낼 때 쓸 알고리즘. 받을 때도 쓴다.
+		 */
+		public Builder algorithm(CompressionAlgorithm algorithm) {
+			this.algorithm = algorithm;
+			return this;
+		}
+
+		/**
+		 * 받을 때만 쓸 알고리즘. 사전을 바꾸는 동안 예전 사전으로 압축한 메시지를 읽을 때 쓴다.
+		 */
+		public Builder accept(CompressionAlgorithm algorithm) {
+			algorithms.put(algorithm.getName(), algorithm);
+			return this;
+		}
+
+		/**
+		 * @param threshold 이 바이트 수 이상인 본문만 압축한다.
+		 */
+		public Builder threshold(int threshold) {
+			this.threshold = threshold;
+			return this;
+		}
+
+		/**
+		 * @param maxLength 풀어낸 본문의 최대 길이
+		 */
+		public Builder maxLength(int maxLength) {
+			this.maxLength = maxLength;
+			return this;
+		}
+
+		public Compression build() {
+			return new Compression(this);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.compress;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+/**
+ * 본문 압축 알고리즘. 이름은 압축한 메시지의 contentEncoding에 붙는다.
+ * <p>
+ * 여러 스레드에서 함께 쓰므로, 압축기 같은 상태는 스레드마다 따로 두어야 한다.
+ *
+ * @author Elex
+ * @see DeflateAlgorithm
+ */
+public interface CompressionAlgorithm {
+	/**
+	 * @return contentEncoding에 쓸 이름. 받는 쪽도 같은 이름의 알고리즘을 알아야 한다.
+	 */
+	String getName();
+
+	/**
+	 * @param in  원래 본문
+	 * @param out 압축한 본문을 덧붙일 버퍼
+	 */
+	void compress(Payload in, PayloadBuffer out);
+
+	/**
+	 * @param in        압축한 본문
+	 * @param out       풀어낸 본문을 덧붙일 버퍼
+	 * @param maxLength 풀어낸 본문의 최대 길이
+	 * @throws IllegalArgumentException 본문이 잘못됐거나 최대 길이를 넘는 경우
+	 */
+	void decompress(Payload in, PayloadBuffer out, int maxLength);
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.compress;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+
+/**
+ * {@link Compression}으로 압축한 메시지를 풀어서 {@code delegate}의 {@link Consumer#handleDelivery}를 호출한다.
+ * 압축하지 않은 메시지는 그대로 넘긴다.
+ * <p>
+ * 넘기는 속성의 contentEncoding은 압축하기 전으로 돌려놓는다.
+ * 풀 수 없거나 모르는 알고리즘으로 압축한 메시지는 {@link #handleMalformed}로 넘긴다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class DecompressingConsumer implements Consumer {
+	private final Compression compression;
+	private final Consumer delegate;
+
+	/**
+	 * {@link Compression#defaults()}로 푼다.
+	 *
+	 * @param delegate 풀어낸 메시지를 받을 컨슈머
+	 */
+	public DecompressingConsumer(Consumer delegate) {
+		this(Compression.defaults(), delegate);
+	}
+
+	/**
+	 * @param compression 압축 알고리즘을 찾을 설정
+	 * @param delegate    풀어낸 메시지를 받을 컨슈머
+	 */
+	public DecompressingConsumer(Compression compression, Consumer delegate) {
+		this.compression = compression;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+		if (null == properties || null == properties.getContentEncoding()) {
+			delegate.handleDelivery(consumerTag, envelope, properties, body);
+			return;
+		}
+		CompressionAlgorithm algorithm;
+		byte[] decompressed;
+		try {
+			algorithm = compression.algorithm(properties);
+			decompressed = null == algorithm ? body : compression.decompress(algorithm, body);
+		} catch (IllegalArgumentException e) {
+			handleMalformed(consumerTag, envelope, properties, body, e);
+			return;
+		}
+		delegate.handleDelivery(consumerTag, envelope,
+				null == algorithm ? properties : Compression.unmark(properties), decompressed);
+	}
+
+	/**
+	 * 풀 수 없는 메시지를 받는다. {@code delegate}에는 넘기지 않는다.
+	 * 기본 구현은 로그만 남긴다. autoAck 없이 받는다면 재정의해서 다시 넣지 않도록 reject해야 한다.
+	 *
+	 * @param consumerTag 컨슈머 태그
+	 * @param envelope    메시지의 봉투
+	 * @param properties  메시지의 속성
+	 * @param body        압축된 본문
+	 * @param cause       풀지 못한 까닭
+	 * @throws IOException reject 등에 실패한 경우
+	 */
+	protected void handleMalformed(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+	                               byte[] body, IllegalArgumentException cause) throws IOException {
+		log.error("Malformed compressed message, tag={}", envelope.getDeliveryTag(), cause);
+	}
+
+	@Override
+	public void handleConsumeOk(String consumerTag) {
+		delegate.handleConsumeOk(consumerTag);
+	}
+
+	@Override
+	public void handleCancelOk(String consumerTag) {
+		delegate.handleCancelOk(consumerTag);
+	}
+
+	@Override
+	public void handleCancel(String consumerTag) throws IOException {
+		delegate.handleCancel(consumerTag);
+	}
+
+	@Override
+	public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+		delegate.handleShutdownSignal(consumerTag, sig);
+	}
+
+	@Override
+	public void handleRecoverOk(String consumerTag) {
+		delegate.handleRecoverOk(consumerTag);
+	}
+}
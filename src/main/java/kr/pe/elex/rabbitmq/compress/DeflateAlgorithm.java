@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.compress;
+
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * JDK의 {@link Deflater}와 {@link Inflater}로 zlib 형식으로 압축한다.
+ * <p>
+ * {@link Deflater}는 만들 때마다 네이티브 메모리를 잡으므로, 스레드마다 하나씩 만들어 두고 {@code reset()}해서 다시 쓴다.
+ * <p>
+ * 작고 비슷한 메시지는 혼자서는 잘 줄지 않는다. 메시지에 자주 나오는 내용을 사전으로 미리 넣어 두면
+ * 첫 바이트부터 사전을 참조하므로 훨씬 작아진다. 보내는 쪽과 받는 쪽은 같은 사전을 써야 하고,
+ * 사전이 바뀌면 이름도 바꿔야 한다. {@link #withDictionary}를 보라.
+ *
+ * @author Elex
+ */
+public final class DeflateAlgorithm implements CompressionAlgorithm {
+	public static final String NAME = "deflate";
+	/**
+	 * deflate가 참조할 수 있는 가장 먼 거리. 이보다 긴 사전은 앞부분을 쓰지 않는다.
+	 */
+	public static final int MAX_DICTIONARY_LENGTH = 32 * 1024;
+	private static final int CHUNK_LENGTH = 8 * 1024;
+
+	private final String name;
+	private final int level;
+	private final byte[] dictionary;
+	private final ThreadLocal<State> local = ThreadLocal.withInitial(State::new);
+
+	public DeflateAlgorithm() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level 압축 수준. {@link Deflater#BEST_SPEED}부터 {@link Deflater#BEST_COMPRESSION}까지
+	 */
+	public DeflateAlgorithm(int level) {
+		this(NAME, level, null);
+	}
+
+	private DeflateAlgorithm(String name, int level, byte[] dictionary) {
+		this.name = name;
+		this.level = level;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * 사전을 쓰는 알고리즘. 이름은 {@code deflate;dict=<id>}가 된다.
+	 *
+	 * @param id         사전의 이름. 사전 내용이 바뀌면 다른 이름을 써야 한다.
+	 * @param dictionary 사전. {@link #dictionary}로 만들 수 있다.
+	 */
+	public static DeflateAlgorithm withDictionary(String id, byte[] dictionary) {
+		return withDictionary(id, dictionary, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param id         사전의 이름. 사전 내용이 바뀌면 다른 이름을 써야 한다.
+	 * @param dictionary 사전. {@link #dictionary}로 만들 수 있다.
+	 * @param level      압축 수준
+	 */
+	public static DeflateAlgorithm withDictionary(String id, byte[] dictionary, int level) {
+		if (id.indexOf(',') >= 0) {
+			throw new IllegalArgumentException("Dictionary id can't contain ',': " + id);
+		}
+		return new DeflateAlgorithm(NAME + ";dict=" + id, level, dictionary.clone());
+	}
+
+	/**
+	 * 메시지 표본을 이어 붙여 사전을 만든다.
+	 * <p>
+	 * deflate는 사전의 뒤쪽을 더 짧은 거리로 참조하므로, 자주 나오는 표본일수록 뒤에 둔다.
+	 * 길이를 넘으면 앞쪽 표본을 버린다.
+	 *
+	 * @param samples   대표적인 메시지들
+	 * @param maxLength 사전의 최대 길이. {@link #MAX_DICTIONARY_LENGTH}보다 길 필요는 없다.
+	 * @return 사전
+	 */
+	public static byte[] dictionary(Iterable<byte[]> samples, int maxLength) {
+		PayloadBuffer buffer = new PayloadBuffer();
+		for (byte[] sample : samples) {
+			buffer.append(sample);
+		}
+		Payload all = buffer.view();
+		int length = Math.min(all.length(), Math.min(maxLength, MAX_DICTIONARY_LENGTH));
+		return all.toByteArray(all.length() - length, length);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void compress(Payload in, PayloadBuffer out) {
+		State state = local.get();
+		Deflater deflater = state.deflater();
+		try {
+			if (null != dictionary) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(in.asReadOnlyBuffer());
+			deflater.finish();
+			while (!deflater.finished()) {
+				int n = deflater.deflate(state.chunk);
+				out.append(state.chunk, 0, n);
+			}
+		} finally {
+			// 다 쓴 본문을 붙잡고 있지 않도록 바로 비웁니다.
+			deflater.reset();
+		}
+	}
+
+	@Override
+	public void decompress(Payload in, PayloadBuffer out, int maxLength) {
+		State state = local.get();
+		Inflater inflater = state.inflater;
+		int length = 0;
+		try {
+			inflater.setInput(in.asReadOnlyBuffer());
+			while (!inflater.finished()) {
+				int n = inflater.inflate(state.chunk);
+				if (0 == n && !inflater.finished()) {
+					if (inflater.needsDictionary()) {
+						if (null == dictionary) {
+							throw new IllegalArgumentException(name + " body needs a dictionary");
+						}
+						inflater.setDictionary(dictionary);
+						continue;
+					}
+					throw new IllegalArgumentException("Truncated " + name + " body");
+				}
+				length += n;
+				if (length > maxLength) {
+					throw new IllegalArgumentException("Decompressed body exceeds " + maxLength + " bytes");
+				}
+				out.append(state.chunk, 0, n);
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Malformed " + name + " body", e);
+		} finally {
+			inflater.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	private final class State {
+		private Deflater deflater;
+		private final Inflater inflater = new Inflater();
+		private final byte[] chunk = new byte[CHUNK_LENGTH];
+
+		/**
+		 * 받기만 하는 스레드는 압축기를 만들지 않습니다.
+		 */
+		Deflater deflater() {
+			if (null == deflater) {
+				deflater = new Deflater(level);
+			}
+			return deflater;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.confirm;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import kr.pe.elex.rabbitmq.metrics.LatencyHistogram;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 발행자 컨펌을 비동기로 처리한다.
+ * <p>
+ * 메시지를 보낼 때마다 {@link Channel#waitForConfirmsOrDie(long)}로 브로커의 응답을 기다리면
+ * 메시지 하나에 왕복 시간 하나가 든다. 대신 채널을 컨펌 모드로 바꾸고, 아직 확인받지 못한 메시지를
+ * 딜리버리 태그 순서대로 링 버퍼에 담아둔 채 계속 보낸다.
+ * 브로커가 {@code multiple=true}로 여러 개를 한꺼번에 확인해주면 그 범위의 메시지를 모두 완료시킨다.
+ * <p>
+ * 확인받지 못한 메시지의 범위가 {@code maxInFlight}를 넘으면, 가장 오래된 메시지가 확인될 때까지 발행이 멈춘다.
+ *
+ * @author Elex
+ * @see "https://www.rabbitmq.com/confirms.html#publisher-confirms"
+ */
+@Slf4j
+public class AsyncConfirmPublisher implements ConfirmListener {
+	private final Channel channel;
+	private final Semaphore window;
+	private final Object publishLock = new Object();
+
+	// 딜리버리 태그를 인덱스로 쓰는 링 버퍼입니다. [lowest, next) 범위가 확인을 기다리는 중입니다.
+	private final CompletableFuture<Long>[] outstanding;
+	// 같은 칸에 보낸 시각을 둡니다. 지표를 켰을 때만 씁니다.
+	private final long[] sentAt;
+	private long lowest = 1;
+	private long next = 1;
+	private volatile LatencyHistogram confirmLatency;
+
+	/**
+	 * 채널을 컨펌 모드로 바꾼다. 이 채널로는 이 객체를 통해서만 발행해야 한다.
+	 *
+	 * @param channel     발행에 쓸 채널
+	 * @param maxInFlight 확인받지 못한 상태로 둘 수 있는 최대 메시지 개수
+	 * @throws IOException 컨펌 모드로 바꾸지 못한 경우
+	 */
+	public AsyncConfirmPublisher(Channel channel, int maxInFlight) throws IOException {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		}
+		this.channel = channel;
+		this.window = new Semaphore(maxInFlight);
+		// 제네릭 배열은 만들 수 없으므로 원시 타입으로 만듭니다.
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		CompletableFuture<Long>[] outstanding = new CompletableFuture[maxInFlight];
+		this.outstanding = outstanding;
+		this.sentAt = new long[maxInFlight];
+
+		channel.confirmSelect();
+		synchronized (this) {
+			lowest = next = channel.getNextPublishSeqNo();
+		}
+		channel.addConfirmListener(this);
+		// 채널이 닫히면 기다리던 메시지는 영영 확인받지 못합니다.
+		channel.addShutdownListener(this::failAll);
+	}
+
+	/**
+	 * 보내고 확인받을 때까지 걸린 시간을 {@link Metrics#PUBLISH_TO_CONFIRM}에 기록한다.
+	 *
+	 * @param metrics 기록할 지표
+	 * @return 이 발행자
+	 */
+	public AsyncConfirmPublisher withMetrics(Metrics metrics) {
+		this.confirmLatency = metrics.histogram(Metrics.PUBLISH_TO_CONFIRM);
+		return this;
+	}
+
+	/**
+	 * 메시지를 보낸다. 창이 꽉 찼으면 자리가 날 때까지 기다린다.
+	 *
+	 * @return 브로커가 메시지를 확인하면 딜리버리 태그로 완료되고, 거절하면 예외로 완료된다.
+	 * 완료는 창에 자리를 돌려준 다음이므로 콜백에서 다시 발행해도 된다.
+	 * @throws IOException          메시지를 보내지 못한 경우
+	 * @throws InterruptedException 창에 자리가 나길 기다리는 동안 인터럽트된 경우
+	 */
+	public CompletableFuture<Long> publish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body)
+			throws IOException, InterruptedException {
+		window.acquire();
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		synchronized (publishLock) {
+			long tag;
+			synchronized (this) {
+				tag = channel.getNextPublishSeqNo();
+				outstanding[slot(tag)] = future;
+				sentAt[slot(tag)] = System.nanoTime();
+				next = tag + 1;
+			}
+			try {
+				channel.basicPublish(exchange, routingKey, properties, body);
+			} catch (IOException | RuntimeException e) {
+				complete(tag, tag, e);
+				throw e;
+			}
+		}
+		return future;
+	}
+
+	/**
+	 * 지금까지 보낸 메시지가 모두 확인될 때까지 기다린다.
+	 *
+	 * @return 시간 안에 모두 확인되면 {@code true}
+	 * @throws InterruptedException 기다리는 동안 인터럽트된 경우
+	 */
+	public boolean awaitAll(long timeout, TimeUnit unit) throws InterruptedException {
+		int capacity = outstanding.length;
+		if (!window.tryAcquire(capacity, timeout, unit)) {
+			return false;
+		}
+		window.release(capacity);
+		return true;
+	}
+
+	/**
+	 * @return 확인을 기다리는 메시지 범위의 크기
+	 */
+	public synchronized int inFlight() {
+		return (int) (next - lowest);
+	}
+
+	@Override
+	public void handleAck(long deliveryTag, boolean multiple) {
+		confirm(deliveryTag, multiple, null);
+	}
+
+	@Override
+	public void handleNack(long deliveryTag, boolean multiple) {
+		confirm(deliveryTag, multiple, new IOException("Message nacked by broker: " + deliveryTag));
+	}
+
+	private void confirm(long deliveryTag, boolean multiple, Throwable cause) {
+		complete(multiple ? 0 : deliveryTag, deliveryTag, cause);
+	}
+
+	/**
+	 * [from, to] 범위에서 기다리던 메시지를 완료시킨다. 범위는 [lowest, next)로 잘린다.
+	 * <p>
+	 * 퓨처는 잠금을 풀고 창을 민 다음에 완료시킨다. 퓨처의 콜백은 연결의 I/O 스레드에서 불리므로,
+	 * 잠금을 쥔 채 완료시키면 콜백에서 다시 발행할 때 그 스레드만 풀 수 있는 자리를 기다리며 멈춘다.
+	 */
+	private void complete(long from, long to, Throwable cause) {
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		long first;
+		synchronized (this) {
+			first = Math.max(from, lowest);
+			long last = Math.min(to, next - 1);
+			for (long tag = first; tag <= last; tag++) {
+				futures.add(takeSlot(tag, null == cause));
+			}
+		}
+		advance();
+		for (int i = 0; i < futures.size(); i++) {
+			CompletableFuture<Long> future = futures.get(i);
+			if (null == future) {
+				continue;
+			}
+			if (null == cause) {
+				future.complete(first + i);
+			} else {
+				future.completeExceptionally(cause);
+			}
+		}
+	}
+
+	private CompletableFuture<Long> takeSlot(long deliveryTag, boolean ack) {
+		int slot = slot(deliveryTag);
+		CompletableFuture<Long> future = outstanding[slot];
+		outstanding[slot] = null;
+		LatencyHistogram histogram = confirmLatency;
+		if (ack && null != future && null != histogram) {
+			histogram.recordSince(sentAt[slot]);
+		}
+		return future;
+	}
+
+	/**
+	 * 확인된 메시지가 연속으로 이어지는 만큼 창을 앞으로 민다.
+	 */
+	private void advance() {
+		int released = 0;
+		synchronized (this) {
+			while (lowest < next && null == outstanding[slot(lowest)]) {
+				lowest++;
+				released++;
+			}
+		}
+		if (released > 0) {
+			window.release(released);
+		}
+	}
+
+	private void failAll(ShutdownSignalException cause) {
+		complete(0, Long.MAX_VALUE, cause);
+		if (!cause.isInitiatedByApplication()) {
+			log.warn("Confirm channel closed with pending messages.", cause);
+		}
+	}
+
+	private int slot(long deliveryTag) {
+		return (int) (deliveryTag % outstanding.length);
+	}
+}
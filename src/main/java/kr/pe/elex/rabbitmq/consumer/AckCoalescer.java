@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 한 채널의 ack를 모아서 {@code basicAck(tag, multiple=true)} 하나로 보낸다.
+ * <p>
+ * 처리가 끝난 딜리버리 태그를 순서와 상관없이 기록해두고, 앞에서부터 빈틈없이 이어진 가장 큰 태그까지만 ack를 보낸다.
+ * 따라서 아직 처리 중인 메시지가 함께 ack되는 일은 없다.
+ * 모인 ack가 {@code batchSize}개가 되거나, 마지막으로 보낸 뒤 {@code linger}가 지나면 보낸다.
+ * <p>
+ * 이 채널로 받는 모든 메시지를 이 객체로 ack 또는 reject 해야 한다. autoAck 컨슈머를 같은 채널에 두면 안 된다.
+ * prefetch는 {@code batchSize}보다 충분히 커야 한다. 그렇지 않으면 ack를 기다리는 동안 브로커가 메시지를 보내지 않아
+ * {@code linger}마다 한 번씩만 진행된다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class AckCoalescer implements AutoCloseable {
+	private final Channel channel;
+	private final int batchSize;
+
+	// 처리가 끝난 태그를 표시하는 비트 링입니다. (contiguous, contiguous + capacity] 범위의 태그를 담습니다.
+	private long[] completed = new long[16];
+	private long acked;
+	private long contiguous;
+	private long ackFrames;
+	private ScheduledFuture<?> task;
+
+	/**
+	 * @param channel   메시지를 받는 채널
+	 * @param batchSize 한 번에 모아서 보낼 ack 개수
+	 */
+	public AckCoalescer(Channel channel, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		this.channel = channel;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * 모인 ack를 주기적으로 보내기 시작한다.
+	 *
+	 * @param scheduler 스케줄러
+	 * @param linger    모인 ack를 보내기까지 기다릴 최대 시간
+	 * @param unit      시간 단위
+	 * @return 이 객체
+	 */
+	public synchronized AckCoalescer start(ScheduledExecutorService scheduler, long linger, TimeUnit unit) {
+		task = scheduler.scheduleWithFixedDelay(this::flushQuietly, linger, linger, unit);
+		return this;
+	}
+
+	/**
+	 * 메시지 처리가 끝났음을 기록한다. 모인 ack가 충분하면 보낸다.
+	 *
+	 * @param deliveryTag 딜리버리 태그
+	 * @throws IOException ack를 보내지 못한 경우
+	 */
+	public synchronized void ack(long deliveryTag) throws IOException {
+		settle(deliveryTag);
+		if (contiguous - acked >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * 메시지를 바로 거절하고, 처리가 끝난 것으로 기록한다.
+	 *
+	 * @param deliveryTag 딜리버리 태그
+	 * @param requeue     큐에 다시 넣을지 여부
+	 * @throws IOException 거절하지 못한 경우
+	 */
+	public synchronized void reject(long deliveryTag, boolean requeue) throws IOException {
+		channel.basicNack(deliveryTag, false, requeue);
+		// 이미 거절한 태그는 multiple ack에 포함되어도 무시됩니다.
+		settle(deliveryTag);
+	}
+
+	/**
+	 * 모인 ack를 지금 보낸다.
+	 *
+	 * @throws IOException ack를 보내지 못한 경우
+	 */
+	public synchronized void flush() throws IOException {
+		if (contiguous > acked) {
+			channel.basicAck(contiguous, true);
+			acked = contiguous;
+			ackFrames++;
+		}
+	}
+
+	/**
+	 * @return 처리가 끝났지만 아직 ack를 보내지 않은 메시지 개수
+	 */
+	public synchronized long getPending() {
+		return contiguous - acked;
+	}
+
+	/**
+	 * @return 지금까지 보낸 ack 프레임 개수
+	 */
+	public synchronized long getAckFrames() {
+		return ackFrames;
+	}
+
+	private void settle(long deliveryTag) {
+		if (deliveryTag <= contiguous) {
+			return;
+		}
+		ensureCapacity(deliveryTag - contiguous);
+		set(deliveryTag);
+		// 빈틈없이 이어진 만큼 앞으로 나아갑니다. 지나간 비트는 지워서 다시 씁니다.
+		while (isSet(contiguous + 1)) {
+			contiguous++;
+			clear(contiguous);
+		}
+	}
+
+	private void ensureCapacity(long span) {
+		long capacity = (long) completed.length << 6;
+		if (span <= capacity) {
+			return;
+		}
+		long newCapacity = capacity;
+		while (span > newCapacity) {
+			newCapacity <<= 1;
+		}
+		long[] grown = new long[(int) (newCapacity >>> 6)];
+		// 링의 위치가 바뀌므로 표시된 태그를 옮겨 담습니다.
+		long[] old = completed;
+		completed = grown;
+		for (long tag = contiguous + 1; tag <= contiguous + capacity; tag++) {
+			int index = (int) (tag & (capacity - 1));
+			if ((old[index >>> 6] & (1L << index)) != 0) {
+				set(tag);
+			}
+		}
+	}
+
+	private boolean isSet(long tag) {
+		int index = index(tag);
+		return (completed[index >>> 6] & (1L << index)) != 0;
+	}
+
+	private void set(long tag) {
+		int index = index(tag);
+		completed[index >>> 6] |= 1L << index;
+	}
+
+	private void clear(long tag) {
+		int index = index(tag);
+		completed[index >>> 6] &= ~(1L << index);
+	}
+
+	private int index(long tag) {
+		return (int) (tag & (((long) completed.length << 6) - 1));
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException | AlreadyClosedException e) {
+			log.warn("Failed to flush acks.", e);
+		}
+	}
+
+	/**
+	 * 주기적인 전송을 멈추고 모인 ack를 보낸다.
+	 */
+	@Override
+	public synchronized void close() {
+		if (null != task) {
+			task.cancel(false);
+			task = null;
+		}
+		if (channel.isOpen()) {
+			flushQuietly();
+		}
+	}
+}
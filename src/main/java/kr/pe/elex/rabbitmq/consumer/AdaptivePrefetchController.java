@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import com.rabbitmq.client.Channel;
+import kr.pe.elex.rabbitmq.metrics.LatencyHistogram;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 측정한 처리 시간에 맞춰 채널의 prefetch를 주기적으로 다시 정한다.
+ * <p>
+ * prefetch가 너무 작으면 ack가 브로커에 갔다가 다음 메시지가 올 때까지 작업 스레드가 논다.
+ * 너무 크면 느린 컨슈머 앞에 메시지가 쌓여서 다른 컨슈머가 가져갈 수 없다.
+ * 적당한 값은 대역폭-지연 곱이다. 즉, 동시에 처리 중인 메시지에 더해서 한 번의 왕복 시간 동안 처리할 수 있는 만큼이다.
+ * <pre>
+ * prefetch = concurrency × (1 + rtt / 처리 시간)
+ * </pre>
+ * 왕복 시간은 {@link Channel#basicQos(int, boolean)} 자체가 동기 호출이라는 점을 이용해서 잰다.
+ * 메시지를 받은 다음 처리를 시작할 때까지 기다린 시간이 처리 시간보다 길면 클라이언트 쪽에 메시지가 쌓이고 있는 것이므로 줄인다.
+ * <p>
+ * 이미 등록된 컨슈머에도 바로 적용되도록 채널 전체에 대한 QoS({@code global=true})를 바꾼다.
+ * 컨슈머별 QoS는 등록할 때 {@code maxPrefetch}로 정해두면 된다. 쿼럼 큐는 채널 전체 QoS를 지원하지 않는다.
+ * <p>
+ * {@link #withMetrics(Metrics)}를 부르면 정한 prefetch와 잰 왕복 시간, 처리 시간을 지표로 내놓는다.
+ *
+ * @author Elex
+ * @see "https://www.rabbitmq.com/consumer-prefetch.html"
+ */
+@Slf4j
+public class AdaptivePrefetchController implements AutoCloseable {
+	// 바꿀 값이 현재 값과 이만큼 이상 차이 날 때만 바꿉니다.
+	private static final double HYSTERESIS = 0.2;
+	// 이동 평균에 새 값을 반영하는 비율입니다.
+	private static final double ALPHA = 0.3;
+
+	private final Channel channel;
+	private final int concurrency;
+	private final int minPrefetch;
+	private final int maxPrefetch;
+
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder processingNanos = new LongAdder();
+	private final LongAdder deliveryToAckNanos = new LongAdder();
+
+	private final AtomicLong adjustments = new AtomicLong();
+	private volatile int prefetch;
+	private volatile double rttNanos = -1;
+	private volatile double avgProcessingNanos = -1;
+	private volatile double avgDeliveryToAckNanos = -1;
+	private volatile double throughput;
+	private long lastTick = System.nanoTime();
+	private ScheduledFuture<?> task;
+	private boolean closed;
+	private volatile LongAdder prefetchGauge;
+	private volatile LongAdder adjustmentCounter;
+	private volatile LatencyHistogram rttHistogram;
+	private volatile LatencyHistogram processingHistogram;
+
+	/**
+	 * @param channel     QoS를 바꿀 채널
+	 * @param concurrency 이 채널의 메시지를 동시에 처리하는 스레드 개수
+	 * @param minPrefetch prefetch 최솟값
+	 * @param maxPrefetch prefetch 최댓값
+	 */
+	public AdaptivePrefetchController(Channel channel, int concurrency, int minPrefetch, int maxPrefetch) {
+		if (concurrency < 1 || minPrefetch < 1 || maxPrefetch < minPrefetch) {
+			throw new IllegalArgumentException("Invalid prefetch bounds.");
+		}
+		this.channel = channel;
+		this.concurrency = concurrency;
+		this.minPrefetch = minPrefetch;
+		this.maxPrefetch = maxPrefetch;
+	}
+
+	/**
+	 * 정한 prefetch를 {@link Metrics#PREFETCH}에, 바꾼 횟수를 {@link Metrics#PREFETCH_ADJUSTMENTS}에,
+	 * 잰 왕복 시간과 주기마다의 평균 처리 시간을 {@link Metrics#PREFETCH_RTT}, {@link Metrics#PREFETCH_PROCESSING}에 기록한다.
+	 * {@link #start}보다 먼저 불러야 한다.
+	 *
+	 * @param metrics 기록할 지표
+	 * @return 이 컨트롤러
+	 */
+	public AdaptivePrefetchController withMetrics(Metrics metrics) {
+		this.prefetchGauge = metrics.counter(Metrics.PREFETCH);
+		this.adjustmentCounter = metrics.counter(Metrics.PREFETCH_ADJUSTMENTS);
+		this.rttHistogram = metrics.histogram(Metrics.PREFETCH_RTT);
+		this.processingHistogram = metrics.histogram(Metrics.PREFETCH_PROCESSING);
+		return this;
+	}
+
+	/**
+	 * 처음 prefetch를 적용하고 {@link WorkerExecutors#sharedBlockingScheduler()}에서 주기적으로 다시 정하기 시작한다.
+	 *
+	 * @param interval 다시 정하는 주기
+	 * @param unit     주기 단위
+	 * @throws IOException QoS를 바꾸지 못한 경우
+	 */
+	public void start(long interval, TimeUnit unit) throws IOException {
+		start(WorkerExecutors.sharedBlockingScheduler(), interval, unit);
+	}
+
+	/**
+	 * 처음 prefetch를 적용하고 주기적으로 다시 정하기 시작한다.
+	 * 주기마다 브로커의 응답을 기다리는 {@code basic.qos}를 부르므로, 짧은 작업만 도는
+	 * {@link WorkerExecutors#sharedScheduler()}가 아니라 블로킹되어도 되는 스케줄러를 줘야 한다.
+	 *
+	 * @param scheduler 스케줄러
+	 * @param interval  다시 정하는 주기
+	 * @param unit      주기 단위
+	 * @throws IOException QoS를 바꾸지 못한 경우
+	 */
+	public synchronized void start(ScheduledExecutorService scheduler, long interval, TimeUnit unit) throws IOException {
+		apply(Math.max(minPrefetch, Math.min(maxPrefetch, concurrency * 2)));
+		lastTick = System.nanoTime();
+		task = scheduler.scheduleWithFixedDelay(this::retune, interval, interval, unit);
+	}
+
+	/**
+	 * 메시지 하나를 처리하고 ack를 보낸 다음에 호출한다. 여러 스레드에서 동시에 호출해도 된다.
+	 *
+	 * @param deliveredAt 메시지를 받은 시각 ({@link System#nanoTime()})
+	 * @param startedAt   처리를 시작한 시각
+	 * @param ackedAt     ack를 보낸 시각
+	 */
+	public void record(long deliveredAt, long startedAt, long ackedAt) {
+		completed.increment();
+		processingNanos.add(ackedAt - startedAt);
+		deliveryToAckNanos.add(ackedAt - deliveredAt);
+	}
+
+	private void retune() {
+		try {
+			long now = System.nanoTime();
+			long count = completed.sumThenReset();
+			long processing = processingNanos.sumThenReset();
+			long deliveryToAck = deliveryToAckNanos.sumThenReset();
+			long elapsed = now - lastTick;
+			lastTick = now;
+			throughput = count * 1e9 / Math.max(1, elapsed);
+			if (count == 0) {
+				return;
+			}
+			avgProcessingNanos = ewma(avgProcessingNanos, (double) processing / count);
+			LatencyHistogram histogram = processingHistogram;
+			if (null != histogram) {
+				histogram.record(processing / count);
+			}
+			avgDeliveryToAckNanos = ewma(avgDeliveryToAckNanos, (double) deliveryToAck / count);
+
+			int target = target();
+			int current = prefetch;
+			if (Math.abs(target - current) >= Math.max(1, current * HYSTERESIS)) {
+				apply(target);
+				adjustments.incrementAndGet();
+				LongAdder counter = adjustmentCounter;
+				if (null != counter) {
+					counter.increment();
+				}
+				log.debug("Prefetch {} -> {} (rtt={}us, processing={}us, deliveryToAck={}us, rate={}/s)",
+						current, target, (long) rttNanos / 1000, (long) avgProcessingNanos / 1000,
+						(long) avgDeliveryToAckNanos / 1000, (long) throughput);
+			}
+		} catch (IOException | RuntimeException e) {
+			log.warn("Failed to retune prefetch.", e);
+		}
+	}
+
+	private int target() {
+		double processing = Math.max(1, avgProcessingNanos);
+		double rtt = Math.max(0, rttNanos);
+		double target = concurrency * (1 + rtt / processing);
+		// 처리를 기다린 시간이 처리 시간보다 길면 클라이언트 쪽에 메시지가 쌓이고 있습니다.
+		double waiting = avgDeliveryToAckNanos - avgProcessingNanos;
+		if (waiting > processing) {
+			target = Math.min(target, prefetch * processing / waiting);
+		}
+		return (int) Math.max(minPrefetch, Math.min(maxPrefetch, Math.ceil(target)));
+	}
+
+	private void apply(int value) throws IOException {
+		long started = System.nanoTime();
+		channel.basicQos(value, true);
+		// basic.qos는 브로커의 응답을 기다리므로 왕복 시간을 잴 수 있습니다.
+		long rtt = System.nanoTime() - started;
+		rttNanos = ewma(rttNanos, rtt);
+		LatencyHistogram histogram = rttHistogram;
+		if (null != histogram) {
+			histogram.record(rtt);
+		}
+		synchronized (this) {
+			// 닫은 다음에 끝난 조정은 지표에 더하지 않습니다.
+			LongAdder gauge = prefetchGauge;
+			if (null != gauge && !closed) {
+				gauge.add(value - prefetch);
+			}
+			prefetch = value;
+		}
+	}
+
+	private static double ewma(double average, double sample) {
+		return average < 0 ? sample : average + ALPHA * (sample - average);
+	}
+
+	/**
+	 * @return 현재 prefetch
+	 */
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	/**
+	 * @return prefetch를 바꾼 횟수
+	 */
+	public long getAdjustments() {
+		return adjustments.get();
+	}
+
+	/**
+	 * @return 브로커 왕복 시간의 이동 평균 (나노초)
+	 */
+	public long getRttNanos() {
+		return (long) rttNanos;
+	}
+
+	/**
+	 * @return 메시지 처리 시간의 이동 평균 (나노초)
+	 */
+	public long getProcessingNanos() {
+		return (long) avgProcessingNanos;
+	}
+
+	/**
+	 * @return 메시지를 받은 다음 ack를 보낼 때까지 걸린 시간의 이동 평균 (나노초)
+	 */
+	public long getDeliveryToAckNanos() {
+		return (long) avgDeliveryToAckNanos;
+	}
+
+	/**
+	 * @return 직전 주기의 초당 처리량
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (null != task) {
+			task.cancel(false);
+			task = null;
+		}
+		LongAdder gauge = prefetchGauge;
+		if (null != gauge) {
+			gauge.add(-prefetch);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.metrics.LatencyHistogram;
+import kr.pe.elex.rabbitmq.metrics.LatencyTracker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 받은 메시지를 작업 스레드에 넘기고, 처리가 끝나면 작업 스레드에서 ack를 보내는 컨슈머.
+ * <p>
+ * 연결의 디스패치 스레드는 메시지를 넘기자마자 돌아가므로 다음 메시지를 바로 받을 수 있다.
+ * 동시에 처리하는 메시지 개수는 {@code maxInFlight}로 제한한다.
+ * 채널의 QoS(prefetch)를 {@code maxInFlight} 이하로 지정하면 디스패치 스레드가 기다리는 일은 없다.
+ * <p>
+ * 처리 중에 예외가 나면 그 메시지는 다시 넣지 않고 버린다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class DispatchingConsumer extends DefaultConsumer {
+	private final Executor executor;
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final MessageProcessor processor;
+	private volatile AdaptivePrefetchController prefetchController;
+	private volatile AckCoalescer ackCoalescer;
+	private volatile LatencyHistogram deliveryToAck;
+	private volatile LatencyHistogram processing;
+	private volatile LatencyTracker latencyTracker;
+
+	/**
+	 * @param channel     메시지를 받을 채널. autoAck 없이 등록해야 한다.
+	 * @param executor    메시지를 처리할 실행기
+	 * @param maxInFlight 동시에 처리할 최대 메시지 개수
+	 * @param processor   메시지 처리기
+	 */
+	public DispatchingConsumer(Channel channel, Executor executor, int maxInFlight, MessageProcessor processor) {
+		super(channel);
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		}
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.processor = processor;
+	}
+
+	/**
+	 * 처리 시간을 {@link AdaptivePrefetchController}에 알려주도록 한다.
+	 *
+	 * @param prefetchController prefetch 조절기
+	 * @return 이 컨슈머
+	 */
+	public DispatchingConsumer withPrefetchController(AdaptivePrefetchController prefetchController) {
+		this.prefetchController = prefetchController;
+		return this;
+	}
+
+	/**
+	 * ack를 하나씩 보내지 않고 {@link AckCoalescer}로 모아서 보내도록 한다.
+	 *
+	 * @param ackCoalescer 이 컨슈머의 채널에 대한 ack 모음
+	 * @return 이 컨슈머
+	 */
+	public DispatchingConsumer withAckCoalescer(AckCoalescer ackCoalescer) {
+		this.ackCoalescer = ackCoalescer;
+		return this;
+	}
+
+	/**
+	 * 받고 ack를 보낼 때까지 걸린 시간을 {@link Metrics#DELIVERY_TO_ACK}에,
+	 * 처리기에서 걸린 시간을 {@link Metrics#PROCESSING}{@code + name}에 기록한다.
+	 *
+	 * @param metrics 기록할 지표
+	 * @param name    처리 시간을 나눠 볼 컨슈머 이름
+	 * @return 이 컨슈머
+	 */
+	public DispatchingConsumer withMetrics(Metrics metrics, String name) {
+		this.deliveryToAck = metrics.histogram(Metrics.DELIVERY_TO_ACK);
+		this.processing = metrics.histogram(Metrics.PROCESSING + name);
+		return this;
+	}
+
+	/**
+	 * 받자마자 {@link LatencyTracker}에 보낸 뒤 받을 때까지의 지연 시간을 기록한다. 작업 스레드를 기다린 시간은 들어가지 않는다.
+	 *
+	 * @param latencyTracker 지연 시간 트래커. 한 큐를 나눠 받는 컨슈머끼리 함께 쓴다.
+	 * @return 이 컨슈머
+	 */
+	public DispatchingConsumer withLatencyTracker(LatencyTracker latencyTracker) {
+		this.latencyTracker = latencyTracker;
+		return this;
+	}
+
+	@Override
+	public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+		long deliveredAt = System.nanoTime();
+		LatencyTracker tracker = latencyTracker;
+		if (null != tracker) {
+			tracker.record(envelope, properties);
+		}
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			reject(envelope.getDeliveryTag(), true);
+			return;
+		}
+		try {
+			executor.execute(() -> process(consumerTag, envelope, properties, body, deliveredAt));
+		} catch (RejectedExecutionException e) {
+			// 실행기가 닫혔다면 다른 컨슈머가 처리하도록 돌려보냅니다.
+			inFlight.release();
+			reject(envelope.getDeliveryTag(), true);
+		}
+	}
+
+	private void process(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body, long deliveredAt) {
+		long deliveryTag = envelope.getDeliveryTag();
+		try {
+			long startedAt = System.nanoTime();
+			processor.process(consumerTag, envelope, properties, body);
+			long processedAt = System.nanoTime();
+			// 메시지 처리 후 ack를 보냅니다.
+			AckCoalescer coalescer = ackCoalescer;
+			if (null != coalescer) {
+				coalescer.ack(deliveryTag);
+			} else {
+				getChannel().basicAck(deliveryTag, false);
+			}
+			long ackedAt = System.nanoTime();
+			AdaptivePrefetchController controller = prefetchController;
+			if (null != controller) {
+				controller.record(deliveredAt, startedAt, ackedAt);
+			}
+			LatencyHistogram histogram = processing;
+			if (null != histogram) {
+				histogram.record(processedAt - startedAt);
+				deliveryToAck.record(ackedAt - deliveredAt);
+			}
+		} catch (Exception e) {
+			log.error("Process fail..", e);
+			try {
+				reject(deliveryTag, false);
+			} catch (IOException | AlreadyClosedException ex) {
+				log.warn("Failed to reject a message.", ex);
+			}
+		} finally {
+			inFlight.release();
+		}
+	}
+
+	private void reject(long deliveryTag, boolean requeue) throws IOException {
+		AckCoalescer coalescer = ackCoalescer;
+		if (null != coalescer) {
+			// 거절한 태그도 처리가 끝난 것으로 기록해야 뒤의 ack가 막히지 않습니다.
+			coalescer.reject(deliveryTag, requeue);
+		} else {
+			getChannel().basicNack(deliveryTag, false, requeue);
+		}
+	}
+
+	/**
+	 * @return 처리 중인 메시지 개수
+	 */
+	public int getInFlight() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	/**
+	 * 메시지 처리기. 여러 작업 스레드에서 동시에 호출된다.
+	 */
+	@FunctionalInterface
+	public interface MessageProcessor {
+		void process(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws Exception;
+	}
+}
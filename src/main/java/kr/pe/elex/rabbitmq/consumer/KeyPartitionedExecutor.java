@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 키의 해시로 고른 레인에서 작업을 실행한다. 레인마다 스레드가 하나씩이므로,
+ * 키가 같은 작업은 넣은 차례대로 하나씩 실행되고 키가 다른 작업은 여러 레인에서 동시에 실행된다.
+ * <p>
+ * 레인의 작업 큐에는 한도가 없다. 넣는 쪽이 처리 중인 작업 수를 제한해야 한다.
+ * 메시지라면 채널의 QoS(prefetch)가 그 한도다.
+ *
+ * @author Elex
+ */
+public final class KeyPartitionedExecutor implements AutoCloseable {
+	private final ExecutorService[] lanes;
+
+	/**
+	 * @param name  스레드 이름 접두어
+	 * @param lanes 레인 개수. 보통 코어 개수로 한다.
+	 */
+	public KeyPartitionedExecutor(String name, int lanes) {
+		if (lanes < 1) {
+			throw new IllegalArgumentException("lanes must be positive: " + lanes);
+		}
+		this.lanes = new ExecutorService[lanes];
+		for (int i = 0; i < lanes; i++) {
+			this.lanes[i] = WorkerExecutors.fixed(name + "-" + i, 1);
+		}
+	}
+
+	/**
+	 * 키의 레인에 작업을 넣는다.
+	 *
+	 * @param key  순서를 지킬 단위. null이면 첫 레인을 쓴다.
+	 * @param task 작업
+	 * @throws RejectedExecutionException 닫힌 경우
+	 */
+	public void execute(Object key, Runnable task) {
+		lanes[lane(key)].execute(task);
+	}
+
+	/**
+	 * @return 키가 쓰는 레인의 번호
+	 */
+	public int lane(Object key) {
+		if (null == key) {
+			return 0;
+		}
+		int h = key.hashCode();
+		// 해시의 윗자리도 레인 선택에 쓰이도록 섞습니다.
+		h ^= h >>> 16;
+		return Math.floorMod(h * 0x9E3779B9, lanes.length);
+	}
+
+	/**
+	 * @return 레인 개수
+	 */
+	public int getLanes() {
+		return lanes.length;
+	}
+
+	/**
+	 * 새 작업을 받지 않는다. 이미 넣은 작업은 끝까지 실행한다.
+	 */
+	public void shutdown() {
+		for (ExecutorService lane : lanes) {
+			lane.shutdown();
+		}
+	}
+
+	/**
+	 * 넣은 작업이 모두 끝나기를 기다린다.
+	 *
+	 * @return 제한 시간 안에 끝나면 true
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (ExecutorService lane : lanes) {
+			if (!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 새 작업을 받지 않고 넣은 작업이 끝나기를 기다린다.
+	 * 기다리는 동안 인터럽트되면 인터럽트 상태를 되살리고 바로 돌아간다. 남은 작업은 레인에서 마저 실행된다.
+	 */
+	@Override
+	public void close() {
+		shutdown();
+		try {
+			for (ExecutorService lane : lanes) {
+				lane.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
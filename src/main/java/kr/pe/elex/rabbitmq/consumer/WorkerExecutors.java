@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 메시지 처리에 쓸 작업 스레드 풀을 만든다.
+ * <p>
+ * 컨슈머의 디스패치 스레드에서 오래 걸리는 일을 하면 같은 연결의 다른 컨슈머까지 멈추므로,
+ * 메시지 처리는 이 풀에 맡기고 디스패치 스레드는 바로 돌려준다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public final class WorkerExecutors {
+	private WorkerExecutors() {
+	}
+
+	/**
+	 * 주기적인 작업에 쓰는 스케줄러. 작업은 짧아야 한다.
+	 */
+	private static final class SchedulerHolder {
+		private static final ScheduledExecutorService SCHEDULER =
+				Executors.newSingleThreadScheduledExecutor(threadFactory("elex-scheduler"));
+	}
+
+	/**
+	 * 브로커를 동기로 부르는 주기적인 작업에 쓰는 스케줄러.
+	 * 왕복 시간만큼 걸리는 작업 때문에 {@link #sharedScheduler()}의 ack와 배치 flush가 밀리지 않도록 떼어 둔다.
+	 */
+	private static final class BlockingSchedulerHolder {
+		private static final ScheduledExecutorService SCHEDULER =
+				Executors.newSingleThreadScheduledExecutor(threadFactory("elex-blocking-scheduler"));
+	}
+
+	/**
+	 * 크기가 고정된 스레드 풀을 만든다.
+	 *
+	 * @param name    스레드 이름 접두어
+	 * @param threads 스레드 개수
+	 * @return 스레드 풀
+	 */
+	public static ExecutorService fixed(String name, int threads) {
+		return Executors.newFixedThreadPool(threads, threadFactory(name));
+	}
+
+	/**
+	 * Java 21 이상에서는 작업마다 가상 스레드를 만드는 실행기를, 그보다 낮은 버전에서는 고정 크기 스레드 풀을 만든다.
+	 * 블로킹 I/O가 많은 처리기는 가상 스레드에서 훨씬 많이 동시에 실행될 수 있다.
+	 * 가상 스레드는 작업마다 새로 생기므로 {@code ThreadLocal}에 둔 것({@code PayloadBuffer.local()} 등)은 다시 쓰이지 않는다.
+	 *
+	 * @param name            스레드 이름 접두어
+	 * @param fallbackThreads 가상 스레드를 쓸 수 없을 때의 스레드 개수
+	 * @return 실행기
+	 */
+	public static ExecutorService virtualOrFixed(String name, int fallbackThreads) {
+		try {
+			// Java 11로 컴파일하므로 리플렉션으로 찾습니다.
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.debug("Virtual threads unavailable, using {} platform threads.", fallbackThreads);
+			return fixed(name, fallbackThreads);
+		}
+	}
+
+	/**
+	 * 프로세스 전체에서 함께 쓰는 스케줄러를 가져온다. 데몬 스레드 하나로 돌아가므로 닫지 않는다.
+	 *
+	 * @return 스케줄러
+	 */
+	public static ScheduledExecutorService sharedScheduler() {
+		return SchedulerHolder.SCHEDULER;
+	}
+
+	/**
+	 * 브로커에 동기 호출을 하는 주기적인 작업을 위해 프로세스 전체에서 함께 쓰는 스케줄러를 가져온다.
+	 * 데몬 스레드 하나로 돌아가므로 닫지 않는다.
+	 *
+	 * @return 스케줄러
+	 */
+	public static ScheduledExecutorService sharedBlockingScheduler() {
+		return BlockingSchedulerHolder.SCHEDULER;
+	}
+
+	/**
+	 * 스레드 하나로 도는 스케줄러를 만든다. 블로킹될 수 있는 주기적인 작업을 {@link #sharedScheduler()}와 떼어 놓을 때 쓴다.
+	 *
+	 * @param name 스레드 이름 접두어
+	 * @return 스케줄러
+	 */
+	public static ScheduledExecutorService scheduler(String name) {
+		return Executors.newSingleThreadScheduledExecutor(threadFactory(name));
+	}
+
+	/**
+	 * @return 사용 가능한 프로세서 개수
+	 */
+	public static int cores() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private static ThreadFactory threadFactory(String name) {
+		AtomicInteger sequence = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + sequence.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
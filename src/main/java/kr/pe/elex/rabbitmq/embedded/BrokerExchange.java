@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.embedded;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * 브로커 안의 익스체인지. 바인딩-키마다 묶인 큐와 익스체인지를 들고 있다.
+ * <p>
+ * {@code x-consistent-hash}는 RabbitMQ 플러그인과 같이 바인딩-키를 가중치로 읽고,
+ * 라우팅-키의 해시로 고른 큐 하나에만 넣는다. 큐가 들고 나도 다른 큐에 가던 키는 그대로 간다.
+ *
+ * @author Elex
+ */
+final class BrokerExchange {
+	static final String DIRECT = "direct";
+	static final String FANOUT = "fanout";
+	static final String TOPIC = "topic";
+	static final String CONSISTENT_HASH = "x-consistent-hash";
+	// 가중치 1마다 링에 찍는 점의 수. 많을수록 큐마다 고르게 나눠 갖습니다.
+	private static final int POINTS_PER_WEIGHT = 64;
+
+	final String name;
+	final String type;
+	final boolean durable;
+
+	private final Map<String, Set<BrokerQueue>> bindings = new ConcurrentHashMap<>();
+	private final Map<String, Set<BrokerExchange>> exchangeBindings = new ConcurrentHashMap<>();
+	// 해시 링. 바인딩이 바뀔 때만 새로 만듭니다.
+	private volatile NavigableMap<Integer, BrokerQueue> ring = Collections.emptyNavigableMap();
+
+	BrokerExchange(String name, String type, boolean durable) {
+		this.name = name;
+		this.type = type;
+		this.durable = durable;
+	}
+
+	void bind(BrokerQueue queue, String bindingKey) {
+		bindings.computeIfAbsent(bindingKey, key -> new CopyOnWriteArraySet<>()).add(queue);
+		rebuildRing();
+	}
+
+	void unbind(BrokerQueue queue, String bindingKey) {
+		Set<BrokerQueue> queues = bindings.get(bindingKey);
+		if (null != queues) {
+			queues.remove(queue);
+		}
+		rebuildRing();
+	}
+
+	void unbindAll(BrokerQueue queue) {
+		for (Set<BrokerQueue> queues : bindings.values()) {
+			queues.remove(queue);
+		}
+		rebuildRing();
+	}
+
+	/**
+	 * 다른 익스체인지를 묶는다. 이 익스체인지에 온 메시지 가운데 바인딩에 맞는 것이 그 익스체인지로도 간다.
+	 */
+	void bind(BrokerExchange destination, String bindingKey) {
+		exchangeBindings.computeIfAbsent(bindingKey, key -> new CopyOnWriteArraySet<>()).add(destination);
+	}
+
+	void unbind(BrokerExchange destination, String bindingKey) {
+		Set<BrokerExchange> destinations = exchangeBindings.get(bindingKey);
+		if (null != destinations) {
+			destinations.remove(destination);
+		}
+	}
+
+	void unbindAll(BrokerExchange destination) {
+		for (Set<BrokerExchange> destinations : exchangeBindings.values()) {
+			destinations.remove(destination);
+		}
+	}
+
+	/**
+	 * @return 이 익스체인지에서 나가는 바인딩이 하나도 없으면 {@code true}
+	 */
+	boolean isUnused() {
+		for (Set<BrokerQueue> queues : bindings.values()) {
+			if (!queues.isEmpty()) {
+				return false;
+			}
+		}
+		for (Set<BrokerExchange> destinations : exchangeBindings.values()) {
+			if (!destinations.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param routingKey 메시지의 라우팅-키
+	 * @return 메시지를 받을 큐. 묶인 익스체인지를 거쳐 가는 큐도 들어 있다.
+	 */
+	Collection<BrokerQueue> route(String routingKey) {
+		if (exchangeBindings.isEmpty()) {
+			return select(bindings, routingKey);
+		}
+		Set<BrokerQueue> queues = new LinkedHashSet<>();
+		route(routingKey, queues, new LinkedHashSet<>());
+		return queues;
+	}
+
+	private void route(String routingKey, Set<BrokerQueue> queues, Set<BrokerExchange> visited) {
+		if (!visited.add(this)) {
+			// 익스체인지끼리 돌아가며 묶여 있어도 한 번만 지납니다.
+			return;
+		}
+		queues.addAll(select(bindings, routingKey));
+		for (BrokerExchange destination : select(exchangeBindings, routingKey)) {
+			destination.route(routingKey, queues, visited);
+		}
+	}
+
+	private <T> Collection<T> select(Map<String, Set<T>> bindings, String routingKey) {
+		switch (type) {
+			case DIRECT: {
+				Set<T> bound = bindings.get(routingKey);
+				return null == bound ? Collections.emptySet() : bound;
+			}
+			case FANOUT: {
+				Set<T> selected = new LinkedHashSet<>();
+				for (Set<T> bound : bindings.values()) {
+					selected.addAll(bound);
+				}
+				return selected;
+			}
+			case TOPIC: {
+				Set<T> selected = new LinkedHashSet<>();
+				String[] words = words(routingKey);
+				for (Map.Entry<String, Set<T>> entry : bindings.entrySet()) {
+					if (matches(words(entry.getKey()), 0, words, 0)) {
+						selected.addAll(entry.getValue());
+					}
+				}
+				return selected;
+			}
+			case CONSISTENT_HASH: {
+				if ((Object) bindings != this.bindings) {
+					// 해시 익스체인지는 큐로만 보냅니다.
+					return Collections.emptySet();
+				}
+				NavigableMap<Integer, BrokerQueue> ring = this.ring;
+				if (ring.isEmpty()) {
+					return Collections.emptySet();
+				}
+				Map.Entry<Integer, BrokerQueue> point = ring.ceilingEntry(hash(routingKey));
+				@SuppressWarnings("unchecked")
+				T queue = (T) (null == point ? ring.firstEntry() : point).getValue();
+				return Collections.singleton(queue);
+			}
+			default:
+				return Collections.emptySet();
+		}
+	}
+
+	private void rebuildRing() {
+		if (!CONSISTENT_HASH.equals(type)) {
+			return;
+		}
+		synchronized (this) {
+			NavigableMap<Integer, BrokerQueue> ring = new TreeMap<>();
+			for (Map.Entry<String, Set<BrokerQueue>> entry : bindings.entrySet()) {
+				int weight = weight(entry.getKey());
+				for (BrokerQueue queue : entry.getValue()) {
+					for (int i = 0; i < weight; i++) {
+						for (int v = 0; v < POINTS_PER_WEIGHT; v++) {
+							ring.putIfAbsent(hash(queue.name + '#' + i + '#' + v), queue);
+						}
+					}
+				}
+			}
+			this.ring = ring;
+		}
+	}
+
+	private static int weight(String bindingKey) {
+		try {
+			return Math.max(0, Integer.parseInt(bindingKey.trim()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * 문자열 해시를 고르게 퍼뜨린다. 링의 점과 라우팅-키에 같이 쓴다.
+	 */
+	static int hash(String key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	/**
+	 * 점으로 나눈다. RabbitMQ처럼 빈 문자열은 빈 단어 하나가 아니라 단어가 없는 것으로 본다.
+	 */
+	private static String[] words(String key) {
+		return key.isEmpty() ? new String[0] : key.split("\\.", -1);
+	}
+
+	/**
+	 * 토픽 패턴을 비교한다. {@code *}는 단어 하나, {@code #}은 단어 0개 이상과 일치한다.
+	 */
+	static boolean matches(String[] pattern, int p, String[] words, int w) {
+		while (p < pattern.length) {
+			if ("#".equals(pattern[p])) {
+				// 남은 단어를 하나씩 건너뛰며 나머지 패턴과 맞춰봅니다.
+				for (int skip = w; skip <= words.length; skip++) {
+					if (matches(pattern, p + 1, words, skip)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			if (w >= words.length || !("*".equals(pattern[p]) || pattern[p].equals(words[w]))) {
+				return false;
+			}
+			p++;
+			w++;
+		}
+		return w == words.length;
+	}
+}
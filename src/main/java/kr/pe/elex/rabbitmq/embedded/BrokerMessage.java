@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.embedded;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * 브로커 안에서 큐에 쌓여 있는 메시지. 본문은 복사하지 않고 발행자가 넘긴 배열을 그대로 쓴다.
+ *
+ * @author Elex
+ */
+final class BrokerMessage {
+	final String exchange;
+	final String routingKey;
+	final AMQP.BasicProperties properties;
+	final byte[] body;
+	final boolean redelivered;
+
+	BrokerMessage(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body, boolean redelivered) {
+		this.exchange = exchange;
+		this.routingKey = routingKey;
+		this.properties = properties;
+		this.body = body;
+		this.redelivered = redelivered;
+	}
+
+	/**
+	 * @return 다시 전달되는 메시지
+	 */
+	BrokerMessage redelivery() {
+		return redelivered ? this : new BrokerMessage(exchange, routingKey, properties, body, true);
+	}
+}
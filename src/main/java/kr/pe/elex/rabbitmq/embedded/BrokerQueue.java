@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.embedded;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 브로커 안의 큐. 쌓인 메시지를 받을 수 있는 컨슈머에게 돌아가면서 보낸다.
+ * {@code x-single-active-consumer}로 선언했다면 먼저 등록한 컨슈머 하나에게만 보내고,
+ * 그 컨슈머가 빠지면 다음 컨슈머에게 보낸다.
+ * <p>
+ * 배타적인 큐는 선언한 연결만 쓸 수 있고 그 연결이 닫히면 지워진다.
+ * 자동으로 지우는 큐는 컨슈머가 한 번이라도 붙었다가 모두 떨어지면 지워진다.
+ * 배타적인 컨슈머가 붙어 있는 동안에는 다른 컨슈머가 붙을 수 없다.
+ * <p>
+ * 잠금 순서는 큐가 먼저, 채널이 나중이다. 채널은 자기 잠금을 쥔 채로 큐를 부르지 않는다.
+ *
+ * @author Elex
+ */
+final class BrokerQueue {
+	static final String SINGLE_ACTIVE_CONSUMER = "x-single-active-consumer";
+	private static final int PERSISTENT = 2;
+
+	final String name;
+	final boolean durable;
+	final boolean exclusive;
+	final boolean autoDelete;
+	final boolean singleActiveConsumer;
+	// 배타적인 큐를 선언한 연결. 배타적이지 않으면 null입니다.
+	final EmbeddedConnection owner;
+
+	private final ArrayDeque<BrokerMessage> messages = new ArrayDeque<>();
+	private final List<EmbeddedChannel.Subscription> consumers = new ArrayList<>();
+	private int next;
+	private boolean consumed;
+
+	BrokerQueue(String name, boolean durable, boolean exclusive, boolean autoDelete, boolean singleActiveConsumer,
+	            EmbeddedConnection owner) {
+		this.name = name;
+		this.durable = durable;
+		this.exclusive = exclusive;
+		this.autoDelete = autoDelete;
+		this.singleActiveConsumer = singleActiveConsumer;
+		this.owner = exclusive ? owner : null;
+	}
+
+	synchronized void enqueue(BrokerMessage message) {
+		messages.addLast(message);
+		drain();
+	}
+
+	/**
+	 * ack받지 못한 메시지를 큐의 맨 앞에 돌려놓는다.
+	 */
+	synchronized void requeue(BrokerMessage message) {
+		messages.addFirst(message.redelivery());
+		drain();
+	}
+
+	/**
+	 * @param consumeOk 컨슈머를 붙인 다음, 첫 메시지를 보내기 전에 부른다.
+	 * @throws IOException 배타적인 컨슈머와 함께 붙을 수 없는 경우
+	 */
+	synchronized void addConsumer(EmbeddedChannel.Subscription subscription, Runnable consumeOk) throws IOException {
+		if (!consumers.isEmpty() && (subscription.exclusive || consumers.get(0).exclusive)) {
+			throw new IOException("ACCESS_REFUSED - queue '" + name + "' in exclusive use");
+		}
+		consumers.add(subscription);
+		consumed = true;
+		consumeOk.run();
+		drain();
+	}
+
+	/**
+	 * basic.get으로 맨 앞의 메시지를 꺼낸다.
+	 *
+	 * @return 꺼낸 메시지. 비어 있으면 null
+	 */
+	synchronized BrokerMessage poll() {
+		return messages.pollFirst();
+	}
+
+	synchronized boolean removeConsumer(EmbeddedChannel.Subscription subscription) {
+		boolean removed = consumers.remove(subscription);
+		if (removed && singleActiveConsumer) {
+			// 다음 컨슈머가 이어 받습니다.
+			drain();
+		}
+		return removed;
+	}
+
+	/**
+	 * @return 자동으로 지우는 큐이고, 컨슈머가 붙었다가 모두 떨어졌으면 {@code true}
+	 */
+	synchronized boolean isAbandoned() {
+		return autoDelete && consumed && consumers.isEmpty();
+	}
+
+	synchronized int messageCount() {
+		return messages.size();
+	}
+
+	synchronized int consumerCount() {
+		return consumers.size();
+	}
+
+	synchronized int purge() {
+		int count = messages.size();
+		messages.clear();
+		return count;
+	}
+
+	/**
+	 * 브로커를 다시 띄울 때 부른다. persistent가 아닌 메시지는 디스크에 없으므로 버린다.
+	 *
+	 * @return 버린 개수
+	 */
+	synchronized int dropTransient() {
+		int before = messages.size();
+		messages.removeIf(message -> !Integer.valueOf(PERSISTENT).equals(message.properties.getDeliveryMode()));
+		return before - messages.size();
+	}
+
+	synchronized List<EmbeddedChannel.Subscription> consumers() {
+		return new ArrayList<>(consumers);
+	}
+
+	/**
+	 * 받을 수 있는 컨슈머가 있는 동안 메시지를 보낸다.
+	 */
+	synchronized void drain() {
+		while (!messages.isEmpty() && !consumers.isEmpty()) {
+			// 활성 컨슈머가 하나뿐이라면 맨 앞의 컨슈머만 받습니다.
+			int size = singleActiveConsumer ? 1 : consumers.size();
+			boolean delivered = false;
+			for (int i = 0; i < size && !delivered; i++) {
+				EmbeddedChannel.Subscription subscription = consumers.get((next + i) % size);
+				if (subscription.tryDeliver(messages.peekFirst())) {
+					messages.pollFirst();
+					next = (next + i + 1) % size;
+					delivered = true;
+				}
+			}
+			if (!delivered) {
+				// 모든 컨슈머가 prefetch만큼 받아둔 상태입니다. ack가 오면 다시 시도합니다.
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.embedded;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 같은 프로세스 안에서 도는 브로커 대역.
+ * <p>
+ * 네트워크 없이 {@link Connection}과 {@link com.rabbitmq.client.Channel}을 흉내내므로,
+ * RabbitMQ 서버가 없는 곳에서도 예제와 벤치마크를 돌릴 수 있고 결과가 네트워크 상태에 흔들리지 않는다.
+ * 다이렉트, 팬아웃, 토픽, {@code x-consistent-hash} 익스체인지와 기본 익스체인지, 익스체인지끼리의 바인딩,
+ * 이름 있는 큐와 서버가 이름을 짓는 큐, 배타적인 큐와 자동으로 지우는 큐, {@code x-single-active-consumer},
+ * 컨슈머별/채널별 prefetch, 배타적인 컨슈머, ack/nack/reject, basic.get, basic.recover, 발행자 컨펌, 트랜잭션,
+ * mandatory 발행과 basic.return, replyTo와 correlationId, Direct Reply-To를 지원한다.
+ * 메시지를 디스크에 쓰지 않으며, 헤더 익스체인지는 지원하지 않는다. 채널과 연결이 받는 메서드는 각각 {@link EmbeddedChannel}과
+ * {@link EmbeddedConnection}에 적어 두었다.
+ * durable 선언과 persistent 메시지는 {@link #restart()}로 브로커를 다시 띄운 것처럼 했을 때 남는다.
+ * <p>
+ * {@link #connectionManager(int, int)}로 예제 클라이언트에 그대로 넣을 수 있다.
+ * {@link ConnectionFactory}를 받는 코드에는 {@link #connectionFactory()}를 넣는다.
+ * {@code -Delex.rabbitmq.embedded=true}로 띄우면 {@link ConnectionManager#defaultConnectionFactory()}가
+ * {@link #shared()}에 연결하므로 예제의 {@code main()}도 브로커 없이 돌아간다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class EmbeddedBroker implements AutoCloseable {
+	static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
+	private static final class Holder {
+		private static final EmbeddedBroker SHARED = new EmbeddedBroker();
+	}
+
+	private final Map<String, BrokerExchange> exchanges = new ConcurrentHashMap<>();
+	private final Map<String, BrokerQueue> queues = new ConcurrentHashMap<>();
+	private final Map<String, EmbeddedChannel> replyChannels = new ConcurrentHashMap<>();
+	private final Set<EmbeddedConnection> connections = ConcurrentHashMap.newKeySet();
+	private final AtomicLong sequence = new AtomicLong();
+	// 관리 API의 message_stats처럼 브로커가 처리한 메시지를 셉니다.
+	private final LongAdder published = new LongAdder();
+	private final LongAdder enqueued = new LongAdder();
+	private final LongAdder delivered = new LongAdder();
+	private final LongAdder acknowledged = new LongAdder();
+	private final LongAdder ackFrames = new LongAdder();
+
+	public EmbeddedBroker() {
+		// 기본 익스체인지와 미리 선언된 익스체인지입니다.
+		exchanges.put("", new BrokerExchange("", BrokerExchange.DIRECT, true));
+		exchanges.put("amq.direct", new BrokerExchange("amq.direct", BrokerExchange.DIRECT, true));
+		exchanges.put("amq.fanout", new BrokerExchange("amq.fanout", BrokerExchange.FANOUT, true));
+		exchanges.put("amq.topic", new BrokerExchange("amq.topic", BrokerExchange.TOPIC, true));
+	}
+
+	/**
+	 * 연결을 연다. {@link ConnectionManager.ConnectionSupplier}로 쓸 수 있다.
+	 *
+	 * @param name 연결 이름
+	 * @return 연결
+	 */
+	public Connection newConnection(String name) {
+		EmbeddedConnection connection = new EmbeddedConnection(this, sequence.incrementAndGet(), name);
+		connections.add(connection);
+		return connection.proxy();
+	}
+
+	/**
+	 * @return 프로세스 전체에서 함께 쓰는 브로커. 처음 부를 때 만든다.
+	 */
+	public static EmbeddedBroker shared() {
+		return Holder.SHARED;
+	}
+
+	/**
+	 * 이 브로커에 연결하는 {@link ConnectionFactory}를 만든다. 호스트, 포트, 계정 같은 설정은 무시한다.
+	 *
+	 * @return 연결 팩토리
+	 */
+	public ConnectionFactory connectionFactory() {
+		return new EmbeddedConnectionFactory(this);
+	}
+
+	/**
+	 * 이 브로커에 연결하는 연결 관리자를 만든다.
+	 *
+	 * @param connectionCount   연결 개수
+	 * @param maxPooledChannels 발행용 채널 풀 크기
+	 * @return 연결 관리자
+	 */
+	public ConnectionManager connectionManager(int connectionCount, int maxPooledChannels) {
+		return new ConnectionManager(this::newConnection, connectionCount, maxPooledChannels);
+	}
+
+	/**
+	 * @param queue 큐 이름
+	 * @return 큐에 쌓인 메시지 개수. 큐가 없으면 -1
+	 */
+	public int getMessageCount(String queue) {
+		BrokerQueue brokerQueue = queues.get(queue);
+		return null == brokerQueue ? -1 : brokerQueue.messageCount();
+	}
+
+	/**
+	 * @return 선언된 큐 개수
+	 */
+	public int getQueueCount() {
+		return queues.size();
+	}
+
+	/**
+	 * @return 발행된 메시지 개수. 받은 큐가 없어 버려진 메시지도 센다.
+	 */
+	public long getPublished() {
+		return published.sum();
+	}
+
+	/**
+	 * @return 큐에 들어간 메시지 개수. 여러 큐로 간 메시지는 큐마다 센다. Direct Reply-To 응답은 큐를 거치지 않으므로 세지 않는다.
+	 */
+	public long getEnqueued() {
+		return enqueued.sum();
+	}
+
+	/**
+	 * @return 컨슈머에게 전달한 메시지 개수. 다시 전달한 것과 basic.get으로 가져간 것도 센다.
+	 */
+	public long getDelivered() {
+		return delivered.sum();
+	}
+
+	/**
+	 * @return ack받은 메시지 개수
+	 */
+	public long getAcknowledged() {
+		return acknowledged.sum();
+	}
+
+	/**
+	 * @return 받은 {@code basic.ack} 프레임 개수. {@code multiple=true}로 모아 보내면 {@link #getAcknowledged()}보다 적다.
+	 */
+	public long getAckFrames() {
+		return ackFrames.sum();
+	}
+
+	/**
+	 * 열린 연결을 모두 닫는다. 배타적인 큐는 지워지고, 나머지 익스체인지와 큐는 남는다.
+	 */
+	@Override
+	public void close() {
+		for (EmbeddedConnection connection : new ArrayList<>(connections)) {
+			connection.close(200, "Broker closed");
+		}
+	}
+
+	/**
+	 * 브로커를 다시 띄운 것처럼 만든다. 연결을 모두 닫고, durable이 아닌 익스체인지와 큐를 지우고,
+	 * durable 큐에서도 persistent가 아닌 메시지는 버린다. ack받지 못한 메시지는 연결이 닫힐 때 큐로 돌아간다.
+	 */
+	public void restart() {
+		for (EmbeddedConnection connection : new ArrayList<>(connections)) {
+			connection.close(320, "CONNECTION_FORCED - broker restarted");
+		}
+		int dropped = 0;
+		for (BrokerQueue queue : new ArrayList<>(queues.values())) {
+			if (queue.durable) {
+				dropped += queue.dropTransient();
+			} else {
+				deleteQueue(queue);
+			}
+		}
+		for (BrokerExchange exchange : new ArrayList<>(exchanges.values())) {
+			if (!exchange.durable) {
+				deleteExchange(exchange.name);
+			}
+		}
+		log.debug("Broker restarted, {} transient messages dropped.", dropped);
+	}
+
+	void closed(EmbeddedConnection connection) {
+		connections.remove(connection);
+		// 배타적인 큐는 선언한 연결과 함께 사라집니다.
+		for (BrokerQueue queue : new ArrayList<>(queues.values())) {
+			if (queue.owner == connection) {
+				deleteQueue(queue);
+			}
+		}
+	}
+
+	String nextName(String prefix) {
+		return prefix + Long.toString(sequence.incrementAndGet(), 36);
+	}
+
+	BrokerExchange declareExchange(String name, String type, boolean durable) throws IOException {
+		switch (type) {
+			case BrokerExchange.DIRECT:
+			case BrokerExchange.FANOUT:
+			case BrokerExchange.TOPIC:
+			case BrokerExchange.CONSISTENT_HASH:
+				break;
+			default:
+				throw new IOException("NOT_IMPLEMENTED - " + type + " exchange is not supported: " + name);
+		}
+		BrokerExchange exchange = exchanges.computeIfAbsent(name, key -> new BrokerExchange(key, type, durable));
+		if (!exchange.type.equals(type)) {
+			throw new IOException("PRECONDITION_FAILED - inequivalent arg 'type' for exchange '" + name + "'");
+		}
+		return exchange;
+	}
+
+	BrokerExchange exchange(String name) throws IOException {
+		BrokerExchange exchange = exchanges.get(name);
+		if (null == exchange) {
+			throw new IOException("NOT_FOUND - no exchange '" + name + "'");
+		}
+		return exchange;
+	}
+
+	void deleteExchange(String name) {
+		if (name.isEmpty()) {
+			return;
+		}
+		BrokerExchange removed = exchanges.remove(name);
+		if (null != removed) {
+			for (BrokerExchange exchange : exchanges.values()) {
+				exchange.unbindAll(removed);
+			}
+		}
+	}
+
+	BrokerQueue declareQueue(String name, boolean durable, boolean exclusive, boolean autoDelete,
+	                         Map<String, Object> arguments, EmbeddedConnection connection) throws IOException {
+		String queueName = null == name || name.isEmpty() ? nextName("amq.gen-") : name;
+		boolean singleActiveConsumer = null != arguments
+				&& Boolean.TRUE.equals(arguments.get(BrokerQueue.SINGLE_ACTIVE_CONSUMER));
+		BrokerQueue queue = queues.computeIfAbsent(queueName,
+				key -> new BrokerQueue(key, durable, exclusive, autoDelete, singleActiveConsumer, connection));
+		checkAccess(queue, connection);
+		// 기본 익스체인지는 모든 큐와 큐 이름으로 묶여 있습니다.
+		exchanges.get("").bind(queue, queueName);
+		return queue;
+	}
+
+	/**
+	 * 배타적인 큐는 선언한 연결만 선언하고 받을 수 있다. 보내는 것은 누구나 할 수 있다.
+	 */
+	void checkAccess(BrokerQueue queue, EmbeddedConnection connection) throws IOException {
+		if (null != queue.owner && queue.owner != connection) {
+			throw new IOException("RESOURCE_LOCKED - cannot obtain exclusive access to locked queue '"
+					+ queue.name + "'");
+		}
+	}
+
+	/**
+	 * 채널이 큐에서 컨슈머를 뗀 다음에 부른다. 자동으로 지우는 큐라면 마지막 컨슈머가 떨어질 때 지운다.
+	 */
+	void consumerRemoved(BrokerQueue queue) {
+		if (queue.isAbandoned()) {
+			deleteQueue(queue);
+		}
+	}
+
+	BrokerQueue queue(String name) throws IOException {
+		BrokerQueue queue = queues.get(name);
+		if (null == queue) {
+			throw new IOException("NOT_FOUND - no queue '" + name + "'");
+		}
+		return queue;
+	}
+
+	void deleteExchange(String name, boolean ifUnused) throws IOException {
+		BrokerExchange exchange = exchanges.get(name);
+		if (ifUnused && null != exchange && !exchange.isUnused()) {
+			throw new IOException("PRECONDITION_FAILED - exchange '" + name + "' in use");
+		}
+		deleteExchange(name);
+	}
+
+	int deleteQueue(String name, boolean ifUnused, boolean ifEmpty) throws IOException {
+		BrokerQueue queue = queues.get(name);
+		if (null == queue) {
+			return 0;
+		}
+		if (ifUnused && queue.consumerCount() > 0) {
+			throw new IOException("PRECONDITION_FAILED - queue '" + name + "' in use");
+		}
+		if (ifEmpty && queue.messageCount() > 0) {
+			throw new IOException("PRECONDITION_FAILED - queue '" + name + "' not empty");
+		}
+		return deleteQueue(queue);
+	}
+
+	private int deleteQueue(BrokerQueue queue) {
+		// 같은 이름으로 새로 선언된 큐는 지우지 않습니다.
+		if (!queues.remove(queue.name, queue)) {
+			return 0;
+		}
+		for (BrokerExchange exchange : exchanges.values()) {
+			exchange.unbindAll(queue);
+		}
+		for (EmbeddedChannel.Subscription subscription : queue.consumers()) {
+			subscription.cancelledByBroker();
+		}
+		return queue.purge();
+	}
+
+	/**
+	 * 메시지를 익스체인지에 넣는다.
+	 *
+	 * @return 메시지를 받은 큐 개수
+	 */
+	int route(BrokerMessage message) throws IOException {
+		published.increment();
+		if (message.exchange.isEmpty() && message.routingKey.startsWith(DIRECT_REPLY_TO + ".")) {
+			EmbeddedChannel channel = replyChannels.get(message.routingKey.substring(DIRECT_REPLY_TO.length() + 1));
+			return null != channel && channel.deliverReply(message) ? 1 : 0;
+		}
+		Collection<BrokerQueue> targets = exchange(message.exchange).route(message.routingKey);
+		for (BrokerQueue queue : targets) {
+			queue.enqueue(message);
+		}
+		enqueued.add(targets.size());
+		return targets.size();
+	}
+
+	void delivered() {
+		delivered.increment();
+	}
+
+	void acknowledged(int messages) {
+		ackFrames.increment();
+		acknowledged.add(messages);
+	}
+
+	String registerReplyTo(EmbeddedChannel channel) {
+		String token = nextName("");
+		replyChannels.put(token, channel);
+		return DIRECT_REPLY_TO + "." + token;
+	}
+
+	void unregisterReplyTo(String replyTo) {
+		replyChannels.remove(replyTo.substring(DIRECT_REPLY_TO.length() + 1));
+	}
+}
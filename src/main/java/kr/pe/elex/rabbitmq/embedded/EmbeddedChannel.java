@@ -0,0 +1,969 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.embedded;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.CancelCallback;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Command;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.ConsumerShutdownSignalCallback;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.Return;
+import com.rabbitmq.client.ReturnCallback;
+import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.AMQCommand;
+import com.rabbitmq.client.impl.AMQImpl;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link EmbeddedBroker}의 채널. {@link Channel} 인터페이스는 동적 프록시로 구현한다.
+ * <p>
+ * 실제 클라이언트처럼 컨슈머 콜백과 컨펌 콜백은 채널마다 하나인 디스패치 스레드에서 순서대로 부른다.
+ * 발행은 부른 스레드에서 바로 큐까지 라우팅된다.
+ * <p>
+ * amqp-client 5.10의 {@link Channel} 메서드를 모두 받는다. 실제 브로커와 다른 점은 다음과 같다.
+ * <ul>
+ *     <li>basicQos의 prefetchSize, basicConsume의 noLocal과 arguments, 익스체인지의 autoDelete와 internal은 무시한다.</li>
+ *     <li>큐를 선언할 때 arguments는 {@code x-single-active-consumer}만 읽는다. 헤더 익스체인지는 선언할 수 없다.</li>
+ *     <li>{@code immediate=true}로 발행하면 RabbitMQ처럼 {@code NOT_IMPLEMENTED}로 채널을 닫는다.</li>
+ *     <li>basicRecover는 {@code requeue}와 관계없이 ack받지 못한 메시지를 큐로 돌려놓는다.</li>
+ *     <li>rpc, asyncRpc, asyncCompletableRpc는 익스체인지와 큐, basic.qos, basic.recover, basic.cancel, confirm, tx 메서드만 받는다.
+ *     나머지는 {@code NOT_IMPLEMENTED}로 실패한다.</li>
+ * </ul>
+ *
+ * @author Elex
+ */
+@Slf4j
+final class EmbeddedChannel implements InvocationHandler {
+	static final AMQP.BasicProperties EMPTY_PROPERTIES = new AMQP.BasicProperties.Builder().build();
+
+	private final EmbeddedConnection connection;
+	private final EmbeddedBroker broker;
+	private final int number;
+	private final Channel proxy;
+	private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+	private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+	private final List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<>();
+	private final List<ReturnListener> returnListeners = new CopyOnWriteArrayList<>();
+
+	// 아래 필드는 이 객체의 잠금으로 보호합니다.
+	private final LinkedHashMap<Long, Unacked> unacked = new LinkedHashMap<>();
+	private long deliveryTag;
+	private int consumerPrefetch;
+	private int channelPrefetch;
+	private boolean confirmMode;
+	private long nextPublishSeqNo;
+	private long pendingConfirm;
+	private long lastConfirmed;
+	private boolean confirmScheduled;
+	private boolean txMode;
+	// 트랜잭션에서 커밋할 때까지 미뤄둔 발행과 ack입니다.
+	private final List<TxAction> txActions = new ArrayList<>();
+	private ExecutorService dispatcher;
+	private Consumer defaultConsumer;
+
+	private volatile Subscription replySubscription;
+	private volatile String replyTo;
+	private volatile ShutdownSignalException closeReason;
+
+	EmbeddedChannel(EmbeddedConnection connection, int number) {
+		this.connection = connection;
+		this.broker = connection.broker();
+		this.number = number;
+		this.proxy = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class}, this);
+	}
+
+	Channel proxy() {
+		return proxy;
+	}
+
+	int number() {
+		return number;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Object[] a = null == args ? new Object[0] : args;
+		switch (method.getName()) {
+			case "getChannelNumber":
+				return number;
+			case "getConnection":
+				return connection.proxy();
+			case "isOpen":
+				return null == closeReason;
+			case "getCloseReason":
+				return closeReason;
+			case "close":
+				ensureOpen();
+				close(a.length > 1 ? (Integer) a[0] : 200, a.length > 1 ? (String) a[1] : "OK");
+				return null;
+			case "abort":
+				close(a.length > 1 ? (Integer) a[0] : 200, a.length > 1 ? (String) a[1] : "OK");
+				return null;
+			case "addShutdownListener":
+				shutdownListeners.add((ShutdownListener) a[0]);
+				return null;
+			case "removeShutdownListener":
+				shutdownListeners.remove((ShutdownListener) a[0]);
+				return null;
+			case "notifyListeners":
+				notifyListeners(closeReason);
+				return null;
+			case "getDefaultConsumer":
+				synchronized (this) {
+					return defaultConsumer;
+				}
+			case "setDefaultConsumer":
+				synchronized (this) {
+					defaultConsumer = (Consumer) a[0];
+				}
+				return null;
+			case "addConfirmListener":
+				return addConfirmListener(a);
+			case "removeConfirmListener":
+				return confirmListeners.remove((ConfirmListener) a[0]);
+			case "clearConfirmListeners":
+				confirmListeners.clear();
+				return null;
+			case "addReturnListener":
+				return addReturnListener(a[0]);
+			case "removeReturnListener":
+				return returnListeners.remove((ReturnListener) a[0]);
+			case "clearReturnListeners":
+				returnListeners.clear();
+				return null;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == a[0];
+			case "toString":
+				return "EmbeddedChannel(" + number + ")";
+			default:
+				break;
+		}
+
+		ensureOpen();
+		switch (method.getName()) {
+			case "basicQos":
+				basicQos(a.length == 3 ? (Integer) a[1] : (Integer) a[0], a.length > 1 && (Boolean) a[a.length - 1]);
+				return null;
+			case "exchangeDeclare":
+			case "exchangeDeclareNoWait":
+				broker.declareExchange((String) a[0], exchangeType(a[1]), a.length > 2 && (Boolean) a[2]);
+				return new AMQImpl.Exchange.DeclareOk();
+			case "exchangeDeclarePassive":
+				broker.exchange((String) a[0]);
+				return new AMQImpl.Exchange.DeclareOk();
+			case "exchangeDelete":
+			case "exchangeDeleteNoWait":
+				broker.deleteExchange((String) a[0], a.length > 1 && (Boolean) a[1]);
+				return new AMQImpl.Exchange.DeleteOk();
+			case "queueDeclare":
+			case "queueDeclareNoWait": {
+				BrokerQueue queue = a.length == 0
+						? broker.declareQueue(null, false, true, true, null, connection)
+						: broker.declareQueue((String) a[0], (Boolean) a[1], (Boolean) a[2], (Boolean) a[3],
+						arguments(a[4]), connection);
+				return new AMQImpl.Queue.DeclareOk(queue.name, queue.messageCount(), queue.consumerCount());
+			}
+			case "queueDeclarePassive": {
+				BrokerQueue queue = broker.queue((String) a[0]);
+				broker.checkAccess(queue, connection);
+				return new AMQImpl.Queue.DeclareOk(queue.name, queue.messageCount(), queue.consumerCount());
+			}
+			case "exchangeBind":
+			case "exchangeBindNoWait":
+				broker.exchange((String) a[1]).bind(broker.exchange((String) a[0]), (String) a[2]);
+				return new AMQImpl.Exchange.BindOk();
+			case "exchangeUnbind":
+			case "exchangeUnbindNoWait":
+				broker.exchange((String) a[1]).unbind(broker.exchange((String) a[0]), (String) a[2]);
+				return new AMQImpl.Exchange.UnbindOk();
+			case "queueBind":
+			case "queueBindNoWait":
+				broker.exchange((String) a[1]).bind(broker.queue((String) a[0]), (String) a[2]);
+				return new AMQImpl.Queue.BindOk();
+			case "queueUnbind":
+				broker.exchange((String) a[1]).unbind(broker.queue((String) a[0]), (String) a[2]);
+				return new AMQImpl.Queue.UnbindOk();
+			case "queueDelete":
+			case "queueDeleteNoWait":
+				return new AMQImpl.Queue.DeleteOk(broker.deleteQueue((String) a[0],
+						a.length > 1 && (Boolean) a[1], a.length > 2 && (Boolean) a[2]));
+			case "queuePurge":
+				return new AMQImpl.Queue.PurgeOk(broker.queue((String) a[0]).purge());
+			case "messageCount":
+				return (long) broker.queue((String) a[0]).messageCount();
+			case "consumerCount":
+				return (long) broker.queue((String) a[0]).consumerCount();
+			case "basicPublish":
+				basicPublish((String) a[0], (String) a[1], a.length > 4 && (Boolean) a[2], a.length > 5 && (Boolean) a[3],
+						(AMQP.BasicProperties) a[a.length - 2], (byte[]) a[a.length - 1]);
+				return null;
+			case "basicConsume":
+				return basicConsume(a);
+			case "basicCancel":
+				basicCancel((String) a[0]);
+				return null;
+			case "basicGet":
+				return basicGet((String) a[0], (Boolean) a[1]);
+			case "basicAck": {
+				long tag = (Long) a[0];
+				boolean multiple = (Boolean) a[1];
+				transact(() -> broker.acknowledged(settle(tag, multiple, false)));
+				return null;
+			}
+			case "basicNack": {
+				long tag = (Long) a[0];
+				boolean multiple = (Boolean) a[1];
+				boolean requeue = (Boolean) a[2];
+				transact(() -> settle(tag, multiple, requeue));
+				return null;
+			}
+			case "basicReject": {
+				long tag = (Long) a[0];
+				boolean requeue = (Boolean) a[1];
+				transact(() -> settle(tag, false, requeue));
+				return null;
+			}
+			case "basicRecover":
+				return basicRecover();
+			case "txSelect":
+				synchronized (this) {
+					if (confirmMode) {
+						throw new IOException("PRECONDITION_FAILED - cannot switch from confirm to tx mode");
+					}
+					txMode = true;
+				}
+				return new AMQImpl.Tx.SelectOk();
+			case "txCommit":
+				for (TxAction action : endTransaction()) {
+					action.run();
+				}
+				return new AMQImpl.Tx.CommitOk();
+			case "txRollback":
+				// 미뤄둔 발행과 ack를 버립니다. 이미 받은 메시지는 ack받지 못한 채로 남습니다.
+				endTransaction();
+				return new AMQImpl.Tx.RollbackOk();
+			case "confirmSelect":
+				synchronized (this) {
+					if (txMode) {
+						throw new IOException("PRECONDITION_FAILED - cannot switch from tx to confirm mode");
+					}
+					if (!confirmMode) {
+						confirmMode = true;
+						nextPublishSeqNo = 1;
+					}
+				}
+				return new AMQImpl.Confirm.SelectOk();
+			case "getNextPublishSeqNo":
+				synchronized (this) {
+					return nextPublishSeqNo;
+				}
+			case "waitForConfirms":
+				return waitForConfirms(a.length > 0 ? (Long) a[0] : 0);
+			case "waitForConfirmsOrDie":
+				waitForConfirms(a.length > 0 ? (Long) a[0] : 0);
+				return null;
+			case "rpc":
+				return new AMQCommand(rpc((com.rabbitmq.client.Method) a[0]));
+			case "asyncRpc":
+				rpc((com.rabbitmq.client.Method) a[0]);
+				return null;
+			case "asyncCompletableRpc":
+				try {
+					return CompletableFuture.<Command>completedFuture(new AMQCommand(rpc((com.rabbitmq.client.Method) a[0])));
+				} catch (IOException e) {
+					return CompletableFuture.<Command>failedFuture(e);
+				}
+			default:
+				// 5.10 뒤에 클라이언트에 더해진 메서드입니다.
+				throw new UnsupportedOperationException("Channel." + method.getName());
+		}
+	}
+
+	private static String exchangeType(Object type) {
+		if (type instanceof BuiltinExchangeType) {
+			return ((BuiltinExchangeType) type).getType();
+		}
+		return ((String) type).toLowerCase(Locale.ROOT);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> arguments(Object arguments) {
+		return (Map<String, Object>) arguments;
+	}
+
+	private void ensureOpen() {
+		ShutdownSignalException reason = closeReason;
+		if (null != reason) {
+			throw new AlreadyClosedException(reason);
+		}
+	}
+
+	private void basicQos(int prefetchCount, boolean global) {
+		synchronized (this) {
+			if (global) {
+				channelPrefetch = prefetchCount;
+			} else {
+				consumerPrefetch = prefetchCount;
+			}
+		}
+		// 늘어난 만큼 바로 보냅니다.
+		drainAll();
+	}
+
+	private void basicPublish(String exchange, String routingKey, boolean mandatory, boolean immediate,
+	                          AMQP.BasicProperties properties, byte[] body) throws IOException {
+		if (immediate) {
+			closeWithError(540, "NOT_IMPLEMENTED - immediate=true");
+			return;
+		}
+		AMQP.BasicProperties props = null == properties ? EMPTY_PROPERTIES : properties;
+		if (EmbeddedBroker.DIRECT_REPLY_TO.equals(props.getReplyTo())) {
+			// 브로커는 Direct Reply-To를 이 채널만 받을 수 있는 주소로 바꿔서 전달합니다.
+			String address = replyTo;
+			if (null == address) {
+				throw new IOException("PRECONDITION_FAILED - fast reply consumer does not exist");
+			}
+			props = props.builder().replyTo(address).build();
+		}
+		long seq = 0;
+		synchronized (this) {
+			if (confirmMode) {
+				seq = nextPublishSeqNo++;
+			}
+		}
+		// 클라이언트는 본문을 프레임으로 복사하므로 발행한 뒤에 배열을 다시 써도 됩니다. 같게 동작하도록 복사합니다.
+		BrokerMessage message = new BrokerMessage(exchange, routingKey, props, body.clone(), false);
+		transact(() -> {
+			if (0 == broker.route(message) && mandatory) {
+				dispatch(() -> handleReturn(message));
+			}
+		});
+		if (seq > 0) {
+			scheduleConfirm(seq);
+		}
+	}
+
+	/**
+	 * 받을 큐가 없는 mandatory 메시지를 돌려준다. 실제 브로커처럼 basic.return을 컨펌보다 먼저 보낸다.
+	 */
+	private void handleReturn(BrokerMessage message) {
+		for (ReturnListener listener : returnListeners) {
+			try {
+				listener.handleReturn(312, "NO_ROUTE", message.exchange, message.routingKey, message.properties, message.body);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Return listener failed.", e);
+			}
+		}
+	}
+
+	private ReturnListener addReturnListener(Object listener) {
+		if (listener instanceof ReturnListener) {
+			returnListeners.add((ReturnListener) listener);
+			return null;
+		}
+		ReturnCallback callback = (ReturnCallback) listener;
+		ReturnListener wrapped = (replyCode, replyText, exchange, routingKey, properties, body) ->
+				callback.handle(new Return(replyCode, replyText, exchange, routingKey, properties, body));
+		returnListeners.add(wrapped);
+		return wrapped;
+	}
+
+	/**
+	 * 트랜잭션 중이면 커밋할 때까지 미루고, 아니면 바로 처리한다.
+	 */
+	private void transact(TxAction action) throws IOException {
+		synchronized (this) {
+			if (txMode) {
+				txActions.add(action);
+				return;
+			}
+		}
+		action.run();
+	}
+
+	/**
+	 * @return 미뤄둔 발행과 ack
+	 */
+	private synchronized List<TxAction> endTransaction() throws IOException {
+		if (!txMode) {
+			throw new IOException("PRECONDITION_FAILED - channel is not transactional");
+		}
+		List<TxAction> actions = new ArrayList<>(txActions);
+		txActions.clear();
+		return actions;
+	}
+
+	/**
+	 * 컨펌은 모아서 {@code multiple=true}로 보낸다. 실제 브로커도 이렇게 한다.
+	 */
+	private synchronized void scheduleConfirm(long seq) {
+		pendingConfirm = Math.max(pendingConfirm, seq);
+		if (!confirmScheduled) {
+			confirmScheduled = true;
+			dispatch(this::sendConfirms);
+		}
+	}
+
+	private void sendConfirms() {
+		long from;
+		long to;
+		synchronized (this) {
+			from = lastConfirmed + 1;
+			to = pendingConfirm;
+			lastConfirmed = to;
+			confirmScheduled = false;
+			notifyAll();
+		}
+		if (to < from) {
+			return;
+		}
+		for (ConfirmListener listener : confirmListeners) {
+			try {
+				listener.handleAck(to, to > from);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Confirm listener failed.", e);
+			}
+		}
+	}
+
+	private boolean waitForConfirms(long timeoutMillis) throws InterruptedException, TimeoutException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		synchronized (this) {
+			if (!confirmMode) {
+				throw new IllegalStateException("Confirms not selected");
+			}
+			while (lastConfirmed < nextPublishSeqNo - 1) {
+				ensureOpen();
+				if (timeoutMillis <= 0) {
+					wait();
+				} else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						throw new TimeoutException();
+					}
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+			}
+		}
+		return true;
+	}
+
+	private Object addConfirmListener(Object[] a) {
+		if (a.length == 1) {
+			confirmListeners.add((ConfirmListener) a[0]);
+			return null;
+		}
+		ConfirmCallback ackCallback = (ConfirmCallback) a[0];
+		ConfirmCallback nackCallback = (ConfirmCallback) a[1];
+		ConfirmListener listener = new ConfirmListener() {
+			@Override
+			public void handleAck(long deliveryTag, boolean multiple) throws IOException {
+				ackCallback.handle(deliveryTag, multiple);
+			}
+
+			@Override
+			public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+				nackCallback.handle(deliveryTag, multiple);
+			}
+		};
+		confirmListeners.add(listener);
+		return listener;
+	}
+
+	private String basicConsume(Object[] a) throws IOException {
+		String queueName = (String) a[0];
+		boolean autoAck = a.length > 1 && a[1] instanceof Boolean && (Boolean) a[1];
+		String requestedTag = a.length > 2 && a[2] instanceof String ? (String) a[2] : "";
+		String tag = requestedTag.isEmpty() ? broker.nextName("amq.ctag-") : requestedTag;
+		boolean exclusive = a.length > 4 && a[4] instanceof Boolean && (Boolean) a[4];
+		Consumer consumer = consumerOf(a);
+		if (subscriptions.containsKey(tag)) {
+			throw new IOException("NOT_ALLOWED - attempt to reuse consumer tag '" + tag + "'");
+		}
+
+		if (EmbeddedBroker.DIRECT_REPLY_TO.equals(queueName)) {
+			if (!autoAck) {
+				throw new IOException("PRECONDITION_FAILED - reply consumer cannot acknowledge");
+			}
+			if (null != replySubscription) {
+				throw new IOException("PRECONDITION_FAILED - reply consumer already set");
+			}
+			Subscription subscription = new Subscription(tag, null, consumer, true, 0, false);
+			subscriptions.put(tag, subscription);
+			dispatch(() -> consumer.handleConsumeOk(tag));
+			replySubscription = subscription;
+			replyTo = broker.registerReplyTo(this);
+			return tag;
+		}
+
+		BrokerQueue queue = broker.queue(queueName);
+		broker.checkAccess(queue, connection);
+		int prefetch;
+		synchronized (this) {
+			prefetch = consumerPrefetch;
+		}
+		Subscription subscription = new Subscription(tag, queue, consumer, autoAck, prefetch, exclusive);
+		subscriptions.put(tag, subscription);
+		try {
+			// consume-ok가 첫 메시지보다 먼저 가도록 큐가 보내기 전에 넣습니다.
+			queue.addConsumer(subscription, () -> dispatch(() -> consumer.handleConsumeOk(tag)));
+		} catch (IOException e) {
+			subscriptions.remove(tag);
+			throw e;
+		}
+		return tag;
+	}
+
+	private GetResponse basicGet(String queueName, boolean autoAck) throws IOException {
+		BrokerQueue queue = broker.queue(queueName);
+		broker.checkAccess(queue, connection);
+		BrokerMessage message = queue.poll();
+		if (null == message) {
+			return null;
+		}
+		long tag;
+		synchronized (this) {
+			tag = ++deliveryTag;
+			if (!autoAck) {
+				unacked.put(tag, new Unacked(null, queue, message));
+			}
+		}
+		broker.delivered();
+		return new GetResponse(new Envelope(tag, message.redelivered, message.exchange, message.routingKey),
+				message.properties, message.body, queue.messageCount());
+	}
+
+	/**
+	 * ack받지 못한 메시지를 모두 큐로 돌려놓는다.
+	 */
+	private AMQP.Basic.RecoverOk basicRecover() {
+		List<Unacked> pending;
+		synchronized (this) {
+			pending = new ArrayList<>(unacked.values());
+			unacked.clear();
+			for (Unacked entry : pending) {
+				if (null != entry.subscription) {
+					entry.subscription.unacked--;
+				}
+			}
+		}
+		requeue(pending);
+		for (Subscription subscription : subscriptions.values()) {
+			dispatch(() -> subscription.consumer.handleRecoverOk(subscription.tag));
+		}
+		return new AMQImpl.Basic.RecoverOk();
+	}
+
+	/**
+	 * rpc로 보낸 메서드를 해당하는 채널 메서드로 처리한다.
+	 *
+	 * @return 응답 메서드
+	 */
+	private com.rabbitmq.client.Method rpc(com.rabbitmq.client.Method method) throws IOException {
+		if (method instanceof AMQP.Exchange.Declare) {
+			AMQP.Exchange.Declare declare = (AMQP.Exchange.Declare) method;
+			return declare.getPassive() ? proxy.exchangeDeclarePassive(declare.getExchange())
+					: proxy.exchangeDeclare(declare.getExchange(), declare.getType(), declare.getDurable(),
+					declare.getAutoDelete(), declare.getInternal(), declare.getArguments());
+		} else if (method instanceof AMQP.Exchange.Delete) {
+			AMQP.Exchange.Delete delete = (AMQP.Exchange.Delete) method;
+			return proxy.exchangeDelete(delete.getExchange(), delete.getIfUnused());
+		} else if (method instanceof AMQP.Exchange.Bind) {
+			AMQP.Exchange.Bind bind = (AMQP.Exchange.Bind) method;
+			return proxy.exchangeBind(bind.getDestination(), bind.getSource(), bind.getRoutingKey(), bind.getArguments());
+		} else if (method instanceof AMQP.Exchange.Unbind) {
+			AMQP.Exchange.Unbind unbind = (AMQP.Exchange.Unbind) method;
+			return proxy.exchangeUnbind(unbind.getDestination(), unbind.getSource(), unbind.getRoutingKey(),
+					unbind.getArguments());
+		} else if (method instanceof AMQP.Queue.Declare) {
+			AMQP.Queue.Declare declare = (AMQP.Queue.Declare) method;
+			return declare.getPassive() ? proxy.queueDeclarePassive(declare.getQueue())
+					: proxy.queueDeclare(declare.getQueue(), declare.getDurable(), declare.getExclusive(),
+					declare.getAutoDelete(), declare.getArguments());
+		} else if (method instanceof AMQP.Queue.Bind) {
+			AMQP.Queue.Bind bind = (AMQP.Queue.Bind) method;
+			return proxy.queueBind(bind.getQueue(), bind.getExchange(), bind.getRoutingKey(), bind.getArguments());
+		} else if (method instanceof AMQP.Queue.Unbind) {
+			AMQP.Queue.Unbind unbind = (AMQP.Queue.Unbind) method;
+			return proxy.queueUnbind(unbind.getQueue(), unbind.getExchange(), unbind.getRoutingKey(), unbind.getArguments());
+		} else if (method instanceof AMQP.Queue.Delete) {
+			AMQP.Queue.Delete delete = (AMQP.Queue.Delete) method;
+			return proxy.queueDelete(delete.getQueue(), delete.getIfUnused(), delete.getIfEmpty());
+		} else if (method instanceof AMQP.Queue.Purge) {
+			return proxy.queuePurge(((AMQP.Queue.Purge) method).getQueue());
+		} else if (method instanceof AMQP.Basic.Qos) {
+			AMQP.Basic.Qos qos = (AMQP.Basic.Qos) method;
+			proxy.basicQos(qos.getPrefetchSize(), qos.getPrefetchCount(), qos.getGlobal());
+			return new AMQImpl.Basic.QosOk();
+		} else if (method instanceof AMQP.Basic.Recover) {
+			return proxy.basicRecover(((AMQP.Basic.Recover) method).getRequeue());
+		} else if (method instanceof AMQP.Basic.Cancel) {
+			String tag = ((AMQP.Basic.Cancel) method).getConsumerTag();
+			proxy.basicCancel(tag);
+			return new AMQImpl.Basic.CancelOk(tag);
+		} else if (method instanceof AMQP.Confirm.Select) {
+			return proxy.confirmSelect();
+		} else if (method instanceof AMQP.Tx.Select) {
+			return proxy.txSelect();
+		} else if (method instanceof AMQP.Tx.Commit) {
+			return proxy.txCommit();
+		} else if (method instanceof AMQP.Tx.Rollback) {
+			return proxy.txRollback();
+		}
+		throw new IOException("NOT_IMPLEMENTED - " + method.protocolMethodName() + " over rpc");
+	}
+
+	private void basicCancel(String tag) throws IOException {
+		Subscription subscription = subscriptions.remove(tag);
+		if (null == subscription) {
+			throw new IOException("NOT_FOUND - unknown consumer tag '" + tag + "'");
+		}
+		subscription.cancelled = true;
+		if (null == subscription.queue) {
+			broker.unregisterReplyTo(replyTo);
+			replySubscription = null;
+			replyTo = null;
+		} else {
+			subscription.queue.removeConsumer(subscription);
+			broker.consumerRemoved(subscription.queue);
+		}
+		dispatch(() -> subscription.consumer.handleCancelOk(tag));
+	}
+
+	/**
+	 * ack, nack, reject를 처리한다.
+	 *
+	 * @return 처리한 메시지 개수
+	 */
+	private int settle(long tag, boolean multiple, boolean requeue) {
+		List<Unacked> settled = new ArrayList<>();
+		synchronized (this) {
+			if (multiple) {
+				long upTo = tag == 0 ? Long.MAX_VALUE : tag;
+				Iterator<Map.Entry<Long, Unacked>> iterator = unacked.entrySet().iterator();
+				while (iterator.hasNext()) {
+					Map.Entry<Long, Unacked> entry = iterator.next();
+					if (entry.getKey() > upTo) {
+						break;
+					}
+					settled.add(entry.getValue());
+					iterator.remove();
+				}
+			} else {
+				Unacked entry = unacked.remove(tag);
+				if (null != entry) {
+					settled.add(entry);
+				}
+			}
+			for (Unacked entry : settled) {
+				if (null != entry.subscription) {
+					entry.subscription.unacked--;
+				}
+			}
+		}
+		if (settled.isEmpty() && !multiple) {
+			// 실제 브로커는 모르는 태그를 받으면 채널을 닫습니다.
+			closeWithError(406, "PRECONDITION_FAILED - unknown delivery tag " + tag);
+			return 0;
+		}
+		if (requeue) {
+			requeue(settled);
+		}
+		drainAll();
+		return settled.size();
+	}
+
+	private static void requeue(List<Unacked> entries) {
+		// 맨 앞에 하나씩 넣으므로 뒤에서부터 넣어야 원래 순서가 됩니다.
+		for (int i = entries.size() - 1; i >= 0; i--) {
+			Unacked entry = entries.get(i);
+			entry.queue.requeue(entry.message);
+		}
+	}
+
+	private void drainAll() {
+		for (Subscription subscription : subscriptions.values()) {
+			if (null != subscription.queue) {
+				subscription.queue.drain();
+			}
+		}
+	}
+
+	/**
+	 * 큐가 부른다. 받을 수 있으면 딜리버리 태그를 붙여서 디스패치 스레드로 넘긴다.
+	 */
+	private synchronized boolean tryDeliver(Subscription subscription, BrokerMessage message) {
+		if (null != closeReason || subscription.cancelled) {
+			return false;
+		}
+		if (!subscription.autoAck) {
+			if (subscription.prefetch > 0 && subscription.unacked >= subscription.prefetch) {
+				return false;
+			}
+			if (channelPrefetch > 0 && unacked.size() >= channelPrefetch) {
+				return false;
+			}
+		}
+		long tag = ++deliveryTag;
+		if (!subscription.autoAck) {
+			unacked.put(tag, new Unacked(subscription, subscription.queue, message));
+			subscription.unacked++;
+		}
+		dispatch(() -> deliver(subscription, tag, message));
+		broker.delivered();
+		return true;
+	}
+
+	boolean deliverReply(BrokerMessage message) {
+		Subscription subscription = replySubscription;
+		return null != subscription && tryDeliver(subscription, message);
+	}
+
+	private void deliver(Subscription subscription, long tag, BrokerMessage message) {
+		try {
+			subscription.consumer.handleDelivery(subscription.tag,
+					new Envelope(tag, message.redelivered, message.exchange, message.routingKey),
+					message.properties, message.body);
+		} catch (Exception e) {
+			log.warn("Consumer {} failed on delivery {}.", subscription.tag, tag, e);
+		}
+	}
+
+	private synchronized void dispatch(Runnable task) {
+		if (null == dispatcher) {
+			dispatcher = WorkerExecutors.fixed("elex-embedded-" + connection.id() + "-" + number, 1);
+		}
+		try {
+			dispatcher.execute(task);
+		} catch (RejectedExecutionException e) {
+			log.debug("Channel {} already closed, dropping a callback.", number);
+		}
+	}
+
+	private void close(int code, String text) {
+		close(new ShutdownSignalException(false, true, new AMQImpl.Channel.Close(code, text, 0, 0), proxy));
+	}
+
+	private void closeWithError(int code, String text) {
+		log.warn("Closing channel {}: {}", number, text);
+		close(new ShutdownSignalException(false, false, new AMQImpl.Channel.Close(code, text, 0, 0), proxy));
+	}
+
+	void close(ShutdownSignalException reason) {
+		List<Unacked> pending;
+		synchronized (this) {
+			if (null != closeReason) {
+				return;
+			}
+			closeReason = reason;
+			pending = new ArrayList<>(unacked.values());
+			unacked.clear();
+			notifyAll();
+		}
+		// ack받지 못한 메시지는 다른 컨슈머가 받도록 큐에 돌려놓습니다.
+		// 컨슈머를 떼기 전에 돌려놓아야 단일 활성 컨슈머 큐에서 다음 컨슈머가 원래 순서대로 받습니다.
+		requeue(pending);
+		for (Subscription subscription : subscriptions.values()) {
+			subscription.cancelled = true;
+			if (null != subscription.queue) {
+				subscription.queue.removeConsumer(subscription);
+				broker.consumerRemoved(subscription.queue);
+			}
+			dispatch(() -> subscription.consumer.handleShutdownSignal(subscription.tag, reason));
+		}
+		subscriptions.clear();
+		String address = replyTo;
+		if (null != address) {
+			broker.unregisterReplyTo(address);
+		}
+		connection.channelClosed(this);
+		notifyListeners(reason);
+		synchronized (this) {
+			if (null != dispatcher) {
+				// 이미 넣은 콜백은 마저 부릅니다.
+				dispatcher.shutdown();
+			}
+		}
+	}
+
+	private void notifyListeners(ShutdownSignalException reason) {
+		if (null == reason) {
+			return;
+		}
+		for (ShutdownListener listener : shutdownListeners) {
+			try {
+				listener.shutdownCompleted(reason);
+			} catch (RuntimeException e) {
+				log.warn("Shutdown listener failed.", e);
+			}
+		}
+	}
+
+	private static Consumer consumerOf(Object[] a) {
+		DeliverCallback deliverCallback = null;
+		CancelCallback cancelCallback = null;
+		ConsumerShutdownSignalCallback shutdownCallback = null;
+		for (Object arg : a) {
+			if (arg instanceof Consumer) {
+				return (Consumer) arg;
+			} else if (arg instanceof DeliverCallback) {
+				deliverCallback = (DeliverCallback) arg;
+			} else if (arg instanceof CancelCallback) {
+				cancelCallback = (CancelCallback) arg;
+			} else if (arg instanceof ConsumerShutdownSignalCallback) {
+				shutdownCallback = (ConsumerShutdownSignalCallback) arg;
+			}
+		}
+		if (null == deliverCallback) {
+			throw new UnsupportedOperationException("basicConsume without a consumer");
+		}
+		return new CallbackConsumer(deliverCallback, cancelCallback, shutdownCallback);
+	}
+
+	/**
+	 * 큐에 붙은 컨슈머 하나.
+	 */
+	final class Subscription {
+		final String tag;
+		final BrokerQueue queue;
+		final Consumer consumer;
+		final boolean autoAck;
+		final int prefetch;
+		final boolean exclusive;
+		// 채널의 잠금으로 보호합니다.
+		int unacked;
+		volatile boolean cancelled;
+
+		private Subscription(String tag, BrokerQueue queue, Consumer consumer, boolean autoAck, int prefetch,
+		                     boolean exclusive) {
+			this.tag = tag;
+			this.queue = queue;
+			this.consumer = consumer;
+			this.autoAck = autoAck;
+			this.prefetch = prefetch;
+			this.exclusive = exclusive;
+		}
+
+		boolean tryDeliver(BrokerMessage message) {
+			return EmbeddedChannel.this.tryDeliver(this, message);
+		}
+
+		/**
+		 * 큐가 지워져서 브로커가 컨슈머를 취소한다.
+		 */
+		void cancelledByBroker() {
+			if (null != subscriptions.remove(tag)) {
+				cancelled = true;
+				dispatch(() -> {
+					try {
+						consumer.handleCancel(tag);
+					} catch (IOException e) {
+						log.warn("Consumer {} failed on cancel.", tag, e);
+					}
+				});
+			}
+		}
+	}
+
+	private static final class Unacked {
+		// basic.get으로 가져간 메시지는 null입니다.
+		private final Subscription subscription;
+		private final BrokerQueue queue;
+		private final BrokerMessage message;
+
+		private Unacked(Subscription subscription, BrokerQueue queue, BrokerMessage message) {
+			this.subscription = subscription;
+			this.queue = queue;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * 트랜잭션에서 미뤄둔 발행이나 ack.
+	 */
+	private interface TxAction {
+		void run() throws IOException;
+	}
+
+	/**
+	 * 콜백으로 등록한 컨슈머.
+	 */
+	private static final class CallbackConsumer implements Consumer {
+		private final DeliverCallback deliverCallback;
+		private final CancelCallback cancelCallback;
+		private final ConsumerShutdownSignalCallback shutdownCallback;
+
+		private CallbackConsumer(DeliverCallback deliverCallback, CancelCallback cancelCallback,
+		                         ConsumerShutdownSignalCallback shutdownCallback) {
+			this.deliverCallback = deliverCallback;
+			this.cancelCallback = cancelCallback;
+			this.shutdownCallback = shutdownCallback;
+		}
+
+		@Override
+		public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+			deliverCallback.handle(consumerTag, new Delivery(envelope, properties, body));
+		}
+
+		@Override
+		public void handleCancel(String consumerTag) throws IOException {
+			if (null != cancelCallback) {
+				cancelCallback.handle(consumerTag);
+			}
+		}
+
+		@Override
+		public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+			if (null != shutdownCallback) {
+				shutdownCallback.handleShutdownSignal(consumerTag, sig);
+			}
+		}
+
+		@Override
+		public void handleConsumeOk(String consumerTag) {
+		}
+
+		@Override
+		public void handleCancelOk(String consumerTag) {
+		}
+
+		@Override
+		public void handleRecoverOk(String consumerTag) {
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.embedded;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.BlockedCallback;
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ExceptionHandler;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.UnblockedCallback;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.DefaultExceptionHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link EmbeddedBroker}에 붙은 연결. {@link Connection} 인터페이스는 동적 프록시로 구현한다.
+ * <p>
+ * amqp-client 5.10의 {@link Connection} 메서드를 모두 받는다. 주소는 루프백, 포트는 0이고 하트비트는 없다.
+ * 메모리 경보가 없으므로 등록한 {@link BlockedListener}는 불리지 않는다.
+ *
+ * @author Elex
+ */
+@Slf4j
+final class EmbeddedConnection implements InvocationHandler {
+	private final EmbeddedBroker broker;
+	private final long id;
+	private final String name;
+	private final Connection proxy;
+	private final Map<Integer, EmbeddedChannel> channels = new ConcurrentHashMap<>();
+	private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+	private final List<BlockedListener> blockedListeners = new CopyOnWriteArrayList<>();
+	private final ExceptionHandler exceptionHandler = new DefaultExceptionHandler();
+	private final AtomicInteger channelNumbers = new AtomicInteger();
+	private volatile ShutdownSignalException closeReason;
+	private String connectionId;
+
+	EmbeddedConnection(EmbeddedBroker broker, long id, String name) {
+		this.broker = broker;
+		this.id = id;
+		this.name = name;
+		this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[]{Connection.class}, this);
+	}
+
+	Connection proxy() {
+		return proxy;
+	}
+
+	EmbeddedBroker broker() {
+		return broker;
+	}
+
+	long id() {
+		return id;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Object[] arguments = null == args ? new Object[0] : args;
+		switch (method.getName()) {
+			case "createChannel":
+				return createChannel(arguments.length > 0 ? (Integer) arguments[0] : 0);
+			case "openChannel":
+				return Optional.ofNullable(createChannel(arguments.length > 0 ? (Integer) arguments[0] : 0));
+			case "close":
+			case "abort":
+				close(arguments.length > 1 && arguments[0] instanceof Integer ? (Integer) arguments[0] : 200,
+						arguments.length > 1 && arguments[1] instanceof String ? (String) arguments[1] : "OK");
+				return null;
+			case "isOpen":
+				return null == closeReason;
+			case "getCloseReason":
+				return closeReason;
+			case "addShutdownListener":
+				shutdownListeners.add((ShutdownListener) arguments[0]);
+				return null;
+			case "removeShutdownListener":
+				shutdownListeners.remove((ShutdownListener) arguments[0]);
+				return null;
+			case "notifyListeners":
+				notifyListeners();
+				return null;
+			case "getClientProvidedName":
+				return name;
+			case "getId":
+				return connectionId;
+			case "setId":
+				connectionId = (String) arguments[0];
+				return null;
+			case "getAddress":
+				return InetAddress.getLoopbackAddress();
+			case "getPort":
+				return 0;
+			case "getChannelMax":
+				return 2047;
+			case "getFrameMax":
+				return 131072;
+			case "getHeartbeat":
+				return 0;
+			case "getServerProperties":
+			case "getClientProperties":
+				return Collections.<String, Object>emptyMap();
+			case "addBlockedListener":
+				return addBlockedListener(arguments);
+			case "removeBlockedListener":
+				return blockedListeners.remove((BlockedListener) arguments[0]);
+			case "clearBlockedListeners":
+				blockedListeners.clear();
+				return null;
+			case "getExceptionHandler":
+				return exceptionHandler;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == arguments[0];
+			case "toString":
+				return "EmbeddedConnection(" + name + ")";
+			default:
+				// 5.10 뒤에 클라이언트에 더해진 메서드입니다.
+				throw new UnsupportedOperationException("Connection." + method.getName());
+		}
+	}
+
+	private BlockedListener addBlockedListener(Object[] arguments) {
+		if (arguments.length == 1) {
+			blockedListeners.add((BlockedListener) arguments[0]);
+			return null;
+		}
+		BlockedCallback blockedCallback = (BlockedCallback) arguments[0];
+		UnblockedCallback unblockedCallback = (UnblockedCallback) arguments[1];
+		BlockedListener listener = new BlockedListener() {
+			@Override
+			public void handleBlocked(String reason) throws IOException {
+				blockedCallback.handle(reason);
+			}
+
+			@Override
+			public void handleUnblocked() throws IOException {
+				unblockedCallback.handle();
+			}
+		};
+		blockedListeners.add(listener);
+		return listener;
+	}
+
+	private Channel createChannel(int number) {
+		ensureOpen();
+		int channelNumber = number > 0 ? number : channelNumbers.incrementAndGet();
+		if (channels.containsKey(channelNumber)) {
+			return null;
+		}
+		EmbeddedChannel channel = new EmbeddedChannel(this, channelNumber);
+		channels.put(channelNumber, channel);
+		return channel.proxy();
+	}
+
+	void channelClosed(EmbeddedChannel channel) {
+		channels.remove(channel.number());
+	}
+
+	void ensureOpen() {
+		ShutdownSignalException reason = closeReason;
+		if (null != reason) {
+			throw new AlreadyClosedException(reason);
+		}
+	}
+
+	void close(int code, String text) {
+		ShutdownSignalException reason;
+		synchronized (this) {
+			if (null != closeReason) {
+				return;
+			}
+			reason = new ShutdownSignalException(true, true,
+					new AMQImpl.Connection.Close(code, text, 0, 0), proxy);
+			closeReason = reason;
+		}
+		for (EmbeddedChannel channel : new ArrayList<>(channels.values())) {
+			channel.close(reason);
+		}
+		broker.closed(this);
+		notifyListeners();
+	}
+
+	private void notifyListeners() {
+		ShutdownSignalException reason = closeReason;
+		if (null == reason) {
+			return;
+		}
+		for (ShutdownListener listener : shutdownListeners) {
+			try {
+				listener.shutdownCompleted(reason);
+			} catch (RuntimeException e) {
+				log.warn("Shutdown listener failed.", e);
+			}
+		}
+	}
+}
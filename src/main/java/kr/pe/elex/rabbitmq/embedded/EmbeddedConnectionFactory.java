@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.embedded;
+
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@link EmbeddedBroker}에 연결하는 {@link ConnectionFactory}.
+ * <p>
+ * {@code newConnection()}의 여러 형태는 모두 {@link #newConnection(ExecutorService, AddressResolver, String)}로 모이므로
+ * 그것만 바꾼다. 주소, 계정, TLS, 자동 복구 같은 설정은 쓰지 않는다.
+ *
+ * @author Elex
+ */
+final class EmbeddedConnectionFactory extends ConnectionFactory {
+	private final EmbeddedBroker broker;
+
+	EmbeddedConnectionFactory(EmbeddedBroker broker) {
+		this.broker = broker;
+	}
+
+	@Override
+	public Connection newConnection(ExecutorService executor, AddressResolver addressResolver, String clientProvidedName) {
+		return broker.newConnection(null == clientProvidedName ? "embedded" : clientProvidedName);
+	}
+}
@@ -6,66 +6,155 @@
 package kr.pe.elex.rabbitmq.fanout;
 
 import com.rabbitmq.client.*;
+import kr.pe.elex.rabbitmq.batch.BatchPublisher;
+import kr.pe.elex.rabbitmq.batch.UnbatchingConsumer;
+import kr.pe.elex.rabbitmq.compress.Compression;
+import kr.pe.elex.rabbitmq.compress.DecompressingConsumer;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.LatencyStamp;
+import kr.pe.elex.rabbitmq.metrics.LatencyTracker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.pool.PooledChannel;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.trace.MessageTracer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
  * 팬 아웃 익스체인지는 라우팅-키 규칙에 무관하게 메시지를 전달한다.
+ * <p>
+ * {@code batching}을 켜면 작은 메시지를 {@link BatchPublisher}로 묶어서 보낸다.
+ * 라우팅-키는 어차피 무시되므로 모든 메시지를 한 묶음에 담는다.
+ * <p>
+ * {@code compression}을 주면 큰 본문을 압축해서 보낸다. 받는 쪽은 압축 여부와 관계없이 풀어서 받는다.
+ * <p>
+ * {@code -Delex.latency=true}로 켜면 보낸 시각과 일련번호를 헤더에 찍고, 받는 쪽이 {@link #getLatency()}에 지연 시간을 모은다.
+ * 일련번호는 라우팅-키마다 매긴다.
  * @author Elex
  * @see "https://www.rabbitmq.com/tutorials/tutorial-two-java.html"
  */
 @Slf4j
 public class RabbitClient {
 	private static final String EXCHANGE = "elex.fanout.exchange";
+	private static final MessageTracer TRACER = MessageTracer.shared();
+	// 묶어서 보낼 때 묶음 하나의 최대 크기와 최대 대기 시간입니다.
+	private static final int BATCH_MAX_BYTES = 64 * 1024;
+	private static final long BATCH_LINGER_MILLIS = 5;
 
-	private Connection connection;
+	private final ConnectionManager connectionManager;
 	private Channel channel;
 	private String queue;
+	private BatchPublisher batchPublisher;
+	private final Compression compression;
+	private final LatencyStamp stamp = new LatencyStamp("fanout");
+	private final LatencyTracker latency = new LatencyTracker(Metrics.shared(), "fanout");
 
-	RabbitClient() throws IOException, TimeoutException {
-		ConnectionFactory connectionFactory = new ConnectionFactory();
-		connectionFactory.setHost("localhost");
-		connectionFactory.setPort(5672);
-		connectionFactory.setUsername("elex");
-		connectionFactory.setPassword("test");
-		connectionFactory.setVirtualHost("/");
+	RabbitClient() throws IOException {
+		this(ConnectionManager.shared(), false);
+	}
 
-		connection = connectionFactory.newConnection();
-		channel = connection.createChannel();
+	RabbitClient(ConnectionManager connectionManager, boolean batching) throws IOException {
+		this(connectionManager, batching, null);
+	}
 
-		// fanout은 routing-key 규칙을 무시하고, 모든 큐에 메시지를 전달합니다.
-		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.FANOUT, false);
+	/**
+	 * @param compression 큰 본문을 압축해서 보낼 때의 설정. null이면 압축하지 않는다.
+	 */
+	RabbitClient(ConnectionManager connectionManager, boolean batching, Compression compression) throws IOException {
+		this.connectionManager = connectionManager;
+		this.compression = compression;
+		// 소비와 선언에 쓸 전용 채널입니다. 연결은 다른 클라이언트와 함께 씁니다.
+		channel = connectionManager.createChannel();
 
-		// 큐 이름을 랜덤으로 생성합니다.
+		// 큐 이름을 랜덤으로 생성합니다. 브로커가 이름을 지으므로 응답을 기다려야 합니다.
 		queue = channel.queueDeclare().getQueue();
 
-		// 익스체인지와 큐를 묶습니다.
-		channel.queueBind(queue, EXCHANGE, "");
-
+		// fanout은 routing-key 규칙을 무시하고, 모든 큐에 메시지를 전달합니다.
+		// 익스체인지와 큐를 묶습니다. 익스체인지는 다른 클라이언트가 이미 선언했다면 다시 보내지 않습니다.
+		connectionManager.getTopology().declare(channel, Topology.builder()
+				.exchange(EXCHANGE, BuiltinExchangeType.FANOUT, false)
+				.binding(queue, EXCHANGE, "")
+				.build());
+
+		// 묶어서 보내기로 했다면 작은 메시지를 모아서 한 번에 보냅니다.
+		if (batching) {
+			batchPublisher = new BatchPublisher(connectionManager, BATCH_MAX_BYTES)
+					.start(WorkerExecutors.sharedScheduler(), BATCH_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	public void consume(String consumerTag) throws IOException {
-		// 큐로부터 메시지를 받습니다.
-		channel.basicConsume(queue, true, consumerTag, new DefaultConsumer(channel) {
+		// 큐로부터 메시지를 받습니다. 압축했거나 묶음으로 온 메시지는 풀어서 하나씩 받습니다.
+		channel.basicConsume(queue, true, consumerTag, new DecompressingConsumer(decompression(), new UnbatchingConsumer(new DefaultConsumer(channel) {
 			@Override
 			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				log.info("Rx: [{}] {}", consumerTag, new String(body, StandardCharsets.UTF_8));
+				latency.record(envelope, properties);
+				TRACER.rx(consumerTag, envelope.getRoutingKey(), body);
 			}
-		});
+		})));
+	}
+
+	/**
+	 * 여러 채널과 작업 스레드로 나눠 받는다. 라우팅-키가 같은 메시지는 차례대로 받는다.
+	 * 묶음과 압축은 풀지 않으므로 {@code batching}과 {@code compression} 없이 보낸 메시지에 쓴다.
+	 *
+	 * @param shards  채널 개수
+	 * @param workers 작업 스레드 개수
+	 * @see ShardedFanoutSubscriber
+	 */
+	public ShardedFanoutSubscriber consumeSharded(int shards, int workers) throws IOException {
+		return ShardedFanoutSubscriber.builder(connectionManager, EXCHANGE)
+				.shards(shards)
+				.workers(workers)
+				.start((consumerTag, envelope, properties, body) -> {
+					latency.record(envelope, properties);
+					TRACER.rx(consumerTag, envelope.getRoutingKey(), body);
+				});
 	}
 
 	public void publish(String routingKey, String message) throws IOException {
-		// 익스체인지에 메시지를 보냅니다.
-		channel.basicPublish(EXCHANGE, routingKey, null, message.getBytes(StandardCharsets.UTF_8));
-		log.info("Tx: [{}] {}", routingKey, message);
+		byte[] body = PayloadBuffer.local().append(message).body();
+		if (null != batchPublisher) {
+			batchPublisher.publish(EXCHANGE, "", body);
+			TRACER.tx(EXCHANGE, routingKey, body);
+			return;
+		}
+		// 익스체인지에 메시지를 보냅니다. 채널은 발행할 때만 풀에서 빌립니다.
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			// 팬아웃은 라우팅-키를 보지 않고 모두에게 보내므로 번호는 보내는 쪽마다 하나만 매깁니다.
+			AMQP.BasicProperties properties = stamp.stamp(null);
+			if (null != compression) {
+				// 큰 본문은 압축해서 보냅니다.
+				compression.publish(pooled.getChannel(), EXCHANGE, routingKey, properties, body);
+			} else {
+				pooled.getChannel().basicPublish(EXCHANGE, routingKey, properties, body);
+			}
+		}
+		TRACER.tx(EXCHANGE, routingKey, body);
+	}
+
+	private Compression decompression() {
+		// 압축하지 않는 클라이언트도 압축된 메시지는 풀어서 받습니다.
+		return null == compression ? Compression.defaults() : compression;
+	}
+
+	/**
+	 * @return 받은 메시지의 지연 시간. 보내는 쪽이 헤더를 찍었을 때만 모인다.
+	 */
+	public LatencyTracker getLatency() {
+		return latency;
 	}
 
 	public void close() throws IOException, TimeoutException {
+		if (null != batchPublisher) {
+			batchPublisher.close();
+		}
 		channel.close();
-		connection.close();
 	}
 
 	public static void main(String... args) throws IOException, TimeoutException {
@@ -88,8 +177,10 @@ public class RabbitClient {
 		} catch (InterruptedException e) {
 			log.error("Interrupted..", e);
 		}
+		log.info("Latency {}", consumer1.getLatency().report());
 		producer.close();
 		consumer1.close();
+		ConnectionManager.shared().close();
 
 		/*
 11:12:40.969 [main] INFO kr.pe.elex.rabbitmq.fanout.RabbitClient - Tx: [0] Hello, 0
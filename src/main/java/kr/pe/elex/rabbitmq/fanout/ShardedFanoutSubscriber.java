@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.fanout;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.consumer.DispatchingConsumer.MessageProcessor;
+import kr.pe.elex.rabbitmq.consumer.KeyPartitionedExecutor;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.topology.TopologyRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 팬아웃 익스체인지의 메시지를 한 프로세스 안에서 여러 채널과 작업 스레드로 나눠 받는다.
+ * <p>
+ * 팬아웃 익스체인지에 이 구독자만의 {@code x-consistent-hash} 익스체인지를 묶고, 거기에 채널마다 큐를 하나씩 묶는다.
+ * 브로커는 라우팅-키의 해시로 큐 하나를 고르므로 같은 키의 메시지는 늘 같은 큐로 가고,
+ * 받은 메시지는 {@link KeyPartitionedExecutor}에서 키마다 차례대로 처리한다.
+ * 구독자 전체로는 팬아웃의 다른 구독자와 똑같이 모든 메시지를 한 번씩 받는다.
+ * <p>
+ * 처리가 끝나면 작업 스레드에서 ack를 보낸다. 채널마다 prefetch만큼만 ack 없이 받으므로,
+ * 처리가 밀리면 브로커가 보내기를 멈추고 메시지는 큐에 쌓인다.
+ * 처리 중에 예외가 나면 그 메시지는 다시 넣지 않고 버린다.
+ * <p>
+ * 키는 라우팅-키다. 팬아웃 익스체인지는 라우팅-키를 보지 않지만 메시지에 그대로 실어 준다.
+ * 브로커에 {@code rabbitmq_consistent_hash_exchange} 플러그인이 켜져 있어야 한다.
+ * 팬아웃 익스체인지는 미리 선언돼 있어야 한다.
+ * <pre>{@code
+ * ShardedFanoutSubscriber subscriber = ShardedFanoutSubscriber.builder(connectionManager, EXCHANGE)
+ *         .shards(4)
+ *         .workers(8)
+ *         .prefetch(256)
+ *         .start((consumerTag, envelope, properties, body) -> handle(body));
+ * }</pre>
+ *
+ * @author Elex
+ */
+@Slf4j
+public class ShardedFanoutSubscriber implements AutoCloseable {
+	static final String CONSISTENT_HASH = "x-consistent-hash";
+	// 큐마다 같은 몫을 받도록 가중치를 모두 같게 줍니다.
+	private static final String WEIGHT = "1";
+
+	private final ConnectionManager connectionManager;
+	private final String exchange;
+	private final String hashExchange;
+	private final MessageProcessor processor;
+	private final KeyPartitionedExecutor executor;
+	private final List<Shard> shards = new ArrayList<>();
+
+	private ShardedFanoutSubscriber(Builder builder, MessageProcessor processor) {
+		this.connectionManager = builder.connectionManager;
+		this.exchange = builder.exchange;
+		this.hashExchange = builder.exchange + ".shards." + UUID.randomUUID();
+		this.processor = processor;
+		this.executor = new KeyPartitionedExecutor("elex-shard", builder.workers);
+	}
+
+	public static Builder builder(ConnectionManager connectionManager, String exchange) {
+		return new Builder(connectionManager, exchange);
+	}
+
+	private void start(int shardCount, int prefetch) throws IOException {
+		TopologyRegistry topology = connectionManager.getTopology();
+		try {
+			for (int i = 0; i < shardCount; i++) {
+				// 채널마다 연결을 돌아가며 쓰므로 디스패치도 여러 스레드로 나뉩니다.
+				Channel channel = connectionManager.createChannel();
+				Shard shard = new Shard(channel);
+				shards.add(shard);
+				channel.basicQos(prefetch);
+				// 배타적인 큐는 선언한 연결에서만 소비할 수 있으므로 채널마다 따로 선언합니다.
+				shard.queue = channel.queueDeclare().getQueue();
+				Topology.Builder declarations = Topology.builder();
+				if (0 == i) {
+					declarations.exchange(hashExchange, CONSISTENT_HASH, false, true);
+				}
+				topology.declare(channel, declarations.binding(shard.queue, hashExchange, WEIGHT).build());
+				channel.basicConsume(shard.queue, false, shard);
+			}
+			// 큐를 모두 묶은 다음에 메시지를 받기 시작해야 키가 중간에 다른 큐로 옮겨 가지 않습니다.
+			topology.declare(shards.get(0).getChannel(), Topology.builder()
+					.exchangeBinding(hashExchange, exchange, "")
+					.build());
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+		log.debug("Subscribed to {} with {} shards via {}", exchange, shardCount, hashExchange);
+	}
+
+	/**
+	 * @return 채널(큐) 개수
+	 */
+	public int getShards() {
+		return shards.size();
+	}
+
+	/**
+	 * @return 작업 스레드 개수
+	 */
+	public int getWorkers() {
+		return executor.getLanes();
+	}
+
+	/**
+	 * 받기를 멈추고, 받은 메시지를 모두 처리한 다음 채널을 닫는다.
+	 */
+	@Override
+	public void close() {
+		for (Shard shard : shards) {
+			shard.cancel();
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				log.warn("Workers did not finish in time.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		TopologyRegistry topology = connectionManager.getTopology();
+		for (int i = shards.size() - 1; i >= 0; i--) {
+			Shard shard = shards.get(i);
+			try {
+				if (shard.getChannel().isOpen()) {
+					if (0 == i) {
+						shard.getChannel().exchangeDelete(hashExchange);
+					}
+					if (null != shard.queue) {
+						shard.getChannel().queueDelete(shard.queue);
+					}
+					shard.getChannel().close();
+				}
+			} catch (IOException | TimeoutException | AlreadyClosedException e) {
+				log.warn("Failed to close a shard.", e);
+			}
+			if (null != shard.queue) {
+				topology.forget(shard.queue);
+			}
+		}
+		topology.forgetExchange(hashExchange);
+		shards.clear();
+	}
+
+	/**
+	 * 큐 하나를 받는 컨슈머. 메시지를 키의 레인에 넘기고 바로 돌아간다.
+	 */
+	private final class Shard extends DefaultConsumer {
+		private String queue;
+
+		Shard(Channel channel) {
+			super(channel);
+		}
+
+		@Override
+		public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+			try {
+				executor.execute(envelope.getRoutingKey(), () -> process(consumerTag, envelope, properties, body));
+			} catch (RejectedExecutionException e) {
+				// 닫는 중입니다. 큐와 함께 사라질 메시지이므로 되돌려 놓기만 합니다.
+				getChannel().basicNack(envelope.getDeliveryTag(), false, true);
+			}
+		}
+
+		private void process(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+			long deliveryTag = envelope.getDeliveryTag();
+			try {
+				processor.process(consumerTag, envelope, properties, body);
+				getChannel().basicAck(deliveryTag, false);
+			} catch (Exception e) {
+				log.error("Process fail..", e);
+				try {
+					getChannel().basicNack(deliveryTag, false, false);
+				} catch (IOException | AlreadyClosedException ex) {
+					log.warn("Failed to reject a message.", ex);
+				}
+			}
+		}
+
+		void cancel() {
+			String consumerTag = getConsumerTag();
+			if (null == consumerTag || !getChannel().isOpen()) {
+				return;
+			}
+			try {
+				getChannel().basicCancel(consumerTag);
+			} catch (IOException | AlreadyClosedException e) {
+				log.warn("Failed to cancel {}", consumerTag, e);
+			}
+		}
+	}
+
+	/**
+	 * {@link ShardedFanoutSubscriber}를 만든다.
+	 */
+	public static final class Builder {
+		private final ConnectionManager connectionManager;
+		private final String exchange;
+		private int shards = WorkerExecutors.cores();
+		private int workers = WorkerExecutors.cores();
+		private int prefetch = 256;
+
+		private Builder(ConnectionManager connectionManager, String exchange) {
+			this.connectionManager = connectionManager;
+			this.exchange = exchange;
+		}
+
+		/**
+		 * @param shards 채널과 큐의 개수. 기본은 코어 개수.
+		 */
+		public Builder shards(int shards) {
+			if (shards < 1) {
+				throw new IllegalArgumentException("shards must be positive: " + shards);
+			}
+			this.shards = shards;
+			return this;
+		}
+
+		/**
+		 * @param workers 작업 스레드 개수. 기본은 코어 개수.
+		 */
+		public Builder workers(int workers) {
+			if (workers < 1) {
+				throw new IllegalArgumentException("workers must be positive: " + workers);
+			}
+			this.workers = workers;
+			return this;
+		}
+
+		/**
+		 * @param prefetch 채널마다 ack 없이 받을 메시지 개수. 기본은 256.
+		 */
+		public Builder prefetch(int prefetch) {
+			if (prefetch < 1) {
+				throw new IllegalArgumentException("prefetch must be positive: " + prefetch);
+			}
+			this.prefetch = prefetch;
+			return this;
+		}
+
+		/**
+		 * 큐를 선언하고 받기 시작한다.
+		 *
+		 * @param processor 메시지 처리기. 여러 작업 스레드에서 동시에 호출되지만, 키가 같은 메시지는 차례대로 받는다.
+		 * @return 구독자
+		 */
+		public ShardedFanoutSubscriber start(MessageProcessor processor) throws IOException {
+			ShardedFanoutSubscriber subscriber = new ShardedFanoutSubscriber(this, processor);
+			subscriber.start(shards, prefetch);
+			return subscriber;
+		}
+	}
+}
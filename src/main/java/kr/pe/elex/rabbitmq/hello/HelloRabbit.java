@@ -6,10 +6,23 @@
 package kr.pe.elex.rabbitmq.hello;
 
 import com.rabbitmq.client.*;
+import kr.pe.elex.rabbitmq.batch.BatchPublisher;
+import kr.pe.elex.rabbitmq.batch.UnbatchingConsumer;
+import kr.pe.elex.rabbitmq.compress.Compression;
+import kr.pe.elex.rabbitmq.compress.DecompressingConsumer;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.LatencyStamp;
+import kr.pe.elex.rabbitmq.metrics.LatencyTracker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.pool.PooledChannel;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.trace.MessageTracer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -20,6 +33,12 @@ import java.util.concurrent.TimeoutException;
  * 익스체인지와 큐는 라우팅-키로 서로 바인딩된다.
  * <p>
  * 익스체인지에 메시지가 도착하면 메시지의 라우팅-키와 일치하는 큐로 메시지를 보낸다.
+ * <p>
+ * {@code batching}을 켜면 작은 메시지를 {@link BatchPublisher}로 묶어서 보낸다. 받는 쪽은 묶음을 풀어서 하나씩 처리한다.
+ * <p>
+ * {@code compression}을 주면 큰 본문을 압축해서 보낸다. 받는 쪽은 압축 여부와 관계없이 풀어서 받는다.
+ * <p>
+ * {@code -Delex.latency=true}로 켜면 보낸 시각과 일련번호를 헤더에 찍고, 받는 쪽이 {@link #getLatency()}에 지연 시간을 모은다.
  *
  * @author Elex
  * @see "https://www.rabbitmq.com/tutorials/tutorial-one-java.html"
@@ -29,48 +48,97 @@ public class HelloRabbit {
 	private static final String EXCHANGE = "elex.direct.exchange";
 	private static final String QUEUE = "elex.queue.01";
 	private static final String ROUTING_KEY = "elex-routing-key";
+	private static final MessageTracer TRACER = MessageTracer.shared();
+	private static final Topology TOPOLOGY = Topology.builder()
+			.exchange(EXCHANGE, BuiltinExchangeType.DIRECT, true)
+			.queue(QUEUE, false, false, false)
+			.binding(QUEUE, EXCHANGE, ROUTING_KEY)
+			.build();
+	// 묶어서 보낼 때 묶음 하나의 최대 크기와 최대 대기 시간입니다.
+	private static final int BATCH_MAX_BYTES = 64 * 1024;
+	private static final long BATCH_LINGER_MILLIS = 5;
 
-	private Connection connection;
+	private final ConnectionManager connectionManager;
 	private Channel channel;
+	private BatchPublisher batchPublisher;
+	private final Compression compression;
+	private final LatencyStamp stamp = new LatencyStamp("hello");
+	private final LatencyTracker latency = new LatencyTracker(Metrics.shared(), "hello");
 
-	HelloRabbit() throws IOException, TimeoutException {
-		ConnectionFactory connectionFactory = new ConnectionFactory();
-		connectionFactory.setHost("localhost");
-		connectionFactory.setPort(5672);
-		connectionFactory.setUsername("elex");
-		connectionFactory.setPassword("test");
-		connectionFactory.setVirtualHost("/");
-
-		connection = connectionFactory.newConnection();
-		channel = connection.createChannel();
+	HelloRabbit() throws IOException {
+		this(ConnectionManager.shared(), false);
+	}
 
-		// 익스체인지는 브로커가 메시지를 받는 곳입니다.
-		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.DIRECT, true);
+	HelloRabbit(ConnectionManager connectionManager, boolean batching) throws IOException {
+		this(connectionManager, batching, null);
+	}
 
-		// 큐는 브로커가 메시지를 보내는 곳입니다.
-		channel.queueDeclare(QUEUE, false, false, false, null);
+	/**
+	 * @param compression 큰 본문을 압축해서 보낼 때의 설정. null이면 압축하지 않는다.
+	 */
+	HelloRabbit(ConnectionManager connectionManager, boolean batching, Compression compression) throws IOException {
+		this.connectionManager = connectionManager;
+		this.compression = compression;
+		// 소비와 선언에 쓸 전용 채널입니다. 연결은 다른 클라이언트와 함께 씁니다.
+		channel = connectionManager.createChannel();
 
-		// 익스체인지와 큐를 묶습니다.
-		channel.queueBind(QUEUE, EXCHANGE, ROUTING_KEY);
+		// 익스체인지는 브로커가 메시지를 받는 곳이고, 큐는 브로커가 메시지를 보내는 곳입니다.
+		// 익스체인지와 큐를 묶습니다. 다른 클라이언트가 이미 선언했다면 다시 보내지 않습니다.
+		connectionManager.getTopology().declare(channel, TOPOLOGY);
 
-		// 큐로부터 메시지를 받습니다.
-		channel.basicConsume(QUEUE, true, ROUTING_KEY, new DefaultConsumer(channel) {
+		// 큐로부터 메시지를 받습니다. 압축했거나 묶음으로 온 메시지는 풀어서 하나씩 받습니다.
+		channel.basicConsume(QUEUE, true, ROUTING_KEY, new DecompressingConsumer(decompression(), new UnbatchingConsumer(new DefaultConsumer(channel) {
 			@Override
 			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				log.info("Rx: {}", new String(body, StandardCharsets.UTF_8));
+				latency.record(envelope, properties);
+				TRACER.rx(QUEUE, envelope.getRoutingKey(), body);
 			}
-		});
+		})));
+
+		// 묶어서 보내기로 했다면 작은 메시지를 모아서 한 번에 보냅니다.
+		if (batching) {
+			batchPublisher = new BatchPublisher(connectionManager, BATCH_MAX_BYTES)
+					.start(WorkerExecutors.sharedScheduler(), BATCH_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	public void publish(String message) throws IOException {
-		// 익스체인지에 메시지를 보냅니다.
-		channel.basicPublish(EXCHANGE, ROUTING_KEY, null, message.getBytes(StandardCharsets.UTF_8));
-		log.info("Tx: {}", message);
+		byte[] body = PayloadBuffer.local().append(message).body();
+		if (null != batchPublisher) {
+			batchPublisher.publish(EXCHANGE, ROUTING_KEY, body);
+			TRACER.tx(EXCHANGE, ROUTING_KEY, body);
+			return;
+		}
+		// 익스체인지에 메시지를 보냅니다. 채널은 발행할 때만 풀에서 빌립니다.
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			AMQP.BasicProperties properties = stamp.stamp(ROUTING_KEY, null);
+			if (null != compression) {
+				// 큰 본문은 압축해서 보냅니다.
+				compression.publish(pooled.getChannel(), EXCHANGE, ROUTING_KEY, properties, body);
+			} else {
+				pooled.getChannel().basicPublish(EXCHANGE, ROUTING_KEY, properties, body);
+			}
+		}
+		TRACER.tx(EXCHANGE, ROUTING_KEY, body);
+	}
+
+	private Compression decompression() {
+		// 압축하지 않는 클라이언트도 압축된 메시지는 풀어서 받습니다.
+		return null == compression ? Compression.defaults() : compression;
+	}
+
+	/**
+	 * @return 받은 메시지의 지연 시간. 보내는 쪽이 헤더를 찍었을 때만 모인다.
+	 */
+	public LatencyTracker getLatency() {
+		return latency;
 	}
 
 	public void close() throws IOException, TimeoutException {
+		if (null != batchPublisher) {
+			batchPublisher.close();
+		}
 		channel.close();
-		connection.close();
 	}
 
 	public static void main(String... args) throws IOException, TimeoutException {
@@ -88,7 +156,9 @@ public class HelloRabbit {
 		} catch (InterruptedException e) {
 			log.error("Interrupted..", e);
 		}
+		log.info("Latency {}", helloRabbit.getLatency().report());
 		helloRabbit.close();
+		ConnectionManager.shared().close();
 		/*
 11:01:31.502 [main] INFO kr.pe.elex.rabbitmq.hello.HelloRabbit - Tx: Hello, 0
 11:01:31.502 [pool-1-thread-4] INFO kr.pe.elex.rabbitmq.hello.HelloRabbit - Rx: Hello, 0
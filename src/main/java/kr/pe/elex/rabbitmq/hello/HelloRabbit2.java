@@ -6,10 +6,19 @@
 package kr.pe.elex.rabbitmq.hello;
 
 import com.rabbitmq.client.*;
+import kr.pe.elex.rabbitmq.confirm.AsyncConfirmPublisher;
+import kr.pe.elex.rabbitmq.consumer.AckCoalescer;
+import kr.pe.elex.rabbitmq.consumer.AdaptivePrefetchController;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.trace.MessageTracer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -17,6 +26,10 @@ import java.util.concurrent.TimeoutException;
  * <p>
  * 메시지 소비자는 메시지 처리 후 ack를 보내야 한다.
  * QoS를 지정해서 소비자에 전달할 메시지의 최대 개수를 지정할 수 있다.
+ * 여기서는 처리 시간에 맞춰 {@link AdaptivePrefetchController}가 QoS를 조절하고,
+ * ack는 {@link AckCoalescer}로 모아서 보낸다.
+ * <p>
+ * 발행자는 컨펌 모드의 채널로 메시지를 보내고, 브로커의 확인을 기다리지 않고 계속 보낸다.
  *
  * @author Elex
  * @see "https://www.rabbitmq.com/tutorials/tutorial-two-java.html"
@@ -26,21 +39,26 @@ public class HelloRabbit2 {
 	private static final String EXCHANGE = "elex.direct.exchange";
 	private static final String QUEUE = "elex.queue";
 	private static final String ROUTING_KEY = "elex-routing-key";
+	private static final MessageTracer TRACER = MessageTracer.shared();
+	private static final int MAX_IN_FLIGHT = 1024;
+	private static final int MAX_PREFETCH = 256;
+	private static final int ACK_BATCH = 16;
 
-	private Connection connection;
+	private final ConnectionManager connectionManager;
 	private Channel channel;
+	private Channel publishChannel;
+	private AsyncConfirmPublisher publisher;
+	private AdaptivePrefetchController prefetchController;
+	private AckCoalescer ackCoalescer;
 
-	HelloRabbit2() throws IOException, TimeoutException {
-		ConnectionFactory connectionFactory = new ConnectionFactory();
-		connectionFactory.setHost("localhost");
-		connectionFactory.setPort(5672);
-		connectionFactory.setUsername("elex");
-		connectionFactory.setPassword("test");
-		connectionFactory.setVirtualHost("/");
-		connectionFactory.setAutomaticRecoveryEnabled(true);
+	HelloRabbit2() throws IOException {
+		this(ConnectionManager.shared());
+	}
 
-		connection = connectionFactory.newConnection();
-		channel = connection.createChannel();
+	HelloRabbit2(ConnectionManager connectionManager) throws IOException {
+		this.connectionManager = connectionManager;
+		// 소비와 선언에 쓸 전용 채널입니다. 연결은 다른 클라이언트와 함께 씁니다.
+		channel = connectionManager.createChannel();
 
 		// 익스체인지는 브로커가 메시지를 받는 곳입니다.
 		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.DIRECT, true);
@@ -52,46 +70,79 @@ public class HelloRabbit2 {
 		channel.queueBind(QUEUE, EXCHANGE, ROUTING_KEY);
 
 		// 메시지 소비자에 전달할 메시지의 최대 개수입니다. ack를 받을 때까지 메시지 전송을 미룰 수 있습니다.
-		channel.basicQos(1);
+		channel.basicQos(MAX_PREFETCH);
+		// 채널 전체의 prefetch는 처리 시간에 맞춰 주기적으로 다시 정합니다. 메시지는 디스패치 스레드 하나가 처리합니다.
+		prefetchController = new AdaptivePrefetchController(channel, 1, ACK_BATCH * 2, MAX_PREFETCH)
+				.withMetrics(Metrics.shared());
+		prefetchController.start(1, TimeUnit.SECONDS);
+		// ack는 모아서 보냅니다. 모인 ack는 늦어도 100ms 안에 보냅니다.
+		ackCoalescer = new AckCoalescer(channel, ACK_BATCH)
+				.start(WorkerExecutors.sharedScheduler(), 100, TimeUnit.MILLISECONDS);
 
 		// 큐로부터 메시지를 받습니다.
 		channel.basicConsume(QUEUE, false, ROUTING_KEY, new DefaultConsumer(channel) {
 			@Override
 			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				log.info("Rx: {}", new String(body, StandardCharsets.UTF_8));
+				long deliveredAt = System.nanoTime();
+				TRACER.rx(QUEUE, envelope.getRoutingKey(), body);
 
 				// 만일, 수신 확인을 하지 않으면, 브로커는 다시 전송을 시도할겁니다.
-				channel.basicAck(envelope.getDeliveryTag(), false);
+				ackCoalescer.ack(envelope.getDeliveryTag());
+				// 디스패치 스레드에서 바로 처리하므로 받은 시각과 처리를 시작한 시각이 같습니다.
+				prefetchController.record(deliveredAt, deliveredAt, System.nanoTime());
 			}
 		});
 
+		// 발행은 컨펌 모드의 채널을 따로 씁니다.
+		publishChannel = connectionManager.createChannel();
+		publisher = new AsyncConfirmPublisher(publishChannel, MAX_IN_FLIGHT).withMetrics(Metrics.shared());
 	}
 
-	public void publish(String message) throws IOException, TimeoutException, InterruptedException {
+	/**
+	 * 메시지를 보낸다. 브로커의 확인을 기다리지 않는다.
+	 *
+	 * @param message 메시지
+	 * @return 브로커가 메시지를 확인하면 완료되고, 거절하면 예외로 완료된다.
+	 */
+	public CompletableFuture<Long> publish(String message) throws IOException, InterruptedException {
 		// 익스체인지에 메시지를 보냅니다.
-		channel.basicPublish(EXCHANGE, ROUTING_KEY,
+		byte[] body = PayloadBuffer.local().append(message).body();
+		CompletableFuture<Long> confirm = publisher.publish(EXCHANGE, ROUTING_KEY,
 				// 브로커가 메시지를 디스크에 저장해둠으로써, 오류 등으로 브로커가 종료되었을 경우에
 				// 미처 전달되지 못한 메시지가 사라지는 것을 예방합니다.
-				MessageProperties.PERSISTENT_TEXT_PLAIN,
-				message.getBytes(StandardCharsets.UTF_8));
-
-		// 메시지가 전달되지 않으면 예외가 발생합니다.
-		channel.waitForConfirmsOrDie(1000);
+				MessageProperties.PERSISTENT_TEXT_PLAIN, body);
 
-		log.info("Tx: {}", message);
+		TRACER.tx(EXCHANGE, ROUTING_KEY, body);
+		return confirm;
 	}
 
 	public void close() throws IOException, TimeoutException {
+		try {
+			// 확인을 기다리는 메시지가 남아있다면 조금 기다립니다.
+			if (!publisher.awaitAll(1000, TimeUnit.MILLISECONDS)) {
+				log.warn("Closing with {} unconfirmed messages.", publisher.inFlight());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		prefetchController.close();
+		ackCoalescer.close();
+		publishChannel.close();
 		channel.close();
-		connection.close();
 	}
 
 	public static void main(String... args) throws IOException, TimeoutException {
 		HelloRabbit2 helloRabbit = new HelloRabbit2();
 		for (int i = 0; i < 10; i++) {
 			try {
-				helloRabbit.publish("Hello, " + i);
-			} catch (TimeoutException | InterruptedException e) {
+				helloRabbit.publish("Hello, " + i)
+						.whenComplete((deliveryTag, e) -> {
+							// 메시지가 전달되지 않으면 예외로 완료됩니다.
+							if (null != e) {
+								log.error("Publish fail..", e);
+							}
+						});
+			} catch (InterruptedException e) {
 				log.error("Publish fail..", e);
 			}
 			try {
@@ -101,5 +152,6 @@ public class HelloRabbit2 {
 			}
 		}
 		helloRabbit.close();
+		ConnectionManager.shared().close();
 	}
 }
@@ -6,14 +6,39 @@
 package kr.pe.elex.rabbitmq.loadbalance;
 
 import com.rabbitmq.client.*;
+import kr.pe.elex.rabbitmq.consumer.AckCoalescer;
+import kr.pe.elex.rabbitmq.consumer.AdaptivePrefetchController;
+import kr.pe.elex.rabbitmq.consumer.DispatchingConsumer;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.LatencyStamp;
+import kr.pe.elex.rabbitmq.metrics.LatencyTracker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.pool.PooledChannel;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.trace.MessageTracer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
  * 하나의 큐에 여러 개의 컨슈머를 할당합니다.
+ * <p>
+ * 받은 메시지는 작업 스레드에서 처리하고, 처리가 끝나면 작업 스레드에서 ack를 보냅니다.
+ * 컨슈머 하나가 프로세서 개수만큼 메시지를 동시에 처리합니다.
+ * prefetch는 측정한 처리 시간과 왕복 시간에 맞춰 {@link AdaptivePrefetchController}가 조절합니다.
+ * ack는 {@link AckCoalescer}로 모아서 보냅니다.
+ * <p>
+ * 메시지의 순서가 중요하다면 {@link kr.pe.elex.rabbitmq.partition.ConsumerGroup}으로 키마다 나눈 큐를 받습니다.
+ * <p>
+ * {@code -Delex.latency=true}로 켜면 보낸 시각과 일련번호를 헤더에 찍습니다. 같은 큐를 나눠 받는 컨슈머들은
+ * 트래커 하나({@link #getLatency()})를 함께 써야 다른 컨슈머가 받은 메시지를 빠진 것으로 세지 않습니다.
  *
  * @author Elex
  * @see "https://www.rabbitmq.com/tutorials/tutorial-two-java.html"
@@ -23,65 +48,100 @@ public class RabbitClient {
 	private static final String EXCHANGE = "elex.direct.exchange";
 	private static final String QUEUE = "elex.queue";
 	private static final String ROUTING_KEY = "elex-routing-key";
+	private static final MessageTracer TRACER = MessageTracer.shared();
+	private static final Topology TOPOLOGY = Topology.builder()
+			.exchange(EXCHANGE, BuiltinExchangeType.DIRECT, true)
+			.queue(QUEUE, false, false, false)
+			.binding(QUEUE, EXCHANGE, ROUTING_KEY)
+			.build();
+	private static final int WORKERS = WorkerExecutors.cores();
+	// 컨슈머 하나가 받아둘 수 있는 메시지의 최대 개수입니다. 실제 prefetch는 이 안에서 조절됩니다.
+	private static final int MAX_PREFETCH = WORKERS * 64;
+	// ack를 이만큼 모아서 한 번에 보냅니다. prefetch는 이보다 커야 합니다.
+	private static final int ACK_BATCH = 16;
+	private static final LatencyTracker LATENCY = new LatencyTracker(Metrics.shared(), "loadbalance");
 
 	private String name;
 
-	private Connection connection;
+	private final ConnectionManager connectionManager;
 	private Channel channel;
+	private final ExecutorService executor;
+	private final AdaptivePrefetchController prefetchController;
+	private final AckCoalescer ackCoalescer;
+	private final List<String> consumerTags = new CopyOnWriteArrayList<>();
+	private final LatencyStamp stamp;
+
+	RabbitClient(String name) throws IOException {
+		this(name, ConnectionManager.shared());
+	}
 
-	RabbitClient(String name) throws IOException, TimeoutException {
+	RabbitClient(String name, ConnectionManager connectionManager) throws IOException {
 		this.name = name;
+		this.stamp = new LatencyStamp(name);
+		this.connectionManager = connectionManager;
+		this.executor = WorkerExecutors.fixed("elex-" + name, WORKERS);
+		// 소비와 선언에 쓸 전용 채널입니다. 연결은 다른 클라이언트와 함께 씁니다.
+		channel = connectionManager.createChannel();
 
-		ConnectionFactory connectionFactory = new ConnectionFactory();
-		connectionFactory.setHost("localhost");
-		connectionFactory.setPort(5672);
-		connectionFactory.setUsername("elex");
-		connectionFactory.setPassword("test");
-		connectionFactory.setVirtualHost("/");
-
-		connection = connectionFactory.newConnection();
-		channel = connection.createChannel();
-
-		// 익스체인지는 브로커가 메시지를 받는 곳입니다.
-		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.DIRECT, true);
-
-		// 큐는 브로커가 메시지를 보내는 곳입니다.
-		channel.queueDeclare(QUEUE, false, false, false, null);
-
-		// 익스체인지와 큐를 묶습니다.
-		channel.queueBind(QUEUE, EXCHANGE, ROUTING_KEY);
+		// 익스체인지는 브로커가 메시지를 받는 곳이고, 큐는 브로커가 메시지를 보내는 곳입니다.
+		// 익스체인지와 큐를 묶습니다. 다른 클라이언트가 이미 선언했다면 다시 보내지 않습니다.
+		connectionManager.getTopology().declare(channel, TOPOLOGY);
 
 		// 메시지 소비자에 전달할 메시지의 최대 개수입니다. ack를 받을 때까지 메시지 전송을 미룰 수 있습니다.
-		channel.basicQos(1);
+		channel.basicQos(MAX_PREFETCH);
+		// 채널 전체의 prefetch는 처리 시간에 맞춰 주기적으로 다시 정합니다.
+		prefetchController = new AdaptivePrefetchController(channel, WORKERS, ACK_BATCH * 2, MAX_PREFETCH)
+				.withMetrics(Metrics.shared());
+		prefetchController.start(1, TimeUnit.SECONDS);
+		ackCoalescer = new AckCoalescer(channel, ACK_BATCH)
+				.start(WorkerExecutors.sharedScheduler(), 100, TimeUnit.MILLISECONDS);
 	}
 
 	public void consume(String consumerTag) throws IOException {
 		// 큐로부터 메시지를 받습니다.
-		channel.basicConsume(QUEUE, false, consumerTag, new DefaultConsumer(channel) {
-			@Override
-			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				log.info("Rx: [{}] {}", name, new String(body, StandardCharsets.UTF_8));
-				try {
+		// 디스패치 스레드는 메시지를 작업 스레드에 넘기기만 하고, 처리 후 ack는 작업 스레드에서 보냅니다.
+		String tag = channel.basicConsume(QUEUE, false, consumerTag, new DispatchingConsumer(channel, executor, MAX_PREFETCH,
+				(ctag, envelope, properties, body) -> {
+					TRACER.rx(name, envelope.getRoutingKey(), body);
 					// 메시지를 처리하는데 시간이 좀 걸린다고 가정합니다.
 					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					log.error("Interrupted..", e);
-				}
-				// 메시지 처리 후 ack를 보냅니다.
-				channel.basicAck(envelope.getDeliveryTag(), false);
-			}
-		});
+				}).withPrefetchController(prefetchController).withAckCoalescer(ackCoalescer)
+						.withMetrics(Metrics.shared(), name).withLatencyTracker(LATENCY));
+		consumerTags.add(tag);
 	}
 
 	public void publish(String message) throws IOException {
-		// 익스체인지에 메시지를 보냅니다.
-		channel.basicPublish(EXCHANGE, ROUTING_KEY, null, message.getBytes(StandardCharsets.UTF_8));
-		log.info("Tx: [{}] {}", name, message);
+		// 익스체인지에 메시지를 보냅니다. 채널은 발행할 때만 풀에서 빌립니다.
+		byte[] body = PayloadBuffer.local().append(message).body();
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			pooled.getChannel().basicPublish(EXCHANGE, ROUTING_KEY, stamp.stamp(ROUTING_KEY, null), body);
+		}
+		TRACER.tx(name, ROUTING_KEY, body);
+	}
+
+	/**
+	 * @return 이 프로세스의 컨슈머들이 함께 쓰는 지연 시간 트래커
+	 */
+	public LatencyTracker getLatency() {
+		return LATENCY;
 	}
 
 	public void close() throws IOException, TimeoutException {
+		// 새 메시지를 그만 받고, 처리 중인 메시지의 ack를 보낼 때까지 기다린 다음 채널을 닫습니다.
+		prefetchController.close();
+		for (String consumerTag : consumerTags) {
+			channel.basicCancel(consumerTag);
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+				log.warn("Messages still processing after close.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		ackCoalescer.close();
 		channel.close();
-		connection.close();
 	}
 
 	public static void main(String... args) throws IOException, TimeoutException {
@@ -106,10 +166,12 @@ public class RabbitClient {
 		} catch (InterruptedException e) {
 			log.error("Interrupted..", e);
 		}
+		log.info("Latency {}", consumer1.getLatency().report());
 		producer.close();
 		consumer1.close();
 		consumer2.close();
 		consumer3.close();
+		ConnectionManager.shared().close();
 		/*
 10:59:25.659 [main] INFO kr.pe.elex.rabbitmq.loadbalance.RabbitClient - Tx: [Producer] Hello, 0
 10:59:25.659 [pool-3-thread-4] INFO kr.pe.elex.rabbitmq.loadbalance.RabbitClient - Rx: [Consumer1] Hello, 0
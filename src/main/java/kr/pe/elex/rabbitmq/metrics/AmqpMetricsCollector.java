@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.MetricsCollector;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * amqp-client가 부르는 {@link MetricsCollector}. 연결, 채널, 발행, 소비, ack를 {@link Metrics}의 카운터로 센다.
+ * <p>
+ * {@link com.rabbitmq.client.impl.AbstractMetricsCollector}는 {@code multiple} ack를 메시지 수로 풀어 세려고
+ * 채널마다 딜리버리 태그를 모아 두므로 메시지마다 할당한다. 이 수집기는 호출 한 번을 하나로 센다.
+ * 그러므로 {@code multiple} ack나 컨펌은 여러 메시지를 덮어도 하나로 세어진다.
+ * <pre>{@code
+ * connectionFactory.setMetricsCollector(new AmqpMetricsCollector(Metrics.shared()));
+ * }</pre>
+ *
+ * @author Elex
+ * @see ConnectionFactory#setMetricsCollector(MetricsCollector)
+ */
+public final class AmqpMetricsCollector implements MetricsCollector {
+	private final LongAdder connections;
+	private final LongAdder channels;
+	private final LongAdder published;
+	private final LongAdder publishFailed;
+	private final LongAdder publishAcked;
+	private final LongAdder publishNacked;
+	private final LongAdder publishUnrouted;
+	private final LongAdder delivered;
+	private final LongAdder acked;
+	private final LongAdder nacked;
+	private final LongAdder rejected;
+
+	public AmqpMetricsCollector(Metrics metrics) {
+		this.connections = metrics.counter(Metrics.CONNECTIONS);
+		this.channels = metrics.counter(Metrics.CHANNELS);
+		this.published = metrics.counter(Metrics.PUBLISHED);
+		this.publishFailed = metrics.counter(Metrics.PUBLISH_FAILED);
+		this.publishAcked = metrics.counter(Metrics.PUBLISH_ACKED);
+		this.publishNacked = metrics.counter(Metrics.PUBLISH_NACKED);
+		this.publishUnrouted = metrics.counter(Metrics.PUBLISH_UNROUTED);
+		this.delivered = metrics.counter(Metrics.DELIVERED);
+		this.acked = metrics.counter(Metrics.ACKED);
+		this.nacked = metrics.counter(Metrics.NACKED);
+		this.rejected = metrics.counter(Metrics.REJECTED);
+	}
+
+	@Override
+	public void newConnection(Connection connection) {
+		connections.increment();
+	}
+
+	@Override
+	public void closeConnection(Connection connection) {
+		connections.decrement();
+	}
+
+	@Override
+	public void newChannel(Channel channel) {
+		channels.increment();
+	}
+
+	@Override
+	public void closeChannel(Channel channel) {
+		channels.decrement();
+	}
+
+	@Override
+	public void basicPublish(Channel channel) {
+		published.increment();
+	}
+
+	@Override
+	public void basicPublishFailure(Channel channel, Throwable cause) {
+		publishFailed.increment();
+	}
+
+	@Override
+	public void basicPublishAck(Channel channel, long deliveryTag, boolean multiple) {
+		publishAcked.increment();
+	}
+
+	@Override
+	public void basicPublishNack(Channel channel, long deliveryTag, boolean multiple) {
+		publishNacked.increment();
+	}
+
+	@Override
+	public void basicPublishUnrouted(Channel channel) {
+		publishUnrouted.increment();
+	}
+
+	@Override
+	public void consumedMessage(Channel channel, long deliveryTag, boolean autoAck) {
+		delivered.increment();
+	}
+
+	@Override
+	public void consumedMessage(Channel channel, long deliveryTag, String consumerTag) {
+		delivered.increment();
+	}
+
+	@Override
+	public void basicAck(Channel channel, long deliveryTag, boolean multiple) {
+		acked.increment();
+	}
+
+	@Override
+	public void basicNack(Channel channel, long deliveryTag) {
+		nacked.increment();
+	}
+
+	@Override
+	public void basicReject(Channel channel, long deliveryTag) {
+		rejected.increment();
+	}
+
+	@Override
+	public void basicConsume(Channel channel, String consumerTag, boolean autoAck) {
+	}
+
+	@Override
+	public void basicCancel(Channel channel, String consumerTag) {
+	}
+}
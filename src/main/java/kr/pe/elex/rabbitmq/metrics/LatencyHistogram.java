@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 지연 시간의 분포를 모은다. HdrHistogram처럼 2의 거듭제곱마다 구간을 32개로 나누므로,
+ * 1나노초부터 수백 년까지 어느 값이든 상대 오차 약 3% 안에서 백분위수를 낸다.
+ * <p>
+ * 기록은 잠그지 않고 할당하지 않는다. 구간 카운터 하나를 원자적으로 올릴 뿐이다.
+ * 읽는 쪽은 {@link #snapshot()}으로 그 순간의 분포를 복사해서 쓴다.
+ *
+ * @author Elex
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// 64보다 작은 값은 그대로, 그 위로는 거듭제곱(2^6 ~ 2^62)마다 32칸입니다.
+	private static final int LINEAR = SUB_BUCKETS * 2;
+	private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos 걸린 시간. 음수는 0으로 센다.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		sum.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * {@code startNanos}부터 지금까지 걸린 시간을 기록한다.
+	 *
+	 * @param startNanos {@link System#nanoTime()}으로 잰 시작 시각
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return 지금까지의 분포
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, sum.sum(), max.get());
+	}
+
+	/**
+	 * 분포를 복사하고 비운다. 주기마다 구간의 분포를 낼 때 쓴다.
+	 * 복사하는 사이에 기록된 값은 이번이나 다음 중 한쪽에만 들어간다.
+	 *
+	 * @return 마지막으로 비운 뒤의 분포
+	 */
+	public Snapshot snapshotAndReset() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.getAndSet(i, 0);
+		}
+		return new Snapshot(copy, sum.sumThenReset(), max.getAndSet(0));
+	}
+
+	static int index(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return 구간에 드는 가장 큰 값
+	 */
+	static long highestEquivalent(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int k = index - LINEAR;
+		int exponent = k / SUB_BUCKETS + SUB_BITS + 1;
+		long sub = k % SUB_BUCKETS + SUB_BUCKETS;
+		int shift = exponent - SUB_BITS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * 어느 순간의 분포. 값은 모두 나노초다.
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] counts, long sum, long max) {
+			this.counts = counts;
+			long count = 0;
+			for (long c : counts) {
+				count += c;
+			}
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public long getMean() {
+			return 0 == count ? 0 : sum / count;
+		}
+
+		/**
+		 * @param quantile 0부터 1 사이. 예: 0.99
+		 * @return 기록한 값의 {@code quantile}이 이 값 이하다. 기록이 없으면 0.
+		 */
+		public long getValueAt(double quantile) {
+			if (0 == count) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highestEquivalent(i), max);
+				}
+			}
+			return max;
+		}
+
+		public long getP50() {
+			return getValueAt(0.5);
+		}
+
+		public long getP99() {
+			return getValueAt(0.99);
+		}
+
+		public long getP999() {
+			return getValueAt(0.999);
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + " mean=" + micros(getMean()) + " p50=" + micros(getP50())
+					+ " p99=" + micros(getP99()) + " p999=" + micros(getP999()) + " max=" + micros(max) + " us";
+		}
+
+		private static long micros(long nanos) {
+			return TimeUnit.NANOSECONDS.toMicros(nanos);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import com.rabbitmq.client.AMQP;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 보내는 메시지의 헤더에 보낸 시각과 일련번호를 찍는다. 받는 쪽은 {@link LatencyTracker}로 지연 시간과 빠진 메시지를 잰다.
+ * <ul>
+ *     <li>{@value #SENT_AT}: 보낸 시각. {@link #now()}의 나노초</li>
+ *     <li>{@value #STREAM}: 일련번호를 매기는 단위. 보내는 쪽 이름과 라우팅-키로 만든다.</li>
+ *     <li>{@value #SEQUENCE}: 스트림 안에서 1부터 하나씩 느는 번호</li>
+ * </ul>
+ * {@link #stamp(String, AMQP.BasicProperties)}는 라우팅-키마다 따로 번호를 매기므로, 토픽의 일부만 받는 컨슈머도
+ * 자기가 받는 라우팅-키의 빠진 메시지를 알 수 있다. 라우팅-키가 {@value #MAX_STREAMS}개를 넘으면 그 뒤의 키에는 시각만 찍는다.
+ * 팬아웃처럼 모든 컨슈머가 모든 메시지를 받는다면 {@link #stamp(AMQP.BasicProperties)}로 보내는 쪽마다 번호를 하나만 매긴다.
+ * 번호는 찍을 때 매기므로 여러 스레드가 한 발행자로 보내면 보내는 쪽에서 이미 순서가 바뀔 수 있다.
+ * <p>
+ * 헤더를 만들고 속성을 다시 만들어야 하므로 켰을 때만 찍는다. {@code -Delex.latency=true}로 켠다.
+ * 묶어서 보내는 메시지는 헤더를 묶음이 함께 쓰므로 찍지 않는다.
+ *
+ * @author Elex
+ */
+public final class LatencyStamp {
+	public static final String SENT_AT = "x-elex-sent-at";
+	public static final String STREAM = "x-elex-stream";
+	public static final String SEQUENCE = "x-elex-sequence";
+	/**
+	 * 라우팅-키마다 따로 번호를 매길 최대 개수.
+	 */
+	static final int MAX_STREAMS = 1024;
+
+	// 단조 시계를 에포크에 맞춰 둡니다. 프로세스 안에서는 거꾸로 가지 않고, 다른 프로세스와는 벽시계만큼 맞습니다.
+	private static final long EPOCH_OFFSET = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+	private final String producer;
+	private final boolean enabled;
+	private final ConcurrentHashMap<String, Stream> streams = new ConcurrentHashMap<>();
+	private final Stream producerStream;
+
+	/**
+	 * {@code elex.latency} 시스템 속성이 {@code true}일 때만 찍는다.
+	 *
+	 * @param name 보내는 쪽의 이름
+	 */
+	public LatencyStamp(String name) {
+		this(name, Boolean.getBoolean("elex.latency"));
+	}
+
+	/**
+	 * @param name    보내는 쪽의 이름
+	 * @param enabled 찍을지
+	 */
+	public LatencyStamp(String name, boolean enabled) {
+		// 같은 이름의 발행자가 여럿이어도 스트림이 섞이지 않도록 인스턴스마다 접미어를 붙입니다.
+		this.producer = name + '.' + Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+		this.enabled = enabled;
+		this.producerStream = new Stream(producer);
+	}
+
+	/**
+	 * @return 에포크부터의 나노초. {@link System#nanoTime()}을 따라가므로 단조 증가한다.
+	 */
+	public static long now() {
+		return EPOCH_OFFSET + System.nanoTime();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * 보내기 바로 전에 부른다. 라우팅-키마다 따로 번호를 매긴다.
+	 *
+	 * @param routingKey 보낼 라우팅-키
+	 * @param properties 원래 속성. null이어도 된다.
+	 * @return 헤더를 찍은 새 속성. 꺼져 있으면 {@code properties} 그대로
+	 */
+	public AMQP.BasicProperties stamp(String routingKey, AMQP.BasicProperties properties) {
+		if (!enabled) {
+			return properties;
+		}
+		Stream stream = streams.get(routingKey);
+		if (null == stream && streams.size() < MAX_STREAMS) {
+			stream = streams.computeIfAbsent(routingKey, key -> new Stream(producer + '/' + key));
+		}
+		return stamp(stream, properties);
+	}
+
+	/**
+	 * 보내기 바로 전에 부른다. 라우팅-키와 관계없이 이 발행자의 번호를 매긴다.
+	 *
+	 * @param properties 원래 속성. null이어도 된다.
+	 * @return 헤더를 찍은 새 속성. 꺼져 있으면 {@code properties} 그대로
+	 */
+	public AMQP.BasicProperties stamp(AMQP.BasicProperties properties) {
+		if (!enabled) {
+			return properties;
+		}
+		return stamp(producerStream, properties);
+	}
+
+	/**
+	 * @param stream null이면 시각만 찍는다.
+	 */
+	private static AMQP.BasicProperties stamp(Stream stream, AMQP.BasicProperties properties) {
+		Map<String, Object> headers = null == properties || null == properties.getHeaders()
+				? new HashMap<>(4)
+				: new HashMap<>(properties.getHeaders());
+		if (null != stream) {
+			headers.put(STREAM, stream.id);
+			headers.put(SEQUENCE, stream.sequence.incrementAndGet());
+		}
+		headers.put(SENT_AT, now());
+		AMQP.BasicProperties.Builder builder = null == properties ? new AMQP.BasicProperties.Builder() : properties.builder();
+		return builder.headers(headers).build();
+	}
+
+	private static final class Stream {
+		private final String id;
+		private final AtomicLong sequence = new AtomicLong();
+
+		private Stream(String id) {
+			this.id = id;
+		}
+	}
+}
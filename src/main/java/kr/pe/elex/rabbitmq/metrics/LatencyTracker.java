@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link LatencyStamp}가 찍은 헤더로 보낸 뒤 받을 때까지의 지연 시간을 재고, 일련번호로 빠지거나 순서가 바뀐 메시지를 센다.
+ * <p>
+ * 지연 시간은 {@link Metrics#END_TO_END}{@code + name} 분포에 모이므로 {@link Metrics#writeText}나
+ * {@link MetricsMBean}으로도 볼 수 있다. 언제든 {@link #report()}로 한 줄 요약을 얻는다.
+ * <ul>
+ *     <li>gap: 번호가 건너뛴 만큼 센다. 아직 오지 않았거나 잃어버린 메시지다.</li>
+ *     <li>late: 이미 본 번호보다 작은 번호가 온 횟수. 순서가 바뀐 메시지다.</li>
+ *     <li>redelivered: 다시 배달된 메시지. 번호를 따지지 않는다.</li>
+ * </ul>
+ * 순서가 바뀌어 늦게 온 메시지는 gap에도 late에도 세어지므로 잃어버린 메시지는 {@code gap - late}쯤이다.
+ * 한 큐를 여러 컨슈머가 나눠 받는다면 트래커 하나를 함께 써야 번호가 빠진 것으로 보이지 않는다.
+ * 처음 받은 번호 앞의 메시지는 빠진 것으로 세지 않는다.
+ * 같은 이름의 트래커는 분포와 카운터를 함께 쓰므로, 흐름 하나의 여러 컨슈머를 한 이름으로 모을 수 있다.
+ * 스트림이 {@value #MAX_STREAMS}개를 넘으면 가장 오래 보지 못한 것부터 잊는다. 잊은 스트림이 다시 오면 처음 받은 것처럼 센다.
+ * <p>
+ * 여러 컨슈머 스레드에서 동시에 불러도 안전하다.
+ *
+ * @author Elex
+ */
+public final class LatencyTracker {
+	/**
+	 * 번호를 기억할 스트림의 최대 개수.
+	 */
+	static final int MAX_STREAMS = 4096;
+
+	private final String name;
+	private final LatencyHistogram latency;
+	private final LongAdder gaps;
+	private final LongAdder late;
+	private final LongAdder redelivered;
+	private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+
+	/**
+	 * @param metrics 기록할 지표
+	 * @param name    흐름 이름. 예: {@code hello}
+	 */
+	public LatencyTracker(Metrics metrics, String name) {
+		this.name = name;
+		this.latency = metrics.histogram(Metrics.END_TO_END + name);
+		this.gaps = metrics.counter(Metrics.END_TO_END + name + ".gap");
+		this.late = metrics.counter(Metrics.END_TO_END + name + ".late");
+		this.redelivered = metrics.counter(Metrics.END_TO_END + name + ".redelivered");
+	}
+
+	/**
+	 * 받은 메시지를 기록한다. 받자마자 부른다.
+	 *
+	 * @return 헤더가 찍혀 있어 기록했으면 {@code true}
+	 */
+	public boolean record(Envelope envelope, AMQP.BasicProperties properties) {
+		long receivedAt = LatencyStamp.now();
+		Map<String, Object> headers = null == properties ? null : properties.getHeaders();
+		if (null == headers) {
+			return false;
+		}
+		Object sentAt = headers.get(LatencyStamp.SENT_AT);
+		if (!(sentAt instanceof Number)) {
+			return false;
+		}
+		latency.record(receivedAt - ((Number) sentAt).longValue());
+
+		if (null != envelope && envelope.isRedeliver()) {
+			redelivered.increment();
+			return true;
+		}
+		Object stream = headers.get(LatencyStamp.STREAM);
+		Object sequence = headers.get(LatencyStamp.SEQUENCE);
+		if (null != stream && sequence instanceof Number) {
+			// 브로커를 거친 문자열 헤더는 LongString으로 옵니다.
+			sequence(stream.toString(), ((Number) sequence).longValue());
+		}
+		return true;
+	}
+
+	private void sequence(String id, long sequence) {
+		Stream stream = streams.get(id);
+		if (null == stream) {
+			stream = streams.computeIfAbsent(id, key -> new Stream());
+			if (streams.size() > MAX_STREAMS) {
+				evict();
+			}
+		}
+		stream.seenAt = System.nanoTime();
+		AtomicLong last = stream.last;
+		while (true) {
+			long previous = last.get();
+			if (sequence <= previous) {
+				late.increment();
+				return;
+			}
+			if (last.compareAndSet(previous, sequence)) {
+				if (previous >= 0 && sequence > previous + 1) {
+					gaps.add(sequence - previous - 1);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 가장 오래 보지 못한 스트림부터 지워서 {@link #MAX_STREAMS}의 3/4로 줄인다.
+	 * 넘칠 때마다 한 번에 여럿을 지우므로 새 스트림 하나에 드는 비용은 작다.
+	 */
+	private synchronized void evict() {
+		int excess = streams.size() - MAX_STREAMS * 3 / 4;
+		if (excess <= 0) {
+			// 다른 스레드가 이미 줄였습니다.
+			return;
+		}
+		// 정렬하는 동안 바뀌지 않도록 시각을 먼저 베껴 둡니다.
+		long[] seenAt = streams.values().stream().mapToLong(stream -> stream.seenAt).toArray();
+		Arrays.sort(seenAt);
+		long threshold = seenAt[Math.min(excess, seenAt.length) - 1];
+		streams.values().removeIf(stream -> stream.seenAt <= threshold);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return 지금까지의 지연 시간 분포
+	 */
+	public LatencyHistogram.Snapshot getSnapshot() {
+		return latency.snapshot();
+	}
+
+	public long getGaps() {
+		return gaps.sum();
+	}
+
+	public long getLate() {
+		return late.sum();
+	}
+
+	public long getRedelivered() {
+		return redelivered.sum();
+	}
+
+	/**
+	 * @return 번호를 기억하고 있는 스트림 개수
+	 */
+	public int getStreamCount() {
+		return streams.size();
+	}
+
+	/**
+	 * @return 한 줄 요약. 예: {@code hello: count=10 mean=812 p50=790 p99=2490 p999=2490 max=2490 us, gap=0 late=0 redelivered=0}
+	 */
+	public String report() {
+		return name + ": " + getSnapshot() + ", gap=" + getGaps() + " late=" + getLate() + " redelivered=" + getRedelivered();
+	}
+
+	@Override
+	public String toString() {
+		return report();
+	}
+
+	private static final class Stream {
+		private final AtomicLong last = new AtomicLong(-1);
+		// 만들 때부터 시각을 적어 둡니다. 0으로 두면 넘쳐서 줄일 때 방금 만든 스트림이 가장 오래된 것으로 보입니다.
+		private volatile long seenAt = System.nanoTime();
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 이름 붙은 카운터와 지연 시간 분포를 모아 둔다.
+ * <p>
+ * 카운터는 {@link LongAdder}이고 분포는 {@link LatencyHistogram}이다. 둘 다 잠그지 않고 할당하지 않으므로,
+ * 기록하는 쪽은 처음에 {@link #counter}와 {@link #histogram}으로 한 번 찾아서 들고 있다가 쓴다.
+ * <p>
+ * 모은 값은 {@link #writeText}로 Prometheus 텍스트 형식으로 쓰거나, {@link MetricsMBean}으로 JMX에 내놓는다.
+ *
+ * @author Elex
+ */
+public final class Metrics {
+	/**
+	 * 보낸 메시지 수. amqp-client가 센다.
+	 */
+	public static final String PUBLISHED = "publish";
+	public static final String PUBLISH_FAILED = "publish.failed";
+	public static final String PUBLISH_ACKED = "publish.ack";
+	public static final String PUBLISH_NACKED = "publish.nack";
+	public static final String PUBLISH_UNROUTED = "publish.unrouted";
+	/**
+	 * 받은 메시지 수. amqp-client가 센다.
+	 */
+	public static final String DELIVERED = "deliver";
+	public static final String ACKED = "ack";
+	public static final String NACKED = "nack";
+	public static final String REJECTED = "reject";
+	/**
+	 * 열린 연결과 채널 수. 열 때 올리고 닫을 때 내린다.
+	 */
+	public static final String CONNECTIONS = "connections";
+	public static final String CHANNELS = "channels";
+	public static final String RPC_TIMEOUTS = "rpc.timeout";
+	/**
+	 * {@code AdaptivePrefetchController}가 정한 prefetch의 합과 바꾼 횟수. prefetch는 바꿀 때마다 차이만큼 올리고 내린다.
+	 */
+	public static final String PREFETCH = "prefetch";
+	public static final String PREFETCH_ADJUSTMENTS = "prefetch.adjust";
+
+	/**
+	 * 보내고 브로커가 확인할 때까지.
+	 */
+	public static final String PUBLISH_TO_CONFIRM = "publish.confirm";
+	/**
+	 * 받고 ack를 보낼 때까지. 작업 스레드를 기다린 시간이 들어 있다.
+	 */
+	public static final String DELIVERY_TO_ACK = "delivery.ack";
+	/**
+	 * RPC 요청을 보내고 응답을 받을 때까지.
+	 */
+	public static final String RPC_ROUND_TRIP = "rpc.roundtrip";
+	/**
+	 * 컨슈머의 처리 시간. 뒤에 컨슈머 이름을 붙인다.
+	 */
+	public static final String PROCESSING = "process.";
+	/**
+	 * 보내고 받을 때까지. 뒤에 흐름 이름을 붙인다. {@link LatencyTracker}가 기록한다.
+	 */
+	public static final String END_TO_END = "e2e.";
+	/**
+	 * prefetch를 정할 때 잰 basic.qos 왕복 시간과, 주기마다의 평균 처리 시간.
+	 */
+	public static final String PREFETCH_RTT = "prefetch.rtt";
+	public static final String PREFETCH_PROCESSING = "prefetch.process";
+
+	private static final Metrics SHARED = new Metrics();
+
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	/**
+	 * @return 프로세스 전체에서 함께 쓰는 지표
+	 */
+	public static Metrics shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @return 이름의 카운터. 없으면 만든다.
+	 */
+	public LongAdder counter(String name) {
+		return counters.computeIfAbsent(name, key -> new LongAdder());
+	}
+
+	/**
+	 * @return 이름의 지연 시간 분포. 없으면 만든다.
+	 */
+	public LatencyHistogram histogram(String name) {
+		return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+	}
+
+	/**
+	 * @return 이름순으로 정렬한 카운터 값
+	 */
+	public Map<String, Long> getCounters() {
+		Map<String, Long> values = new TreeMap<>();
+		counters.forEach((name, counter) -> values.put(name, counter.sum()));
+		return values;
+	}
+
+	/**
+	 * @return 이름순으로 정렬한 분포
+	 */
+	public Map<String, LatencyHistogram.Snapshot> getHistograms() {
+		Map<String, LatencyHistogram.Snapshot> values = new TreeMap<>();
+		histograms.forEach((name, histogram) -> values.put(name, histogram.snapshot()));
+		return values;
+	}
+
+	/**
+	 * Prometheus 텍스트 형식으로 쓴다. 이름의 {@code .}은 {@code _}로 바꾸고 {@code elex_}를 붙인다.
+	 * 분포는 초 단위 summary로 쓴다.
+	 */
+	public void writeText(Appendable out) throws IOException {
+		for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+			String name = name(counter.getKey());
+			boolean gauge = CONNECTIONS.equals(counter.getKey()) || CHANNELS.equals(counter.getKey())
+					|| PREFETCH.equals(counter.getKey());
+			if (gauge) {
+				out.append("# TYPE ").append(name).append(" gauge\n");
+				out.append(name).append(' ').append(String.valueOf(counter.getValue())).append('\n');
+			} else {
+				out.append("# TYPE ").append(name).append("_total counter\n");
+				out.append(name).append("_total ").append(String.valueOf(counter.getValue())).append('\n');
+			}
+		}
+		for (Map.Entry<String, LatencyHistogram.Snapshot> histogram : getHistograms().entrySet()) {
+			String name = name(histogram.getKey()) + "_seconds";
+			LatencyHistogram.Snapshot snapshot = histogram.getValue();
+			out.append("# TYPE ").append(name).append(" summary\n");
+			quantile(out, name, "0.5", snapshot.getP50());
+			quantile(out, name, "0.99", snapshot.getP99());
+			quantile(out, name, "0.999", snapshot.getP999());
+			quantile(out, name, "1", snapshot.getMax());
+			out.append(name).append("_count ").append(String.valueOf(snapshot.getCount())).append('\n');
+			out.append(name).append("_sum ").append(seconds(snapshot.getSum())).append('\n');
+		}
+	}
+
+	/**
+	 * @return {@link #writeText}의 결과
+	 */
+	public String toText() {
+		StringBuilder text = new StringBuilder();
+		try {
+			writeText(text);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return text.toString();
+	}
+
+	private static void quantile(Appendable out, String name, String quantile, long nanos) throws IOException {
+		out.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(seconds(nanos)).append('\n');
+	}
+
+	private static String seconds(long nanos) {
+		return String.valueOf(nanos / 1e9);
+	}
+
+	static String name(String key) {
+		StringBuilder name = new StringBuilder("elex_");
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			name.append(Character.isLetterOrDigit(c) ? c : '_');
+		}
+		return name.toString();
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link Metrics#writeText}를 HTTP로 내놓는다. {@code GET /metrics}에 Prometheus 텍스트 형식으로 답한다.
+ * <p>
+ * JDK에 든 {@link HttpServer}를 쓰므로 디펜던시가 더 필요 없다. 요청은 스레드 하나에서 차례로 처리한다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public final class MetricsHttpServer implements AutoCloseable {
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final HttpServer server;
+
+	/**
+	 * @param metrics 내놓을 지표
+	 * @param port    들을 포트. 0이면 빈 포트를 고른다.
+	 */
+	public MetricsHttpServer(Metrics metrics, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", exchange -> respond(exchange, metrics));
+		server.start();
+		log.debug("Metrics on http://localhost:{}/metrics", getPort());
+	}
+
+	private static void respond(HttpExchange exchange, Metrics metrics) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return 듣고 있는 포트
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Metrics}를 JMX에 내놓는다. 카운터는 이름 그대로, 분포는 {@code 이름.p50}, {@code .p99}, {@code .p999},
+ * {@code .max}, {@code .count} 속성이 된다. 시간은 마이크로초다.
+ * <p>
+ * 속성 목록은 JMX 클라이언트가 물어볼 때마다 새로 만드므로 나중에 생긴 지표도 보인다.
+ * <pre>{@code
+ * MetricsMBean.register(Metrics.shared(), "kr.pe.elex.rabbitmq:type=Metrics");
+ * }</pre>
+ *
+ * @author Elex
+ */
+public final class MetricsMBean implements DynamicMBean {
+	private static final String[] SUFFIXES = {".p50", ".p99", ".p999", ".max", ".count"};
+
+	private final Metrics metrics;
+
+	public MetricsMBean(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * 플랫폼 MBean 서버에 등록한다. 같은 이름이 이미 있으면 바꿔 끼운다.
+	 *
+	 * @param metrics    내놓을 지표
+	 * @param objectName 예: {@code kr.pe.elex.rabbitmq:type=Metrics}
+	 * @return 등록한 이름
+	 */
+	public static ObjectName register(Metrics metrics, String objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(objectName);
+		try {
+			server.registerMBean(new MetricsMBean(metrics), name);
+		} catch (InstanceAlreadyExistsException e) {
+			try {
+				server.unregisterMBean(name);
+			} catch (InstanceNotFoundException ignored) {
+				// 그 사이에 다른 쪽이 지웠습니다.
+			}
+			server.registerMBean(new MetricsMBean(metrics), name);
+		}
+		return name;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Map<String, Long> counters = metrics.getCounters();
+		Long counter = counters.get(attribute);
+		if (null != counter) {
+			return counter;
+		}
+		int dot = attribute.lastIndexOf('.');
+		if (dot > 0) {
+			LatencyHistogram.Snapshot snapshot = metrics.getHistograms().get(attribute.substring(0, dot));
+			if (null != snapshot) {
+				switch (attribute.substring(dot)) {
+					case ".p50":
+						return micros(snapshot.getP50());
+					case ".p99":
+						return micros(snapshot.getP99());
+					case ".p999":
+						return micros(snapshot.getP999());
+					case ".max":
+						return micros(snapshot.getMax());
+					case ".count":
+						return snapshot.getCount();
+					default:
+						break;
+				}
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Read-only: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException ignored) {
+				// 없는 속성은 빼고 돌려줍니다.
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException(actionName);
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		for (String counter : metrics.getCounters().keySet()) {
+			attributes.add(attribute(counter, "Counter"));
+		}
+		for (String histogram : metrics.getHistograms().keySet()) {
+			for (String suffix : SUFFIXES) {
+				attributes.add(attribute(histogram + suffix, ".count".equals(suffix) ? "Samples" : "Microseconds"));
+			}
+		}
+		return new MBeanInfo(MetricsMBean.class.getName(), "RabbitMQ client metrics",
+				attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+	}
+
+	private static MBeanAttributeInfo attribute(String name, String description) {
+		return new MBeanAttributeInfo(name, Long.class.getName(), description, true, false, false);
+	}
+
+	private static long micros(long nanos) {
+		return nanos / 1000;
+	}
+}
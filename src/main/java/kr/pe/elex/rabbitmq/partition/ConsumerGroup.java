@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.partition;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.consumer.DispatchingConsumer.MessageProcessor;
+import kr.pe.elex.rabbitmq.consumer.KeyPartitionedExecutor;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.pool.PooledChannel;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link PartitionedQueues}의 파티션을 그룹의 멤버들이 나눠 받는다.
+ * <p>
+ * 멤버는 그룹의 팬아웃 익스체인지로 하트비트를 보내서 서로를 안다. 하트비트가 끊기거나 떠난다고 알리면 그 멤버를 뺀다.
+ * 멤버가 바뀌면 모든 멤버가 같은 규칙(랑데부 해시)으로 파티션의 주인을 정하므로 따로 조정자가 없다.
+ * 멤버가 들고 날 때 주인이 바뀌는 파티션은 평균 {@code 파티션 수 / 멤버 수}개뿐이다.
+ * <p>
+ * 파티션마다 채널을 따로 쓰고, 받은 메시지는 파티션의 레인에서 차례대로 처리한 다음 ack를 보낸다.
+ * 파티션을 내줄 때는 이미 넘긴 메시지를 모두 처리하고 채널을 닫는다. 처리를 기다리는 동안에도 하트비트는 계속 보낸다. ack하지 않은 메시지는 큐의 맨 앞으로 돌아가고,
+ * 큐가 {@code x-single-active-consumer}이므로 다음 주인은 그 뒤에야 받기 시작한다.
+ * 잠깐 멤버 목록이 엇갈려 두 멤버가 같은 파티션을 받으려 해도 브로커가 하나에게만 보내므로 키의 순서는 지켜진다.
+ * <p>
+ * 처리 중에 예외가 나면 그 메시지는 다시 넣지 않고 버린다.
+ * <pre>{@code
+ * ConsumerGroup group = ConsumerGroup.builder(connectionManager, queues)
+ *         .workers(8)
+ *         .start((consumerTag, envelope, properties, body) -> handle(body));
+ * }</pre>
+ *
+ * @author Elex
+ */
+@Slf4j
+public class ConsumerGroup implements AutoCloseable {
+	static final String HEARTBEAT = "heartbeat";
+	static final String LEAVE = "leave";
+
+	private final ConnectionManager connectionManager;
+	private final PartitionedQueues queues;
+	private final String memberId;
+	private final MessageProcessor processor;
+	private final int prefetch;
+	private final long heartbeatNanos;
+	private final long sessionTimeoutNanos;
+	private final KeyPartitionedExecutor executor;
+	// 멤버십과 리밸런싱은 이 스레드 하나에서 차례대로 처리합니다.
+	private final ScheduledExecutorService coordinator;
+	// 멤버와 마지막 하트비트를 받은 시각입니다. 조정 스레드에서만 씁니다.
+	private final Map<String, Long> members = new HashMap<>();
+	private final Map<Integer, Partition> owned = new ConcurrentHashMap<>();
+	private volatile Set<String> view = Collections.emptySet();
+	private boolean membershipChanged = true;
+	private Channel channel;
+	private ScheduledFuture<?> ticker;
+
+	private ConsumerGroup(Builder builder, MessageProcessor processor) {
+		this.connectionManager = builder.connectionManager;
+		this.queues = builder.queues;
+		this.memberId = builder.memberId;
+		this.processor = processor;
+		this.prefetch = builder.prefetch;
+		this.heartbeatNanos = builder.heartbeatNanos;
+		this.sessionTimeoutNanos = builder.sessionTimeoutNanos;
+		this.executor = new KeyPartitionedExecutor("elex-partition", builder.workers);
+		this.coordinator = WorkerExecutors.scheduler("elex-group");
+	}
+
+	public static Builder builder(ConnectionManager connectionManager, PartitionedQueues queues) {
+		return new Builder(connectionManager, queues);
+	}
+
+	private void start() throws IOException {
+		String groupExchange = queues.getName() + ".group";
+		channel = connectionManager.createChannel();
+		connectionManager.getTopology().declare(channel, queues.getTopology());
+		// 하트비트를 받을 멤버 전용 큐입니다.
+		String inbox = channel.queueDeclare().getQueue();
+		connectionManager.getTopology().declare(channel, Topology.builder()
+				.exchange(groupExchange, BuiltinExchangeType.FANOUT, false)
+				.binding(inbox, groupExchange, "")
+				.build());
+		channel.basicConsume(inbox, true, new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+				String member = properties.getAppId();
+				String type = properties.getType();
+				if (null == member) {
+					return;
+				}
+				try {
+					coordinator.execute(() -> onMembership(type, member, groupExchange));
+				} catch (RejectedExecutionException e) {
+					// 그룹을 떠나는 중입니다. 채널을 닫기 전에 도착한 하트비트는 버립니다.
+					log.debug("Dropped a {} from {} while closing.", type, member);
+				}
+			}
+		});
+		coordinator.execute(() -> members.put(memberId, System.nanoTime()));
+		announce(groupExchange, HEARTBEAT);
+		// 첫 리밸런싱은 다른 멤버의 하트비트를 한 번 받은 다음에 합니다.
+		ticker = coordinator.scheduleWithFixedDelay(() -> tick(groupExchange),
+				heartbeatNanos, heartbeatNanos, TimeUnit.NANOSECONDS);
+		log.debug("Member {} joined {}", memberId, queues);
+	}
+
+	private void onMembership(String type, String member, String groupExchange) {
+		if (LEAVE.equals(type)) {
+			if (null != members.remove(member)) {
+				membershipChanged = true;
+			}
+			return;
+		}
+		if (null == members.put(member, System.nanoTime())) {
+			membershipChanged = true;
+			// 새 멤버가 다음 하트비트를 기다리지 않고 이 멤버를 알게 합니다.
+			announce(groupExchange, HEARTBEAT);
+		}
+	}
+
+	private void tick(String groupExchange) {
+		try {
+			announce(groupExchange, HEARTBEAT);
+			long now = System.nanoTime();
+			members.put(memberId, now);
+			for (Iterator<Map.Entry<String, Long>> it = members.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String, Long> member = it.next();
+				if (now - member.getValue() > sessionTimeoutNanos) {
+					log.info("Member {} timed out.", member.getKey());
+					it.remove();
+					membershipChanged = true;
+				}
+			}
+			if (membershipChanged) {
+				membershipChanged = false;
+				rebalance();
+			}
+		} catch (RuntimeException e) {
+			// 예외가 나가면 다음 주기가 취소됩니다.
+			log.error("Group tick failed.", e);
+		}
+	}
+
+	private void announce(String groupExchange, String type) {
+		AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+				.type(type)
+				.appId(memberId)
+				// 늦게 도착한 하트비트는 의미가 없습니다.
+				.expiration(String.valueOf(TimeUnit.NANOSECONDS.toMillis(sessionTimeoutNanos)))
+				.build();
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			pooled.getChannel().basicPublish(groupExchange, "", properties, new byte[0]);
+		} catch (IOException | AlreadyClosedException e) {
+			log.warn("Failed to send a {}.", type, e);
+		}
+	}
+
+	private void rebalance() {
+		Set<String> live = new TreeSet<>(members.keySet());
+		view = Collections.unmodifiableSet(live);
+		for (int partition = 0; partition < queues.getPartitions(); partition++) {
+			boolean mine = memberId.equals(owner(live, partition));
+			if (!mine && owned.containsKey(partition)) {
+				revoke(partition);
+			}
+		}
+		// 내줄 것을 먼저 내주기 시작해야 주인이 겹치는 시간이 짧습니다.
+		for (int partition = 0; partition < queues.getPartitions(); partition++) {
+			boolean mine = memberId.equals(owner(live, partition));
+			if (mine && !owned.containsKey(partition)) {
+				acquire(partition);
+			}
+		}
+		log.info("Member {} of {} owns {}", memberId, live.size(), new TreeSet<>(owned.keySet()));
+	}
+
+	/**
+	 * 파티션과 멤버의 해시가 가장 큰 멤버가 주인이다.
+	 */
+	static String owner(Set<String> members, int partition) {
+		String owner = null;
+		int best = 0;
+		for (String member : members) {
+			int score = PartitionedQueues.hash(member + "/" + partition);
+			if (null == owner || score > best) {
+				owner = member;
+				best = score;
+			}
+		}
+		return owner;
+	}
+
+	private void acquire(int partition) {
+		Channel partitionChannel = null;
+		try {
+			partitionChannel = connectionManager.createChannel();
+			partitionChannel.basicQos(prefetch);
+			Partition consumer = new Partition(partitionChannel, queues.getQueue(partition));
+			partitionChannel.basicConsume(consumer.queue, false, consumer);
+			owned.put(partition, consumer);
+		} catch (IOException | AlreadyClosedException e) {
+			log.error("Failed to consume partition {}", partition, e);
+			closeQuietly(partitionChannel);
+			// 다음 주기에 다시 시도합니다.
+			membershipChanged = true;
+		}
+	}
+
+	/**
+	 * 파티션을 내준다. 조정 스레드는 하트비트를 보내야 하므로 처리가 끝나기를 기다리지 않는다.
+	 * 레인에서 이미 넘긴 메시지를 모두 처리하면 그 레인에서 채널을 닫는다.
+	 * 세션 시간 안에 끝나지 않으면 기다리지 않고 닫는다. 처리 중인 메시지의 ack는 실패하고 메시지는 큐로 돌아간다.
+	 *
+	 * @return 채널을 닫으면 완료되는 퓨처
+	 */
+	private CompletableFuture<Void> revoke(int partition) {
+		Partition consumer = owned.remove(partition);
+		if (null == consumer) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<Void> drained = new CompletableFuture<>();
+		synchronized (consumer) {
+			// 이후에 도착한 메시지는 처리하지 않고 채널을 닫을 때 큐로 돌려보냅니다.
+			consumer.revoked = true;
+			try {
+				executor.execute(consumer.queue, () -> drained.complete(null));
+			} catch (RejectedExecutionException e) {
+				drained.complete(null);
+			}
+		}
+		return drained.orTimeout(sessionTimeoutNanos, TimeUnit.NANOSECONDS)
+				.handle((ignored, e) -> {
+					if (null != e) {
+						log.warn("Partition {} did not drain in time.", partition);
+					}
+					closeQuietly(consumer.getChannel());
+					return null;
+				});
+	}
+
+	private static void closeQuietly(Channel channel) {
+		if (null == channel || !channel.isOpen()) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException | TimeoutException | AlreadyClosedException e) {
+			log.warn("Failed to close a channel.", e);
+		}
+	}
+
+	public String getMemberId() {
+		return memberId;
+	}
+
+	/**
+	 * @return 이 멤버가 받는 파티션 번호들
+	 */
+	public Set<Integer> getAssignment() {
+		return new TreeSet<>(owned.keySet());
+	}
+
+	/**
+	 * @return 마지막 리밸런싱 때의 멤버들
+	 */
+	public Set<String> getMembers() {
+		return view;
+	}
+
+	/**
+	 * 그룹을 떠난다. 받은 메시지를 모두 처리하고 파티션을 내준 다음, 다른 멤버에게 떠난다고 알린다.
+	 */
+	@Override
+	public void close() {
+		String groupExchange = queues.getName() + ".group";
+		try {
+			CompletableFuture<Void> revoked = coordinator.submit(() -> {
+				if (null != ticker) {
+					ticker.cancel(false);
+				}
+				return CompletableFuture.allOf(new TreeSet<>(owned.keySet()).stream()
+						.map(this::revoke)
+						.toArray(CompletableFuture[]::new));
+			}).get();
+			// 조정 스레드 밖에서 기다립니다. 제때 비우지 못한 파티션은 revoke가 세션 시간 뒤에 닫습니다.
+			revoked.get();
+			announce(groupExchange, LEAVE);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | RejectedExecutionException e) {
+			log.warn("Failed to leave the group.", e);
+		}
+		// 하트비트를 받는 채널을 먼저 닫아서, 멈춘 조정 스레드에 다른 멤버의 메시지를 넘기지 않게 합니다.
+		closeQuietly(channel);
+		coordinator.shutdown();
+		executor.shutdown();
+	}
+
+	/**
+	 * 파티션 하나를 받는 컨슈머. 메시지를 파티션의 레인에 넘기고 바로 돌아간다.
+	 */
+	private final class Partition extends DefaultConsumer {
+		private final String queue;
+		// 이 객체의 잠금으로 보호합니다.
+		private boolean revoked;
+
+		Partition(Channel channel, String queue) {
+			super(channel);
+			this.queue = queue;
+		}
+
+		@Override
+		public synchronized void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+			if (revoked) {
+				return;
+			}
+			try {
+				executor.execute(queue, () -> process(consumerTag, envelope, properties, body));
+			} catch (RejectedExecutionException e) {
+				// 닫는 중입니다. 채널을 닫으면 큐로 돌아갑니다.
+				log.debug("Dropped a delivery from {} while closing.", queue);
+			}
+		}
+
+		private void process(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+			long deliveryTag = envelope.getDeliveryTag();
+			try {
+				processor.process(consumerTag, envelope, properties, body);
+				getChannel().basicAck(deliveryTag, false);
+			} catch (Exception e) {
+				log.error("Process fail..", e);
+				try {
+					getChannel().basicNack(deliveryTag, false, false);
+				} catch (IOException | AlreadyClosedException ex) {
+					log.warn("Failed to reject a message.", ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@link ConsumerGroup}을 만든다.
+	 */
+	public static final class Builder {
+		private final ConnectionManager connectionManager;
+		private final PartitionedQueues queues;
+		private String memberId = UUID.randomUUID().toString();
+		private int workers = WorkerExecutors.cores();
+		private int prefetch = 64;
+		private long heartbeatNanos = TimeUnit.SECONDS.toNanos(1);
+		private long sessionTimeoutNanos = TimeUnit.SECONDS.toNanos(3);
+
+		private Builder(ConnectionManager connectionManager, PartitionedQueues queues) {
+			this.connectionManager = connectionManager;
+			this.queues = queues;
+		}
+
+		/**
+		 * @param memberId 그룹 안에서 겹치지 않는 이름. 기본은 임의의 UUID.
+		 */
+		public Builder memberId(String memberId) {
+			this.memberId = memberId;
+			return this;
+		}
+
+		/**
+		 * @param workers 작업 스레드 개수. 기본은 코어 개수. 파티션이 이보다 많으면 레인 하나가 여러 파티션을 처리한다.
+		 */
+		public Builder workers(int workers) {
+			if (workers < 1) {
+				throw new IllegalArgumentException("workers must be positive: " + workers);
+			}
+			this.workers = workers;
+			return this;
+		}
+
+		/**
+		 * @param prefetch 파티션마다 ack 없이 받을 메시지 개수. 기본은 64.
+		 */
+		public Builder prefetch(int prefetch) {
+			if (prefetch < 1) {
+				throw new IllegalArgumentException("prefetch must be positive: " + prefetch);
+			}
+			this.prefetch = prefetch;
+			return this;
+		}
+
+		/**
+		 * @param heartbeat      하트비트 주기. 기본은 1초.
+		 * @param sessionTimeout 이만큼 하트비트가 없으면 멤버를 뺀다. 기본은 3초.
+		 */
+		public Builder heartbeat(long heartbeat, long sessionTimeout, TimeUnit unit) {
+			if (heartbeat <= 0 || sessionTimeout <= heartbeat) {
+				throw new IllegalArgumentException("sessionTimeout must be longer than heartbeat.");
+			}
+			this.heartbeatNanos = unit.toNanos(heartbeat);
+			this.sessionTimeoutNanos = unit.toNanos(sessionTimeout);
+			return this;
+		}
+
+		/**
+		 * 그룹에 들어가서 받기 시작한다.
+		 *
+		 * @param processor 메시지 처리기. 여러 작업 스레드에서 동시에 호출되지만, 한 파티션의 메시지는 차례대로 받는다.
+		 * @return 그룹의 멤버
+		 */
+		public ConsumerGroup start(MessageProcessor processor) throws IOException {
+			ConsumerGroup group = new ConsumerGroup(this, processor);
+			try {
+				group.start();
+			} catch (IOException | RuntimeException e) {
+				group.close();
+				throw e;
+			}
+			return group;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.partition;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 메시지를 키의 파티션으로 보낸다. 키가 같은 메시지는 같은 큐에 보낸 차례대로 쌓인다.
+ * <p>
+ * 메시지는 풀에서 빌린 채널이 아니라 이 객체만 쓰는 채널 하나로 보낸다. 풀의 채널은 여러 연결에 흩어져 있어
+ * 먼저 보낸 메시지가 나중에 도착할 수 있기 때문이다. 보내는 동안에는 채널을 잠그므로, 여러 스레드가 보내도
+ * {@link #publish}가 돌아온 차례대로 큐에 쌓인다. 채널이 닫히면 다음에 보낼 때 새로 만든다.
+ * <p>
+ * 발행자 하나의 처리량은 채널 하나의 처리량을 넘지 못한다. 더 필요하면 발행자를 여러 개 두고 키마다 하나를 골라 쓴다.
+ *
+ * @author Elex
+ * @see PartitionedQueues
+ */
+@Slf4j
+public class PartitionedPublisher implements AutoCloseable {
+	private final ConnectionManager connectionManager;
+	private final PartitionedQueues queues;
+	// 메시지를 보내는 채널입니다. 여러 스레드가 동시에 보내지 않도록 이 잠금으로 보호합니다.
+	private final Object channelLock = new Object();
+	private Channel channel;
+
+	/**
+	 * 익스체인지와 큐를 선언한다. 이미 선언했다면 다시 보내지 않는다.
+	 */
+	public PartitionedPublisher(ConnectionManager connectionManager, PartitionedQueues queues) throws IOException {
+		this.connectionManager = connectionManager;
+		this.queues = queues;
+		synchronized (channelLock) {
+			connectionManager.getTopology().declare(channel(), queues.getTopology());
+		}
+	}
+
+	/**
+	 * @param key        순서를 지킬 단위. 예: 주문 번호
+	 * @param properties 메시지 속성
+	 * @param body       본문
+	 */
+	public void publish(String key, AMQP.BasicProperties properties, byte[] body) throws IOException {
+		String routingKey = queues.routingKey(key);
+		synchronized (channelLock) {
+			channel().basicPublish(queues.getExchange(), routingKey, properties, body);
+		}
+	}
+
+	public PartitionedQueues getQueues() {
+		return queues;
+	}
+
+	/**
+	 * 채널을 닫는다.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (channelLock) {
+			if (null != channel && channel.isOpen()) {
+				try {
+					channel.close();
+				} catch (TimeoutException | AlreadyClosedException e) {
+					log.warn("Failed to close the partition channel.", e);
+				}
+			}
+			channel = null;
+		}
+	}
+
+	private Channel channel() throws IOException {
+		if (null == channel || !channel.isOpen()) {
+			channel = connectionManager.createChannel();
+		}
+		return channel;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.partition;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import kr.pe.elex.rabbitmq.topology.Topology;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 메시지 키로 나눈 큐들의 배치. 익스체인지 하나에 큐 N개를 묶는다.
+ * <ul>
+ *     <li>{@link Routing#DIRECT}: 보내는 쪽이 키의 해시로 파티션을 고르고, 파티션 번호를 라우팅-키로 써서 다이렉트 익스체인지로 보낸다.</li>
+ *     <li>{@link Routing#CONSISTENT_HASH}: 키를 그대로 라우팅-키로 써서 {@code x-consistent-hash} 익스체인지로 보내고, 브로커가 큐를 고른다.
+ *     브로커에 {@code rabbitmq_consistent_hash_exchange} 플러그인이 켜져 있어야 한다.</li>
+ * </ul>
+ * 어느 쪽이든 같은 키는 늘 같은 큐로 간다. 큐는 {@code x-single-active-consumer}로 선언하므로
+ * 여러 컨슈머가 붙어 있어도 한 번에 하나만 받고, 큐 안의 순서대로 처리된다.
+ * <p>
+ * 파티션 개수를 바꾸면 키와 큐의 짝이 바뀐다. 바꾸기 전에 큐를 비워야 순서가 지켜진다.
+ *
+ * @author Elex
+ */
+public final class PartitionedQueues {
+	static final String SINGLE_ACTIVE_CONSUMER = "x-single-active-consumer";
+	static final String CONSISTENT_HASH = "x-consistent-hash";
+
+	/**
+	 * 키에서 큐를 고르는 쪽.
+	 */
+	public enum Routing {DIRECT, CONSISTENT_HASH}
+
+	private final String name;
+	private final int partitions;
+	private final Routing routing;
+	private final boolean durable;
+	private final String[] queues;
+	private final Topology topology;
+
+	private PartitionedQueues(Builder builder) {
+		this.name = builder.name;
+		this.partitions = builder.partitions;
+		this.routing = builder.routing;
+		this.durable = builder.durable;
+		this.queues = new String[partitions];
+		Map<String, Object> arguments = Collections.singletonMap(SINGLE_ACTIVE_CONSUMER, true);
+		String type = routing == Routing.DIRECT ? BuiltinExchangeType.DIRECT.getType() : CONSISTENT_HASH;
+		Topology.Builder topology = Topology.builder().exchange(getExchange(), type, durable, false);
+		for (int i = 0; i < partitions; i++) {
+			queues[i] = name + "." + i;
+			topology.queue(queues[i], durable, false, false, arguments)
+					// 해시 익스체인지의 바인딩-키는 가중치입니다. 큐마다 같은 몫을 받도록 모두 1로 합니다.
+					.binding(queues[i], getExchange(), routing == Routing.DIRECT ? String.valueOf(i) : "1");
+		}
+		this.topology = topology.build();
+	}
+
+	/**
+	 * @param name 익스체인지와 큐 이름의 접두어
+	 */
+	public static Builder builder(String name) {
+		return new Builder(name);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	public Routing getRouting() {
+		return routing;
+	}
+
+	public boolean isDurable() {
+		return durable;
+	}
+
+	/**
+	 * @return 보내는 익스체인지 이름
+	 */
+	public String getExchange() {
+		return name + ".partitions";
+	}
+
+	/**
+	 * @return 파티션의 큐 이름
+	 */
+	public String getQueue(int partition) {
+		return queues[partition];
+	}
+
+	/**
+	 * @return 익스체인지, 큐, 바인딩
+	 */
+	public Topology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * 키의 파티션을 고른다. {@link Routing#CONSISTENT_HASH}라면 브로커가 고르므로 이 값과 다를 수 있다.
+	 *
+	 * @param key 순서를 지킬 단위
+	 * @return 파티션 번호
+	 */
+	public int partition(String key) {
+		return Math.floorMod(hash(key), partitions);
+	}
+
+	/**
+	 * @return 키의 메시지를 보낼 라우팅-키
+	 */
+	public String routingKey(String key) {
+		return routing == Routing.DIRECT ? String.valueOf(partition(key)) : key;
+	}
+
+	/**
+	 * 문자열 해시를 고르게 퍼뜨린다.
+	 */
+	static int hash(String key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "PartitionedQueues{" + name + " x " + partitions + ", " + routing + "}";
+	}
+
+	/**
+	 * {@link PartitionedQueues}를 만든다.
+	 */
+	public static final class Builder {
+		private final String name;
+		private int partitions = 8;
+		private Routing routing = Routing.DIRECT;
+		private boolean durable = true;
+
+		private Builder(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @param partitions 큐 개수. 기본은 8. 동시에 처리할 수 있는 키 묶음의 최대 개수다.
+		 */
+		public Builder partitions(int partitions) {
+			if (partitions < 1) {
+				throw new IllegalArgumentException("partitions must be positive: " + partitions);
+			}
+			this.partitions = partitions;
+			return this;
+		}
+
+		/**
+		 * @param routing 키에서 큐를 고르는 쪽. 기본은 {@link Routing#DIRECT}.
+		 */
+		public Builder routing(Routing routing) {
+			this.routing = routing;
+			return this;
+		}
+
+		/**
+		 * @param durable 익스체인지와 큐를 디스크에 남길지. 기본은 true.
+		 */
+		public Builder durable(boolean durable) {
+			this.durable = durable;
+			return this;
+		}
+
+		public PartitionedQueues build() {
+			return new PartitionedQueues(this);
+		}
+	}
+}
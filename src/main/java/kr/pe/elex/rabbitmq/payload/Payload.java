@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.payload;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 메시지 본문을 복사하지 않고 읽기만 하는 뷰.
+ * <p>
+ * 받은 본문을 바로 {@link String}으로 바꾸면 메시지마다 문자열과 그 안의 배열이 새로 생긴다.
+ * 이 뷰는 배열을 감싸기만 하고, 문자열이 정말 필요할 때만 {@link #decode()}로 디코딩한다.
+ * 로그에 넘기면 그 로그 수준이 켜져 있을 때만 {@link #toString()}이 불린다.
+ * <p>
+ * 감싼 배열을 바꾸면 뷰도 바뀐다. 배열을 다시 쓰는 쪽에서 받은 뷰는 그 전까지만 쓴다.
+ *
+ * @author Elex
+ */
+public final class Payload {
+	private static final Payload EMPTY = new Payload(new byte[0], 0, 0);
+
+	private final byte[] bytes;
+	private final int offset;
+	private final int length;
+
+	private Payload(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * @param body 메시지 본문. null이면 빈 뷰
+	 * @return 본문 전체의 뷰
+	 */
+	public static Payload wrap(byte[] body) {
+		return null == body || 0 == body.length ? EMPTY : new Payload(body, 0, body.length);
+	}
+
+	/**
+	 * @param body   메시지 본문
+	 * @param offset 시작 위치
+	 * @param length 길이
+	 * @return 본문 일부의 뷰
+	 */
+	public static Payload wrap(byte[] body, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > body.length - length) {
+			throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", size=" + body.length);
+		}
+		return new Payload(body, offset, length);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public boolean isEmpty() {
+		return 0 == length;
+	}
+
+	public byte get(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index=" + index + ", length=" + length);
+		}
+		return bytes[offset + index];
+	}
+
+	/**
+	 * 복사하지 않고 일부를 잘라낸다.
+	 */
+	public Payload slice(int from, int length) {
+		if (from < 0 || length < 0 || from > this.length - length) {
+			throw new IndexOutOfBoundsException("from=" + from + ", length=" + length + ", size=" + this.length);
+		}
+		return new Payload(bytes, offset + from, length);
+	}
+
+	/**
+	 * @return 읽기만 하는 버퍼. 위치는 0, 한계는 길이이다.
+	 */
+	public ByteBuffer asReadOnlyBuffer() {
+		return ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return 모든 바이트가 ASCII이면 참
+	 */
+	public boolean isAscii() {
+		for (int i = offset, end = offset + length; i < end; i++) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 디코딩하지 않고 내용을 비교한다.
+	 */
+	public boolean contentEquals(byte[] other) {
+		return Arrays.equals(bytes, offset, offset + length, other, 0, other.length);
+	}
+
+	/**
+	 * 디코딩하지 않고 ASCII 문자열과 비교한다. ASCII가 아닌 문자가 있으면 거짓이다.
+	 */
+	public boolean contentEqualsAscii(CharSequence ascii) {
+		if (ascii.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = ascii.charAt(i);
+			if (c > 0x7f || bytes[offset + i] != (byte) c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 본문을 바이트 그대로 버퍼에 덧붙인다.
+	 */
+	public PayloadBuffer writeTo(PayloadBuffer buffer) {
+		return buffer.append(bytes, offset, length);
+	}
+
+	/**
+	 * UTF-8로 디코딩해서 덧붙인다. ASCII이면 문자열을 만들지 않는다.
+	 */
+	public StringBuilder appendTo(StringBuilder builder) {
+		if (isAscii()) {
+			builder.ensureCapacity(builder.length() + length);
+			for (int i = offset, end = offset + length; i < end; i++) {
+				builder.append((char) bytes[i]);
+			}
+			return builder;
+		}
+		return builder.append(decode());
+	}
+
+	/**
+	 * @return UTF-8로 디코딩한 문자열. 부를 때마다 새로 만든다.
+	 */
+	public String decode() {
+		return new String(bytes, offset, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 일부만 UTF-8로 디코딩한다. 잘라낸 뷰를 만들지 않는다.
+	 *
+	 * @param from   시작 위치
+	 * @param length 길이
+	 * @return 디코딩한 문자열
+	 */
+	public String decode(int from, int length) {
+		if (from < 0 || length < 0 || from > this.length - length) {
+			throw new IndexOutOfBoundsException("from=" + from + ", length=" + length + ", size=" + this.length);
+		}
+		return new String(bytes, offset + from, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 일부를 복사한다.
+	 *
+	 * @param from   시작 위치
+	 * @param length 길이
+	 * @return 딱 맞는 크기의 배열
+	 */
+	public byte[] toByteArray(int from, int length) {
+		if (from < 0 || length < 0 || from > this.length - length) {
+			throw new IndexOutOfBoundsException("from=" + from + ", length=" + length + ", size=" + this.length);
+		}
+		return Arrays.copyOfRange(bytes, offset + from, offset + from + length);
+	}
+
+	/**
+	 * @return 딱 맞는 크기로 복사한 배열
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOfRange(bytes, offset, offset + length);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Payload)) {
+			return false;
+		}
+		Payload other = (Payload) o;
+		return Arrays.equals(bytes, offset, offset + length, other.bytes, other.offset, other.offset + other.length);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 1;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return decode();
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.payload;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 메시지 본문을 만드는 버퍼. 스레드마다 하나씩 두고 다시 쓴다.
+ * <p>
+ * {@link Channel#basicPublish(String, String, AMQP.BasicProperties, byte[])}는 딱 맞는 크기의 배열을 받지만,
+ * 보내기 전에 본문을 프레임으로 복사하므로 돌아온 뒤에는 배열을 다시 써도 된다.
+ * 그래서 {@link #body()}는 길이마다 배열을 하나씩 남겨두고 같은 길이의 본문에 다시 쓴다.
+ * 크기가 정해진 메시지라면 발행할 때 본문 배열을 새로 만들지 않는다.
+ * <p>
+ * {@link #body()}가 돌려준 배열은 같은 스레드에서 같은 길이의 본문을 다시 만들 때까지만 유효하다.
+ * 배열을 붙잡아두는 곳(예: 직접 만든 큐)에는 {@link Payload#toByteArray()}로 복사해서 넘긴다.
+ *
+ * @author Elex
+ */
+public final class PayloadBuffer {
+	/**
+	 * 이보다 긴 본문은 다시 쓰지 않고 매번 만든다. 길이마다 배열이 남으므로 스레드마다 최대 약 512KiB를 붙잡는다.
+	 */
+	static final int MAX_REUSED_LENGTH = 1024;
+	private static final ThreadLocal<PayloadBuffer> LOCAL = ThreadLocal.withInitial(PayloadBuffer::new);
+
+	private byte[] buffer = new byte[256];
+	private int size;
+	private byte[][] bodies;
+
+	/**
+	 * 가상 스레드처럼 작업마다 새로 만드는 스레드에서는 매번 새 버퍼가 생기므로 {@link PayloadBufferPool}을 쓴다.
+	 *
+	 * @return 이 스레드의 버퍼. 비워서 돌려준다.
+	 */
+	public static PayloadBuffer local() {
+		return LOCAL.get().clear();
+	}
+
+	public PayloadBuffer clear() {
+		size = 0;
+		return this;
+	}
+
+	public int length() {
+		return size;
+	}
+
+	public PayloadBuffer put(byte b) {
+		ensure(1);
+		buffer[size++] = b;
+		return this;
+	}
+
+	public PayloadBuffer append(byte[] bytes) {
+		return append(bytes, 0, bytes.length);
+	}
+
+	public PayloadBuffer append(byte[] bytes, int offset, int length) {
+		ensure(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+		return this;
+	}
+
+	/**
+	 * 버퍼의 남은 바이트를 모두 덧붙인다. 버퍼의 위치가 끝으로 옮겨진다.
+	 */
+	public PayloadBuffer append(ByteBuffer source) {
+		int length = source.remaining();
+		ensure(length);
+		source.get(buffer, size, length);
+		size += length;
+		return this;
+	}
+
+	/**
+	 * 문자열을 UTF-8로 인코딩해서 덧붙인다. 중간에 배열이나 문자열을 만들지 않는다.
+	 * 짝이 맞지 않는 서로게이트는 {@code '?'}로 바꾼다.
+	 */
+	public PayloadBuffer append(CharSequence text) {
+		int length = text.length();
+		// UTF-16 문자 하나는 UTF-8로 3바이트를 넘지 않습니다. 서로게이트 쌍은 둘이서 4바이트입니다.
+		ensure(length * 3);
+		byte[] b = buffer;
+		int p = size;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				b[p++] = (byte) c;
+			} else if (c < 0x800) {
+				b[p++] = (byte) (0xc0 | (c >> 6));
+				b[p++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				int codePoint = -1;
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+					codePoint = Character.toCodePoint(c, text.charAt(++i));
+				}
+				if (codePoint < 0) {
+					b[p++] = '?';
+				} else {
+					b[p++] = (byte) (0xf0 | (codePoint >> 18));
+					b[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+					b[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+					b[p++] = (byte) (0x80 | (codePoint & 0x3f));
+				}
+			} else {
+				b[p++] = (byte) (0xe0 | (c >> 12));
+				b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				b[p++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		size = p;
+		return this;
+	}
+
+	/**
+	 * @return 지금까지 쓴 내용의 뷰. 버퍼를 다시 쓰면 바뀐다.
+	 */
+	public Payload view() {
+		return Payload.wrap(buffer, 0, size);
+	}
+
+	/**
+	 * 발행할 본문을 돌려준다. 같은 길이의 배열을 다시 쓰므로, 받는 쪽이 복사하는 곳에만 넘긴다.
+	 *
+	 * @return 딱 맞는 크기의 배열
+	 */
+	public byte[] body() {
+		if (size > MAX_REUSED_LENGTH) {
+			return Arrays.copyOf(buffer, size);
+		}
+		if (null == bodies) {
+			bodies = new byte[MAX_REUSED_LENGTH + 1][];
+		}
+		byte[] body = bodies[size];
+		if (null == body) {
+			body = bodies[size] = new byte[size];
+		}
+		System.arraycopy(buffer, 0, body, 0, size);
+		return body;
+	}
+
+	/**
+	 * 지금까지 쓴 내용을 발행한다.
+	 */
+	public void publish(Channel channel, String exchange, String routingKey, AMQP.BasicProperties properties)
+			throws IOException {
+		channel.basicPublish(exchange, routingKey, properties, body());
+	}
+
+	private void ensure(int extra) {
+		if (size + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+		}
+	}
+}
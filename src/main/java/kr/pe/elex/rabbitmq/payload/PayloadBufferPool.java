@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.payload;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 스레드에 묶이지 않는 {@link PayloadBuffer} 풀.
+ * <p>
+ * {@link PayloadBuffer#local()}은 스레드가 오래 살아 있어야 다시 쓸 수 있다. 작업마다 새로 만드는 가상 스레드에서는
+ * 작업마다 버퍼와 {@link PayloadBuffer#body()}의 배열을 새로 만들게 된다. 그런 실행기에서는 이 풀에서 빌려 쓴다.
+ * 풀이 비었으면 새로 만들고, 가득 찼을 때 돌려받은 버퍼는 버린다.
+ *
+ * @author Elex
+ */
+public final class PayloadBufferPool {
+	private final ArrayBlockingQueue<PayloadBuffer> idle;
+
+	/**
+	 * @param capacity 남겨둘 버퍼의 최대 개수. 동시에 쓰는 버퍼 개수만큼 준다.
+	 */
+	public PayloadBufferPool(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		this.idle = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * @return 빈 버퍼. 다 쓰면 {@link #release(PayloadBuffer)}로 돌려준다.
+	 */
+	public PayloadBuffer acquire() {
+		PayloadBuffer buffer = idle.poll();
+		return (null == buffer ? new PayloadBuffer() : buffer).clear();
+	}
+
+	/**
+	 * 버퍼를 돌려준다. 돌려준 뒤에는 버퍼와 {@link PayloadBuffer#body()}가 돌려준 배열을 쓰지 않는다.
+	 */
+	public void release(PayloadBuffer buffer) {
+		idle.offer(buffer);
+	}
+
+	/**
+	 * @return 풀에 남아 있는 버퍼 개수
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+}
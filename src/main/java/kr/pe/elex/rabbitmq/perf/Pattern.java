@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.perf;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import kr.pe.elex.rabbitmq.rpc.HelloRabbitServer;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.topology.TopologyRegistry;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * 부하를 걸 메시지 흐름. 예제마다 익스체인지와 큐를 묶는 모양이 같고, 이름만 {@code elex.perf.}로 시작해서 예제의 큐와 섞이지 않는다.
+ * 큐는 모두 자동으로 지워지므로 부하가 끝나면 브로커에 남지 않는다.
+ * <p>
+ * {@link #RPC}만은 {@link HelloRabbitServer}를 그대로 띄우므로 서버가 정해둔 {@code elex.rpc.} 익스체인지와 큐를 쓴다.
+ *
+ * @author Elex
+ */
+public enum Pattern {
+	/**
+	 * {@code hello}: 다이렉트 익스체인지. 컨슈머마다 자기 라우팅-키의 큐를 받고, 발행자는 라우팅-키를 돌아가며 보낸다.
+	 */
+	DIRECT("hello", "elex.perf.direct", BuiltinExchangeType.DIRECT),
+	/**
+	 * {@code fanout}: 팬아웃 익스체인지. 컨슈머마다 브로커가 이름을 짓는 큐가 있고, 모든 컨슈머가 모든 메시지를 받는다.
+	 */
+	FANOUT("fanout", "elex.perf.fanout", BuiltinExchangeType.FANOUT),
+	/**
+	 * {@code topic}: 토픽 익스체인지. 컨슈머 {@code i}는 {@code perf.i.#} 패턴으로 묶이고, 발행자는 {@code perf.i.event}로 돌아가며 보낸다.
+	 */
+	TOPIC("topic", "elex.perf.topic", BuiltinExchangeType.TOPIC),
+	/**
+	 * {@code loadbalance}: 큐 하나를 모든 컨슈머가 나눠 받는다.
+	 */
+	WORK_QUEUE("loadbalance", "elex.perf.work", BuiltinExchangeType.DIRECT),
+	/**
+	 * {@code rpc}: 컨슈머는 요청 큐 하나를 나눠 받아 본문을 그대로 돌려주는 {@link HelloRabbitServer}이고,
+	 * 발행자는 응답을 기다리는 클라이언트다. 요청 큐는 자동으로 지워지지 않으므로 브로커에 남는다.
+	 */
+	RPC("rpc", HelloRabbitServer.EXCHANGE, BuiltinExchangeType.DIRECT);
+
+	private static final String SHARED_KEY = "perf";
+
+	private final String example;
+	private final String exchange;
+	private final BuiltinExchangeType type;
+
+	Pattern(String example, String exchange, BuiltinExchangeType type) {
+		this.example = example;
+		this.exchange = exchange;
+		this.type = type;
+	}
+
+	/**
+	 * 이름으로 찾는다. 상수 이름({@code work-queue})과 예제 이름({@code loadbalance}) 모두 받는다.
+	 */
+	public static Pattern parse(String name) {
+		String value = name.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+		for (Pattern pattern : values()) {
+			if (pattern.name().equals(value) || pattern.example.equalsIgnoreCase(name.trim())) {
+				return pattern;
+			}
+		}
+		throw new IllegalArgumentException("Unknown pattern: " + name);
+	}
+
+	/**
+	 * @return 흉내내는 예제의 패키지 이름
+	 */
+	public String getExample() {
+		return example;
+	}
+
+	public String getExchange() {
+		return exchange;
+	}
+
+	/**
+	 * @param consumers 컨슈머 개수
+	 * @return 발행자가 돌아가며 쓸 라우팅-키
+	 */
+	String[] routingKeys(int consumers) {
+		switch (this) {
+			case DIRECT:
+			case TOPIC:
+				String[] keys = new String[consumers];
+				for (int i = 0; i < consumers; i++) {
+					keys[i] = bindingKey(i).replace("#", "event");
+				}
+				return keys;
+			case FANOUT:
+				return new String[]{""};
+			case RPC:
+				return new String[]{HelloRabbitServer.ROUTING_KEY};
+			default:
+				return new String[]{SHARED_KEY};
+		}
+	}
+
+	/**
+	 * @return 메시지 하나를 몇 개의 컨슈머가 받는지
+	 */
+	int deliveries(int consumers) {
+		return this == FANOUT ? consumers : 1;
+	}
+
+	/**
+	 * 익스체인지를 선언한다. 이미 선언했다면 다시 보내지 않는다.
+	 */
+	void declareExchange(Channel channel, TopologyRegistry topology) throws IOException {
+		// RPC 익스체인지는 서버가 선언한 것과 속성이 같아야 합니다.
+		topology.declare(channel, this == RPC
+				? Topology.builder().exchange(exchange, type, true).build()
+				: Topology.builder().exchange(exchange, type.getType(), false, true).build());
+	}
+
+	/**
+	 * 컨슈머가 받을 큐를 선언하고 익스체인지와 묶는다. {@link #TOPIC}은 {@code TopicRouter}가 묶으므로 큐만 선언한다.
+	 * {@link #RPC}는 {@link HelloRabbitServer}가 선언하므로 쓰지 않는다.
+	 *
+	 * @param consumer 컨슈머 번호
+	 * @return 큐 이름
+	 */
+	String declareQueue(Channel channel, TopologyRegistry topology, int consumer) throws IOException {
+		declareExchange(channel, topology);
+		Topology.Builder builder = Topology.builder();
+		String queue;
+		switch (this) {
+			case FANOUT:
+				// 브로커가 이름을 짓는 큐는 이름을 받아야 하므로 직접 만듭니다.
+				queue = channel.queueDeclare().getQueue();
+				break;
+			case DIRECT:
+			case TOPIC:
+				queue = exchange + "." + consumer;
+				builder.queue(queue, false, false, true);
+				break;
+			default:
+				queue = exchange + ".queue";
+				builder.queue(queue, false, false, true);
+				break;
+		}
+		if (this != TOPIC) {
+			builder.binding(queue, exchange, bindingKey(consumer));
+		}
+		topology.declare(channel, builder.build());
+		return queue;
+	}
+
+	/**
+	 * @param consumer 컨슈머 번호
+	 * @return 컨슈머의 큐를 묶을 키. {@link #TOPIC}이면 패턴이다.
+	 */
+	String bindingKey(int consumer) {
+		switch (this) {
+			case DIRECT:
+				return SHARED_KEY + "-" + consumer;
+			case TOPIC:
+				return SHARED_KEY + "." + consumer + ".#";
+			case FANOUT:
+				return "";
+			default:
+				return SHARED_KEY;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return example;
+	}
+}
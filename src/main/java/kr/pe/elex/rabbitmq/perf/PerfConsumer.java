@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.perf;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.batch.UnbatchingConsumer;
+import kr.pe.elex.rabbitmq.compress.Compression;
+import kr.pe.elex.rabbitmq.compress.DecompressingConsumer;
+import kr.pe.elex.rabbitmq.consumer.AckCoalescer;
+import kr.pe.elex.rabbitmq.consumer.DispatchingConsumer;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.LatencyStamp;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.rpc.HelloRabbitServer;
+import kr.pe.elex.rabbitmq.topic.TopicRouter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 예제의 클라이언트가 쓰는 컨슈머를 그대로 붙여 받은 메시지의 지연 시간을 잰다. 처리하는 일이 없으므로 브로커와 컨슈머 코드의 한계를 잰다.
+ * <ul>
+ *     <li>메시지는 {@link DispatchingConsumer}가 작업 스레드에서 처리하고 ack를 보낸다. {@code --ack-batch}는 {@link AckCoalescer}로 모은다.
+ *     {@code --auto-ack}이면 ack를 보내지 않는 컨슈머이므로 디스패치 스레드에서 바로 센다.</li>
+ *     <li>{@link Pattern#TOPIC}은 {@link TopicRouter}가 패턴을 묶고 받은 메시지를 핸들러에게 나눠준다.</li>
+ *     <li>토픽 예제처럼 {@link DecompressingConsumer}와 {@link UnbatchingConsumer}로 감싸서 압축과 묶음을 푼다.</li>
+ *     <li>{@link Pattern#RPC}는 본문을 그대로 돌려주는 {@link HelloRabbitServer}를 띄운다.</li>
+ * </ul>
+ *
+ * @author Elex
+ */
+final class PerfConsumer implements AutoCloseable {
+	// prefetch를 제한하지 않을 때 동시에 처리할 메시지 개수입니다.
+	private static final int DEFAULT_IN_FLIGHT = 256;
+	private static final HelloRabbitServer.PayloadHandler ECHO = (request, response) -> request.writeTo(response);
+
+	private final PerfStats stats;
+	private final Channel channel;
+	private final String consumerTag;
+	private final AckCoalescer ackCoalescer;
+	private final HelloRabbitServer server;
+
+	/**
+	 * @param executor 메시지나 요청을 처리할 실행기. 모든 컨슈머가 함께 쓰고, 닫지 않는다.
+	 */
+	PerfConsumer(int id, PerfOptions options, ConnectionManager connectionManager, PerfStats stats,
+	             ExecutorService executor) throws IOException {
+		Pattern pattern = options.getPattern();
+		this.stats = stats;
+		int maxInFlight = options.getPrefetch() > 0 ? options.getPrefetch() : DEFAULT_IN_FLIGHT;
+		if (pattern == Pattern.RPC) {
+			// 서버가 채널과 prefetch, ack를 모두 맡습니다. 응답은 발행자가 셉니다.
+			server = new HelloRabbitServer(connectionManager, ECHO, executor, maxInFlight);
+			channel = null;
+			consumerTag = null;
+			ackCoalescer = null;
+			return;
+		}
+		server = null;
+		channel = connectionManager.createChannel();
+		if (options.getPrefetch() > 0) {
+			channel.basicQos(options.getPrefetch());
+		}
+		String queue = pattern.declareQueue(channel, connectionManager.getTopology(), id);
+		String tag = "perf-" + id;
+
+		Consumer consumer;
+		if (options.isAutoAck()) {
+			ackCoalescer = null;
+			consumer = new DefaultConsumer(channel) {
+				@Override
+				public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+					record(properties);
+				}
+			};
+		} else {
+			DispatchingConsumer dispatching = new DispatchingConsumer(channel, executor, maxInFlight,
+					(consumerTag, envelope, properties, body) -> record(properties));
+			if (options.getAckBatch() > 1) {
+				// prefetch보다 큰 묶음도 기다리는 시간이 지나면 보냅니다.
+				ackCoalescer = new AckCoalescer(channel, options.getAckBatch())
+						.start(WorkerExecutors.sharedScheduler(), 50, TimeUnit.MILLISECONDS);
+				dispatching.withAckCoalescer(ackCoalescer);
+			} else {
+				ackCoalescer = null;
+			}
+			consumer = dispatching;
+		}
+		if (pattern == Pattern.TOPIC) {
+			TopicRouter router = new TopicRouter(channel, pattern.getExchange(), queue, connectionManager.getTopology());
+			Consumer handler = consumer;
+			router.subscribe(pattern.bindingKey(id),
+					(envelope, properties, body) -> handler.handleDelivery(tag, envelope, properties, body));
+			consumer = router;
+		}
+		consumerTag = channel.basicConsume(queue, options.isAutoAck(), tag,
+				new DecompressingConsumer(Compression.defaults(), new UnbatchingConsumer(consumer)));
+	}
+
+	private void record(AMQP.BasicProperties properties) {
+		Map<String, Object> headers = properties.getHeaders();
+		Object sentAt = null == headers ? null : headers.get(LatencyStamp.SENT_AT);
+		if (sentAt instanceof Number) {
+			stats.latency(LatencyStamp.now() - ((Number) sentAt).longValue());
+		}
+		stats.received.increment();
+	}
+
+	@Override
+	public void close() throws IOException, TimeoutException {
+		if (null != server) {
+			server.close();
+			return;
+		}
+		if (!channel.isOpen()) {
+			return;
+		}
+		channel.basicCancel(consumerTag);
+		if (null != ackCoalescer) {
+			ackCoalescer.close();
+		}
+		channel.close();
+	}
+}
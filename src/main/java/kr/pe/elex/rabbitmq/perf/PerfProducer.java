@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.perf;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.batch.BatchPublisher;
+import kr.pe.elex.rabbitmq.compress.Compression;
+import kr.pe.elex.rabbitmq.confirm.AsyncConfirmPublisher;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.LatencyStamp;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.rpc.CorrelationRegistry;
+import kr.pe.elex.rabbitmq.rpc.HashedWheelTimer;
+import kr.pe.elex.rabbitmq.rpc.HelloRabbitServer;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * 스레드 하나로 정해진 속도만큼 메시지를 보낸다. 채널은 이 발행자만 쓴다.
+ * <p>
+ * 일반 흐름은 {@link LatencyStamp}로 보낸 시각을 찍어 컨슈머가 지연 시간을 잰다.
+ * {@code --batch}이면 {@link BatchPublisher}로 묶어 보내고, 묶음에는 시각을 찍지 않는다.
+ * {@code --compress}이면 {@link Compression}으로 압축해서 보낸다. 이때 본문은 압축되도록 JSON 비슷한 레코드를 이어 붙인 것이다.
+ * <p>
+ * RPC는 {@link HelloRabbitServer}의 익스체인지로 요청을 보낸다. 응답 큐는 따로 두고 큐 이름을 라우팅-키로 써서 서버의 익스체인지에 묶으며,
+ * 요청하고 응답을 받을 때까지의 시간을 직접 잰다.
+ *
+ * @author Elex
+ */
+@Slf4j
+final class PerfProducer implements Runnable, AutoCloseable {
+	private static final long RPC_TIMEOUT_MILLIS = 5000;
+	// 이보다 많이 밀리면 밀린 만큼 한꺼번에 보내지 않고 지금부터 다시 잽니다.
+	private static final long MAX_LAG_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final long BATCH_LINGER_MILLIS = 10;
+	private static final String RECORD = "{\"id\":%d,\"symbol\":\"ELEX\",\"side\":\"BUY\",\"quantity\":%d}";
+
+	private final int id;
+	private final PerfStats stats;
+	private final Channel channel;
+	private final String exchange;
+	private final String[] routingKeys;
+	private final byte[] body;
+	private final long intervalNanos;
+	private final LatencyStamp stamp;
+	private final BatchPublisher batcher;
+	private final Compression compression;
+	private final AsyncConfirmPublisher confirms;
+	private final BiConsumer<Long, Throwable> onConfirm;
+	private final CorrelationRegistry<byte[]> calls;
+	private final Semaphore inflight;
+	private final int maxInflight;
+	private final String replyTo;
+	private volatile boolean running = true;
+
+	PerfProducer(int id, PerfOptions options, ConnectionManager connectionManager, PerfStats stats,
+	             HashedWheelTimer timer) throws IOException {
+		Pattern pattern = options.getPattern();
+		this.id = id;
+		this.stats = stats;
+		this.channel = connectionManager.createChannel();
+		pattern.declareExchange(channel, connectionManager.getTopology());
+		this.exchange = pattern.getExchange();
+		this.routingKeys = pattern.routingKeys(options.getConsumers());
+		this.body = options.isCompress() ? records(options.getSize()) : random(options.getSize());
+		// 발행자마다 전체 속도를 나눠 맡습니다.
+		this.intervalNanos = 0 == options.getRate() ? 0
+				: Math.max(1, TimeUnit.SECONDS.toNanos(1) * options.getProducers() / options.getRate());
+		this.stamp = new LatencyStamp("perf-" + id, true);
+		this.batcher = options.getBatch() > 0
+				? new BatchPublisher(connectionManager, options.getBatch())
+				.start(WorkerExecutors.sharedScheduler(), BATCH_LINGER_MILLIS, TimeUnit.MILLISECONDS)
+				: null;
+		this.compression = options.isCompress() ? Compression.defaults() : null;
+
+		if (options.getConfirm() > 0) {
+			confirms = new AsyncConfirmPublisher(channel, options.getConfirm());
+			onConfirm = (tag, e) -> {
+				if (null == e) {
+					stats.confirmed.increment();
+				} else {
+					stats.nacked.increment();
+				}
+			};
+		} else {
+			confirms = null;
+			onConfirm = null;
+		}
+
+		if (pattern == Pattern.RPC) {
+			calls = new CorrelationRegistry<>(timer);
+			maxInflight = options.getInflight();
+			inflight = new Semaphore(maxInflight);
+			// 응답은 이 발행자만 받는 큐로 옵니다. 서버는 큐 이름을 라우팅-키로 써서 자기 익스체인지로 보냅니다.
+			replyTo = channel.queueDeclare().getQueue();
+			connectionManager.getTopology().declare(channel, Topology.builder()
+					.binding(replyTo, HelloRabbitServer.EXCHANGE, replyTo)
+					.build());
+			channel.basicConsume(replyTo, true, new DefaultConsumer(channel) {
+				@Override
+				public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+					calls.complete(properties.getCorrelationId(), body);
+				}
+			});
+		} else {
+			calls = null;
+			maxInflight = 0;
+			inflight = null;
+			replyTo = null;
+		}
+	}
+
+	@Override
+	public void run() {
+		long next = System.nanoTime();
+		long sequence = 0;
+		try {
+			while (running) {
+				if (intervalNanos > 0) {
+					next += intervalNanos;
+					long wait = next - System.nanoTime();
+					if (wait > 0) {
+						LockSupport.parkNanos(wait);
+					} else if (wait < -MAX_LAG_NANOS) {
+						next = System.nanoTime();
+					}
+				}
+				String routingKey = routingKeys[(int) (sequence++ % routingKeys.length)];
+				if (null == calls) {
+					publish(routingKey);
+				} else {
+					call(routingKey);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException | RuntimeException e) {
+			log.error("Producer {} fail..", id, e);
+		}
+	}
+
+	private static byte[] random(int size) {
+		byte[] bytes = new byte[size];
+		ThreadLocalRandom.current().nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] records(int size) {
+		StringBuilder text = new StringBuilder(size + 64);
+		for (int i = 0; text.length() < size; i++) {
+			text.append(String.format(RECORD, i, i * 10));
+		}
+		return text.substring(0, size).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void publish(String routingKey) throws IOException, InterruptedException {
+		if (null != batcher) {
+			batcher.publish(exchange, routingKey, body);
+			stats.published.increment();
+			return;
+		}
+		AMQP.BasicProperties properties = stamp.stamp(routingKey, null);
+		if (null != compression) {
+			compression.publish(channel, exchange, routingKey, properties, body);
+		} else if (null != confirms) {
+			confirms.publish(exchange, routingKey, properties, body).whenComplete(onConfirm);
+		} else {
+			channel.basicPublish(exchange, routingKey, properties, body);
+		}
+		stats.published.increment();
+	}
+
+	private void call(String routingKey) throws IOException, InterruptedException {
+		inflight.acquire();
+		CorrelationRegistry.Call<byte[]> call = calls.register(RPC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+				.replyTo(replyTo)
+				.correlationId(call.getCorrelationId())
+				.build();
+		long startedAt = System.nanoTime();
+		call.getFuture().whenComplete((reply, e) -> {
+			inflight.release();
+			if (null == e) {
+				stats.latency(System.nanoTime() - startedAt);
+				stats.received.increment();
+			} else {
+				stats.failed.increment();
+			}
+		});
+		try {
+			if (null != confirms) {
+				confirms.publish(exchange, routingKey, properties, body).whenComplete(onConfirm);
+			} else {
+				channel.basicPublish(exchange, routingKey, properties, body);
+			}
+		} catch (IOException | RuntimeException e) {
+			calls.fail(call.getCorrelationId(), e);
+			throw e;
+		}
+		stats.published.increment();
+	}
+
+	/**
+	 * 보내기를 멈춘다. 스레드는 지금 보내던 메시지를 마저 보내고 끝난다.
+	 */
+	void stop() {
+		running = false;
+	}
+
+	/**
+	 * 모아둔 묶음을 보낸 다음, 보낸 메시지가 모두 확인받고 RPC라면 응답을 모두 받을 때까지 기다린다.
+	 *
+	 * @return 시간 안에 모두 끝나면 {@code true}
+	 */
+	boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		if (null != batcher) {
+			try {
+				batcher.flush();
+			} catch (IOException e) {
+				log.warn("Producer {} failed to flush batches.", id, e);
+				return false;
+			}
+		}
+		if (null != confirms && !confirms.awaitAll(timeout, unit)) {
+			return false;
+		}
+		if (null != inflight) {
+			if (!inflight.tryAcquire(maxInflight, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				return false;
+			}
+			inflight.release(maxInflight);
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException, TimeoutException {
+		running = false;
+		if (null != batcher) {
+			batcher.close();
+		}
+		if (null != calls) {
+			calls.close();
+		}
+		if (channel.isOpen()) {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.perf;
+
+import kr.pe.elex.rabbitmq.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 부하를 건 결과. {@link #toJson()}으로 다른 도구가 읽을 수 있는 요약을 만든다.
+ * 지연 시간은 일반 흐름이면 보내고 받을 때까지, RPC면 요청하고 응답을 받을 때까지이며 JSON에는 마이크로초로 쓴다.
+ *
+ * @author Elex
+ */
+public final class PerfReport {
+	private final PerfOptions options;
+	private final List<Interval> intervals;
+	private final long published;
+	private final long confirmed;
+	private final long nacked;
+	private final long failed;
+	private final long received;
+	private final long expected;
+	private final long publishMillis;
+	private final long elapsedMillis;
+	private final LatencyHistogram.Snapshot latency;
+
+	PerfReport(PerfOptions options, List<Interval> intervals, PerfStats stats, long expected,
+	           long publishMillis, long elapsedMillis) {
+		this.options = options;
+		this.intervals = Collections.unmodifiableList(intervals);
+		this.published = stats.published.sum();
+		this.confirmed = stats.confirmed.sum();
+		this.nacked = stats.nacked.sum();
+		this.failed = stats.failed.sum();
+		this.received = stats.received.sum();
+		this.expected = expected;
+		this.publishMillis = publishMillis;
+		this.elapsedMillis = elapsedMillis;
+		this.latency = stats.total();
+	}
+
+	public PerfOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * @return 1초마다 잰 값
+	 */
+	public List<Interval> getIntervals() {
+		return intervals;
+	}
+
+	public long getPublished() {
+		return published;
+	}
+
+	public long getConfirmed() {
+		return confirmed;
+	}
+
+	public long getNacked() {
+		return nacked;
+	}
+
+	/**
+	 * @return 보내지 못했거나 RPC 응답을 시간 안에 받지 못한 개수
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return 컨슈머가 받은 개수. RPC면 클라이언트가 받은 응답 개수
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return 보낸 만큼 받았다면 받았을 개수. 팬아웃이면 보낸 개수에 컨슈머 개수를 곱한다.
+	 */
+	public long getExpected() {
+		return expected;
+	}
+
+	/**
+	 * @return 1초당 보낸 개수. 발행한 시간으로 나눈다.
+	 */
+	public double getPublishRate() {
+		return rate(published, publishMillis);
+	}
+
+	/**
+	 * @return 1초당 받은 개수. 발행을 시작해서 마지막 메시지를 받을 때까지의 시간으로 나눈다.
+	 */
+	public double getReceiveRate() {
+		return rate(received, elapsedMillis);
+	}
+
+	public LatencyHistogram.Snapshot getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return 한 줄 요약
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: published %d (%.0f/s), confirmed %d, nacked %d, failed %d, received %d/%d (%.0f/s), latency %s",
+				options.getPattern(), published, getPublishRate(), confirmed, nacked, failed, received, expected,
+				getReceiveRate(), latency);
+	}
+
+	/**
+	 * @return 설정, 합계, 지연 시간 백분위, 1초마다의 값을 담은 JSON
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder(256 + intervals.size() * 160);
+		json.append("{\n");
+		json.append("  \"pattern\": \"").append(options.getPattern()).append("\",\n");
+		json.append("  \"broker\": \"").append(null == options.getUri() ? "embedded" : "amqp").append("\",\n");
+		json.append("  \"options\": {");
+		field(json, "producers", options.getProducers()).append(", ");
+		field(json, "consumers", options.getConsumers()).append(", ");
+		field(json, "size", options.getSize()).append(", ");
+		field(json, "rate", options.getRate()).append(", ");
+		field(json, "confirm", options.getConfirm()).append(", ");
+		field(json, "inflight", options.getInflight()).append(", ");
+		field(json, "prefetch", options.getPrefetch()).append(", ");
+		field(json, "ackBatch", options.getAckBatch()).append(", ");
+		json.append("\"autoAck\": ").append(options.isAutoAck()).append(", ");
+		field(json, "batch", options.getBatch()).append(", ");
+		json.append("\"compress\": ").append(options.isCompress()).append(", ");
+		field(json, "duration", options.getDuration()).append("},\n  ");
+		field(json, "publishMillis", publishMillis).append(",\n  ");
+		field(json, "elapsedMillis", elapsedMillis).append(",\n  ");
+		field(json, "published", published).append(",\n  ");
+		field(json, "confirmed", confirmed).append(",\n  ");
+		field(json, "nacked", nacked).append(",\n  ");
+		field(json, "failed", failed).append(",\n  ");
+		field(json, "received", received).append(",\n  ");
+		field(json, "expected", expected).append(",\n  ");
+		field(json, "publishRate", Math.round(getPublishRate())).append(",\n  ");
+		field(json, "receiveRate", Math.round(getReceiveRate())).append(",\n");
+		json.append("  \"latencyMicros\": ");
+		latency(json, latency).append(",\n");
+		json.append("  \"intervals\": [");
+		for (int i = 0; i < intervals.size(); i++) {
+			json.append(0 == i ? "\n    " : ",\n    ");
+			intervals.get(i).toJson(json);
+		}
+		json.append(intervals.isEmpty() ? "]\n" : "\n  ]\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * {@link #toJson()}을 파일에 쓴다. 디렉터리가 없으면 만든다.
+	 */
+	public void writeJson(Path path) throws IOException {
+		Path parent = path.toAbsolutePath().getParent();
+		if (null != parent) {
+			Files.createDirectories(parent);
+		}
+		Files.write(path, toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static StringBuilder field(StringBuilder json, String name, long value) {
+		return json.append('"').append(name).append("\": ").append(value);
+	}
+
+	private static StringBuilder latency(StringBuilder json, LatencyHistogram.Snapshot snapshot) {
+		json.append('{');
+		field(json, "count", snapshot.getCount()).append(", ");
+		field(json, "mean", micros(snapshot.getMean())).append(", ");
+		field(json, "p50", micros(snapshot.getP50())).append(", ");
+		field(json, "p99", micros(snapshot.getP99())).append(", ");
+		field(json, "p999", micros(snapshot.getP999())).append(", ");
+		field(json, "max", micros(snapshot.getMax()));
+		return json.append('}');
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	private static double rate(long count, long millis) {
+		return 0 == millis ? 0 : count * 1000.0 / millis;
+	}
+
+	/**
+	 * 1초 동안 잰 값.
+	 */
+	public static final class Interval {
+		private final long time;
+		private final long millis;
+		private final long published;
+		private final long confirmed;
+		private final long received;
+		private final LatencyHistogram.Snapshot latency;
+
+		Interval(long time, long millis, long published, long confirmed, long received,
+		         LatencyHistogram.Snapshot latency) {
+			this.time = time;
+			this.millis = millis;
+			this.published = published;
+			this.confirmed = confirmed;
+			this.received = received;
+			this.latency = latency;
+		}
+
+		/**
+		 * @return 시작하고 나서 잰 시각(ms)
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return 잰 구간의 길이(ms)
+		 */
+		public long getMillis() {
+			return millis;
+		}
+
+		public long getPublished() {
+			return published;
+		}
+
+		public long getConfirmed() {
+			return confirmed;
+		}
+
+		public long getReceived() {
+			return received;
+		}
+
+		public LatencyHistogram.Snapshot getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @return 한 줄 요약. 예: {@code 3.0s sent 98211/s confirmed 0/s received 98190/s latency p50 412 p99 1930 p999 2870 max 3901 us}
+		 */
+		@Override
+		public String toString() {
+			return String.format("%5.1fs sent %d/s confirmed %d/s received %d/s latency p50 %d p99 %d p999 %d max %d us",
+					time / 1000.0, Math.round(rate(published, millis)), Math.round(rate(confirmed, millis)),
+					Math.round(rate(received, millis)), micros(latency.getP50()), micros(latency.getP99()),
+					micros(latency.getP999()), micros(latency.getMax()));
+		}
+
+		private void toJson(StringBuilder json) {
+			json.append('{');
+			field(json, "time", time).append(", ");
+			field(json, "millis", millis).append(", ");
+			field(json, "published", published).append(", ");
+			field(json, "confirmed", confirmed).append(", ");
+			field(json, "received", received).append(", ");
+			json.append("\"latencyMicros\": ");
+			latency(json, latency).append('}');
+		}
+	}
+}
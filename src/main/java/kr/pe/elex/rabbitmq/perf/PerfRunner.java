@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.perf;
+
+import com.rabbitmq.client.ConnectionFactory;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.rpc.HashedWheelTimer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 예제의 메시지 흐름에 부하를 걸고 처리량과 지연 시간을 잰다.
+ * <p>
+ * 컨슈머 쪽은 예제의 클라이언트가 쓰는 {@code DispatchingConsumer}, {@code TopicRouter}, {@code HelloRabbitServer}와
+ * 압축과 묶음을 푸는 컨슈머를 그대로 쓰고, 발행하는 쪽은 {@code BatchPublisher}와 {@code Compression}을 쓴다.
+ * 예제의 {@code RabbitClient}는 패키지 밖에서 만들 수 없고, 익스체인지 이름과 문자열 본문이 정해져 있으며, 받은 메시지를 세지 않으므로
+ * 그대로 띄우지는 않는다. 자세한 것은 {@link PerfConsumer}와 {@link PerfProducer}를 본다.
+ * <p>
+ * 컨슈머를 먼저 붙이고, 발행자 스레드들이 정해진 시간 동안 정해진 속도로 보낸다. 1초마다 보낸 개수, 확인받은 개수,
+ * 받은 개수와 그 1초 동안의 지연 시간 백분위를 로그로 남긴다. 발행을 멈춘 뒤에는 보낸 메시지를 다 받을 때까지
+ * 기다렸다가 {@link PerfReport}를 JSON으로 쓴다.
+ * <p>
+ * {@code --uri}를 주지 않으면 {@link EmbeddedBroker}를 쓰므로 브로커 없이 돌릴 수 있다. 이때는 네트워크가 없으므로
+ * 클라이언트 쪽 코드의 한계를 재는 셈이다.
+ * <pre>
+ * ./gradlew perf -Pperf.args="--pattern fanout --producers 2 --consumers 4 --rate 20000 --duration 30"
+ * </pre>
+ *
+ * @author Elex
+ */
+@Slf4j
+public final class PerfRunner {
+	private static final long COMPLETION_TIMEOUT_MILLIS = 5000;
+	private static final long DRAIN_TIMEOUT_MILLIS = 10_000;
+	// 받은 개수가 이만큼 늘지 않으면 더 오지 않는 것으로 봅니다.
+	private static final long DRAIN_IDLE_MILLIS = 1000;
+
+	private final PerfOptions options;
+
+	public PerfRunner(PerfOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * 부하를 건다. 정해진 시간과 받기를 기다리는 시간 동안 블로킹된다.
+	 *
+	 * @return 결과
+	 * @throws IOException 브로커에 연결하거나 선언하지 못한 경우
+	 */
+	public PerfReport run() throws IOException, InterruptedException {
+		EmbeddedBroker broker = null == options.getUri() ? new EmbeddedBroker() : null;
+		ConnectionManager connectionManager = null == broker
+				? new ConnectionManager(connectionFactory(options.getUri()), options.getConnections(), 1)
+				: broker.connectionManager(options.getConnections(), 1);
+		HashedWheelTimer timer = new HashedWheelTimer("elex-perf-timer", 10, TimeUnit.MILLISECONDS, 512);
+		ScheduledExecutorService reporter = WorkerExecutors.scheduler("elex-perf-report");
+		ExecutorService workers = WorkerExecutors.fixed("elex-perf-worker", WorkerExecutors.cores());
+		PerfStats stats = new PerfStats();
+		List<PerfConsumer> consumers = new ArrayList<>();
+		List<PerfProducer> producers = new ArrayList<>();
+		try {
+			// 메시지를 잃지 않도록 큐를 선언하고 컨슈머를 붙인 다음에 보냅니다.
+			for (int i = 0; i < options.getConsumers(); i++) {
+				consumers.add(new PerfConsumer(i, options, connectionManager, stats, workers));
+			}
+			for (int i = 0; i < options.getProducers(); i++) {
+				producers.add(new PerfProducer(i, options, connectionManager, stats, timer));
+			}
+			log.info("Perf {}", options);
+
+			// 보고하는 스레드만 목록에 더하고, 그 스레드를 멈춘 다음에 읽습니다.
+			List<PerfReport.Interval> intervals = new ArrayList<>();
+			stats.start();
+			reporter.scheduleAtFixedRate(() -> {
+				PerfReport.Interval interval = stats.sample();
+				intervals.add(interval);
+				log.info("{}", interval);
+			}, 1, 1, TimeUnit.SECONDS);
+
+			List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i < producers.size(); i++) {
+				Thread thread = new Thread(producers.get(i), "elex-perf-producer-" + i);
+				thread.setDaemon(true);
+				thread.start();
+				threads.add(thread);
+			}
+			TimeUnit.SECONDS.sleep(options.getDuration());
+			for (PerfProducer producer : producers) {
+				producer.stop();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			long publishMillis = stats.elapsedMillis();
+
+			for (PerfProducer producer : producers) {
+				if (!producer.awaitCompletion(COMPLETION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					log.warn("Some confirms or replies did not arrive in {} ms.", COMPLETION_TIMEOUT_MILLIS);
+				}
+			}
+			long expected = stats.published.sum() * options.getPattern().deliveries(options.getConsumers());
+			drain(stats, expected);
+			long elapsedMillis = stats.elapsedMillis();
+
+			reporter.shutdown();
+			if (!reporter.awaitTermination(1, TimeUnit.SECONDS)) {
+				log.warn("Reporter did not stop.");
+			}
+			// 마지막 1초가 다 차지 않은 나머지입니다.
+			PerfReport.Interval rest = stats.sample();
+			if (rest.getPublished() > 0 || rest.getConfirmed() > 0 || rest.getReceived() > 0) {
+				intervals.add(rest);
+				log.info("{}", rest);
+			}
+			return new PerfReport(options, intervals, stats, expected, publishMillis, elapsedMillis);
+		} finally {
+			reporter.shutdownNow();
+			for (PerfProducer producer : producers) {
+				closeQuietly(producer);
+			}
+			for (PerfConsumer consumer : consumers) {
+				closeQuietly(consumer);
+			}
+			workers.shutdown();
+			connectionManager.close();
+			timer.close();
+			if (null != broker) {
+				broker.close();
+			}
+		}
+	}
+
+	private static void drain(PerfStats stats, long expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+		long last = -1;
+		long idleSince = System.currentTimeMillis();
+		while (true) {
+			long received = stats.received.sum();
+			long now = System.currentTimeMillis();
+			if (received >= expected || now >= deadline) {
+				return;
+			}
+			if (received != last) {
+				last = received;
+				idleSince = now;
+			} else if (now - idleSince >= DRAIN_IDLE_MILLIS) {
+				return;
+			}
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+	}
+
+	private static ConnectionFactory connectionFactory(String uri) {
+		ConnectionFactory connectionFactory = ConnectionManager.defaultConnectionFactory();
+		try {
+			connectionFactory.setUri(uri);
+		} catch (URISyntaxException | GeneralSecurityException e) {
+			throw new IllegalArgumentException("Invalid broker URI: " + uri, e);
+		}
+		return connectionFactory;
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		try {
+			closeable.close();
+		} catch (Exception e) {
+			log.warn("Close fail..", e);
+		}
+	}
+
+	public static void main(String... args) throws IOException, InterruptedException {
+		if (Arrays.asList(args).contains("--help")) {
+			System.out.println(PerfOptions.USAGE);
+			return;
+		}
+		PerfOptions options;
+		try {
+			options = PerfOptions.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(PerfOptions.USAGE);
+			System.exit(2);
+			return;
+		}
+
+		PerfReport report = new PerfRunner(options).run();
+		log.info("{}", report);
+		if (null == options.getJson()) {
+			System.out.print(report.toJson());
+		} else {
+			report.writeJson(options.getJson());
+			log.info("Summary written to {}", options.getJson());
+		}
+	}
+}
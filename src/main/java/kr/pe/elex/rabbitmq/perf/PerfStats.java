@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.perf;
+
+import kr.pe.elex.rabbitmq.metrics.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 부하를 거는 동안의 개수와 지연 시간. 발행자와 컨슈머는 잠그지 않고 더하고, 보고하는 스레드가 1초마다 {@link #sample()}로 떼어 간다.
+ *
+ * @author Elex
+ */
+final class PerfStats {
+	final LongAdder published = new LongAdder();
+	final LongAdder confirmed = new LongAdder();
+	final LongAdder nacked = new LongAdder();
+	final LongAdder failed = new LongAdder();
+	final LongAdder received = new LongAdder();
+
+	private final LatencyHistogram interval = new LatencyHistogram();
+	private final LatencyHistogram total = new LatencyHistogram();
+	private volatile long startedAt = System.nanoTime();
+
+	// 보고하는 스레드만 씁니다.
+	private long lastAt = startedAt;
+	private long lastPublished;
+	private long lastConfirmed;
+	private long lastReceived;
+
+	/**
+	 * 시간을 지금부터 잰다. 발행자가 보내기 시작하기 바로 전에 부른다.
+	 */
+	synchronized void start() {
+		startedAt = lastAt = System.nanoTime();
+	}
+
+	/**
+	 * @param nanos 보내고 받을 때까지, RPC라면 요청하고 응답을 받을 때까지 걸린 시간
+	 */
+	void latency(long nanos) {
+		interval.record(nanos);
+		total.record(nanos);
+	}
+
+	/**
+	 * 지난번에 부른 뒤로 늘어난 개수와 그 사이의 지연 시간 분포를 떼어 간다.
+	 */
+	synchronized PerfReport.Interval sample() {
+		long now = System.nanoTime();
+		long published = this.published.sum();
+		long confirmed = this.confirmed.sum();
+		long received = this.received.sum();
+		PerfReport.Interval sample = new PerfReport.Interval(millis(now - startedAt), millis(now - lastAt),
+				published - lastPublished, confirmed - lastConfirmed, received - lastReceived,
+				interval.snapshotAndReset());
+		lastAt = now;
+		lastPublished = published;
+		lastConfirmed = confirmed;
+		lastReceived = received;
+		return sample;
+	}
+
+	/**
+	 * @return 처음부터의 지연 시간 분포
+	 */
+	LatencyHistogram.Snapshot total() {
+		return total.snapshot();
+	}
+
+	/**
+	 * @return 처음부터 지난 시간(ms)
+	 */
+	long elapsedMillis() {
+		return millis(System.nanoTime() - startedAt);
+	}
+
+	private static long millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.pool;
+
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 크기가 제한된 채널 풀.
+ * <p>
+ * 빌려준 채널의 개수는 세마포어로 제한하고, 돌려받은 채널은 다시 쓰기 위해 보관해둔다.
+ * 닫혀버린 채널은 버리고 필요할 때 새로 만든다.
+ * 풀의 채널은 발행용이므로, 컨슈머를 등록하거나 QoS, 컨펌 모드처럼 채널의 상태를 바꾸면 안 된다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class ChannelPool implements AutoCloseable {
+	private final ChannelFactory channelFactory;
+	private final Semaphore permits;
+	private final int maxSize;
+	private final ConcurrentLinkedDeque<Channel> idle = new ConcurrentLinkedDeque<>();
+	private volatile boolean closed;
+
+	public ChannelPool(ChannelFactory channelFactory, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		}
+		this.channelFactory = channelFactory;
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * 채널을 빌린다. 모든 채널을 빌려준 상태라면 돌려받을 때까지 기다린다.
+	 *
+	 * @param timeout 최대 대기 시간
+	 * @param unit    대기 시간 단위
+	 * @return 빌린 채널
+	 * @throws IOException          채널을 새로 만들 수 없는 경우
+	 * @throws InterruptedException 기다리는 동안 인터럽트된 경우
+	 * @throws TimeoutException     정해진 시간 안에 채널을 빌리지 못한 경우
+	 */
+	public PooledChannel borrow(long timeout, TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
+		if (closed) {
+			throw new IOException("Channel pool is closed.");
+		}
+		if (!permits.tryAcquire(timeout, unit)) {
+			throw new TimeoutException("Channel pool exhausted: " + maxSize);
+		}
+		try {
+			Channel channel;
+			// 가장 최근에 돌려받은 채널부터 씁니다.
+			while (null != (channel = idle.pollFirst())) {
+				if (channel.isOpen()) {
+					return new PooledChannel(this, channel);
+				}
+			}
+			return new PooledChannel(this, channelFactory.newChannel());
+		} catch (IOException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * {@link PooledChannel#close()}에서 호출된다.
+	 */
+	void giveBack(Channel channel, boolean reusable) {
+		try {
+			if (reusable && !closed && channel.isOpen()) {
+				idle.offerFirst(channel);
+			} else {
+				closeQuietly(channel);
+			}
+		} finally {
+			permits.release();
+		}
+		if (closed) {
+			// 풀이 닫히는 동안 돌려받은 채널이 남지 않도록 합니다.
+			drain();
+		}
+	}
+
+	/**
+	 * @return 보관 중인 유휴 채널 개수
+	 */
+	public int idleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return 빌려준 채널 개수
+	 */
+	public int borrowedCount() {
+		return maxSize - permits.availablePermits();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		drain();
+	}
+
+	private void drain() {
+		Channel channel;
+		while (null != (channel = idle.pollFirst())) {
+			closeQuietly(channel);
+		}
+	}
+
+	private static void closeQuietly(Channel channel) {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException | TimeoutException | RuntimeException e) {
+			log.debug("Failed to close a pooled channel.", e);
+		}
+	}
+
+	/**
+	 * 풀이 비었을 때 새 채널을 만든다.
+	 */
+	@FunctionalInterface
+	public interface ChannelFactory {
+		Channel newChannel() throws IOException;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.pool;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.metrics.AmqpMetricsCollector;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import kr.pe.elex.rabbitmq.topology.TopologyRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 여러 개의 논리적인 클라이언트가 적은 수의 TCP 연결을 나눠 쓰도록 관리한다.
+ * <p>
+ * 연결은 처음 필요할 때 열리고, 채널을 만들 때마다 라운드-로빈으로 연결을 고른다.
+ * 메시지 소비자는 {@link #createChannel()}로 전용 채널을 만들어 쓰고,
+ * 메시지 발행자는 {@link #borrow()}로 채널 풀에서 채널을 빌려 쓴 다음 돌려준다.
+ * <p>
+ * 선언은 {@link #getTopology()}로 하면 같은 연결 관리자를 쓰는 클라이언트끼리 같은 선언을 다시 보내지 않는다.
+ * <p>
+ * 연결은 {@link ConnectionSupplier}를 통해 만들어지므로, 실제 브로커 대신 프로세스 내부의 대역을 끼워 넣을 수 있다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class ConnectionManager implements AutoCloseable {
+	private static final String CONNECTIONS_PROPERTY = "elex.rabbitmq.connections";
+	private static final String CHANNELS_PROPERTY = "elex.rabbitmq.channels";
+	private static final String EMBEDDED_PROPERTY = "elex.rabbitmq.embedded";
+	private static final long BORROW_TIMEOUT_MILLIS = 5000;
+
+	private static ConnectionManager shared;
+
+	private final ConnectionSupplier connectionSupplier;
+	private final Connection[] connections;
+	private final AtomicInteger next = new AtomicInteger();
+	private final ChannelPool channelPool;
+	private final TopologyRegistry topology = new TopologyRegistry();
+	private volatile boolean closed;
+
+	/**
+	 * @param connectionSupplier 연결을 만드는 방법
+	 * @param connectionCount    최대 연결 개수
+	 * @param maxPooledChannels  채널 풀에서 동시에 빌려줄 수 있는 최대 채널 개수
+	 */
+	public ConnectionManager(ConnectionSupplier connectionSupplier, int connectionCount, int maxPooledChannels) {
+		if (connectionCount < 1) {
+			throw new IllegalArgumentException("connectionCount must be positive: " + connectionCount);
+		}
+		this.connectionSupplier = connectionSupplier;
+		this.connections = new Connection[connectionCount];
+		this.channelPool = new ChannelPool(this::newChannel, maxPooledChannels);
+	}
+
+	public ConnectionManager(ConnectionFactory connectionFactory, int connectionCount, int maxPooledChannels) {
+		this(connectionFactory::newConnection, connectionCount, maxPooledChannels);
+	}
+
+	/**
+	 * 예제들이 사용하는 로컬 브로커 설정입니다. 연결과 채널, 메시지 수를 {@link Metrics#shared()}에 셉니다.
+	 * <p>
+	 * {@code elex.rabbitmq.embedded} 시스템 속성이 {@code true}이면 RabbitMQ 서버 대신
+	 * {@link EmbeddedBroker#shared()}에 연결하는 팩토리를 돌려준다.
+	 */
+	public static ConnectionFactory defaultConnectionFactory() {
+		if (Boolean.getBoolean(EMBEDDED_PROPERTY)) {
+			return EmbeddedBroker.shared().connectionFactory();
+		}
+		ConnectionFactory connectionFactory = new ConnectionFactory();
+		connectionFactory.setHost("localhost");
+		connectionFactory.setPort(5672);
+		connectionFactory.setUsername("elex");
+		connectionFactory.setPassword("test");
+		connectionFactory.setVirtualHost("/");
+		connectionFactory.setAutomaticRecoveryEnabled(true);
+		connectionFactory.setMetricsCollector(new AmqpMetricsCollector(Metrics.shared()));
+		return connectionFactory;
+	}
+
+	/**
+	 * 프로세스 전체에서 공유하는 연결 관리자를 가져온다.
+	 * <p>
+	 * 연결 개수와 채널 풀 크기는 {@code elex.rabbitmq.connections}, {@code elex.rabbitmq.channels}
+	 * 시스템 속성으로 바꿀 수 있다. 닫힌 다음에 다시 호출하면 새로 만든다.
+	 *
+	 * @return 공유 연결 관리자
+	 */
+	public static synchronized ConnectionManager shared() {
+		if (null == shared || shared.closed) {
+			shared = new ConnectionManager(defaultConnectionFactory(),
+					Integer.getInteger(CONNECTIONS_PROPERTY, 2),
+					Integer.getInteger(CHANNELS_PROPERTY, 16));
+		}
+		return shared;
+	}
+
+	/**
+	 * 라운드-로빈으로 연결을 고른다. 아직 열리지 않았거나 복구할 수 없게 끊어진 연결은 새로 연다.
+	 *
+	 * @return 열린 연결
+	 * @throws IOException 연결을 열 수 없는 경우
+	 */
+	public Connection connection() throws IOException {
+		int index = Math.floorMod(next.getAndIncrement(), connections.length);
+		synchronized (connections) {
+			if (closed) {
+				throw new IOException("Connection manager is closed.");
+			}
+			Connection connection = connections[index];
+			// 자동 복구되는 연결은 끊어져 있더라도 복구될 때까지 그대로 씁니다.
+			if (null == connection || (!connection.isOpen() && !(connection instanceof Recoverable))) {
+				try {
+					connection = connectionSupplier.newConnection("elex-" + index);
+				} catch (TimeoutException e) {
+					throw new IOException("Connection timed out.", e);
+				}
+				connections[index] = connection;
+				log.debug("Connection opened: {}", connection);
+			}
+			return connection;
+		}
+	}
+
+	/**
+	 * 메시지 소비나 익스체인지 선언처럼 오래 붙잡고 쓸 전용 채널을 만든다.
+	 * 채널을 다 쓰면 직접 닫아야 한다.
+	 *
+	 * @return 새 채널
+	 * @throws IOException 채널을 만들 수 없는 경우
+	 */
+	public Channel createChannel() throws IOException {
+		return newChannel();
+	}
+
+	/**
+	 * 채널 풀에서 발행용 채널을 빌린다. {@link PooledChannel#close()}를 호출하면 풀로 돌아간다.
+	 *
+	 * @return 빌린 채널
+	 * @throws IOException 정해진 시간 안에 채널을 빌리지 못한 경우
+	 */
+	public PooledChannel borrow() throws IOException {
+		try {
+			return channelPool.borrow(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while borrowing a channel.");
+		} catch (TimeoutException e) {
+			throw new IOException("No pooled channel available within " + BORROW_TIMEOUT_MILLIS + "ms.", e);
+		}
+	}
+
+	public ChannelPool getChannelPool() {
+		return channelPool;
+	}
+
+	/**
+	 * @return 이 연결들로 선언한 익스체인지, 큐, 바인딩을 기억하는 레지스트리
+	 */
+	public TopologyRegistry getTopology() {
+		return topology;
+	}
+
+	private Channel newChannel() throws IOException {
+		Channel channel = connection().createChannel();
+		if (null == channel) {
+			throw new IOException("Channel limit reached.");
+		}
+		return channel;
+	}
+
+	@Override
+	public void close() {
+		synchronized (connections) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		channelPool.close();
+		topology.clear();
+		for (Connection connection : connections) {
+			if (null != connection && connection.isOpen()) {
+				try {
+					connection.close();
+				} catch (IOException e) {
+					log.warn("Failed to close a connection.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 새 연결을 만든다. {@link ConnectionFactory#newConnection(String)}과 같은 모양이다.
+	 */
+	@FunctionalInterface
+	public interface ConnectionSupplier {
+		Connection newConnection(String name) throws IOException, TimeoutException;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.pool;
+
+import com.rabbitmq.client.Channel;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 채널 풀에서 빌린 채널.
+ * <p>
+ * try-with-resources 구문으로 사용하면 블록을 벗어날 때 채널이 풀로 돌아간다.
+ * 빌린 채널은 한 번에 한 스레드만 사용해야 한다.
+ *
+ * <pre>{@code
+ * try (PooledChannel pooled = connectionManager.borrow()) {
+ *     pooled.getChannel().basicPublish(EXCHANGE, ROUTING_KEY, null, body);
+ * }
+ * }</pre>
+ *
+ * @author Elex
+ */
+public final class PooledChannel implements AutoCloseable {
+	private final ChannelPool pool;
+	private final Channel channel;
+	private final AtomicBoolean returned = new AtomicBoolean();
+	private volatile boolean broken;
+
+	PooledChannel(ChannelPool pool, Channel channel) {
+		this.pool = pool;
+		this.channel = channel;
+	}
+
+	public Channel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * 채널의 상태를 알 수 없게 되었을 때 호출한다. 풀로 돌려보내지 않고 닫는다.
+	 */
+	public void invalidate() {
+		broken = true;
+	}
+
+	@Override
+	public void close() {
+		if (returned.compareAndSet(false, true)) {
+			pool.giveBack(channel, !broken);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.rpc;
+
+import kr.pe.elex.rabbitmq.metrics.LatencyHistogram;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 응답을 기다리는 RPC 호출을 보관한다.
+ * <p>
+ * 호출마다 단조 증가하는 {@code long} 아이디를 붙이고, 인스턴스마다 다른 접두어와 합쳐서
+ * {@link com.rabbitmq.client.AMQP.BasicProperties#getCorrelationId()}로 쓴다.
+ * 응답이 정해진 시간 안에 오지 않으면 {@link HashedWheelTimer}가 호출을 지우고
+ * {@link TimeoutException}으로 완료시킨다.
+ * <p>
+ * 호출하는 스레드와 응답을 받는 컨슈머 스레드가 동시에 사용해도 안전하다.
+ *
+ * @param <T> 응답 타입
+ * @author Elex
+ */
+public class CorrelationRegistry<T> implements AutoCloseable {
+	private final HashedWheelTimer timer;
+	private final String prefix;
+	private final AtomicLong sequence = new AtomicLong();
+	private final ConcurrentHashMap<Long, Call<T>> calls = new ConcurrentHashMap<>();
+	private volatile LatencyHistogram roundTrip;
+	private volatile LongAdder timeouts;
+
+	public CorrelationRegistry(HashedWheelTimer timer) {
+		this.timer = timer;
+		// 다른 클라이언트의 응답과 섞이지 않도록 인스턴스마다 접두어를 다르게 합니다.
+		this.prefix = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36) + '.';
+	}
+
+	/**
+	 * 응답까지 걸린 시간을 {@link Metrics#RPC_ROUND_TRIP}에, 타임아웃을 {@link Metrics#RPC_TIMEOUTS}에 기록한다.
+	 *
+	 * @param metrics 기록할 지표
+	 * @return 이 레지스트리
+	 */
+	public CorrelationRegistry<T> withMetrics(Metrics metrics) {
+		this.roundTrip = metrics.histogram(Metrics.RPC_ROUND_TRIP);
+		this.timeouts = metrics.counter(Metrics.RPC_TIMEOUTS);
+		return this;
+	}
+
+	/**
+	 * 새 호출을 등록한다.
+	 *
+	 * @param timeout 응답을 기다릴 시간
+	 * @param unit    시간 단위
+	 * @return 등록된 호출
+	 */
+	public Call<T> register(long timeout, TimeUnit unit) {
+		long id = sequence.incrementAndGet();
+		Call<T> call = new Call<>(id, prefix + Long.toString(id, 36));
+		// 응답이 아주 빨리 오더라도 취소할 수 있도록 타임아웃을 먼저 예약합니다.
+		call.timeout = timer.newTimeout(() -> {
+			calls.remove(id, call);
+			LongAdder counter = timeouts;
+			if (null != counter) {
+				counter.increment();
+			}
+			call.future.completeExceptionally(
+					new TimeoutException("No reply within " + unit.toMillis(timeout) + "ms: " + call.correlationId));
+		}, timeout, unit);
+		calls.put(id, call);
+		if (call.timeout.isExpired()) {
+			calls.remove(id, call);
+		}
+		return call;
+	}
+
+	/**
+	 * 응답으로 호출을 완료시킨다.
+	 *
+	 * @param correlationId 응답 메시지의 correlation id
+	 * @param value         응답
+	 * @return 기다리던 호출이 있었다면 {@code true}
+	 */
+	public boolean complete(String correlationId, T value) {
+		Call<T> call = remove(correlationId);
+		if (null == call) {
+			return false;
+		}
+		LatencyHistogram histogram = roundTrip;
+		if (null != histogram) {
+			histogram.recordSince(call.startedAt);
+		}
+		call.future.complete(value);
+		return true;
+	}
+
+	/**
+	 * 호출을 실패로 완료시킨다.
+	 *
+	 * @param correlationId 호출의 correlation id
+	 * @param cause         실패 원인
+	 * @return 기다리던 호출이 있었다면 {@code true}
+	 */
+	public boolean fail(String correlationId, Throwable cause) {
+		Call<T> call = remove(correlationId);
+		if (null == call) {
+			return false;
+		}
+		call.future.completeExceptionally(cause);
+		return true;
+	}
+
+	/**
+	 * @return 응답을 기다리는 호출 개수
+	 */
+	public int size() {
+		return calls.size();
+	}
+
+	/**
+	 * 기다리는 호출을 모두 실패로 완료시킨다.
+	 */
+	@Override
+	public void close() {
+		for (Call<T> call : calls.values()) {
+			if (calls.remove(call.id, call)) {
+				call.timeout.cancel();
+				call.future.completeExceptionally(new IllegalStateException("RPC client closed."));
+			}
+		}
+	}
+
+	private Call<T> remove(String correlationId) {
+		// 문자열을 잘라내지 않고 접두어 뒤의 아이디만 읽습니다.
+		if (null == correlationId || correlationId.length() <= prefix.length() || !correlationId.startsWith(prefix)) {
+			return null;
+		}
+		long id;
+		try {
+			id = Long.parseLong(correlationId, prefix.length(), correlationId.length(), 36);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		Call<T> call = calls.remove(id);
+		if (null != call) {
+			call.timeout.cancel();
+		}
+		return call;
+	}
+
+	/**
+	 * 등록된 호출.
+	 *
+	 * @param <T> 응답 타입
+	 */
+	public static final class Call<T> {
+		private final long id;
+		private final String correlationId;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private final long startedAt = System.nanoTime();
+		private HashedWheelTimer.Timeout timeout;
+
+		private Call(long id, String correlationId) {
+			this.id = id;
+			this.correlationId = correlationId;
+		}
+
+		public String getCorrelationId() {
+			return correlationId;
+		}
+
+		public CompletableFuture<T> getFuture() {
+			return future;
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.rpc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 해시드 휠 타이머.
+ * <p>
+ * 수많은 타임아웃을 등록했다가 대부분 취소하는 용도에 맞춘 타이머다.
+ * 등록과 취소는 O(1)이고, 타이머 스레드 하나가 틱마다 바퀴의 한 칸만 살펴본다.
+ * 정확도는 틱 간격만큼이다. 만료된 작업은 타이머 스레드에서 실행되므로 짧아야 한다.
+ *
+ * @author Elex
+ * @see "http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf"
+ */
+@Slf4j
+public class HashedWheelTimer implements AutoCloseable {
+	private static final int INIT = 0;
+	private static final int STARTED = 1;
+	private static final int STOPPED = 2;
+
+	private final String name;
+	private final long tickNanos;
+	private final int mask;
+	private final Queue<Timeout>[] wheel;
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger state = new AtomicInteger(INIT);
+	private volatile long startTime;
+	private Thread worker;
+
+	/**
+	 * @param name          타이머 스레드 이름
+	 * @param tickDuration  틱 간격
+	 * @param unit          틱 간격 단위
+	 * @param ticksPerWheel 바퀴의 칸 수. 2의 거듭제곱으로 올림한다.
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0 || ticksPerWheel <= 0) {
+			throw new IllegalArgumentException("tickDuration and ticksPerWheel must be positive.");
+		}
+		this.name = name;
+		this.tickNanos = unit.toNanos(tickDuration);
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		// 제네릭 배열은 만들 수 없으므로 원시 타입으로 만듭니다.
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Queue<Timeout>[] wheel = new Queue[size];
+		this.wheel = wheel;
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * 작업을 예약한다. 타이머 스레드는 처음 예약할 때 시작된다.
+	 *
+	 * @param task  만료되면 실행할 작업
+	 * @param delay 지연 시간
+	 * @param unit  지연 시간 단위
+	 * @return 취소할 때 쓸 핸들
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		start();
+		// 다른 스레드가 타이머를 시작하는 중이라면 시작 시각이 정해질 때까지 잠깐 기다립니다.
+		while (0 == startTime) {
+			Thread.onSpinWait();
+		}
+		long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+		Timeout timeout = new Timeout(task, deadline);
+		pending.add(timeout);
+		return timeout;
+	}
+
+	private void start() {
+		switch (state.get()) {
+			case INIT:
+				if (state.compareAndSet(INIT, STARTED)) {
+					long now = System.nanoTime();
+					// 0은 아직 시작하지 않았다는 표시로 씁니다.
+					startTime = 0 == now ? 1 : now;
+					worker = new Thread(this::run, name);
+					worker.setDaemon(true);
+					worker.start();
+				}
+				break;
+			case STARTED:
+				break;
+			default:
+				throw new IllegalStateException("Timer is stopped: " + name);
+		}
+	}
+
+	private void run() {
+		long tick = 0;
+		while (state.get() == STARTED) {
+			long deadline = tickNanos * (tick + 1);
+			long sleep;
+			while ((sleep = deadline - (System.nanoTime() - startTime)) > 0 && state.get() == STARTED) {
+				LockSupport.parkNanos(this, sleep);
+			}
+			transferPending(tick);
+			expire(wheel[(int) (tick & mask)], deadline);
+			tick++;
+		}
+	}
+
+	/**
+	 * 새로 예약된 작업을 바퀴에 옮긴다. 타이머 스레드에서만 호출된다.
+	 */
+	private void transferPending(long tick) {
+		Timeout timeout;
+		while (null != (timeout = pending.poll())) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			long calculated = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+			// 이미 지난 작업은 이번 칸에 넣어 바로 만료시킵니다.
+			long ticks = Math.max(calculated, tick);
+			wheel[(int) (ticks & mask)].add(timeout);
+		}
+	}
+
+	private void expire(Queue<Timeout> bucket, long deadline) {
+		Iterator<Timeout> iterator = bucket.iterator();
+		while (iterator.hasNext()) {
+			Timeout timeout = iterator.next();
+			if (timeout.isCancelled()) {
+				iterator.remove();
+			} else if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+				iterator.remove();
+				timeout.expire();
+			} else {
+				timeout.remainingRounds--;
+			}
+		}
+	}
+
+	/**
+	 * 타이머 스레드를 멈춘다. 아직 만료되지 않은 작업은 실행되지 않는다.
+	 */
+	@Override
+	public void close() {
+		if (state.getAndSet(STOPPED) == STARTED) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	/**
+	 * 예약된 작업의 핸들.
+	 */
+	public static final class Timeout {
+		private static final int WAITING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		private long remainingRounds;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return 만료되기 전에 취소했다면 {@code true}
+		 */
+		public boolean cancel() {
+			return state.compareAndSet(WAITING, CANCELLED);
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(WAITING, EXPIRED)) {
+				return;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				log.warn("Timer task failed.", e);
+			}
+		}
+	}
+}
@@ -6,92 +6,237 @@
 package kr.pe.elex.rabbitmq.rpc;
 
 import com.rabbitmq.client.*;
+import kr.pe.elex.rabbitmq.codec.TextCodec;
+import kr.pe.elex.rabbitmq.consumer.AckCoalescer;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.LatencyStamp;
+import kr.pe.elex.rabbitmq.metrics.LatencyTracker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.pool.PooledChannel;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.topology.TopologyRegistry;
+import kr.pe.elex.rabbitmq.trace.MessageTracer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static kr.pe.elex.rabbitmq.rpc.HelloRabbitServer.EXCHANGE;
 import static kr.pe.elex.rabbitmq.rpc.HelloRabbitServer.ROUTING_KEY;
 
 /**
  * {@link AMQP.BasicProperties.Builder#replyTo(String)}를 사용해서 응답받을 라우팅-키를 전달할 수 있다.
+ * <p>
+ * 클라이언트마다 다른 라우팅-키로 응답을 받으므로, 클라이언트가 늘어나도 응답이 다른 클라이언트의 큐로 복사되지 않는다.
+ * {@link ReplyMode#DIRECT}를 쓰면 응답용 큐도 만들지 않는다.
+ * <p>
+ * 응답을 기다리는 호출은 {@link CorrelationRegistry}에 보관되고, 정해진 시간 안에 응답이 오지 않으면
+ * {@link TimeoutException}으로 완료된다.
+ * <p>
+ * {@code -Delex.latency=true}로 켜면 요청에 보낸 시각과 일련번호를 찍고, 응답의 지연 시간을 {@link #getLatency()}에 모은다.
  *
  * @author Elex
  * @see "https://www.rabbitmq.com/tutorials/tutorial-six-java.html"
  */
 @Slf4j
 public class HelloRabbit {
-	private static final String CLIENT_ROUTING_KEY = "client-routing-key";
-	private Connection connection;
+	private static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+	private static final MessageTracer TRACER = MessageTracer.shared();
+	private static final int ACK_BATCH = 32;
+	// 모든 클라이언트가 타이머 스레드 하나를 함께 씁니다.
+	private static final HashedWheelTimer TIMER = new HashedWheelTimer("elex-rpc-timer", 10, TimeUnit.MILLISECONDS, 512);
+
+	private final ConnectionManager connectionManager;
+	private final ReplyMode replyMode;
+	// Direct Reply-To에서는 여러 스레드가 소비용 채널 하나로 발행합니다. 채널에 동시에 발행하면 프레임이 섞이므로 하나씩 보냅니다.
+	private final Object publishLock = new Object();
 	private Channel channel;
-	private String queue;
-
-	private Map<UUID, Handler> handlers = new HashMap<>();
-
-	HelloRabbit() throws IOException, TimeoutException {
-		ConnectionFactory connectionFactory = new ConnectionFactory();
-		connectionFactory.setHost("localhost");
-		connectionFactory.setPort(5672);
-		connectionFactory.setUsername("elex");
-		connectionFactory.setPassword("test");
-		connectionFactory.setVirtualHost("/");
-
-		connection = connectionFactory.newConnection();
-		channel = connection.createChannel();
-
-		// 익스체인지는 브로커가 메시지를 받는 곳입니다.
-		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.DIRECT, true);
-		// 큐는 브로커가 메시지를 보내는 곳입니다.
-		queue = channel.queueDeclare().getQueue();
-		// 익스체인지와 큐를 묶습니다.
-		channel.queueBind(queue, EXCHANGE, CLIENT_ROUTING_KEY);
-
-		// 큐로부터 메시지를 받습니다.
-		channel.basicConsume(queue, false, queue, new DefaultConsumer(channel) {
-			@Override
-			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				// 메시지 아이디로 핸들러를 가져옵니다.
-				Handler handler = handlers.remove(UUID.fromString(properties.getCorrelationId()));
-				if (null != handler) {
-					handler.onResponse(new String(body, StandardCharsets.UTF_8));
-					channel.basicAck(envelope.getDeliveryTag(), false);
-				}
+	private String replyTo;
+	private AckCoalescer ackCoalescer;
+
+	private final CorrelationRegistry<String> calls = new CorrelationRegistry<String>(TIMER)
+			.withMetrics(Metrics.shared());
+	private final AtomicLong replies = new AtomicLong();
+	private final AtomicLong unmatchedReplies = new AtomicLong();
+	private final LatencyStamp stamp = new LatencyStamp("rpc.client");
+	private final LatencyTracker latency = new LatencyTracker(Metrics.shared(), "rpc.reply");
+
+	HelloRabbit() throws IOException {
+		this(ConnectionManager.shared(), ReplyMode.QUEUE);
+	}
+
+	HelloRabbit(ConnectionManager connectionManager, ReplyMode replyMode) throws IOException {
+		this.connectionManager = connectionManager;
+		this.replyMode = replyMode;
+		// 소비와 선언에 쓸 전용 채널입니다. 연결은 다른 클라이언트와 함께 씁니다.
+		channel = connectionManager.createChannel();
+
+		// 익스체인지는 브로커가 메시지를 받는 곳입니다. 다른 클라이언트가 이미 선언했다면 다시 보내지 않습니다.
+		TopologyRegistry topology = connectionManager.getTopology();
+		topology.declare(channel, Topology.builder()
+				.exchange(EXCHANGE, BuiltinExchangeType.DIRECT, true)
+				.build());
+
+		if (replyMode == ReplyMode.DIRECT) {
+			// 가상 큐로부터 응답을 받습니다. 큐를 만들거나 묶지 않으며, 반드시 autoAck를 써야 합니다.
+			replyTo = ReplyMode.DIRECT_REPLY_TO;
+			channel.basicConsume(replyTo, true, new ReplyConsumer(channel));
+		} else {
+			// 큐는 브로커가 메시지를 보내는 곳입니다.
+			String queue = channel.queueDeclare().getQueue();
+			// 큐 이름을 라우팅-키로 써서 익스체인지와 큐를 묶습니다. 이 클라이언트만 쓰는 라우팅-키가 됩니다.
+			topology.declare(channel, Topology.builder()
+					.binding(queue, EXCHANGE, queue)
+					.build());
+			replyTo = queue;
+			// 응답의 ack는 모아서 보냅니다.
+			ackCoalescer = new AckCoalescer(channel, ACK_BATCH)
+					.start(WorkerExecutors.sharedScheduler(), 50, TimeUnit.MILLISECONDS);
+
+			// 큐로부터 메시지를 받습니다.
+			channel.basicConsume(queue, false, queue, new ReplyConsumer(channel));
+		}
+	}
+
+	public void publish(String message, Handler handler) throws IOException {
+		call(message).whenComplete((response, e) -> {
+			if (null == e) {
+				handler.onResponse(response);
+			} else {
+				log.error("RPC fail..", e);
 			}
 		});
 	}
 
-	public void publish(String message, Handler handler) throws IOException {
-		UUID uuid = UUID.randomUUID(); // 메시지 아이디로 사용됩니다.
-		handlers.put(uuid, handler); // 응답 처리를 위해 핸들러를 저장해둡니다.
-
-		// 익스체인지에 메시지를 보냅니다.
-		channel.basicPublish(EXCHANGE, ROUTING_KEY,
-				new AMQP.BasicProperties.Builder()
-						.replyTo(CLIENT_ROUTING_KEY)
-						.contentEncoding(StandardCharsets.UTF_8.name())
-						.contentType("text/plain")
-						.correlationId(uuid.toString())
-						.deliveryMode(MessageProperties.PERSISTENT_BASIC.getDeliveryMode())
-						.build(),
-				message.getBytes(StandardCharsets.UTF_8));
-		log.info("Tx: {}", message);
+	/**
+	 * 요청을 보낸다. 응답은 기본 타임아웃 안에 와야 한다.
+	 *
+	 * @param message 요청
+	 * @return 응답을 받으면 완료된다.
+	 */
+	public CompletableFuture<String> call(String message) throws IOException {
+		return call(message, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 요청을 보낸다.
+	 *
+	 * @param message 요청
+	 * @param timeout 응답을 기다릴 시간
+	 * @param unit    시간 단위
+	 * @return 응답을 받으면 완료되고, 시간 안에 응답이 없으면 {@link TimeoutException}으로 완료된다.
+	 */
+	public CompletableFuture<String> call(String message, long timeout, TimeUnit unit) throws IOException {
+		// 응답 처리를 위해 호출을 저장해둡니다. 호출 아이디는 메시지 아이디로 사용됩니다.
+		CorrelationRegistry.Call<String> call = calls.register(timeout, unit);
+
+		AMQP.BasicProperties properties = stamp.stamp(ROUTING_KEY, new AMQP.BasicProperties.Builder()
+				.replyTo(replyTo)
+				.contentEncoding(TextCodec.CONTENT_ENCODING)
+				.contentType(TextCodec.CONTENT_TYPE)
+				.correlationId(call.getCorrelationId())
+				.deliveryMode(MessageProperties.PERSISTENT_BASIC.getDeliveryMode())
+				.build());
+		byte[] body = PayloadBuffer.local().append(message).body();
+		try {
+			if (replyMode == ReplyMode.DIRECT) {
+				// Direct Reply-To는 응답을 받는 채널로 요청을 보내야 합니다.
+				synchronized (publishLock) {
+					channel.basicPublish(EXCHANGE, ROUTING_KEY, properties, body);
+				}
+			} else {
+				// 익스체인지에 메시지를 보냅니다. 채널은 발행할 때만 풀에서 빌립니다.
+				try (PooledChannel pooled = connectionManager.borrow()) {
+					pooled.getChannel().basicPublish(EXCHANGE, ROUTING_KEY, properties, body);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// 닫힌 채널은 AlreadyClosedException을 던집니다. 어느 쪽이든 응답은 오지 않으므로 바로 실패시킵니다.
+			calls.fail(call.getCorrelationId(), e);
+			throw e;
+		}
+		TRACER.tx(EXCHANGE, ROUTING_KEY, body);
+		return call.getFuture();
+	}
+
+	/**
+	 * @return 받은 응답 개수
+	 */
+	public long getReplies() {
+		return replies.get();
+	}
+
+	/**
+	 * @return 응답을 기다리는 호출 개수
+	 */
+	public int getPendingCalls() {
+		return calls.size();
+	}
+
+	/**
+	 * @return 기다리는 호출이 없어 버려진 응답 개수
+	 */
+	public long getUnmatchedReplies() {
+		return unmatchedReplies.get();
+	}
+
+	/**
+	 * @return 응답 메시지에 보낸 ack 프레임 개수. ack는 모아서 보내므로 응답 개수보다 적다.
+	 */
+	public long getAcks() {
+		return null == ackCoalescer ? 0 : ackCoalescer.getAckFrames();
+	}
+
+	/**
+	 * @return 받은 응답의 지연 시간. 서버가 응답에 헤더를 찍었을 때만 모인다.
+	 */
+	public LatencyTracker getLatency() {
+		return latency;
+	}
+
+	public ReplyMode getReplyMode() {
+		return replyMode;
 	}
 
 	public void close() throws IOException, TimeoutException {
+		if (null != ackCoalescer) {
+			ackCoalescer.close();
+		}
 		channel.close();
-		connection.close();
-		handlers.clear();
+		calls.close();
 	}
 
 	interface Handler {
 		void onResponse(String message);
 	}
 
+	private class ReplyConsumer extends DefaultConsumer {
+		ReplyConsumer(Channel channel) {
+			super(channel);
+		}
+
+		@Override
+		public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+			replies.incrementAndGet();
+			latency.record(envelope, properties);
+			TRACER.rx(replyTo, envelope.getRoutingKey(), body);
+			// 메시지 아이디로 기다리던 호출을 찾아 완료시킵니다.
+			if (!calls.complete(properties.getCorrelationId(), new String(body, StandardCharsets.UTF_8))) {
+				unmatchedReplies.incrementAndGet();
+			}
+			if (replyMode == ReplyMode.QUEUE) {
+				// 이미 타임아웃된 호출의 응답이라도 ack를 보내야 큐에 쌓이지 않습니다.
+				ackCoalescer.ack(envelope.getDeliveryTag());
+			}
+		}
+	}
+
 	public static void main(String... args) throws IOException, TimeoutException {
 		HelloRabbitServer server = new HelloRabbitServer();
 		HelloRabbit client = new HelloRabbit();
@@ -113,8 +258,10 @@ public class HelloRabbit {
 		} catch (InterruptedException e) {
 			log.error("Interrupted..", e);
 		}
+		log.info("Latency {} / {}", server.getLatency().report(), client.getLatency().report());
 		client.close();
 		server.close();
+		ConnectionManager.shared().close();
 	}
 
 }
@@ -6,72 +6,235 @@
 package kr.pe.elex.rabbitmq.rpc;
 
 import com.rabbitmq.client.*;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.LatencyStamp;
+import kr.pe.elex.rabbitmq.metrics.LatencyTracker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import kr.pe.elex.rabbitmq.payload.PayloadBufferPool;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.pool.PooledChannel;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.trace.MessageTracer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
+ * RPC 서버.
+ * <p>
+ * 요청은 컨슈머의 디스패치 스레드가 아니라 작업 스레드 풀에서 처리한다.
+ * 동시에 처리하는 요청의 개수는 {@link Channel#basicQos(int)}로 제한하고,
+ * 응답을 보낸 다음에 ack를 보내므로 처리 중에 서버가 죽더라도 요청은 다른 서버로 다시 전달된다.
+ * <p>
+ * 요청에 보낸 시각이 찍혀 있으면 {@link #getLatency()}에 요청의 지연 시간을 모으고, {@code -Delex.latency=true}이면 응답에도 찍는다.
+ *
  * @author Elex
  * @see "https://www.rabbitmq.com/tutorials/tutorial-six-java.html"
  */
 @Slf4j
 public class HelloRabbitServer {
-	static final String EXCHANGE = "elex.rpc.exchange";
-	static final String QUEUE = "elex.rpc.queue";
-	static final String ROUTING_KEY = "elex-routing-key";
+	/**
+	 * 요청을 받는 익스체인지. 다이렉트이고 지워지지 않는다.
+	 */
+	public static final String EXCHANGE = "elex.rpc.exchange";
+	/**
+	 * 서버들이 나눠 받는 요청 큐
+	 */
+	public static final String QUEUE = "elex.rpc.queue";
+	/**
+	 * 요청을 보낼 라우팅-키
+	 */
+	public static final String ROUTING_KEY = "elex-routing-key";
+	private static final MessageTracer TRACER = MessageTracer.shared();
+	// 같은 큐를 나눠 받는 서버들이 함께 씁니다.
+	private static final LatencyTracker LATENCY = new LatencyTracker(Metrics.shared(), "rpc.request");
+	private static final Topology TOPOLOGY = Topology.builder()
+			.exchange(EXCHANGE, BuiltinExchangeType.DIRECT, true)
+			.queue(QUEUE, false, false, false)
+			.binding(QUEUE, EXCHANGE, ROUTING_KEY)
+			.build();
 
-	private Connection connection;
+	private final ConnectionManager connectionManager;
+	private final PayloadHandler payloadHandler;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	// 기본 실행기는 요청마다 가상 스레드를 만들 수 있으므로 응답 버퍼는 스레드가 아니라 풀에 둡니다.
+	private final PayloadBufferPool buffers;
 	private Channel channel;
+	private String consumerTag;
+	private final LatencyStamp stamp = new LatencyStamp("rpc.server");
 
-	HelloRabbitServer() throws IOException, TimeoutException {
-		ConnectionFactory connectionFactory = new ConnectionFactory();
-		connectionFactory.setHost("localhost");
-		connectionFactory.setPort(5672);
-		connectionFactory.setUsername("elex");
-		connectionFactory.setPassword("test");
-		connectionFactory.setVirtualHost("/");
-
-		connection = connectionFactory.newConnection();
-		channel = connection.createChannel();
-
-		// 익스체인지는 브로커가 메시지를 받는 곳입니다.
-		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.DIRECT, true);
-		// 큐는 브로커가 메시지를 보내는 곳입니다.
-		channel.queueDeclare(QUEUE, false, false, false, null);
-		// 익스체인지와 큐를 묶습니다.
-		channel.queueBind(QUEUE, EXCHANGE, ROUTING_KEY);
-
-		// 큐로부터 메시지를 받습니다.
-		channel.basicConsume(QUEUE, true, ROUTING_KEY, new DefaultConsumer(channel) {
+	HelloRabbitServer() throws IOException {
+		this(ConnectionManager.shared());
+	}
+
+	HelloRabbitServer(ConnectionManager connectionManager) throws IOException {
+		this(connectionManager, UPPER_CASE,
+				WorkerExecutors.virtualOrFixed("elex-rpc-worker", WorkerExecutors.cores()), true,
+				WorkerExecutors.cores() * 2);
+	}
+
+	/**
+	 * @param connectionManager 연결 관리자
+	 * @param requestHandler    요청 처리기
+	 * @param executor          요청을 처리할 실행기. 서버를 닫아도 종료되지 않는다.
+	 * @param prefetch          동시에 처리할 최대 요청 개수
+	 */
+	public HelloRabbitServer(ConnectionManager connectionManager, RequestHandler requestHandler,
+	                         ExecutorService executor, int prefetch) throws IOException {
+		this(connectionManager, (request, response) -> response.append(requestHandler.handle(request.decode())),
+				executor, false, prefetch);
+	}
+
+	/**
+	 * 문자열로 디코딩하지 않고 본문을 그대로 처리한다.
+	 *
+	 * @param connectionManager 연결 관리자
+	 * @param payloadHandler    요청 처리기
+	 * @param executor          요청을 처리할 실행기. 서버를 닫아도 종료되지 않는다.
+	 * @param prefetch          동시에 처리할 최대 요청 개수
+	 */
+	public HelloRabbitServer(ConnectionManager connectionManager, PayloadHandler payloadHandler,
+	                         ExecutorService executor, int prefetch) throws IOException {
+		this(connectionManager, payloadHandler, executor, false, prefetch);
+	}
+
+	private HelloRabbitServer(ConnectionManager connectionManager, PayloadHandler payloadHandler,
+	                          ExecutorService executor, boolean ownsExecutor, int prefetch) throws IOException {
+		this.connectionManager = connectionManager;
+		this.payloadHandler = payloadHandler;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		// 동시에 처리하는 요청은 prefetch를 넘지 않습니다.
+		this.buffers = new PayloadBufferPool(prefetch);
+		// 소비와 선언에 쓸 전용 채널입니다. 연결은 다른 클라이언트와 함께 씁니다.
+		channel = connectionManager.createChannel();
+
+		// 익스체인지와 큐를 선언하고 묶습니다. 다른 클라이언트가 이미 선언했다면 다시 보내지 않습니다.
+		connectionManager.getTopology().declare(channel, TOPOLOGY);
+
+		// ack를 보내지 않은 요청이 이만큼 쌓이면 브로커가 더 보내지 않습니다. 즉, 동시에 처리할 요청의 개수입니다.
+		channel.basicQos(prefetch);
+
+		// 큐로부터 메시지를 받습니다. 처리가 끝난 다음에 직접 ack를 보냅니다.
+		consumerTag = channel.basicConsume(QUEUE, false, ROUTING_KEY, new DefaultConsumer(channel) {
 			@Override
 			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				log.info("Server Rx: {}", new String(body, StandardCharsets.UTF_8));
+				LATENCY.record(envelope, properties);
+				try {
+					// 디스패치 스레드는 요청을 넘기고 바로 돌아갑니다.
+					executor.execute(() -> handle(envelope, properties, body));
+				} catch (RejectedExecutionException e) {
+					// 서버가 닫히는 중입니다. 다른 서버가 처리하도록 돌려보냅니다.
+					channel.basicNack(envelope.getDeliveryTag(), false, true);
+				}
+			}
+		});
+	}
+
+	private void handle(Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+		long deliveryTag = envelope.getDeliveryTag();
+		PayloadBuffer response = buffers.acquire();
+		try {
+			// 본문은 한 번도 디코딩하지 않습니다.
+			Payload request = Payload.wrap(body);
+			TRACER.rx(QUEUE, envelope.getRoutingKey(), body);
 
-				String queue = properties.getReplyTo();
-				String messageId = properties.getCorrelationId();
-				String message = new String(body, StandardCharsets.UTF_8).toUpperCase();
+			String replyTo = properties.getReplyTo();
+			String messageId = properties.getCorrelationId();
+			payloadHandler.handle(request, response);
 
-				channel.basicPublish(EXCHANGE, queue,
-						new AMQP.BasicProperties.Builder()
+			// Direct Reply-To 응답은 기본 익스체인지로 보내야 클라이언트의 채널로 바로 전달됩니다.
+			// 그 밖의 응답은 클라이언트마다 다른 라우팅-키로 보냅니다.
+			String exchange = ReplyMode.isDirectReplyTo(replyTo) ? "" : EXCHANGE;
+			// 여러 작업 스레드가 동시에 응답을 보내므로 풀에서 채널을 빌립니다.
+			byte[] reply = response.body();
+			try (PooledChannel pooled = connectionManager.borrow()) {
+				pooled.getChannel().basicPublish(exchange, replyTo,
+						stamp.stamp(replyTo, new AMQP.BasicProperties.Builder()
 								.correlationId(messageId)
-								.build(),
-						message.getBytes(StandardCharsets.UTF_8));
-				log.info("Server Tx: {}", message);
+								.build()),
+						reply);
 			}
-		});
+			TRACER.tx(exchange, replyTo, reply);
+
+			// 응답을 보낸 다음에 ack를 보냅니다.
+			channel.basicAck(deliveryTag, false);
+		} catch (Exception e) {
+			log.error("Request fail..", e);
+			try {
+				// 처리할 수 없는 요청은 버립니다. 다시 넣으면 같은 오류가 반복됩니다.
+				channel.basicReject(deliveryTag, false);
+			} catch (IOException | AlreadyClosedException ex) {
+				log.warn("Failed to reject a request.", ex);
+			}
+		} finally {
+			buffers.release(response);
+		}
 	}
 
+	/**
+	 * @return 이 프로세스의 서버들이 함께 쓰는 요청 지연 시간 트래커
+	 */
+	public LatencyTracker getLatency() {
+		return LATENCY;
+	}
 
 	public void close() throws IOException, TimeoutException {
+		// 새 요청을 그만 받고, 처리 중인 요청의 ack를 보낼 때까지 기다린 다음 채널을 닫습니다.
+		channel.basicCancel(consumerTag);
+		if (ownsExecutor) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+					log.warn("Requests still running after close.");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 		channel.close();
-		connection.close();
 	}
 
+	/**
+	 * 요청을 처리해서 응답을 만든다. 여러 스레드에서 동시에 호출된다.
+	 */
+	@FunctionalInterface
+	public interface RequestHandler {
+		String handle(String request) throws Exception;
+	}
+
+	/**
+	 * 요청 본문을 읽어서 응답 본문을 쓴다. 여러 스레드에서 동시에 호출된다.
+	 * <p>
+	 * 요청 뷰와 응답 버퍼는 이 호출 안에서만 유효하다.
+	 * 응답 버퍼는 서버의 풀에서 빌린 것이므로 붙잡아두지 않는다. 처리기 안에서 {@link PayloadBuffer#local()}을 써도 된다.
+	 */
+	@FunctionalInterface
+	public interface PayloadHandler {
+		void handle(Payload request, PayloadBuffer response) throws Exception;
+	}
+
+	/**
+	 * 요청을 대문자로 바꿔서 돌려준다. ASCII이면 바이트 단위로 바꾸고, 아니면 디코딩한다.
+	 */
+	static final PayloadHandler UPPER_CASE = (request, response) -> {
+		if (!request.isAscii()) {
+			response.append(request.decode().toUpperCase());
+			return;
+		}
+		for (int i = 0, n = request.length(); i < n; i++) {
+			byte b = request.get(i);
+			response.put(b >= 'a' && b <= 'z' ? (byte) (b - ('a' - 'A')) : b);
+		}
+	};
+
 	interface Handler {
 		void onResponse(String message);
 	}
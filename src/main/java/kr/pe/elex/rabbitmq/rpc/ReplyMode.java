@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.rpc;
+
+/**
+ * RPC 클라이언트가 응답을 받는 방법.
+ *
+ * @author Elex
+ */
+public enum ReplyMode {
+	/**
+	 * 클라이언트마다 이름이 다른 전용 큐를 만들고, 큐 이름을 라우팅-키로 써서 익스체인지에 묶는다.
+	 * 응답은 그 클라이언트의 큐로만 간다.
+	 */
+	QUEUE,
+	/**
+	 * 큐를 만들지 않고 {@code amq.rabbitmq.reply-to} 가상 큐로 응답을 받는다.
+	 * 응답은 큐에 저장되지 않고 바로 클라이언트의 채널로 전달되며, ack도 필요 없다.
+	 * 요청은 응답을 받는 채널로 보내야 한다.
+	 *
+	 * @see "https://www.rabbitmq.com/direct-reply-to.html"
+	 */
+	DIRECT;
+
+	/**
+	 * Direct Reply-To에 쓰는 가상 큐 이름
+	 */
+	static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
+	/**
+	 * @param replyTo 요청 메시지의 replyTo
+	 * @return Direct Reply-To로 보내야 하는 응답인지 여부
+	 */
+	static boolean isDirectReplyTo(String replyTo) {
+		return null != replyTo && replyTo.startsWith(DIRECT_REPLY_TO);
+	}
+}
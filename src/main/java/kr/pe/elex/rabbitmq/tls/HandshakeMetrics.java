@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLSession;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TLS 핸드셰이크를 센다. 전체 핸드셰이크와 세션 재개를 나눠서 횟수와 걸린 시간을 모으고,
+ * 협상된 프로토콜과 암호 스위트별 연결 수도 센다.
+ * <p>
+ * 연결 하나하나는 DEBUG 로그로 남긴다.
+ *
+ * @author Elex
+ * @see HandshakeTimingSocketFactory
+ */
+@Slf4j
+public final class HandshakeMetrics {
+	private final LongAdder fullHandshakes = new LongAdder();
+	private final LongAdder fullNanos = new LongAdder();
+	private final LongAdder resumedHandshakes = new LongAdder();
+	private final LongAdder resumedNanos = new LongAdder();
+	private final Map<String, LongAdder> negotiated = new ConcurrentHashMap<>();
+
+	void record(SSLSession session, long nanos, boolean resumed) {
+		if (resumed) {
+			resumedHandshakes.increment();
+			resumedNanos.add(nanos);
+		} else {
+			fullHandshakes.increment();
+			fullNanos.add(nanos);
+		}
+		negotiated.computeIfAbsent(session.getProtocol() + " " + session.getCipherSuite(), k -> new LongAdder())
+				.increment();
+		if (log.isDebugEnabled()) {
+			log.debug("TLS handshake with {}:{} {} {} {} in {} us", session.getPeerHost(), session.getPeerPort(),
+					resumed ? "resumed" : "full", session.getProtocol(), session.getCipherSuite(),
+					TimeUnit.NANOSECONDS.toMicros(nanos));
+		}
+	}
+
+	/**
+	 * @return 전체 핸드셰이크 횟수
+	 */
+	public long getFullHandshakes() {
+		return fullHandshakes.sum();
+	}
+
+	/**
+	 * @return 세션을 재개한 핸드셰이크 횟수
+	 */
+	public long getResumedHandshakes() {
+		return resumedHandshakes.sum();
+	}
+
+	/**
+	 * @return 전체 핸드셰이크에 걸린 시간의 합 (나노초)
+	 */
+	public long getFullNanos() {
+		return fullNanos.sum();
+	}
+
+	/**
+	 * @return 세션을 재개한 핸드셰이크에 걸린 시간의 합 (나노초)
+	 */
+	public long getResumedNanos() {
+		return resumedNanos.sum();
+	}
+
+	/**
+	 * @return 전체 핸드셰이크의 평균 시간 (나노초)
+	 */
+	public long getAverageFullNanos() {
+		return average(fullNanos, fullHandshakes);
+	}
+
+	/**
+	 * @return 세션을 재개한 핸드셰이크의 평균 시간 (나노초)
+	 */
+	public long getAverageResumedNanos() {
+		return average(resumedNanos, resumedHandshakes);
+	}
+
+	/**
+	 * @return "프로토콜 암호스위트"별 연결 수
+	 */
+	public Map<String, Long> getNegotiated() {
+		Map<String, Long> counts = new TreeMap<>();
+		negotiated.forEach((key, count) -> counts.put(key, count.sum()));
+		return counts;
+	}
+
+	private static long average(LongAdder nanos, LongAdder count) {
+		long n = count.sum();
+		return 0 == n ? 0 : nanos.sum() / n;
+	}
+
+	@Override
+	public String toString() {
+		return "full=" + getFullHandshakes() + " (avg " + TimeUnit.NANOSECONDS.toMicros(getAverageFullNanos()) + " us)"
+				+ ", resumed=" + getResumedHandshakes() + " (avg " + TimeUnit.NANOSECONDS.toMicros(getAverageResumedNanos()) + " us)"
+				+ ", negotiated=" + getNegotiated();
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.Socket;
+
+/**
+ * TCP로 연결한 뒤에 TLS를 얹는 소켓.
+ * <p>
+ * 소켓 옵션은 이 소켓에 그대로 걸리고, 읽고 쓰기만 TLS 소켓을 거친다.
+ * TLS 소켓을 만드는 동안에는 아직 {@link #ssl}이 없으므로 이 소켓의 원래 스트림을 넘겨준다.
+ *
+ * @author Elex
+ */
+final class HandshakeTimingSocket extends Socket {
+	private final HandshakeTimingSocketFactory factory;
+	private volatile SSLSocket ssl;
+
+	HandshakeTimingSocket(HandshakeTimingSocketFactory factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public void connect(SocketAddress endpoint, int timeout) throws IOException {
+		super.connect(endpoint, timeout);
+		InetSocketAddress address = (InetSocketAddress) endpoint;
+		// 세션 캐시는 호스트와 포트로 찾습니다.
+		SSLSocket layered = (SSLSocket) factory.delegate().createSocket(this, address.getHostString(), address.getPort(), true);
+		try {
+			factory.handshake(layered);
+		} catch (IOException e) {
+			layered.close();
+			throw e;
+		}
+		ssl = layered;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		SSLSocket socket = ssl;
+		return null == socket ? super.getInputStream() : socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		SSLSocket socket = ssl;
+		return null == socket ? super.getOutputStream() : socket.getOutputStream();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		SSLSocket socket = ssl;
+		if (null == socket) {
+			super.close();
+		} else {
+			// TLS 소켓은 닫으면서 close_notify를 보내고, 다시 이 메서드로 이 소켓을 닫습니다.
+			ssl = null;
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.SslContextFactory;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * 핸드셰이크 시간을 재는 소켓 팩토리.
+ * <p>
+ * RabbitMQ 클라이언트는 연결되지 않은 소켓을 만들고, 연결한 뒤, 첫 프레임을 쓸 때 핸드셰이크가 일어난다.
+ * 이 팩토리가 만드는 소켓은 TCP 연결이 끝나면 그 위에 TLS를 얹고 바로 핸드셰이크를 하므로,
+ * TCP 연결 시간을 빼고 핸드셰이크만 잴 수 있다. 결과는 {@link HandshakeMetrics}에 모은다.
+ * <p>
+ * {@link ConnectionFactory#setSocketFactory(javax.net.SocketFactory)}에 넣는다.
+ * {@link ConnectionFactory#setSslContextFactory(SslContextFactory)}를 함께 쓰면 그쪽이 먼저이므로 쓰지 않는다.
+ * 컨텍스트는 연결할 때마다 {@link SslContextFactory}에서 가져오므로 {@link ReloadingSslContext}도 넣을 수 있다.
+ * 소켓 설정기는 TLS를 얹기 전의 소켓을 받으므로, 프로토콜과 암호 스위트는 {@link TlsConfig}로 넘긴다.
+ *
+ * @author Elex
+ */
+public class HandshakeTimingSocketFactory extends SSLSocketFactory {
+	private final SslContextFactory contexts;
+	private final TlsConfig config;
+	private final HandshakeMetrics metrics;
+
+	public HandshakeTimingSocketFactory(SslContextFactory contexts, HandshakeMetrics metrics) {
+		this(contexts, TlsConfig.defaults(), metrics);
+	}
+
+	public HandshakeTimingSocketFactory(SslContextFactory contexts, TlsConfig config, HandshakeMetrics metrics) {
+		this.contexts = contexts;
+		this.config = config;
+		this.metrics = metrics;
+	}
+
+	public HandshakeMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public Socket createSocket() {
+		return new HandshakeTimingSocket(this);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = createSocket();
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		Socket socket = createSocket();
+		socket.bind(new InetSocketAddress(localHost, localPort));
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		Socket socket = createSocket();
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		Socket socket = createSocket();
+		socket.bind(new InetSocketAddress(localAddress, localPort));
+		socket.connect(new InetSocketAddress(address, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+		return handshake((SSLSocket) delegate().createSocket(socket, host, port, autoClose));
+	}
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return delegate().getDefaultCipherSuites();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return delegate().getSupportedCipherSuites();
+	}
+
+	SSLSocketFactory delegate() {
+		return contexts.create(null).getSocketFactory();
+	}
+
+	/**
+	 * 핸드셰이크를 하고 시간을 잰다. 세션이 핸드셰이크를 시작하기 전에 만들어졌으면 재개한 것이다.
+	 */
+	SSLSocket handshake(SSLSocket socket) throws IOException {
+		config.configure(socket);
+		long startMillis = System.currentTimeMillis();
+		long start = System.nanoTime();
+		socket.startHandshake();
+		long elapsed = System.nanoTime() - start;
+		metrics.record(socket.getSession(), elapsed, socket.getSession().getCreationTime() < startMillis);
+		return socket;
+	}
+}
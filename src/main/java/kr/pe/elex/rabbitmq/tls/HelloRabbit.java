@@ -6,16 +6,15 @@
 package kr.pe.elex.rabbitmq.tls;
 
 import com.rabbitmq.client.*;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.pool.PooledChannel;
+import kr.pe.elex.rabbitmq.trace.MessageTracer;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
+import java.security.GeneralSecurityException;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -29,20 +28,24 @@ public class HelloRabbit {
 	private static final String EXCHANGE = "elex.direct.exchange";
 	private static final String QUEUE = "elex.queue.01";
 	private static final String ROUTING_KEY = "elex-routing-key";
+	private static final MessageTracer TRACER = MessageTracer.shared();
+	private static final int SESSION_CACHE_SIZE = 64;
+	private static final int SESSION_TIMEOUT_SECONDS = 3600;
 
-	private Connection connection;
+	private final ConnectionManager connectionManager;
+	private final HandshakeMetrics handshakeMetrics = new HandshakeMetrics();
 	private Channel channel;
 
-	private SSLContext sslContext()
-			throws NoSuchAlgorithmException, KeyStoreException, UnrecoverableKeyException, KeyManagementException, IOException, CertificateException {
-		return TlsHelper.context(getClass().getResourceAsStream("/clientstore.p12"),
+	private SSLContext sslContext() throws GeneralSecurityException, IOException {
+		// 같은 키 저장소라면 캐시된 컨텍스트를 함께 씁니다. 세션도 재개할 수 있습니다.
+		return SslContextCache.get(KeyMaterial.pkcs12(KeyMaterial.read(getClass().getResourceAsStream("/clientstore.p12")),
 				"test".toCharArray(),
 				"test1".toCharArray(),
-				getClass().getResourceAsStream("/truststore.p12"),
-				"test".toCharArray());
+				KeyMaterial.read(getClass().getResourceAsStream("/truststore.p12")),
+				"test".toCharArray()));
 	}
 
-	HelloRabbit() throws IOException, TimeoutException, KeyManagementException, NoSuchAlgorithmException, UnrecoverableKeyException, KeyStoreException, CertificateException {
+	HelloRabbit() throws IOException, TimeoutException, GeneralSecurityException {
 		ConnectionFactory connectionFactory = new ConnectionFactory();
 		connectionFactory.setHost("localhost");
 		connectionFactory.setPort(5671); // 포트 번호가 다릅니다.
@@ -50,11 +53,19 @@ public class HelloRabbit {
 		connectionFactory.setPassword("test");
 		connectionFactory.setVirtualHost("/");
 		//connectionFactory.useSslProtocol(); // 테스트 환경에서 사용됩니다.
-		connectionFactory.useSslProtocol(sslContext());
+		// 브로커가 재시작해서 다시 연결할 때는 캐시된 세션으로 재개합니다. 핸드셰이크마다 시간을 잽니다.
+		SSLContext sslContext = TlsHelper.sessionCache(sslContext(), SESSION_CACHE_SIZE, SESSION_TIMEOUT_SECONDS);
+		// CPU에 맞는 암호 스위트를 먼저 제안합니다.
+		TlsConfig tlsConfig = new TlsConfig.Builder()
+				.protocols("TLSv1.3", "TLSv1.2")
+				.cipherSuites(TlsConfig.preferredCipherSuites())
+				.build();
+		connectionFactory.setSocketFactory(new HandshakeTimingSocketFactory(name -> sslContext, tlsConfig, handshakeMetrics));
 		//connectionFactory.enableHostnameVerification(); // 인증서 내용과 호스트네임을 검증합니다.
 
-		connection = connectionFactory.newConnection();
-		channel = connection.createChannel();
+		// TLS 연결은 이 클라이언트만 씁니다. 핸드셰이크 비용이 크므로 연결 하나를 여러 채널이 나눠 씁니다.
+		connectionManager = new ConnectionManager(connectionFactory, 1, 4);
+		channel = connectionManager.createChannel();
 
 		// 익스체인지는 브로커가 메시지를 받는 곳입니다.
 		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.DIRECT, true);
@@ -69,23 +80,31 @@ public class HelloRabbit {
 		channel.basicConsume(QUEUE, true, ROUTING_KEY, new DefaultConsumer(channel) {
 			@Override
 			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				log.info("Rx: {}", new String(body, StandardCharsets.UTF_8));
+				TRACER.rx(QUEUE, envelope.getRoutingKey(), body);
 			}
 		});
 	}
 
 	public void publish(String message) throws IOException {
-		// 익스체인지에 메시지를 보냅니다.
-		channel.basicPublish(EXCHANGE, ROUTING_KEY, null, message.getBytes(StandardCharsets.UTF_8));
-		log.info("Tx: {}", message);
+		// 익스체인지에 메시지를 보냅니다. 채널은 발행할 때만 풀에서 빌립니다.
+		byte[] body = PayloadBuffer.local().append(message).body();
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			pooled.getChannel().basicPublish(EXCHANGE, ROUTING_KEY, null, body);
+		}
+		TRACER.tx(EXCHANGE, ROUTING_KEY, body);
+	}
+
+	public HandshakeMetrics getHandshakeMetrics() {
+		return handshakeMetrics;
 	}
 
 	public void close() throws IOException, TimeoutException {
 		channel.close();
-		connection.close();
+		connectionManager.close();
+		log.info("TLS handshakes: {}", handshakeMetrics);
 	}
 
-	public static void main(String... args) throws IOException, TimeoutException, UnrecoverableKeyException, CertificateException, NoSuchAlgorithmException, KeyStoreException, KeyManagementException {
+	public static void main(String... args) throws IOException, TimeoutException, GeneralSecurityException {
 		HelloRabbit helloRabbit = new HelloRabbit();
 		for (int i = 0; i < 10; i++) {
 			helloRabbit.publish("Hello, " + i);
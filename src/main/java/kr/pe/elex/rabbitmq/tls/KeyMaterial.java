@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * {@link SSLContext}를 만드는 데 필요한 키와 인증서를 메모리에 담아둔다.
+ * <p>
+ * 내용과 비밀번호로 SHA-256 다이제스트를 만들어두고, {@link SslContextCache}의 키로 쓴다.
+ * 같은 파일을 다시 읽으면 다이제스트가 같으므로 같은 컨텍스트를 돌려받는다.
+ *
+ * @author Elex
+ */
+public final class KeyMaterial {
+	private final Format format;
+	private final byte[][] parts;
+	private final char[][] passwords;
+	private final String digest;
+
+	private enum Format {
+		PKCS12, PEM, PEM_TRUST_ONLY
+	}
+
+	private KeyMaterial(Format format, byte[][] parts, char[][] passwords) {
+		this.format = format;
+		this.parts = parts;
+		this.passwords = passwords;
+		this.digest = digest(format, parts, passwords);
+	}
+
+	/**
+	 * {@link TlsHelper#context(InputStream, char[], char[], InputStream, char[])}에 넘길 PKCS12 키 저장소.
+	 */
+	public static KeyMaterial pkcs12(byte[] keyStore, char[] keyStorePassword, char[] keyPassword,
+	                                 byte[] trustStore, char[] trustStorePassword) {
+		return new KeyMaterial(Format.PKCS12, new byte[][]{keyStore, trustStore},
+				new char[][]{keyStorePassword, keyPassword, trustStorePassword});
+	}
+
+	/**
+	 * {@link TlsHelperWithBouncyCastle#context(InputStream, InputStream, char[], InputStream)}에 넘길 PEM 파일.
+	 */
+	public static KeyMaterial pem(byte[] clientCrt, byte[] clientKey, char[] clientPassword, byte[] caCrt) {
+		return new KeyMaterial(Format.PEM, new byte[][]{clientCrt, clientKey, caCrt}, new char[][]{clientPassword});
+	}
+
+	/**
+	 * {@link TlsHelperWithBouncyCastle#context(InputStream)}에 넘길 CA 인증서 PEM 파일.
+	 */
+	public static KeyMaterial pem(byte[] caCrt) {
+		return new KeyMaterial(Format.PEM_TRUST_ONLY, new byte[][]{caCrt}, new char[0][]);
+	}
+
+	/**
+	 * 스트림을 끝까지 읽는다.
+	 */
+	public static byte[] read(InputStream inputStream) throws IOException {
+		try (InputStream in = inputStream) {
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * @return 내용과 비밀번호의 SHA-256 다이제스트 (16진수)
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * 새 {@link SSLContext}를 만든다. 캐시를 거치지 않는다.
+	 *
+	 * @return SSL 컨텍스트
+	 * @throws GeneralSecurityException 키나 인증서가 잘못된 경우
+	 * @throws IOException              읽지 못한 경우
+	 */
+	public SSLContext build() throws GeneralSecurityException, IOException {
+		switch (format) {
+			case PKCS12:
+				return TlsHelper.context(stream(0), passwords[0], passwords[1], stream(1), passwords[2]);
+			case PEM:
+				return TlsHelperWithBouncyCastle.context(stream(0), stream(1), passwords[0], stream(2));
+			default:
+				return TlsHelperWithBouncyCastle.context(stream(0));
+		}
+	}
+
+	private InputStream stream(int index) {
+		return new ByteArrayInputStream(parts[index]);
+	}
+
+	private static String digest(Format format, byte[][] parts, char[][] passwords) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		messageDigest.update(format.name().getBytes(StandardCharsets.US_ASCII));
+		// 경계가 섞이지 않도록 각 조각 앞에 길이를 넣습니다.
+		for (byte[] part : parts) {
+			messageDigest.update(ByteBuffer.allocate(4).putInt(part.length).array());
+			messageDigest.update(part);
+		}
+		for (char[] password : passwords) {
+			int length = null == password ? -1 : password.length;
+			messageDigest.update(ByteBuffer.allocate(4).putInt(length).array());
+			if (null != password) {
+				ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+				messageDigest.update(encoded.duplicate());
+				Arrays.fill(encoded.array(), (byte) 0);
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : messageDigest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return this == o || (o instanceof KeyMaterial && digest.equals(((KeyMaterial) o).digest));
+	}
+
+	@Override
+	public int hashCode() {
+		return digest.hashCode();
+	}
+}
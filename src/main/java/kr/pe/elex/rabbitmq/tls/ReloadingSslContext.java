@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.SslContextFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 인증서 파일이 바뀌면 {@link SSLContext}를 다시 만든다.
+ * <p>
+ * {@link ConnectionFactory#setSslContextFactory(SslContextFactory)}에 넣으면 연결을 열 때마다 {@link #create(String)}가 불린다.
+ * 이때는 지금의 컨텍스트를 읽기만 하므로 기다리지 않는다. 새 컨텍스트는 스케줄러 스레드에서 만들고 다 만든 다음에 바꿔 끼운다.
+ * 이미 열린 연결과 연결 중인 핸드셰이크는 예전 컨텍스트를 그대로 쓴다.
+ * <p>
+ * 파일을 쓰는 도중이라 읽지 못하면 예전 컨텍스트를 유지하고 다음 주기에 다시 시도한다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class ReloadingSslContext implements SslContextFactory, AutoCloseable {
+	private final KeyMaterialLoader loader;
+	private final List<Path> files;
+	private final AtomicLong reloads = new AtomicLong();
+	private volatile KeyMaterial keyMaterial;
+	private volatile SSLContext context;
+	private List<String> stamps;
+	private ScheduledFuture<?> task;
+
+	/**
+	 * 처음 컨텍스트를 만든다.
+	 *
+	 * @param loader 키와 인증서를 읽는다
+	 * @param files  바뀌었는지 지켜볼 파일
+	 * @throws GeneralSecurityException 키나 인증서가 잘못된 경우
+	 * @throws IOException              읽지 못한 경우
+	 */
+	public ReloadingSslContext(KeyMaterialLoader loader, Path... files) throws GeneralSecurityException, IOException {
+		this.loader = loader;
+		this.files = Arrays.asList(files);
+		this.stamps = stamps();
+		this.keyMaterial = loader.load();
+		this.context = SslContextCache.get(keyMaterial);
+	}
+
+	/**
+	 * PKCS12 키 저장소 파일을 지켜본다.
+	 */
+	public static ReloadingSslContext pkcs12(Path keyStore, char[] keyStorePassword, char[] keyPassword,
+	                                         Path trustStore, char[] trustStorePassword)
+			throws GeneralSecurityException, IOException {
+		return new ReloadingSslContext(() -> KeyMaterial.pkcs12(Files.readAllBytes(keyStore), keyStorePassword, keyPassword,
+				Files.readAllBytes(trustStore), trustStorePassword), keyStore, trustStore);
+	}
+
+	/**
+	 * PEM 인증서와 키 파일을 지켜본다.
+	 */
+	public static ReloadingSslContext pem(Path clientCrt, Path clientKey, char[] clientPassword, Path caCrt)
+			throws GeneralSecurityException, IOException {
+		return new ReloadingSslContext(() -> KeyMaterial.pem(Files.readAllBytes(clientCrt), Files.readAllBytes(clientKey),
+				clientPassword, Files.readAllBytes(caCrt)), clientCrt, clientKey, caCrt);
+	}
+
+	/**
+	 * 파일이 바뀌었는지 주기적으로 확인하기 시작한다.
+	 *
+	 * @param scheduler 스케줄러
+	 * @param interval  확인 주기
+	 * @param unit      시간 단위
+	 * @return 이 객체
+	 */
+	public synchronized ReloadingSslContext start(ScheduledExecutorService scheduler, long interval, TimeUnit unit) {
+		task = scheduler.scheduleWithFixedDelay(this::reloadQuietly, interval, interval, unit);
+		return this;
+	}
+
+	/**
+	 * @return 지금의 SSL 컨텍스트
+	 */
+	public SSLContext get() {
+		return context;
+	}
+
+	@Override
+	public SSLContext create(String name) {
+		return context;
+	}
+
+	/**
+	 * 파일의 수정 시각이나 크기가 바뀌었으면 다시 읽는다. 내용이 같으면 컨텍스트는 그대로 둔다.
+	 *
+	 * @return 컨텍스트를 바꿨으면 참
+	 * @throws GeneralSecurityException 키나 인증서가 잘못된 경우
+	 * @throws IOException              읽지 못한 경우
+	 */
+	public synchronized boolean reloadIfChanged() throws GeneralSecurityException, IOException {
+		List<String> current = stamps();
+		if (current.equals(stamps)) {
+			return false;
+		}
+		KeyMaterial loaded = loader.load();
+		KeyMaterial previous = keyMaterial;
+		if (loaded.equals(previous)) {
+			stamps = current;
+			return false;
+		}
+		SSLContext created = SslContextCache.get(loaded);
+		keyMaterial = loaded;
+		context = created;
+		stamps = current;
+		// 예전 컨텍스트는 새 연결에 더 쓰지 않으므로 캐시에서 뺍니다.
+		SslContextCache.evict(previous);
+		reloads.incrementAndGet();
+		log.info("TLS context reloaded: {}", loaded.getDigest());
+		return true;
+	}
+
+	/**
+	 * @return 컨텍스트를 다시 만든 횟수
+	 */
+	public long getReloads() {
+		return reloads.get();
+	}
+
+	private void reloadQuietly() {
+		try {
+			reloadIfChanged();
+		} catch (GeneralSecurityException | IOException | RuntimeException e) {
+			log.warn("Failed to reload TLS context, keeping the previous one.", e);
+		}
+	}
+
+	private List<String> stamps() throws IOException {
+		List<String> stamps = new ArrayList<>();
+		for (Path file : files) {
+			stamps.add(Files.getLastModifiedTime(file) + "/" + Files.size(file));
+		}
+		return stamps;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (null != task) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	/**
+	 * 키와 인증서를 읽는다.
+	 */
+	@FunctionalInterface
+	public interface KeyMaterialLoader {
+		KeyMaterial load() throws IOException;
+	}
+}
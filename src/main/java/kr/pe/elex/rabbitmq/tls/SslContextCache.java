@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 키와 인증서의 다이제스트마다 {@link SSLContext}를 하나만 만들어서 함께 쓴다.
+ * <p>
+ * 컨텍스트를 만들 때마다 키 저장소를 다시 읽고 {@code KeyManagerFactory}, {@code TrustManagerFactory}를 다시 만드는데,
+ * 연결을 많이 열거나 장애 조치 후에 한꺼번에 다시 연결하면 이 비용이 눈에 띈다.
+ * 또 TLS 세션 캐시는 {@link SSLContext}마다 따로 있으므로, 같은 컨텍스트를 써야 연결 사이에 세션을 재개할 수 있다.
+ * <p>
+ * 처음 만드는 동안 다른 스레드가 같은 키를 요청하면 둘 다 만들 수 있지만, 먼저 넣은 하나만 남는다.
+ *
+ * @author Elex
+ */
+public final class SslContextCache {
+	private static final Map<String, SSLContext> CONTEXTS = new ConcurrentHashMap<>();
+
+	private SslContextCache() {
+	}
+
+	/**
+	 * 캐시된 컨텍스트를 가져온다. 없으면 만들어서 넣는다.
+	 *
+	 * @param keyMaterial 키와 인증서
+	 * @return SSL 컨텍스트
+	 * @throws GeneralSecurityException 키나 인증서가 잘못된 경우
+	 * @throws IOException              읽지 못한 경우
+	 */
+	public static SSLContext get(KeyMaterial keyMaterial) throws GeneralSecurityException, IOException {
+		SSLContext context = CONTEXTS.get(keyMaterial.getDigest());
+		if (null != context) {
+			return context;
+		}
+		// 잠금 없이 만듭니다. 느린 빌드가 다른 키의 조회를 막지 않습니다.
+		SSLContext created = keyMaterial.build();
+		SSLContext previous = CONTEXTS.putIfAbsent(keyMaterial.getDigest(), created);
+		return null == previous ? created : previous;
+	}
+
+	/**
+	 * 캐시에서 뺀다. 이미 이 컨텍스트로 연 연결은 영향을 받지 않는다.
+	 *
+	 * @param keyMaterial 키와 인증서
+	 */
+	public static void evict(KeyMaterial keyMaterial) {
+		CONTEXTS.remove(keyMaterial.getDigest());
+	}
+
+	/**
+	 * @return 캐시된 컨텍스트 개수
+	 */
+	public static int size() {
+		return CONTEXTS.size();
+	}
+
+	/**
+	 * 캐시를 비운다.
+	 */
+	public static void clear() {
+		CONTEXTS.clear();
+	}
+}
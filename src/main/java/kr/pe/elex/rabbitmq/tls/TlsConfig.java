@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import com.rabbitmq.client.SocketConfigurator;
+import com.rabbitmq.client.SocketConfigurators;
+import com.rabbitmq.client.SslEngineConfigurator;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.*;
+import java.lang.management.ManagementFactory;
+import java.security.*;
+import java.util.*;
+
+/**
+ * TLS 프로토콜, 암호 스위트 순서, 보안 프로바이더를 정한다.
+ * <p>
+ * 프로토콜과 암호 스위트는 {@link SSLContext}가 아니라 소켓과 엔진마다 걸리는 설정이다.
+ * {@link #context(KeyManager[], TrustManager[])}로 컨텍스트를 만들고,
+ * {@link #socketConfigurator()}나 {@link #sslEngineConfigurator()}로 연결마다 적용한다.
+ * <p>
+ * 암호 스위트는 적은 순서대로 선호한다. 프로바이더가 지원하지 않는 것은 빼고, 하나도 남지 않으면 기본값을 쓴다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public final class TlsConfig {
+	/**
+	 * AES 명령어가 있는 CPU에서 가장 싸다.
+	 */
+	public static final List<String> AES_GCM_FIRST = Collections.unmodifiableList(Arrays.asList(
+			"TLS_AES_128_GCM_SHA256",
+			"TLS_AES_256_GCM_SHA384",
+			"TLS_CHACHA20_POLY1305_SHA256",
+			"TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+			"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+			"TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+			"TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+			"TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+			"TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256"));
+	/**
+	 * AES 명령어가 없는 CPU에서는 ChaCha20이 더 빠르다.
+	 */
+	public static final List<String> CHACHA20_FIRST = Collections.unmodifiableList(Arrays.asList(
+			"TLS_CHACHA20_POLY1305_SHA256",
+			"TLS_AES_128_GCM_SHA256",
+			"TLS_AES_256_GCM_SHA384",
+			"TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+			"TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+			"TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+			"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+			"TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+			"TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"));
+
+	private static final TlsConfig DEFAULTS = new Builder().build();
+
+	private final TlsProvider provider;
+	private final String contextProtocol;
+	private final String[] protocols;
+	private final String[] cipherSuites;
+
+	/**
+	 * JSSE 또는 BouncyCastle JSSE 프로바이더.
+	 */
+	public enum TlsProvider {
+		JSSE(null),
+		/**
+		 * {@code org.bouncycastle:bctls-jdk15on}이 클래스패스에 있어야 한다.
+		 */
+		BCJSSE("org.bouncycastle.jsse.provider.BouncyCastleJsseProvider");
+
+		private final String className;
+
+		TlsProvider(String className) {
+			this.className = className;
+		}
+
+		/**
+		 * @return 등록된 프로바이더. JSSE는 null
+		 * @throws NoSuchProviderException 클래스패스에 없는 경우
+		 */
+		synchronized Provider provider() throws NoSuchProviderException {
+			if (null == className) {
+				return null;
+			}
+			Provider provider = Security.getProvider(name());
+			if (null != provider) {
+				return provider;
+			}
+			// bctls는 선택 사항이므로 이름으로 불러옵니다. 한 번만 등록합니다.
+			try {
+				provider = (Provider) Class.forName(className).getConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new NoSuchProviderException(name() + " is not on the classpath: " + e);
+			}
+			Security.addProvider(provider);
+			return provider;
+		}
+	}
+
+	private TlsConfig(Builder builder) {
+		this.provider = builder.provider;
+		this.contextProtocol = builder.protocols.isEmpty() ? "TLSv1.3" : builder.protocols.get(0);
+		this.protocols = builder.protocols.isEmpty() ? null : builder.protocols.toArray(new String[0]);
+		this.cipherSuites = builder.cipherSuites.isEmpty() ? null : builder.cipherSuites.toArray(new String[0]);
+	}
+
+	/**
+	 * JSSE, TLSv1.3 컨텍스트, 프로바이더 기본 프로토콜과 암호 스위트. 예전의 {@code SSLContext.getInstance("TLSv1.3")}와 같다.
+	 */
+	public static TlsConfig defaults() {
+		return DEFAULTS;
+	}
+
+	/**
+	 * JVM이 AES 명령어를 쓰면 {@link #AES_GCM_FIRST}, 아니면 {@link #CHACHA20_FIRST}.
+	 */
+	public static List<String> preferredCipherSuites() {
+		return hasAesIntrinsics() ? AES_GCM_FIRST : CHACHA20_FIRST;
+	}
+
+	private static boolean hasAesIntrinsics() {
+		try {
+			return Boolean.parseBoolean(ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+					.getVMOption("UseAESIntrinsics").getValue());
+		} catch (RuntimeException | LinkageError e) {
+			// HotSpot이 아니면 알 수 없으므로 AES-GCM을 먼저 둡니다.
+			return true;
+		}
+	}
+
+	public TlsProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * 컨텍스트를 만든다.
+	 *
+	 * @param keyManagers   키 매니저
+	 * @param trustManagers 트러스트 매니저
+	 * @return SSL 컨텍스트
+	 * @throws NoSuchAlgorithmException 프로토콜을 지원하지 않는 경우
+	 * @throws NoSuchProviderException  프로바이더가 없는 경우
+	 * @throws KeyManagementException   초기화하지 못한 경우
+	 */
+	public SSLContext context(KeyManager[] keyManagers, TrustManager[] trustManagers)
+			throws NoSuchAlgorithmException, NoSuchProviderException, KeyManagementException {
+		Provider jsse = provider.provider();
+		SSLContext context = null == jsse
+				? SSLContext.getInstance(contextProtocol)
+				: SSLContext.getInstance(contextProtocol, jsse);
+		context.init(keyManagers, trustManagers, null);
+		return context;
+	}
+
+	/**
+	 * 소켓에 프로토콜과 암호 스위트를 건다.
+	 */
+	public void configure(SSLSocket socket) {
+		socket.setSSLParameters(parameters(socket.getSSLParameters(), socket.getSupportedProtocols(),
+				socket.getSupportedCipherSuites()));
+	}
+
+	/**
+	 * 엔진에 프로토콜과 암호 스위트를 건다.
+	 */
+	public void configure(SSLEngine engine) {
+		engine.setSSLParameters(parameters(engine.getSSLParameters(), engine.getSupportedProtocols(),
+				engine.getSupportedCipherSuites()));
+	}
+
+	/**
+	 * 기본 소켓 설정(TCP_NODELAY)에 더해 TLS 소켓이면 프로토콜과 암호 스위트를 건다.
+	 */
+	public SocketConfigurator socketConfigurator() {
+		return SocketConfigurators.defaultConfigurator().andThen(socket -> {
+			if (socket instanceof SSLSocket) {
+				configure((SSLSocket) socket);
+			}
+		});
+	}
+
+	/**
+	 * NIO 모드에서 쓴다.
+	 */
+	public SslEngineConfigurator sslEngineConfigurator() {
+		return this::configure;
+	}
+
+	private SSLParameters parameters(SSLParameters parameters, String[] supportedProtocols, String[] supportedSuites) {
+		if (null != protocols) {
+			parameters.setProtocols(supported(protocols, supportedProtocols, "protocol"));
+		}
+		if (null != cipherSuites) {
+			String[] suites = supported(cipherSuites, supportedSuites, "cipher suite");
+			if (suites.length > 0) {
+				parameters.setCipherSuites(suites);
+				parameters.setUseCipherSuitesOrder(true);
+			}
+		}
+		return parameters;
+	}
+
+	private static String[] supported(String[] wanted, String[] supported, String what) {
+		Set<String> available = new HashSet<>(Arrays.asList(supported));
+		List<String> result = new ArrayList<>(wanted.length);
+		for (String name : wanted) {
+			if (available.contains(name)) {
+				result.add(name);
+			} else {
+				log.debug("Unsupported {} skipped: {}", what, name);
+			}
+		}
+		return result.toArray(new String[0]);
+	}
+
+	@Override
+	public String toString() {
+		return provider + " " + (null == protocols ? contextProtocol : Arrays.toString(protocols))
+				+ (null == cipherSuites ? "" : " " + Arrays.toString(cipherSuites));
+	}
+
+	/**
+	 * {@link TlsConfig}를 만든다.
+	 */
+	public static final class Builder {
+		private TlsProvider provider = TlsProvider.JSSE;
+		private final List<String> protocols = new ArrayList<>();
+		private final List<String> cipherSuites = new ArrayList<>();
+
+		public Builder provider(TlsProvider provider) {
+			this.provider = Objects.requireNonNull(provider);
+			return this;
+		}
+
+		/**
+		 * 허용할 프로토콜. 처음 것으로 컨텍스트를 만든다.
+		 *
+		 * @param protocols "TLSv1.3", "TLSv1.2" 등
+		 */
+		public Builder protocols(String... protocols) {
+			this.protocols.clear();
+			this.protocols.addAll(Arrays.asList(protocols));
+			return this;
+		}
+
+		/**
+		 * 선호하는 순서대로 적은 암호 스위트.
+		 */
+		public Builder cipherSuites(List<String> cipherSuites) {
+			this.cipherSuites.clear();
+			this.cipherSuites.addAll(cipherSuites);
+			return this;
+		}
+
+		public Builder cipherSuites(String... cipherSuites) {
+			return cipherSuites(Arrays.asList(cipherSuites));
+		}
+
+		public TlsConfig build() {
+			return new TlsConfig(this);
+		}
+	}
+}
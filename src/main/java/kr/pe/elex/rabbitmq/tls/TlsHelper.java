@@ -7,6 +7,7 @@ package kr.pe.elex.rabbitmq.tls;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,6 +37,26 @@ public final class TlsHelper {
 	                                 InputStream trustStoreInputStream, char[] trustStorePassword)
 			throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException, UnrecoverableKeyException,
 			KeyManagementException {
+		try {
+			return context(keyStoreInputStream, keyStorePassword, keyPassword, trustStoreInputStream, trustStorePassword,
+					TlsConfig.defaults());
+		} catch (NoSuchProviderException e) {
+			// JSSE는 항상 있습니다.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 프로토콜과 프로바이더를 정해서 SSL Context를 만든다.
+	 *
+	 * @param config 프로토콜, 암호 스위트, 프로바이더
+	 * @throws NoSuchProviderException 프로바이더가 없는 경우
+	 * @see #context(InputStream, char[], char[], InputStream, char[])
+	 */
+	public static SSLContext context(InputStream keyStoreInputStream, char[] keyStorePassword, char[] keyPassword,
+	                                 InputStream trustStoreInputStream, char[] trustStorePassword, TlsConfig config)
+			throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException, UnrecoverableKeyException,
+			KeyManagementException, NoSuchProviderException {
 		// OpenSSL로 키와 인증서를 만들고, PKCS12 키 저장소에 넣었습니다.
 		KeyStore keyStore = KeyStore.getInstance("PKCS12");
 		// 클라이언트 키와 인증서가 들어있습니다.
@@ -51,10 +72,7 @@ public final class TlsHelper {
 		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
 		tmf.init(trustKeyStore);
 
-		SSLContext context = SSLContext.getInstance("TLSv1.3");
-		context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
-
-		return context;
+		return config.context(kmf.getKeyManagers(), tmf.getTrustManagers());
 	}
 
 	/**
@@ -71,6 +89,24 @@ public final class TlsHelper {
 	public static SSLContext context(InputStream trustStoreInputStream, char[] trustStorePassword)
 			throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException, UnrecoverableKeyException,
 			KeyManagementException {
+		try {
+			return context(trustStoreInputStream, trustStorePassword, TlsConfig.defaults());
+		} catch (NoSuchProviderException e) {
+			// JSSE는 항상 있습니다.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 프로토콜과 프로바이더를 정해서 SSL Context를 만든다.
+	 *
+	 * @param config 프로토콜, 암호 스위트, 프로바이더
+	 * @throws NoSuchProviderException 프로바이더가 없는 경우
+	 * @see #context(InputStream, char[])
+	 */
+	public static SSLContext context(InputStream trustStoreInputStream, char[] trustStorePassword, TlsConfig config)
+			throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException, UnrecoverableKeyException,
+			KeyManagementException, NoSuchProviderException {
 		// OpenSSL로 키와 인증서를 만들고, PKCS12 키 저장소에 넣었습니다.
 		KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
 		// 클라이언트 키와 인증서가 들어있습니다.
@@ -85,9 +121,23 @@ public final class TlsHelper {
 		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
 		tmf.init(trustKeyStore);
 
-		SSLContext context = SSLContext.getInstance("TLSv1.3");
-		context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+		return config.context(kmf.getKeyManagers(), tmf.getTrustManagers());
+	}
 
+	/**
+	 * 클라이언트 세션 캐시의 크기와 유지 시간을 정한다.
+	 * 브로커가 재시작한 뒤 한꺼번에 다시 연결할 때, 캐시에 남은 세션으로 재개하면 전체 핸드셰이크를 건너뛴다.
+	 * TLS 1.3에서는 서버가 보낸 세션 티켓이 이 캐시에 들어간다.
+	 *
+	 * @param context        SSL 컨텍스트
+	 * @param size           세션 수. 0이면 제한이 없다.
+	 * @param timeoutSeconds 유지 시간 (초). 0이면 제한이 없다.
+	 * @return 같은 컨텍스트
+	 */
+	public static SSLContext sessionCache(SSLContext context, int size, int timeoutSeconds) {
+		SSLSessionContext sessions = context.getClientSessionContext();
+		sessions.setSessionCacheSize(size);
+		sessions.setSessionTimeout(timeoutSeconds);
 		return context;
 	}
 }
@@ -26,13 +26,36 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 
 public final class TlsHelperWithBouncyCastle {
+	static {
+		// 프로바이더는 한 번만 등록합니다. 부를 때마다 새로 만들면 목록을 잠그고 프로바이더 초기화 비용을 다시 치릅니다.
+		if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+
 	private TlsHelperWithBouncyCastle(){}
 
 	public static SSLContext context(InputStream clientCrtInputStream, InputStream clientKeyInputStream, char[] clientPassword,
 	                                 InputStream caCrtInputStream)
 			throws KeyStoreException, IOException, CertificateException, UnrecoverableKeyException, KeyManagementException, NoSuchAlgorithmException {
-		Security.addProvider(new BouncyCastleProvider());
+		try {
+			return context(clientCrtInputStream, clientKeyInputStream, clientPassword, caCrtInputStream, TlsConfig.defaults());
+		} catch (NoSuchProviderException e) {
+			// JSSE는 항상 있습니다.
+			throw new IllegalStateException(e);
+		}
+	}
 
+	/**
+	 * 프로토콜과 프로바이더를 정해서 SSL Context를 만든다.
+	 *
+	 * @param config 프로토콜, 암호 스위트, 프로바이더
+	 * @throws NoSuchProviderException 프로바이더가 없는 경우
+	 */
+	public static SSLContext context(InputStream clientCrtInputStream, InputStream clientKeyInputStream, char[] clientPassword,
+	                                 InputStream caCrtInputStream, TlsConfig config)
+			throws KeyStoreException, IOException, CertificateException, UnrecoverableKeyException, KeyManagementException,
+			NoSuchAlgorithmException, NoSuchProviderException {
 		// CA 인증서 불러오기
 		CertificateFactory caCertFactory = CertificateFactory.getInstance("X.509");
 		PEMParser parser = new PEMParser(new InputStreamReader(caCrtInputStream));
@@ -80,9 +103,7 @@ public final class TlsHelperWithBouncyCastle {
 		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
 		keyManagerFactory.init(clientKeyStore, clientPassword);
 
-		SSLContext context = SSLContext.getInstance("TLSv1.3");
-		context.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
-		return context;
+		return config.context(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers());
 	}
 
 	/**
@@ -99,8 +120,24 @@ public final class TlsHelperWithBouncyCastle {
 	 */
 	public static SSLContext context(InputStream caCrtInputStream)
 			throws KeyStoreException, IOException, CertificateException, UnrecoverableKeyException, KeyManagementException, NoSuchAlgorithmException {
-		Security.addProvider(new BouncyCastleProvider());
+		try {
+			return context(caCrtInputStream, TlsConfig.defaults());
+		} catch (NoSuchProviderException e) {
+			// JSSE는 항상 있습니다.
+			throw new IllegalStateException(e);
+		}
+	}
 
+	/**
+	 * 프로토콜과 프로바이더를 정해서 SSL Context를 만든다.
+	 *
+	 * @param caCrtInputStream ca cert pem
+	 * @param config           프로토콜, 암호 스위트, 프로바이더
+	 * @throws NoSuchProviderException 프로바이더가 없는 경우
+	 */
+	public static SSLContext context(InputStream caCrtInputStream, TlsConfig config)
+			throws KeyStoreException, IOException, CertificateException, UnrecoverableKeyException, KeyManagementException,
+			NoSuchAlgorithmException, NoSuchProviderException {
 		// CA 인증서 불러오기
 		CertificateFactory caCertFactory = CertificateFactory.getInstance("X.509");
 		PEMParser parser = new PEMParser(new InputStreamReader(caCrtInputStream));
@@ -121,9 +158,7 @@ public final class TlsHelperWithBouncyCastle {
 		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
 		keyManagerFactory.init(clientKeyStore, null);
 
-		SSLContext context = SSLContext.getInstance("TLSv1.3");
-		context.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
-		return context;
+		return config.context(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers());
 	}
 
 }
@@ -6,14 +6,36 @@
 package kr.pe.elex.rabbitmq.topic;
 
 import com.rabbitmq.client.*;
+import kr.pe.elex.rabbitmq.batch.BatchPublisher;
+import kr.pe.elex.rabbitmq.batch.UnbatchingConsumer;
+import kr.pe.elex.rabbitmq.compress.Compression;
+import kr.pe.elex.rabbitmq.compress.DecompressingConsumer;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.metrics.LatencyStamp;
+import kr.pe.elex.rabbitmq.metrics.LatencyTracker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import kr.pe.elex.rabbitmq.pool.PooledChannel;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.trace.MessageTracer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
  * 토픽 익스체인지는 라우팅-키를 패턴으로 사용한다.
+ * <p>
+ * {@code batching}을 켜면 작은 메시지를 {@link BatchPublisher}로 묶어서 보낸다. 묶음은 토픽마다 따로 만든다.
+ * <p>
+ * 받는 쪽은 큐 하나를 하나의 컨슈머로 소비하고, {@link TopicRouter}가 라우팅-키에 맞는 패턴의 핸들러에게 나눠준다.
+ * <p>
+ * {@code compression}을 주면 큰 본문을 압축해서 보낸다. 받는 쪽은 압축 여부와 관계없이 풀어서 받는다.
+ * <p>
+ * {@code -Delex.latency=true}로 켜면 보낸 시각과 일련번호를 헤더에 찍고, 받는 쪽이 {@link #getLatency()}에 지연 시간을 모은다.
+ * 일련번호는 토픽마다 매기므로 일부 토픽만 받아도 빠진 메시지로 보이지 않는다.
  *
  * @author Elex
  * @see "https://www.rabbitmq.com/tutorials/tutorial-five-java.html"
@@ -21,55 +43,122 @@ import java.util.concurrent.TimeoutException;
 @Slf4j
 public class RabbitClient {
 	private static final String EXCHANGE = "elex.topic.exchange";
+	private static final MessageTracer TRACER = MessageTracer.shared();
+	// 묶어서 보낼 때 묶음 하나의 최대 크기와 최대 대기 시간입니다.
+	private static final int BATCH_MAX_BYTES = 64 * 1024;
+	private static final long BATCH_LINGER_MILLIS = 5;
 
 	private String name;
 
-	private Connection connection;
+	private final ConnectionManager connectionManager;
 	private Channel channel;
 	private String queue;
+	private BatchPublisher batchPublisher;
+	private final Compression compression;
+	private final TopicRouter router;
+	private final LatencyStamp stamp;
+	private final LatencyTracker latency = new LatencyTracker(Metrics.shared(), "topic");
+	private boolean consuming;
+
+	RabbitClient(String name) throws IOException {
+		this(name, ConnectionManager.shared(), false);
+	}
 
-	RabbitClient(String name) throws IOException, TimeoutException {
-		this.name = name;
-
-		ConnectionFactory connectionFactory = new ConnectionFactory();
-		connectionFactory.setHost("localhost");
-		connectionFactory.setPort(5672);
-		connectionFactory.setUsername("elex");
-		connectionFactory.setPassword("test");
-		connectionFactory.setVirtualHost("/");
+	RabbitClient(String name, ConnectionManager connectionManager, boolean batching) throws IOException {
+		this(name, connectionManager, batching, null);
+	}
 
-		connection = connectionFactory.newConnection();
-		channel = connection.createChannel();
+	/**
+	 * @param compression 큰 본문을 압축해서 보낼 때의 설정. null이면 압축하지 않는다.
+	 */
+	RabbitClient(String name, ConnectionManager connectionManager, boolean batching, Compression compression) throws IOException {
+		this.name = name;
+		this.stamp = new LatencyStamp(name);
+		this.connectionManager = connectionManager;
+		this.compression = compression;
+		// 소비와 선언에 쓸 전용 채널입니다. 연결은 다른 클라이언트와 함께 씁니다.
+		channel = connectionManager.createChannel();
 
-		// topic은 routing-key를 패턴으로 사용합니다.
-		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.TOPIC, false);
+		// topic은 routing-key를 패턴으로 사용합니다. 다른 클라이언트가 이미 선언했다면 다시 보내지 않습니다.
+		connectionManager.getTopology().declare(channel, Topology.builder()
+				.exchange(EXCHANGE, BuiltinExchangeType.TOPIC, false)
+				.build());
 
 		// 큐 이름을 랜덤으로 생성합니다.
 		queue = channel.queueDeclare().getQueue();
+		router = new TopicRouter(channel, EXCHANGE, queue, connectionManager.getTopology()) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+				// 여러 패턴에 맞아도 한 번만 잽니다.
+				latency.record(envelope, properties);
+				super.handleDelivery(consumerTag, envelope, properties, body);
+			}
+		};
 
+		// 묶어서 보내기로 했다면 작은 메시지를 모아서 한 번에 보냅니다.
+		if (batching) {
+			batchPublisher = new BatchPublisher(connectionManager, BATCH_MAX_BYTES)
+					.start(WorkerExecutors.sharedScheduler(), BATCH_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	public void consume(String topic) throws IOException {
-		// 익스체인지와 큐를 묶습니다.
-		channel.queueBind(queue, EXCHANGE, topic);
-		// 큐로부터 메시지를 받습니다.
-		channel.basicConsume(queue, true, queue, new DefaultConsumer(channel) {
-			@Override
-			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				log.info("Rx: [{}] {} : {}", name, envelope.getRoutingKey(), new String(body, StandardCharsets.UTF_8));
-			}
-		});
+		consume(topic, (envelope, properties, body) ->
+				TRACER.rx(name, envelope.getRoutingKey(), body));
+	}
+
+	/**
+	 * @param topic   바인딩 패턴
+	 * @param handler 패턴에 맞는 메시지를 받을 핸들러
+	 */
+	public synchronized void consume(String topic, TopicRouter.Handler handler) throws IOException {
+		// 처음 보는 패턴만 큐에 바인딩합니다.
+		router.subscribe(topic, handler);
+		if (!consuming) {
+			// 큐로부터 메시지를 받습니다. 컨슈머는 하나만 두고, 라우터가 패턴에 맞는 핸들러에게 나눠줍니다.
+			// 압축했거나 묶음으로 온 메시지는 풀어서 하나씩 받습니다.
+			channel.basicConsume(queue, true, queue, new DecompressingConsumer(decompression(), new UnbatchingConsumer(router)));
+			consuming = true;
+		}
 	}
 
 	public void publish(String topic, String message) throws IOException {
-		// 익스체인지에 메시지를 보냅니다.
-		channel.basicPublish(EXCHANGE, topic, null, message.getBytes(StandardCharsets.UTF_8));
-		log.info("Tx: [{}] {} : {}", name, topic, message);
+		byte[] body = PayloadBuffer.local().append(message).body();
+		if (null != batchPublisher) {
+			batchPublisher.publish(EXCHANGE, topic, body);
+			TRACER.tx(name, topic, body);
+			return;
+		}
+		// 익스체인지에 메시지를 보냅니다. 채널은 발행할 때만 풀에서 빌립니다.
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			AMQP.BasicProperties properties = stamp.stamp(topic, null);
+			if (null != compression) {
+				// 큰 본문은 압축해서 보냅니다.
+				compression.publish(pooled.getChannel(), EXCHANGE, topic, properties, body);
+			} else {
+				pooled.getChannel().basicPublish(EXCHANGE, topic, properties, body);
+			}
+		}
+		TRACER.tx(name, topic, body);
+	}
+
+	private Compression decompression() {
+		// 압축하지 않는 클라이언트도 압축된 메시지는 풀어서 받습니다.
+		return null == compression ? Compression.defaults() : compression;
+	}
+
+	/**
+	 * @return 받은 메시지의 지연 시간. 보내는 쪽이 헤더를 찍었을 때만 모인다.
+	 */
+	public LatencyTracker getLatency() {
+		return latency;
 	}
 
 	public void close() throws IOException, TimeoutException {
+		if (null != batchPublisher) {
+			batchPublisher.close();
+		}
 		channel.close();
-		connection.close();
 	}
 
 	public static void main(String... args) throws IOException, TimeoutException {
@@ -88,9 +177,11 @@ public class RabbitClient {
 		} catch (InterruptedException e) {
 			log.error("Interrupted..", e);
 		}
+		log.info("Latency {}", consumer2.getLatency().report());
 		producer.close();
 		consumer1.close();
 		consumer2.close();
+		ConnectionManager.shared().close();
 		/*
 11:29:47.699 [main] INFO kr.pe.elex.rabbitmq.topic.RabbitClient - Tx: [Producer] message.hello : Hello, there.
 11:29:47.700 [pool-5-thread-4] INFO kr.pe.elex.rabbitmq.topic.RabbitClient - Rx: [Consumer2] message.hello : Hello, there.
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.topic;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.topology.Topology;
+import kr.pe.elex.rabbitmq.topology.TopologyRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 큐 하나에 컨슈머 하나만 두고, 받은 메시지를 라우팅-키에 맞는 패턴의 핸들러들에게 나눠준다.
+ * <p>
+ * 패턴마다 {@code basicConsume}을 하면 브로커는 메시지를 그중 아무 컨슈머에게나 보내므로, 맞는 패턴의 핸들러가
+ * 메시지를 받는다는 보장이 없다. 이 라우터는 브로커와 같은 규칙으로 {@link TopicTrie}에서 핸들러를 찾는다.
+ * <p>
+ * 패턴의 첫 핸들러를 등록할 때 큐를 바인딩하고, 마지막 핸들러를 뺄 때 바인딩을 푼다.
+ * 한 메시지에 여러 패턴이 맞아도 핸들러마다 한 번만 호출한다.
+ * <p>
+ * {@link TopologyRegistry}를 주면 바인딩을 레지스트리로 선언하고, {@link #resubscribe}는 바뀐 바인딩만 보낸다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public class TopicRouter extends DefaultConsumer {
+	private final String exchange;
+	private final String queue;
+	private final TopologyRegistry topology;
+	private final TopicTrie<Handler> handlers = new TopicTrie<>();
+	// 패턴마다 등록한 핸들러입니다. 바꿀 때만 씁니다.
+	private final Map<String, List<Handler>> subscriptions = new HashMap<>();
+	// 한 채널의 딜리버리는 차례로 호출되므로 목록을 다시 씁니다.
+	private final List<Handler> matched = new ArrayList<>();
+
+	/**
+	 * @param channel  바인딩하고 소비할 채널
+	 * @param exchange 토픽 익스체인지
+	 * @param queue    메시지를 받을 큐
+	 */
+	public TopicRouter(Channel channel, String exchange, String queue) {
+		this(channel, exchange, queue, null);
+	}
+
+	/**
+	 * @param channel  바인딩하고 소비할 채널
+	 * @param exchange 토픽 익스체인지
+	 * @param queue    메시지를 받을 큐
+	 * @param topology 바인딩을 기억할 레지스트리. null이면 직접 바인딩한다.
+	 */
+	public TopicRouter(Channel channel, String exchange, String queue, TopologyRegistry topology) {
+		super(channel);
+		this.exchange = exchange;
+		this.queue = queue;
+		this.topology = topology;
+	}
+
+	/**
+	 * 핸들러를 등록한다. 처음 보는 패턴이면 큐를 바인딩한다.
+	 *
+	 * @param pattern 바인딩 패턴. {@code *}와 {@code #}을 쓸 수 있다.
+	 * @param handler 맞는 메시지를 받을 핸들러
+	 */
+	public synchronized void subscribe(String pattern, Handler handler) throws IOException {
+		subscriptions.computeIfAbsent(pattern, key -> new ArrayList<>()).add(handler);
+		if (handlers.add(pattern, handler)) {
+			bind(pattern);
+		}
+	}
+
+	/**
+	 * 핸들러를 뺀다. 패턴의 마지막 핸들러였다면 바인딩을 푼다.
+	 */
+	public synchronized void unsubscribe(String pattern, Handler handler) throws IOException {
+		List<Handler> registered = subscriptions.get(pattern);
+		if (null == registered || !registered.remove(handler)) {
+			return;
+		}
+		if (registered.isEmpty()) {
+			subscriptions.remove(pattern);
+		}
+		if (handlers.remove(pattern, handler)) {
+			unbind(pattern);
+		}
+	}
+
+	/**
+	 * 구독을 통째로 바꾼다. 새 핸들러를 먼저 등록한 다음 빠진 핸들러를 빼므로, 그 사이에 온 메시지도 놓치지 않는다.
+	 * 바인딩은 더할 것과 뺄 것만 브로커에 보낸다.
+	 *
+	 * @param desired 패턴과 핸들러
+	 */
+	public synchronized void resubscribe(Map<String, ? extends Collection<Handler>> desired) throws IOException {
+		Set<String> added = new HashSet<>();
+		for (Map.Entry<String, ? extends Collection<Handler>> entry : desired.entrySet()) {
+			List<Handler> registered = subscriptions.computeIfAbsent(entry.getKey(), key -> new ArrayList<>());
+			for (Handler handler : entry.getValue()) {
+				if (!registered.contains(handler)) {
+					registered.add(handler);
+					if (handlers.add(entry.getKey(), handler)) {
+						added.add(entry.getKey());
+					}
+				}
+			}
+		}
+		Set<String> removed = new HashSet<>();
+		for (Iterator<Map.Entry<String, List<Handler>>> it = subscriptions.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, List<Handler>> entry = it.next();
+			Collection<Handler> wanted = desired.get(entry.getKey());
+			for (Iterator<Handler> handler = entry.getValue().iterator(); handler.hasNext(); ) {
+				Handler registered = handler.next();
+				if (null == wanted || !wanted.contains(registered)) {
+					handler.remove();
+					if (handlers.remove(entry.getKey(), registered)) {
+						removed.add(entry.getKey());
+					}
+				}
+			}
+			if (entry.getValue().isEmpty()) {
+				it.remove();
+			}
+		}
+		if (null != topology) {
+			topology.rebind(getChannel(), queue, exchange, subscriptions.keySet());
+			return;
+		}
+		for (String pattern : added) {
+			bind(pattern);
+		}
+		for (String pattern : removed) {
+			unbind(pattern);
+		}
+	}
+
+	/**
+	 * @return 구독 중인 패턴들
+	 */
+	public synchronized Set<String> getPatterns() {
+		return new HashSet<>(subscriptions.keySet());
+	}
+
+	private void bind(String pattern) throws IOException {
+		if (null == topology) {
+			getChannel().queueBind(queue, exchange, pattern);
+		} else {
+			topology.declare(getChannel(), Topology.builder().binding(queue, exchange, pattern).build());
+		}
+	}
+
+	private void unbind(String pattern) throws IOException {
+		if (null == topology) {
+			getChannel().queueUnbind(queue, exchange, pattern);
+		} else {
+			topology.unbind(getChannel(), queue, exchange, pattern);
+		}
+	}
+
+	/**
+	 * 하나의 컨슈머로 큐를 소비한다.
+	 *
+	 * @return 컨슈머 태그
+	 */
+	public String start(boolean autoAck) throws IOException {
+		return getChannel().basicConsume(queue, autoAck, this);
+	}
+
+	@Override
+	public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+		List<Handler> matched = this.matched;
+		matched.clear();
+		handlers.match(envelope.getRoutingKey(), matched);
+		if (matched.isEmpty()) {
+			// 바인딩을 푸는 사이에 도착한 메시지입니다.
+			log.debug("No handler for {}", envelope.getRoutingKey());
+			return;
+		}
+		for (int i = 0, n = matched.size(); i < n; i++) {
+			try {
+				matched.get(i).handle(envelope, properties, body);
+			} catch (RuntimeException e) {
+				// 한 핸들러의 실패가 다른 핸들러에게 번지지 않게 합니다.
+				log.error("Handler failed for {}", envelope.getRoutingKey(), e);
+			}
+		}
+		matched.clear();
+	}
+
+	/**
+	 * 패턴에 맞는 메시지를 받는다.
+	 */
+	@FunctionalInterface
+	public interface Handler {
+		void handle(Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException;
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.topic;
+
+import java.util.List;
+
+/**
+ * 토픽 익스체인지의 바인딩 패턴을 단어 단위 트라이로 모아서, 라우팅-키에 맞는 값을 찾는다.
+ * <p>
+ * 패턴과 라우팅-키는 {@code .}으로 나뉜 단어들이다. {@code *}는 단어 하나, {@code #}은 0개 이상의 단어에 맞는다.
+ * 빈 라우팅-키는 단어가 없는 것으로 본다.
+ * <p>
+ * 찾을 때는 라우팅-키를 쪼개지 않고 단어의 범위로 자식을 찾으므로 할당하지 않는다. 패턴이 몇 개이든
+ * {@code #}이 없다면 키의 길이에 비례하는 시간이 든다. {@code #}은 남은 단어마다 한 번씩 더 찾아본다.
+ * <p>
+ * 바꾸는 쪽은 잠그고, 노드의 자식 표와 값 배열을 새로 만들어 바꿔 끼운다. 찾는 쪽은 잠그지 않는다.
+ *
+ * @author Elex
+ */
+public final class TopicTrie<T> {
+	private static final Object[] NONE = new Object[0];
+
+	private final Node root = new Node();
+	private int size;
+
+	/**
+	 * @return 추가한 값이 이 패턴의 첫 값이면 true
+	 */
+	public synchronized boolean add(String pattern, T value) {
+		Node node = root;
+		String previous = null;
+		for (String word : words(pattern)) {
+			// '#.#'은 '#'과 같습니다.
+			if ("#".equals(word) && "#".equals(previous)) {
+				continue;
+			}
+			node = node.child(word);
+			previous = word;
+		}
+		Object[] values = node.values;
+		Object[] added = new Object[values.length + 1];
+		System.arraycopy(values, 0, added, 0, values.length);
+		added[values.length] = value;
+		node.values = added;
+		size++;
+		return 0 == values.length;
+	}
+
+	/**
+	 * @return 뺀 값이 이 패턴의 마지막 값이면 true
+	 */
+	public synchronized boolean remove(String pattern, T value) {
+		Node node = root;
+		String previous = null;
+		for (String word : words(pattern)) {
+			if ("#".equals(word) && "#".equals(previous)) {
+				continue;
+			}
+			node = node.find(word);
+			if (null == node) {
+				return false;
+			}
+			previous = word;
+		}
+		Object[] values = node.values;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i].equals(value)) {
+				Object[] removed = values.length == 1 ? NONE : new Object[values.length - 1];
+				System.arraycopy(values, 0, removed, 0, i);
+				System.arraycopy(values, i + 1, removed, i, values.length - i - 1);
+				node.values = removed;
+				size--;
+				return 0 == removed.length;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return 패턴과 값의 쌍의 개수
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * 라우팅-키에 맞는 값을 {@code out}에 덧붙인다. 여러 패턴에 맞는 값도 한 번만 넣는다.
+	 *
+	 * @param routingKey 라우팅-키
+	 * @param out        맞는 값을 받을 목록. 호출하는 쪽이 비우고 다시 쓴다.
+	 */
+	@SuppressWarnings("unchecked")
+	public void match(String routingKey, List<? super T> out) {
+		match(root, routingKey, routingKey.isEmpty() ? end(routingKey) : 0, (List<Object>) out);
+	}
+
+	private static void match(Node node, String key, int from, List<Object> out) {
+		if (from == end(key)) {
+			collect(node.values, out);
+			Node hash = node.hash;
+			if (null != hash) {
+				// 남은 단어가 없어도 '#'은 맞습니다.
+				match(hash, key, from, out);
+			}
+			return;
+		}
+		int to = key.indexOf('.', from);
+		if (to < 0) {
+			to = key.length();
+		}
+		int next = to == key.length() ? end(key) : to + 1;
+
+		Node literal = node.children.get(key, from, to);
+		if (null != literal) {
+			match(literal, key, next, out);
+		}
+		Node star = node.star;
+		if (null != star) {
+			match(star, key, next, out);
+		}
+		Node hash = node.hash;
+		if (null != hash) {
+			// '#'이 단어를 0개, 1개, ... 먹은 경우를 모두 찾습니다.
+			for (int at = from; ; ) {
+				match(hash, key, at, out);
+				if (at == end(key)) {
+					break;
+				}
+				int dot = key.indexOf('.', at);
+				at = dot < 0 ? end(key) : dot + 1;
+			}
+		}
+	}
+
+	private static void collect(Object[] values, List<Object> out) {
+		for (Object value : values) {
+			if (!out.contains(value)) {
+				out.add(value);
+			}
+		}
+	}
+
+	/**
+	 * 남은 단어가 없음을 나타내는 위치. 키가 {@code .}으로 끝나면 마지막 빈 단어의 위치가 {@code length}이므로 그보다 하나 뒤를 쓴다.
+	 */
+	private static int end(String key) {
+		return key.length() + 1;
+	}
+
+	private static String[] words(String pattern) {
+		return pattern.isEmpty() ? new String[0] : pattern.split("\\.", -1);
+	}
+
+	private static final class Node {
+		private volatile Table children = Table.EMPTY;
+		private volatile Node star;
+		private volatile Node hash;
+		private volatile Object[] values = NONE;
+
+		Node child(String word) {
+			switch (word) {
+				case "*":
+					if (null == star) {
+						star = new Node();
+					}
+					return star;
+				case "#":
+					if (null == hash) {
+						hash = new Node();
+					}
+					return hash;
+				default:
+					Node child = children.get(word, 0, word.length());
+					if (null == child) {
+						child = new Node();
+						children = children.with(word, child);
+					}
+					return child;
+			}
+		}
+
+		Node find(String word) {
+			switch (word) {
+				case "*":
+					return star;
+				case "#":
+					return hash;
+				default:
+					return children.get(word, 0, word.length());
+			}
+		}
+	}
+
+	/**
+	 * 단어로 자식을 찾는 열린 주소 해시 표. 바꿀 때는 새로 만든다.
+	 * 해시는 {@link String#hashCode()}와 같게 계산하므로 키의 일부 범위로도 찾을 수 있다.
+	 */
+	private static final class Table {
+		static final Table EMPTY = new Table(new String[1], new Node[1], 0);
+
+		private final String[] words;
+		private final Node[] nodes;
+		private final int size;
+
+		private Table(String[] words, Node[] nodes, int size) {
+			this.words = words;
+			this.nodes = nodes;
+			this.size = size;
+		}
+
+		Node get(String key, int from, int to) {
+			int length = to - from;
+			int h = 0;
+			for (int i = from; i < to; i++) {
+				h = 31 * h + key.charAt(i);
+			}
+			int mask = words.length - 1;
+			for (int i = spread(h) & mask; ; i = (i + 1) & mask) {
+				String word = words[i];
+				if (null == word) {
+					return null;
+				}
+				if (word.length() == length && word.regionMatches(0, key, from, length)) {
+					return nodes[i];
+				}
+			}
+		}
+
+		Table with(String word, Node node) {
+			// 반 이상 차지 않도록 키웁니다.
+			int capacity = words.length;
+			while ((size + 1) * 2 > capacity) {
+				capacity <<= 1;
+			}
+			String[] newWords = new String[capacity];
+			Node[] newNodes = new Node[capacity];
+			for (int i = 0; i < words.length; i++) {
+				if (null != words[i]) {
+					put(newWords, newNodes, words[i], nodes[i]);
+				}
+			}
+			put(newWords, newNodes, word, node);
+			return new Table(newWords, newNodes, size + 1);
+		}
+
+		private static void put(String[] words, Node[] nodes, String word, Node node) {
+			int mask = words.length - 1;
+			int i = spread(word.hashCode()) & mask;
+			while (null != words[i]) {
+				i = (i + 1) & mask;
+			}
+			words[i] = word;
+			nodes[i] = node;
+		}
+
+		private static int spread(int h) {
+			return h ^ (h >>> 16);
+		}
+	}
+}
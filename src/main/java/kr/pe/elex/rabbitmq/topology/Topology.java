@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.topology;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 클라이언트가 필요로 하는 익스체인지, 큐, 바인딩의 목록.
+ * <p>
+ * {@link TopologyRegistry#declare}에 넘기면 아직 선언하지 않은 것만 브로커에 보낸다.
+ * <pre>{@code
+ * Topology topology = Topology.builder()
+ *         .exchange(EXCHANGE, BuiltinExchangeType.DIRECT, true)
+ *         .queue(QUEUE, false, false, false)
+ *         .binding(QUEUE, EXCHANGE, ROUTING_KEY)
+ *         .build();
+ * }</pre>
+ *
+ * @author Elex
+ */
+public final class Topology {
+	private final List<Declaration> entities;
+	private final List<Declaration> bindings;
+
+	private Topology(Builder builder) {
+		this.entities = Collections.unmodifiableList(new ArrayList<>(builder.entities));
+		this.bindings = Collections.unmodifiableList(new ArrayList<>(builder.bindings));
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return 익스체인지와 큐. 서로 기대지 않으므로 함께 보낼 수 있다.
+	 */
+	List<Declaration> getEntities() {
+		return entities;
+	}
+
+	/**
+	 * @return 바인딩. 익스체인지와 큐가 있어야 보낼 수 있다.
+	 */
+	List<Declaration> getBindings() {
+		return bindings;
+	}
+
+	/**
+	 * 선언 하나. 같은 종류와 이름이면 인자가 달라도 같은 선언으로 본다.
+	 */
+	static final class Declaration {
+		enum Kind {EXCHANGE, QUEUE, BINDING, EXCHANGE_BINDING}
+
+		final Kind kind;
+		final String name;
+		final String exchange;
+		final String routingKey;
+		final String type;
+		final boolean durable;
+		final boolean exclusive;
+		final boolean autoDelete;
+		final Map<String, Object> arguments;
+
+		private Declaration(Kind kind, String name, String exchange, String routingKey,
+		                    String type, boolean durable, boolean exclusive, boolean autoDelete,
+		                    Map<String, Object> arguments) {
+			this.kind = kind;
+			this.name = name;
+			this.exchange = exchange;
+			this.routingKey = routingKey;
+			this.type = type;
+			this.durable = durable;
+			this.exclusive = exclusive;
+			this.autoDelete = autoDelete;
+			this.arguments = arguments;
+		}
+
+		static Declaration exchange(String name, String type, boolean durable, boolean autoDelete) {
+			return new Declaration(Kind.EXCHANGE, name, null, null, type, durable, false, autoDelete, null);
+		}
+
+		static Declaration queue(String name, boolean durable, boolean exclusive, boolean autoDelete,
+		                         Map<String, Object> arguments) {
+			return new Declaration(Kind.QUEUE, name, null, null, null, durable, exclusive, autoDelete, arguments);
+		}
+
+		static Declaration binding(String queue, String exchange, String routingKey) {
+			return new Declaration(Kind.BINDING, queue, exchange, routingKey, null, false, false, false, null);
+		}
+
+		static Declaration exchangeBinding(String destination, String source, String routingKey) {
+			return new Declaration(Kind.EXCHANGE_BINDING, destination, source, routingKey, null, false, false, false, null);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Declaration)) {
+				return false;
+			}
+			Declaration that = (Declaration) o;
+			return kind == that.kind && name.equals(that.name)
+					&& Objects.equals(exchange, that.exchange) && Objects.equals(routingKey, that.routingKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(kind, name, exchange, routingKey);
+		}
+
+		@Override
+		public String toString() {
+			switch (kind) {
+				case EXCHANGE:
+					return "exchange " + name;
+				case QUEUE:
+					return "queue " + name;
+				case EXCHANGE_BINDING:
+					return "binding " + exchange + " -[" + routingKey + "]-> exchange " + name;
+				default:
+					return "binding " + exchange + " -[" + routingKey + "]-> " + name;
+			}
+		}
+	}
+
+	/**
+	 * {@link Topology}를 만든다.
+	 */
+	public static final class Builder {
+		private final List<Declaration> entities = new ArrayList<>();
+		private final List<Declaration> bindings = new ArrayList<>();
+
+		private Builder() {
+		}
+
+		public Builder exchange(String name, BuiltinExchangeType type, boolean durable) {
+			return exchange(name, type.getType(), durable, false);
+		}
+
+		/**
+		 * 플러그인이 주는 익스체인지처럼 {@link BuiltinExchangeType}에 없는 종류도 쓸 수 있다.
+		 *
+		 * @param type       익스체인지 종류. 예: {@code x-consistent-hash}
+		 * @param autoDelete 묶인 것이 모두 풀리면 브로커가 지운다.
+		 */
+		public Builder exchange(String name, String type, boolean durable, boolean autoDelete) {
+			entities.add(Declaration.exchange(name, type, durable, autoDelete));
+			return this;
+		}
+
+		/**
+		 * 이름이 정해진 큐. 브로커가 이름을 짓는 큐는 {@link com.rabbitmq.client.Channel#queueDeclare()}로 직접 만든다.
+		 */
+		public Builder queue(String name, boolean durable, boolean exclusive, boolean autoDelete) {
+			return queue(name, durable, exclusive, autoDelete, null);
+		}
+
+		/**
+		 * @param arguments 큐 인자. 예: {@code x-single-active-consumer}
+		 */
+		public Builder queue(String name, boolean durable, boolean exclusive, boolean autoDelete,
+		                     Map<String, Object> arguments) {
+			entities.add(Declaration.queue(name, durable, exclusive, autoDelete, arguments));
+			return this;
+		}
+
+		public Builder binding(String queue, String exchange, String routingKey) {
+			bindings.add(Declaration.binding(queue, exchange, routingKey));
+			return this;
+		}
+
+		/**
+		 * {@code source}에 온 메시지 가운데 라우팅-키가 맞는 것을 {@code destination} 익스체인지로도 보낸다.
+		 */
+		public Builder exchangeBinding(String destination, String source, String routingKey) {
+			bindings.add(Declaration.exchangeBinding(destination, source, routingKey));
+			return this;
+		}
+
+		public Topology build() {
+			return new Topology(this);
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.topology;
+
+import com.rabbitmq.client.Channel;
+import kr.pe.elex.rabbitmq.topology.Topology.Declaration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 이 프로세스가 이미 선언한 익스체인지, 큐, 바인딩을 기억해서 같은 선언을 다시 보내지 않는다.
+ * <p>
+ * 아직 선언하지 않은 것은 응답을 기다리지 않는 {@code NoWait} 메서드로 한꺼번에 보내고,
+ * 마지막에 한 번만 응답을 기다린다. 채널은 명령을 차례로 처리하고 실패하면 닫히므로,
+ * 마지막 응답이 오면 앞의 선언이 모두 성공한 것이다. 선언이 몇 개이든 왕복은 한두 번이다.
+ * <p>
+ * 여러 클라이언트가 동시에 같은 것을 선언하면 하나만 보내고 나머지는 그 결과를 기다린다.
+ * 익스체인지와 큐를 먼저, 바인딩을 나중에 처리하므로 서로를 기다리다 멈추는 일은 없다.
+ * <p>
+ * 선언은 이름으로만 비교한다. 브로커에서 지우거나 복구되지 않는 연결이 끊어졌다면 {@link #forget} 또는 {@link #clear}로 잊게 한다.
+ *
+ * @author Elex
+ */
+@Slf4j
+public final class TopologyRegistry {
+	/**
+	 * 응답을 기다리는 데 쓰는 선언. 브로커에 항상 있는 익스체인지를 수동으로 선언해 본다.
+	 */
+	private static final String BARRIER_EXCHANGE = "amq.direct";
+
+	private final Map<Declaration, CompletableFuture<Void>> declared = new ConcurrentHashMap<>();
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder roundTrips = new LongAdder();
+
+	/**
+	 * 아직 선언하지 않은 것을 선언한다. 다른 클라이언트가 선언하는 중이면 끝날 때까지 기다린다.
+	 *
+	 * @param channel  선언에 쓸 채널
+	 * @param topology 필요한 익스체인지, 큐, 바인딩
+	 * @throws IOException 선언이 실패한 경우. 채널은 닫혀 있다.
+	 */
+	public void declare(Channel channel, Topology topology) throws IOException {
+		List<Declaration> mine = new ArrayList<>();
+		List<CompletableFuture<Void>> claimed = new ArrayList<>();
+		List<CompletableFuture<Void>> others = new ArrayList<>();
+
+		claim(topology.getEntities(), mine, claimed, others);
+		try {
+			send(channel, mine);
+			if (!others.isEmpty()) {
+				// 다른 클라이언트가 선언하는 익스체인지나 큐에 바인딩하려면 그쪽이 끝나야 합니다.
+				if (!mine.isEmpty()) {
+					barrier(channel);
+					complete(mine, claimed);
+				}
+				await(others);
+				others.clear();
+			}
+			int entities = mine.size();
+			claim(topology.getBindings(), mine, claimed, others);
+			send(channel, mine.subList(entities, mine.size()));
+			if (!mine.isEmpty() && !claimed.get(mine.size() - 1).isDone()) {
+				barrier(channel);
+			}
+		} catch (IOException | RuntimeException e) {
+			fail(mine, claimed, e);
+			throw e;
+		}
+		complete(mine, claimed);
+		await(others);
+	}
+
+	/**
+	 * 큐와 익스체인지 사이의 바인딩을 {@code routingKeys}와 같게 맞춘다.
+	 * 이 프로세스가 만든 바인딩 가운데 없는 것은 더하고, 남는 것은 푼다.
+	 *
+	 * @param channel     바인딩에 쓸 채널
+	 * @param queue       큐
+	 * @param exchange    익스체인지
+	 * @param routingKeys 있어야 할 라우팅-키들
+	 */
+	public void rebind(Channel channel, String queue, String exchange, Collection<String> routingKeys) throws IOException {
+		Set<String> desired = new HashSet<>(routingKeys);
+		List<String> stale = new ArrayList<>();
+		for (Declaration declaration : declared.keySet()) {
+			if (declaration.kind == Declaration.Kind.BINDING && declaration.name.equals(queue)
+					&& declaration.exchange.equals(exchange) && !desired.contains(declaration.routingKey)) {
+				stale.add(declaration.routingKey);
+			}
+		}
+		Topology.Builder builder = Topology.builder();
+		for (String routingKey : desired) {
+			builder.binding(queue, exchange, routingKey);
+		}
+		declare(channel, builder.build());
+		// queue.unbind에는 nowait가 없습니다.
+		for (String routingKey : stale) {
+			unbind(channel, queue, exchange, routingKey);
+		}
+	}
+
+	/**
+	 * 바인딩을 풀고 잊는다.
+	 */
+	public void unbind(Channel channel, String queue, String exchange, String routingKey) throws IOException {
+		Declaration binding = Declaration.binding(queue, exchange, routingKey);
+		declared.remove(binding);
+		channel.queueUnbind(queue, exchange, routingKey);
+		roundTrips.increment();
+	}
+
+	/**
+	 * 큐와 그 큐의 바인딩을 잊는다. 큐를 지웠거나 배타적인 큐의 연결이 끊어진 경우에 부른다.
+	 */
+	public void forget(String queue) {
+		declared.keySet().removeIf(declaration -> (declaration.kind == Declaration.Kind.QUEUE
+				|| declaration.kind == Declaration.Kind.BINDING) && declaration.name.equals(queue));
+	}
+
+	/**
+	 * 익스체인지와 그 익스체인지에 묶인 바인딩을 잊는다. 익스체인지를 지운 경우에 부른다.
+	 */
+	public void forgetExchange(String exchange) {
+		declared.keySet().removeIf(declaration -> exchange.equals(declaration.exchange)
+				|| (declaration.kind != Declaration.Kind.QUEUE && declaration.kind != Declaration.Kind.BINDING
+				&& declaration.name.equals(exchange)));
+	}
+
+	/**
+	 * 모두 잊는다. 다음 선언은 모두 브로커로 간다.
+	 */
+	public void clear() {
+		declared.clear();
+	}
+
+	/**
+	 * @return 브로커에 보낸 선언 수
+	 */
+	public long getSent() {
+		return sent.sum();
+	}
+
+	/**
+	 * @return 이미 선언돼서 보내지 않은 선언 수
+	 */
+	public long getSkipped() {
+		return skipped.sum();
+	}
+
+	/**
+	 * @return 응답을 기다린 횟수
+	 */
+	public long getRoundTrips() {
+		return roundTrips.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "TopologyRegistry{declared=" + declared.size() + ", sent=" + getSent()
+				+ ", skipped=" + getSkipped() + ", roundTrips=" + getRoundTrips() + "}";
+	}
+
+	private void claim(List<Declaration> declarations, List<Declaration> mine,
+	                   List<CompletableFuture<Void>> claimed, List<CompletableFuture<Void>> others) {
+		for (Declaration declaration : declarations) {
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			CompletableFuture<Void> existing = declared.putIfAbsent(declaration, future);
+			if (null == existing) {
+				mine.add(declaration);
+				claimed.add(future);
+			} else {
+				others.add(existing);
+				skipped.increment();
+			}
+		}
+	}
+
+	private void send(Channel channel, List<Declaration> declarations) throws IOException {
+		for (Declaration declaration : declarations) {
+			switch (declaration.kind) {
+				case EXCHANGE:
+					channel.exchangeDeclareNoWait(declaration.name, declaration.type, declaration.durable,
+							declaration.autoDelete, false, null);
+					break;
+				case QUEUE:
+					channel.queueDeclareNoWait(declaration.name, declaration.durable, declaration.exclusive,
+							declaration.autoDelete, declaration.arguments);
+					break;
+				case EXCHANGE_BINDING:
+					channel.exchangeBindNoWait(declaration.name, declaration.exchange, declaration.routingKey, null);
+					break;
+				default:
+					channel.queueBindNoWait(declaration.name, declaration.exchange, declaration.routingKey, null);
+					break;
+			}
+			sent.increment();
+			log.debug("Declared {}", declaration);
+		}
+	}
+
+	private void barrier(Channel channel) throws IOException {
+		channel.exchangeDeclarePassive(BARRIER_EXCHANGE);
+		roundTrips.increment();
+	}
+
+	private static void complete(List<Declaration> mine, List<CompletableFuture<Void>> claimed) {
+		for (int i = 0; i < mine.size(); i++) {
+			claimed.get(i).complete(null);
+		}
+	}
+
+	private void fail(List<Declaration> mine, List<CompletableFuture<Void>> claimed, Exception cause) {
+		for (int i = 0; i < mine.size(); i++) {
+			CompletableFuture<Void> future = claimed.get(i);
+			if (!future.isDone()) {
+				// 다음에 선언하는 쪽이 다시 보내도록 잊습니다.
+				declared.remove(mine.get(i), future);
+				future.completeExceptionally(cause);
+			}
+		}
+	}
+
+	private static void await(List<CompletableFuture<Void>> others) throws IOException {
+		for (CompletableFuture<Void> future : others) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a declaration.");
+			} catch (ExecutionException e) {
+				throw new IOException("Declaration failed on another channel.", e.getCause());
+			}
+		}
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.trace;
+
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 보내고 받은 메시지를 골라서 로그로 남긴다.
+ * <p>
+ * 메시지마다 본문을 문자열로 디코딩해서 INFO로 찍으면 부하가 걸렸을 때 로그가 CPU와 할당을 가장 많이 쓴다.
+ * 이 추적기는 {@link Sampler}가 고른 메시지만, 본문 대신 크기와 해시를 남긴다.
+ * <p>
+ * 메시지를 보내고 받는 스레드는 미리 만들어 둔 링 버퍼의 칸 하나에 값을 적기만 하므로 잠그지 않고 할당하지 않는다.
+ * 버퍼가 꽉 차면 기다리지 않고 버리고, 버린 개수는 나중에 경고로 남긴다. 로그 문장은 추적기의 스레드가
+ * 주기적으로 버퍼를 비우면서 만든다. 그러므로 로그의 시각과 스레드는 남긴 쪽이 아니라 추적기의 것이고,
+ * 메시지를 지난 시각은 {@code at=}으로 따로 적는다.
+ * <p>
+ * 추적을 끄면({@link Sampler#never()}이거나 {@value #LOGGER} 로거의 INFO가 꺼져 있으면) 필드 하나와 로그 수준을 비교하는 것 말고는
+ * 아무것도 하지 않는다.
+ * <p>
+ * {@link #shared()}는 시스템 속성으로 설정한다.
+ * <ul>
+ *     <li>{@code elex.trace.sample}: {@link Sampler#parse(String)}의 형식. 기본은 {@code 100/s}</li>
+ *     <li>{@code elex.trace.content}: {@code true}이면 본문도 디코딩해서 남긴다. 고른 메시지마다 본문을 복사한다. 기본은 {@code false}</li>
+ * </ul>
+ *
+ * @author Elex
+ */
+public final class MessageTracer implements AutoCloseable {
+	/**
+	 * 추적 로그를 남기는 로거 이름. 로그 설정에서 이 로거만 따로 끄고 켤 수 있다.
+	 */
+	public static final String LOGGER = "kr.pe.elex.rabbitmq.trace";
+
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+
+	private static final class Holder {
+		private static final MessageTracer SHARED = builder()
+				.sampler(Sampler.parse(System.getProperty("elex.trace.sample", "100/s")))
+				.content(Boolean.getBoolean("elex.trace.content"))
+				.build();
+	}
+
+	private final Logger logger;
+	private final Sampler sampler;
+	private final boolean enabled;
+	private final boolean content;
+	private final Entry[] ring;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private final LongAdder dropped = new LongAdder();
+	private final ScheduledExecutorService drainer;
+	// 비우는 스레드만 씁니다.
+	private long head;
+
+	private MessageTracer(Builder builder) {
+		this.logger = LoggerFactory.getLogger(builder.logger);
+		this.sampler = builder.sampler;
+		this.enabled = builder.sampler != Sampler.never();
+		this.content = builder.content;
+		int capacity = Integer.highestOneBit(builder.capacity - 1) << 1;
+		this.ring = new Entry[capacity];
+		for (int i = 0; i < capacity; i++) {
+			ring[i] = new Entry(i);
+		}
+		this.mask = capacity - 1;
+		if (enabled) {
+			drainer = WorkerExecutors.scheduler("trace");
+			drainer.scheduleWithFixedDelay(this::drain, builder.drainMillis, builder.drainMillis, TimeUnit.MILLISECONDS);
+		} else {
+			drainer = null;
+		}
+	}
+
+	/**
+	 * @return 프로세스 전체에서 함께 쓰는 추적기. 처음 부를 때 시스템 속성을 읽는다.
+	 */
+	public static MessageTracer shared() {
+		return Holder.SHARED;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * 보낸 메시지를 남긴다.
+	 *
+	 * @param name       보낸 쪽의 이름. 예제 이름이나 익스체인지
+	 * @param routingKey 라우팅-키
+	 * @param body       본문. {@code content}를 켰다면 복사해서 남기므로 돌아온 뒤에 다시 써도 된다.
+	 */
+	public void tx(String name, String routingKey, byte[] body) {
+		if (enabled && logger.isInfoEnabled() && sampler.sample()) {
+			offer(true, name, routingKey, body);
+		}
+	}
+
+	/**
+	 * 받은 메시지를 남긴다.
+	 *
+	 * @param name       받은 쪽의 이름. 예제 이름이나 컨슈머 태그
+	 * @param routingKey 라우팅-키
+	 * @param body       본문
+	 */
+	public void rx(String name, String routingKey, byte[] body) {
+		if (enabled && logger.isInfoEnabled() && sampler.sample()) {
+			offer(false, name, routingKey, body);
+		}
+	}
+
+	/**
+	 * @return 버퍼가 꽉 차서 버렸지만 아직 경고로 남기지 않은 개수
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	private void offer(boolean outbound, String name, String routingKey, byte[] body) {
+		// 여러 스레드가 채우고 한 스레드가 비우는 링 버퍼입니다.
+		// 칸의 sequence가 위치와 같으면 비어 있고, 위치+1이면 채워져 있습니다.
+		long position = tail.get();
+		while (true) {
+			Entry entry = ring[(int) position & mask];
+			long difference = entry.sequence - position;
+			if (0 == difference) {
+				if (tail.compareAndSet(position, position + 1)) {
+					entry.outbound = outbound;
+					entry.time = System.currentTimeMillis();
+					entry.name = name;
+					entry.routingKey = routingKey;
+					entry.size = null == body ? 0 : body.length;
+					entry.hash = hash(body);
+					// 보내는 쪽은 PayloadBuffer의 배열을 다시 쓰므로, 남기기 전에 바뀌지 않도록 복사해 둡니다.
+					entry.body = content && null != body ? Arrays.copyOf(body, body.length) : null;
+					entry.sequence = position + 1;
+					return;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				dropped.increment();
+				return;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	private synchronized void drain() {
+		try {
+			while (true) {
+				Entry entry = ring[(int) head & mask];
+				if (entry.sequence != head + 1) {
+					break;
+				}
+				log(entry);
+				entry.name = null;
+				entry.routingKey = null;
+				entry.body = null;
+				entry.sequence = head + ring.length;
+				head++;
+			}
+			long count = dropped.sumThenReset();
+			if (count > 0) {
+				logger.warn("Trace buffer full, {} records dropped.", count);
+			}
+		} catch (RuntimeException e) {
+			// 예외가 나가면 다시 불리지 않습니다.
+			logger.warn("Trace drain fail..", e);
+		}
+	}
+
+	private void log(Entry entry) {
+		String at = LocalTime.ofInstant(Instant.ofEpochMilli(entry.time), ZONE).toString();
+		String hash = String.format("%08x", entry.hash);
+		if (null != entry.body) {
+			logger.info("{} [{}] {} size={} hash={} at={} : {}", entry.outbound ? "Tx" : "Rx",
+					entry.name, entry.routingKey, entry.size, hash, at, Payload.wrap(entry.body));
+		} else {
+			logger.info("{} [{}] {} size={} hash={} at={}", entry.outbound ? "Tx" : "Rx",
+					entry.name, entry.routingKey, entry.size, hash, at);
+		}
+	}
+
+	/**
+	 * @return 본문의 FNV-1a 해시. 같은 메시지가 어디를 지났는지 맞춰 볼 때 쓴다.
+	 */
+	static int hash(byte[] body) {
+		int hash = 0x811c9dc5;
+		if (null != body) {
+			for (byte b : body) {
+				hash = (hash ^ (b & 0xff)) * 0x01000193;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * 남은 기록을 마저 남기고 추적기의 스레드를 멈춘다.
+	 */
+	@Override
+	public void close() {
+		if (null != drainer) {
+			drainer.shutdown();
+			drain();
+		}
+	}
+
+	private static final class Entry {
+		private volatile long sequence;
+		private boolean outbound;
+		private long time;
+		private String name;
+		private String routingKey;
+		private int size;
+		private int hash;
+		private byte[] body;
+
+		private Entry(long sequence) {
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * {@link MessageTracer}를 만든다.
+	 */
+	public static final class Builder {
+		private Sampler sampler = Sampler.rateLimited(100);
+		private boolean content;
+		private int capacity = 8192;
+		private long drainMillis = 100;
+		private String logger = LOGGER;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param sampler 남길 메시지를 고르는 쪽. 기본은 1초에 100개. {@link Sampler#never()}이면 스레드도 만들지 않는다.
+		 */
+		public Builder sampler(Sampler sampler) {
+			this.sampler = sampler;
+			return this;
+		}
+
+		/**
+		 * @param content 본문도 디코딩해서 남길지. 기본은 false
+		 */
+		public Builder content(boolean content) {
+			this.content = content;
+			return this;
+		}
+
+		/**
+		 * @param capacity 남기기를 기다리는 기록의 최대 개수. 2의 거듭제곱으로 올린다. 기본은 8192
+		 */
+		public Builder capacity(int capacity) {
+			if (capacity < 2) {
+				throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+			}
+			this.capacity = capacity;
+			return this;
+		}
+
+		/**
+		 * @param drainMillis 버퍼를 비우는 주기. 기본은 100ms
+		 */
+		public Builder drainInterval(long drainMillis) {
+			if (drainMillis < 1) {
+				throw new IllegalArgumentException("drainMillis must be positive: " + drainMillis);
+			}
+			this.drainMillis = drainMillis;
+			return this;
+		}
+
+		/**
+		 * @param logger 로거 이름. 기본은 {@value MessageTracer#LOGGER}
+		 */
+		public Builder logger(String logger) {
+			this.logger = logger;
+			return this;
+		}
+
+		public MessageTracer build() {
+			return new MessageTracer(this);
+		}
+	}
+}
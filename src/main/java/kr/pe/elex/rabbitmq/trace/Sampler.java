@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.trace;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 메시지마다 남길지 고른다. 여러 스레드에서 동시에 불리며, 잠그지 않고 할당하지 않는다.
+ *
+ * @author Elex
+ */
+@FunctionalInterface
+public interface Sampler {
+	/**
+	 * @return 이 메시지를 남기려면 {@code true}
+	 */
+	boolean sample();
+
+	/**
+	 * @return 아무것도 남기지 않는다.
+	 */
+	static Sampler never() {
+		return Fixed.NEVER;
+	}
+
+	/**
+	 * @return 모두 남긴다.
+	 */
+	static Sampler always() {
+		return Fixed.ALWAYS;
+	}
+
+	/**
+	 * @param n 몇 개마다 하나를 남길지
+	 * @return 처음 것부터 {@code n}개마다 하나를 남긴다.
+	 */
+	static Sampler everyNth(long n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("n must be positive: " + n);
+		}
+		if (1 == n) {
+			return always();
+		}
+		AtomicLong count = new AtomicLong();
+		return () -> 0 == count.getAndIncrement() % n;
+	}
+
+	/**
+	 * 1초에 {@code perSecond}개까지 남긴다. 남긴 적이 한동안 없었다면 1초 몫까지 한꺼번에 남길 수 있다.
+	 *
+	 * @param perSecond 1초에 남길 최대 개수
+	 */
+	static Sampler rateLimited(long perSecond) {
+		if (perSecond < 1) {
+			throw new IllegalArgumentException("perSecond must be positive: " + perSecond);
+		}
+		long interval = Math.max(1, TimeUnit.SECONDS.toNanos(1) / perSecond);
+		long burst = TimeUnit.SECONDS.toNanos(1) - interval;
+		// 다음 메시지가 남을 수 있는 이론상의 시각입니다(GCRA). 지금보다 burst 넘게 앞서 있으면 버립니다.
+		AtomicLong theoretical = new AtomicLong(System.nanoTime());
+		return () -> {
+			long now = System.nanoTime();
+			while (true) {
+				long tat = theoretical.get();
+				if (tat - now > burst) {
+					return false;
+				}
+				if (theoretical.compareAndSet(tat, Math.max(tat, now) + interval)) {
+					return true;
+				}
+			}
+		};
+	}
+
+	/**
+	 * 늘 같은 답을 하는 선택기. {@link #never()}는 하나뿐이므로 추적기가 알아보고 아예 꺼 둔다.
+	 */
+	enum Fixed implements Sampler {
+		NEVER, ALWAYS;
+
+		@Override
+		public boolean sample() {
+			return this == ALWAYS;
+		}
+	}
+
+	/**
+	 * 설정 문자열로 만든다.
+	 * <ul>
+	 *     <li>{@code off}, {@code 0}: {@link #never()}</li>
+	 *     <li>{@code all}, {@code 1}: {@link #always()}</li>
+	 *     <li>{@code N}: {@link #everyNth(long)}</li>
+	 *     <li>{@code N/s}: {@link #rateLimited(long)}</li>
+	 * </ul>
+	 */
+	static Sampler parse(String spec) {
+		String value = spec.trim();
+		if ("off".equalsIgnoreCase(value) || "0".equals(value)) {
+			return never();
+		}
+		if ("all".equalsIgnoreCase(value)) {
+			return always();
+		}
+		try {
+			if (value.endsWith("/s")) {
+				return rateLimited(Long.parseLong(value.substring(0, value.length() - 2)));
+			}
+			return everyNth(Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid sampler: " + spec, e);
+		}
+	}
+}
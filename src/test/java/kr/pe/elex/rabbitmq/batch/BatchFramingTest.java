@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.batch;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link BatchFraming}으로 묶고 푸는 것과 {@link BatchPublisher}에서 {@link UnbatchingConsumer}까지의 왕복.
+ *
+ * @author Elex
+ */
+class BatchFramingTest {
+	// 길이 필드가 1, 2, 3바이트가 되는 경계입니다.
+	private static final int[] LENGTHS = {0, 1, 127, 128, 300, 16383, 16384, 70000};
+
+	private EmbeddedBroker broker;
+	private ConnectionManager connectionManager;
+
+	@BeforeEach
+	void setUp() {
+		broker = new EmbeddedBroker();
+		connectionManager = new ConnectionManager(broker.connectionFactory(), 1, 2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		connectionManager.close();
+		broker.close();
+	}
+
+	@Test
+	void lengthsRoundTrip() {
+		List<byte[]> messages = new ArrayList<>();
+		for (int length : LENGTHS) {
+			messages.add(message(length));
+		}
+		byte[] body = pack(messages);
+
+		List<byte[]> unpacked = new ArrayList<>();
+		assertEquals(messages.size(), BatchFraming.unpack(body, unpacked::add));
+		assertEquals(messages.size(), unpacked.size());
+		for (int i = 0; i < messages.size(); i++) {
+			assertArrayEquals(messages.get(i), unpacked.get(i));
+		}
+	}
+
+	@Test
+	void lengthSizeMatchesWrittenBytes() {
+		for (int length : new int[]{0, 127, 128, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE}) {
+			byte[] buffer = new byte[5];
+			assertEquals(BatchFraming.lengthSize(length), BatchFraming.writeLength(buffer, 0, length), "length " + length);
+		}
+	}
+
+	@Test
+	void emptyBodyHasNoMessages() {
+		assertEquals(0, BatchFraming.unpack(new byte[0], message -> fail("unexpected message")));
+	}
+
+	@Test
+	void truncatedBatchIsRejected() {
+		byte[] body = pack(Arrays.asList(message(10), message(200)));
+		byte[] truncated = Arrays.copyOf(body, body.length - 1);
+		List<byte[]> unpacked = new ArrayList<>();
+		assertThrows(IllegalArgumentException.class, () -> BatchFraming.unpack(truncated, unpacked::add));
+		// 잘린 곳 앞의 메시지는 이미 넘겼습니다.
+		assertEquals(1, unpacked.size());
+
+		byte[] unterminated = {(byte) 0x80, (byte) 0x80};
+		assertThrows(IllegalArgumentException.class, () -> BatchFraming.unpack(unterminated, unpacked::add));
+		byte[] tooLong = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x01};
+		assertThrows(IllegalArgumentException.class, () -> BatchFraming.unpack(tooLong, unpacked::add));
+	}
+
+	@Test
+	void isBatchLooksAtContentType() {
+		assertFalse(BatchFraming.isBatch(null));
+		assertFalse(BatchFraming.isBatch(new AMQP.BasicProperties.Builder().contentType("text/plain").build()));
+		assertTrue(BatchFraming.isBatch(new AMQP.BasicProperties.Builder().contentType(BatchFraming.CONTENT_TYPE).build()));
+	}
+
+	@Test
+	void publisherToConsumerRoundTrip() throws Exception {
+		Channel channel = connectionManager.createChannel();
+		String queue = channel.queueDeclare().getQueue();
+		List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+		channel.basicConsume(queue, false, new UnbatchingConsumer(new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+				assertNull(properties.getContentType());
+				received.add(body);
+			}
+		}) {
+			@Override
+			protected void handleBatchEnd(String consumerTag, Envelope envelope, int count) throws IOException {
+				batches.add(count);
+				channel.basicAck(envelope.getDeliveryTag(), false);
+			}
+		});
+
+		List<byte[]> messages = new ArrayList<>();
+		int total = 0;
+		try (BatchPublisher publisher = new BatchPublisher(connectionManager, 1024)) {
+			for (int i = 0; i < 100; i++) {
+				byte[] message = message(i * 7 % 300);
+				messages.add(message);
+				total += message.length;
+				publisher.publish("", queue, message);
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.size() < messages.size() && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertEquals(messages.size(), received.size());
+		for (int i = 0; i < messages.size(); i++) {
+			assertArrayEquals(messages.get(i), received.get(i), "message " + i);
+		}
+		// 묶음 하나에 여러 메시지가 들어가고, 묶음마다 ack 하나입니다.
+		assertTrue(batches.size() < messages.size());
+		assertTrue(batches.size() >= total / 1024);
+		assertEquals(messages.size(), batches.stream().mapToInt(Integer::intValue).sum());
+		assertEquals(batches.size(), broker.getAcknowledged());
+	}
+
+	@Test
+	void emptyBatchesAreDropped() throws Exception {
+		Channel channel = connectionManager.createChannel();
+		String queue = channel.queueDeclare().getQueue();
+		channel.exchangeDeclare("test.batch", "topic");
+		channel.queueBind(queue, "test.batch", "#");
+		try (BatchPublisher publisher = new BatchPublisher(connectionManager, 1024)) {
+			for (int i = 0; i < 100; i++) {
+				publisher.publish("test.batch", "entity." + i, message(10));
+			}
+			assertEquals(100, publisher.getBatchCount());
+			// 보낸 묶음은 비어 있지만, 바로 다음 메시지가 올 수 있으므로 한 번은 남겨둡니다.
+			publisher.flush();
+			assertEquals(100, publisher.getBatchCount());
+			publisher.publish("test.batch", "entity.0", message(10));
+			publisher.flush();
+			assertEquals(1, publisher.getBatchCount());
+			publisher.flush();
+			assertEquals(0, publisher.getBatchCount());
+
+			// 치운 다음에도 같은 라우팅-키로 보낼 수 있습니다.
+			publisher.publish("test.batch", "entity.0", message(10));
+			assertEquals(1, publisher.getBatchCount());
+		}
+		assertEquals(102, broker.getMessageCount(queue));
+	}
+
+	@Test
+	void lingerDropsIdleBatches() throws Exception {
+		String queue = connectionManager.createChannel().queueDeclare().getQueue();
+		try (BatchPublisher publisher = new BatchPublisher(connectionManager, 1024)
+				.start(WorkerExecutors.sharedScheduler(), 5, TimeUnit.MILLISECONDS)) {
+			publisher.publish("", queue, message(10));
+			long deadline = System.currentTimeMillis() + 5000;
+			while (publisher.getBatchCount() > 0 && System.currentTimeMillis() < deadline) {
+				TimeUnit.MILLISECONDS.sleep(5);
+			}
+			assertEquals(0, publisher.getBatchCount());
+		}
+		assertEquals(1, broker.getMessageCount(queue));
+	}
+
+	private static byte[] message(int length) {
+		byte[] message = new byte[length];
+		for (int i = 0; i < length; i++) {
+			message[i] = (byte) (length + i);
+		}
+		return message;
+	}
+
+	private static byte[] pack(List<byte[]> messages) {
+		int size = 0;
+		for (byte[] message : messages) {
+			size += BatchFraming.lengthSize(message.length) + message.length;
+		}
+		byte[] body = new byte[size];
+		int position = 0;
+		for (byte[] message : messages) {
+			position = BatchFraming.writeLength(body, position, message.length);
+			System.arraycopy(message, 0, body, position, message.length);
+			position += message.length;
+		}
+		return body;
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.codec;
+
+import com.rabbitmq.client.AMQP;
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link Schema}와 {@link BinaryCodec}으로 쓰고 읽은 값이 같은지, 그리고 {@link CodecRegistry}가 코덱을 고르는지.
+ *
+ * @author Elex
+ */
+class BinaryCodecTest {
+	private static final Schema<Line> LINE = Schema.builder(Line::new)
+			.stringField(line -> line.sku, (line, sku) -> line.sku = sku)
+			.intField(line -> line.quantity, (line, quantity) -> line.quantity = quantity)
+			.build();
+	private static final Schema<Order> ORDER = Schema.builder(Order::new)
+			.longField(order -> order.id, (order, id) -> order.id = id)
+			.intField(order -> order.priority, (order, priority) -> order.priority = priority)
+			.doubleField(order -> order.price, (order, price) -> order.price = price)
+			.booleanField(order -> order.urgent, (order, urgent) -> order.urgent = urgent)
+			.stringField(order -> order.symbol, (order, symbol) -> order.symbol = symbol)
+			.bytesField(order -> order.memo, (order, memo) -> order.memo = memo)
+			.objectField(order -> order.first, (order, first) -> order.first = first, LINE)
+			.listField(order -> order.lines, (order, lines) -> order.lines = lines, LINE)
+			.build();
+	// 앞의 두 필드만 아는 예전 스키마입니다.
+	private static final Schema<Order> OLD_ORDER = Schema.builder(Order::new)
+			.longField(order -> order.id, (order, id) -> order.id = id)
+			.intField(order -> order.priority, (order, priority) -> order.priority = priority)
+			.build();
+
+	@Test
+	void everyFieldTypeRoundTrips() {
+		Order order = new Order();
+		order.id = Long.MIN_VALUE;
+		order.priority = -1;
+		order.price = -0.125;
+		order.urgent = true;
+		order.symbol = "삼성전자 😀";
+		order.memo = new byte[]{0, -1, 127};
+		order.first = new Line("a", 3);
+		order.lines = Arrays.asList(new Line("b", Integer.MAX_VALUE), new Line(null, Integer.MIN_VALUE));
+
+		assertEquals(order, roundTrip(ORDER, order));
+	}
+
+	@Test
+	void nullsAndDefaultsRoundTrip() {
+		Order order = new Order();
+		Order decoded = roundTrip(ORDER, order);
+		assertEquals(order, decoded);
+		assertNull(decoded.symbol);
+		assertNull(decoded.memo);
+		assertNull(decoded.first);
+		assertNull(decoded.lines);
+
+		order.symbol = "";
+		order.memo = new byte[0];
+		order.lines = Arrays.asList();
+		decoded = roundTrip(ORDER, order);
+		assertEquals("", decoded.symbol);
+		assertEquals(0, decoded.memo.length);
+		assertTrue(decoded.lines.isEmpty());
+	}
+
+	@Test
+	void smallNumbersTakeOneByte() {
+		Order order = new Order();
+		order.id = -1;
+		order.priority = 63;
+		PayloadBuffer out = new PayloadBuffer();
+		OLD_ORDER.encode(order, out);
+		// 필드 개수, 지그재그로 바꾼 -1과 63이 한 바이트씩입니다.
+		assertArrayEquals(new byte[]{2, 1, 126}, out.body());
+	}
+
+	@Test
+	void newSchemaReadsOldMessages() {
+		Order order = new Order();
+		order.id = 42;
+		order.priority = 7;
+		Order decoded = roundTrip(OLD_ORDER, order, ORDER);
+		assertEquals(42, decoded.id);
+		assertEquals(7, decoded.priority);
+		assertNull(decoded.symbol);
+	}
+
+	@Test
+	void oldSchemaRejectsNewMessages() {
+		Order order = new Order();
+		assertThrows(IllegalArgumentException.class, () -> roundTrip(ORDER, order, OLD_ORDER));
+	}
+
+	@Test
+	void malformedBodiesAreRejected() {
+		PayloadBuffer out = new PayloadBuffer();
+		ORDER.encode(new Order(), out);
+		byte[] body = out.body();
+		assertThrows(IllegalArgumentException.class,
+				() -> ORDER.decode(Payload.wrap(Arrays.copyOf(body, body.length - 1))));
+		assertThrows(IllegalArgumentException.class,
+				() -> ORDER.decode(Payload.wrap(Arrays.copyOf(body, body.length + 1))));
+
+		// 문자열 길이가 본문보다 깁니다.
+		Schema<Line> sku = Schema.builder(Line::new)
+				.stringField(line -> line.sku, (line, value) -> line.sku = value)
+				.build();
+		assertThrows(IllegalArgumentException.class, () -> sku.decode(Payload.wrap(new byte[]{1, 10, 'a'})));
+		// 끝나지 않는 varint입니다.
+		byte[] varint = new byte[11];
+		Arrays.fill(varint, (byte) 0x80);
+		assertThrows(IllegalArgumentException.class, () -> sku.decode(Payload.wrap(varint)));
+	}
+
+	@Test
+	void utf8LengthMatchesTheBuffer() {
+		for (String value : new String[]{"", "abc", "é", "한", "😀", "a\ud83d", "\ude00b"}) {
+			assertEquals(new PayloadBuffer().append(value).length(), BinaryReader.utf8Length(value), value);
+		}
+	}
+
+	@Test
+	void codecHandsOutTheRegisteredSchema() {
+		BinaryCodec codec = new BinaryCodec().register(Order.class, ORDER);
+		assertSame(ORDER, codec.encoder(Order.class));
+		assertSame(ORDER, codec.decoder(Order.class));
+		assertThrows(IllegalArgumentException.class, () -> codec.encoder(Line.class));
+	}
+
+	@Test
+	void registryPicksTheCodecByContentType() {
+		BinaryCodec binary = new BinaryCodec().register(Order.class, ORDER);
+		CodecRegistry registry = CodecRegistry.defaults().register(binary);
+		Order order = new Order();
+		order.id = 5;
+		order.symbol = "X";
+
+		AMQP.BasicProperties properties = binary.properties(null);
+		assertEquals(BinaryCodec.CONTENT_TYPE, properties.getContentType());
+		byte[] body = CodecRegistry.encode(binary, order).body().clone();
+		assertEquals(order, registry.decode(properties, body, Order.class));
+
+		byte[] text = "안녕".getBytes(StandardCharsets.UTF_8);
+		assertEquals("안녕", registry.decode(new TextCodec().properties(null), text, String.class));
+		// contentEncoding 없이 와도 contentType으로 찾습니다.
+		assertEquals("안녕", registry.decode(new AMQP.BasicProperties.Builder().contentType(TextCodec.CONTENT_TYPE).build(),
+				text, String.class));
+		assertArrayEquals(text, registry.decode(null, text, byte[].class));
+		assertThrows(IllegalArgumentException.class, () -> registry.codec("application/json", null));
+	}
+
+	private static <T> T roundTrip(Schema<T> schema, T value) {
+		return roundTrip(schema, value, schema);
+	}
+
+	private static <T> T roundTrip(Schema<T> writer, T value, Schema<T> reader) {
+		PayloadBuffer out = new PayloadBuffer();
+		writer.encode(value, out);
+		return reader.decode(Payload.wrap(out.body()));
+	}
+
+	private static final class Line {
+		private String sku;
+		private int quantity;
+
+		private Line() {
+		}
+
+		private Line(String sku, int quantity) {
+			this.sku = sku;
+			this.quantity = quantity;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Line)) {
+				return false;
+			}
+			Line other = (Line) o;
+			return Objects.equals(sku, other.sku) && quantity == other.quantity;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(sku, quantity);
+		}
+	}
+
+	private static final class Order {
+		private long id;
+		private int priority;
+		private double price;
+		private boolean urgent;
+		private String symbol;
+		private byte[] memo;
+		private Line first;
+		private List<Line> lines;
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Order)) {
+				return false;
+			}
+			Order other = (Order) o;
+			return id == other.id && priority == other.priority && Double.compare(price, other.price) == 0
+					&& urgent == other.urgent && Objects.equals(symbol, other.symbol)
+					&& Arrays.equals(memo, other.memo) && Objects.equals(first, other.first)
+					&& Objects.equals(lines, other.lines);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(id, symbol);
+		}
+
+		@Override
+		public String toString() {
+			return "Order(" + id + ", " + symbol + ", " + lines + ")";
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.compress;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.payload.Payload;
+import kr.pe.elex.rabbitmq.payload.PayloadBuffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link Compression}의 크기 기준과 {@link DeflateAlgorithm}의 사전, {@link DecompressingConsumer}까지의 왕복.
+ *
+ * @author Elex
+ */
+class CompressionTest {
+	private static final AMQP.BasicProperties TEXT = new AMQP.BasicProperties.Builder()
+			.contentType("text/plain")
+			.contentEncoding("UTF-8")
+			.build();
+
+	private EmbeddedBroker broker;
+	private Channel channel;
+	private String queue;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		broker = new EmbeddedBroker();
+		channel = broker.connectionFactory().newConnection().createChannel();
+		queue = channel.queueDeclare().getQueue();
+	}
+
+	@AfterEach
+	void tearDown() {
+		broker.close();
+	}
+
+	@Test
+	void smallBodiesAreSentAsIs() throws Exception {
+		Compression compression = Compression.builder().threshold(100).build();
+		byte[] body = text(99);
+		compression.publish(channel, "", queue, TEXT, body);
+
+		List<Delivery> raw = consume(null, 1);
+		assertEquals("UTF-8", raw.get(0).properties.getContentEncoding());
+		assertArrayEquals(body, raw.get(0).body);
+	}
+
+	@Test
+	void largeBodiesAreCompressedAndRestored() throws Exception {
+		Compression compression = Compression.builder().threshold(100).build();
+		byte[] body = text(100);
+		compression.publish(channel, "", queue, TEXT, body);
+		compression.publish(channel, "", queue, null, body);
+
+		List<Delivery> deliveries = consume(compression, 2);
+		// 받는 쪽에는 압축하기 전의 contentEncoding이 보입니다.
+		assertEquals("UTF-8", deliveries.get(0).properties.getContentEncoding());
+		assertEquals("text/plain", deliveries.get(0).properties.getContentType());
+		assertArrayEquals(body, deliveries.get(0).body);
+		assertNull(deliveries.get(1).properties.getContentEncoding());
+		assertArrayEquals(body, deliveries.get(1).body);
+	}
+
+	@Test
+	void compressedBodiesAreMarked() throws Exception {
+		Compression compression = Compression.builder().threshold(100).build();
+		byte[] body = text(1000);
+		compression.publish(channel, "", queue, TEXT, body);
+
+		Delivery raw = consume(null, 1).get(0);
+		assertEquals("UTF-8, deflate", raw.properties.getContentEncoding());
+		assertTrue(raw.body.length < body.length);
+	}
+
+	@Test
+	void incompressibleBodiesAreSentAsIs() throws Exception {
+		byte[] body = new byte[2000];
+		new Random(1).nextBytes(body);
+		Compression.defaults().publish(channel, "", queue, null, body);
+
+		Delivery raw = consume(null, 1).get(0);
+		assertNull(raw.properties.getContentEncoding());
+		assertArrayEquals(body, raw.body);
+	}
+
+	@Test
+	void dictionaryShrinksSmallMessages() {
+		List<byte[]> samples = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			samples.add(order(i));
+		}
+		DeflateAlgorithm plain = new DeflateAlgorithm();
+		DeflateAlgorithm dictionary = DeflateAlgorithm.withDictionary("v1", DeflateAlgorithm.dictionary(samples, 4096));
+		assertEquals("deflate;dict=v1", dictionary.getName());
+
+		byte[] message = order(1234);
+		byte[] withDictionary = compress(dictionary, message);
+		assertTrue(withDictionary.length < compress(plain, message).length);
+		assertArrayEquals(message, decompress(dictionary, withDictionary, 1024));
+	}
+
+	@Test
+	void dictionaryKeepsTheLatestSamples() {
+		byte[] first = "first".getBytes(StandardCharsets.US_ASCII);
+		byte[] second = "second".getBytes(StandardCharsets.US_ASCII);
+		assertArrayEquals("tsecond".getBytes(StandardCharsets.US_ASCII),
+				DeflateAlgorithm.dictionary(Arrays.asList(first, second), 7));
+		assertThrows(IllegalArgumentException.class, () -> DeflateAlgorithm.withDictionary("a,b", first));
+	}
+
+	@Test
+	void dictionaryIsRequiredToInflate() {
+		DeflateAlgorithm dictionary = DeflateAlgorithm.withDictionary("v1", order(0));
+		byte[] compressed = compress(dictionary, order(1));
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> decompress(new DeflateAlgorithm(), compressed, 1024));
+		assertTrue(e.getMessage().contains("dictionary"), e.getMessage());
+	}
+
+	@Test
+	void oldDictionaryIsAccepted() throws Exception {
+		DeflateAlgorithm v1 = DeflateAlgorithm.withDictionary("v1", order(0));
+		DeflateAlgorithm v2 = DeflateAlgorithm.withDictionary("v2", order(1));
+		Compression.builder().algorithm(v1).threshold(1).build().publish(channel, "", queue, null, order(2));
+
+		Compression receiver = Compression.builder().algorithm(v2).accept(v1).build();
+		assertSame(v1, receiver.algorithm(new AMQP.BasicProperties.Builder().contentEncoding("deflate;dict=v1").build()));
+		assertArrayEquals(order(2), consume(receiver, 1).get(0).body);
+		assertThrows(IllegalArgumentException.class,
+				() -> receiver.algorithm(new AMQP.BasicProperties.Builder().contentEncoding("deflate;dict=v3").build()));
+		// 압축과 상관없는 contentEncoding은 건드리지 않습니다.
+		assertNull(receiver.algorithm(TEXT));
+	}
+
+	@Test
+	void bombsAndGarbageAreRejected() {
+		byte[] zeros = compress(new DeflateAlgorithm(), new byte[100000]);
+		assertThrows(IllegalArgumentException.class, () -> decompress(new DeflateAlgorithm(), zeros, 1000));
+		byte[] truncated = Arrays.copyOf(zeros, zeros.length / 2);
+		assertThrows(IllegalArgumentException.class, () -> decompress(new DeflateAlgorithm(), truncated, 1000000));
+		assertThrows(IllegalArgumentException.class,
+				() -> decompress(new DeflateAlgorithm(), "not deflate".getBytes(StandardCharsets.US_ASCII), 1000));
+	}
+
+	@Test
+	void malformedMessagesDoNotReachTheDelegate() throws Exception {
+		channel.basicPublish("", queue, new AMQP.BasicProperties.Builder().contentEncoding("deflate").build(),
+				"not deflate".getBytes(StandardCharsets.US_ASCII));
+		List<IllegalArgumentException> malformed = Collections.synchronizedList(new ArrayList<>());
+		List<byte[]> delivered = Collections.synchronizedList(new ArrayList<>());
+		channel.basicConsume(queue, true, new DecompressingConsumer(new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+				delivered.add(body);
+			}
+		}) {
+			@Override
+			protected void handleMalformed(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+			                               byte[] body, IllegalArgumentException cause) {
+				malformed.add(cause);
+			}
+		});
+		long deadline = System.currentTimeMillis() + 5000;
+		while (malformed.isEmpty() && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertEquals(1, malformed.size());
+		assertTrue(delivered.isEmpty());
+	}
+
+	/**
+	 * 큐에서 메시지를 받는다. {@code compression}이 null이면 풀지 않고 받는다.
+	 */
+	private List<Delivery> consume(Compression compression, int count) throws Exception {
+		List<Delivery> deliveries = Collections.synchronizedList(new ArrayList<>());
+		DefaultConsumer consumer = new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+				deliveries.add(new Delivery(properties, body));
+			}
+		};
+		channel.basicConsume(queue, true, null == compression ? consumer : new DecompressingConsumer(compression, consumer));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (deliveries.size() < count && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertEquals(count, deliveries.size());
+		return deliveries;
+	}
+
+	private static byte[] compress(CompressionAlgorithm algorithm, byte[] body) {
+		PayloadBuffer out = new PayloadBuffer();
+		algorithm.compress(Payload.wrap(body), out);
+		return out.view().toByteArray();
+	}
+
+	private static byte[] decompress(CompressionAlgorithm algorithm, byte[] body, int maxLength) {
+		PayloadBuffer out = new PayloadBuffer();
+		algorithm.decompress(Payload.wrap(body), out, maxLength);
+		return out.view().toByteArray();
+	}
+
+	private static byte[] text(int length) {
+		StringBuilder builder = new StringBuilder(length);
+		while (builder.length() < length) {
+			builder.append("hello rabbit ");
+		}
+		builder.setLength(length);
+		return builder.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] order(int id) {
+		return ("{\"id\":" + id + ",\"symbol\":\"ELEX\",\"side\":\"BUY\",\"price\":" + (1000 + id % 7)
+				+ ",\"quantity\":" + id % 13 + "}").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static final class Delivery {
+		private final AMQP.BasicProperties properties;
+		private final byte[] body;
+
+		private Delivery(AMQP.BasicProperties properties, byte[] body) {
+			this.properties = properties;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.confirm;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link AsyncConfirmPublisher}.
+ * <p>
+ * 내장 브로커는 컨펌을 모두 ack하므로, multiple 범위와 nack은 브로커의 컨펌을 붙잡아둔 채 직접 알려서 확인한다.
+ *
+ * @author Elex
+ */
+class AsyncConfirmPublisherTest {
+	private EmbeddedBroker broker;
+	private Connection connection;
+	private Channel channel;
+	private String queue;
+
+	@BeforeEach
+	void setUp() throws IOException, TimeoutException {
+		broker = new EmbeddedBroker();
+		connection = broker.connectionFactory().newConnection();
+		channel = connection.createChannel();
+		queue = channel.queueDeclare().getQueue();
+	}
+
+	@AfterEach
+	void tearDown() {
+		broker.close();
+	}
+
+	@Test
+	void brokerConfirmsEveryMessage() throws Exception {
+		AsyncConfirmPublisher publisher = new AsyncConfirmPublisher(channel, 4);
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			futures.add(publisher.publish("", queue, null, new byte[]{(byte) i}));
+		}
+		assertTrue(publisher.awaitAll(5, TimeUnit.SECONDS));
+		for (int i = 0; i < futures.size(); i++) {
+			assertEquals(i + 1, futures.get(i).get(1, TimeUnit.SECONDS));
+		}
+		assertEquals(0, publisher.inFlight());
+		assertEquals(100, broker.getMessageCount(queue));
+	}
+
+	@Test
+	void multipleAckCompletesTheRange() throws Exception {
+		CountDownLatch held = holdBrokerConfirms();
+		AsyncConfirmPublisher publisher = new AsyncConfirmPublisher(channel, 8);
+		List<CompletableFuture<Long>> futures = publish(publisher, 5);
+		assertEquals(5, publisher.inFlight());
+
+		publisher.handleAck(3, true);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 1, futures.get(i).getNow(null));
+		}
+		assertFalse(futures.get(3).isDone());
+		assertEquals(2, publisher.inFlight());
+
+		// 이미 끝난 범위를 다시 확인해도 그대로입니다.
+		publisher.handleAck(2, true);
+		assertEquals(2, publisher.inFlight());
+
+		publisher.handleAck(5, false);
+		assertFalse(futures.get(3).isDone());
+		assertTrue(futures.get(4).isDone());
+		// 가운데가 비어 있으면 창을 밀지 않습니다.
+		assertEquals(2, publisher.inFlight());
+
+		publisher.handleAck(4, false);
+		assertEquals(0, publisher.inFlight());
+		assertTrue(publisher.awaitAll(1, TimeUnit.SECONDS));
+
+		// 늦게 온 브로커의 컨펌은 무시됩니다.
+		held.countDown();
+		assertTrue(publisher.awaitAll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void multipleNackFailsTheRange() throws Exception {
+		CountDownLatch held = holdBrokerConfirms();
+		AsyncConfirmPublisher publisher = new AsyncConfirmPublisher(channel, 8);
+		List<CompletableFuture<Long>> futures = publish(publisher, 4);
+
+		publisher.handleNack(2, true);
+		for (int i = 0; i < 2; i++) {
+			CompletableFuture<Long> future = futures.get(i);
+			assertTrue(future.isCompletedExceptionally());
+			ExecutionException e = assertThrows(ExecutionException.class, future::get);
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertFalse(futures.get(2).isDone());
+
+		publisher.handleNack(4, false);
+		assertTrue(futures.get(3).isCompletedExceptionally());
+		publisher.handleAck(3, false);
+		assertEquals(3, futures.get(2).get());
+		assertEquals(0, publisher.inFlight());
+		held.countDown();
+	}
+
+	@Test
+	void fullWindowBlocksUntilConfirmed() throws Exception {
+		CountDownLatch held = holdBrokerConfirms();
+		AsyncConfirmPublisher publisher = new AsyncConfirmPublisher(channel, 2);
+		publish(publisher, 2);
+
+		CompletableFuture<CompletableFuture<Long>> third = CompletableFuture.supplyAsync(() -> {
+			try {
+				return publisher.publish("", queue, null, new byte[0]);
+			} catch (IOException | InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		assertThrows(TimeoutException.class, () -> third.get(100, TimeUnit.MILLISECONDS));
+		assertFalse(publisher.awaitAll(10, TimeUnit.MILLISECONDS));
+
+		publisher.handleAck(1, false);
+		CompletableFuture<Long> future = third.get(1, TimeUnit.SECONDS);
+		publisher.handleAck(3, true);
+		assertEquals(3, future.get(1, TimeUnit.SECONDS));
+		held.countDown();
+	}
+
+	@Test
+	void callbackMayPublishIntoAFullWindow() throws Exception {
+		AsyncConfirmPublisher publisher = new AsyncConfirmPublisher(channel, 1);
+		CompletableFuture<Long> last = new CompletableFuture<>();
+		// 확인받을 때마다 콜백에서 다음 메시지를 보냅니다. 창이 하나뿐이므로 자리를 먼저 돌려줘야 합니다.
+		chain(publisher, 10, last);
+		assertEquals(10, last.get(5, TimeUnit.SECONDS));
+		assertEquals(10, broker.getMessageCount(queue));
+	}
+
+	private void chain(AsyncConfirmPublisher publisher, int remaining, CompletableFuture<Long> last) {
+		try {
+			publisher.publish("", queue, null, new byte[0]).whenComplete((tag, e) -> {
+				if (null != e) {
+					last.completeExceptionally(e);
+				} else if (remaining == 1) {
+					last.complete(tag);
+				} else {
+					chain(publisher, remaining - 1, last);
+				}
+			});
+		} catch (IOException | InterruptedException e) {
+			last.completeExceptionally(e);
+		}
+	}
+
+	@Test
+	void closingTheChannelFailsPendingMessages() throws Exception {
+		CountDownLatch held = holdBrokerConfirms();
+		AsyncConfirmPublisher publisher = new AsyncConfirmPublisher(channel, 8);
+		List<CompletableFuture<Long>> futures = publish(publisher, 3);
+
+		channel.close();
+		for (CompletableFuture<Long> future : futures) {
+			assertTrue(future.isCompletedExceptionally());
+		}
+		assertEquals(0, publisher.inFlight());
+		held.countDown();
+	}
+
+	private List<CompletableFuture<Long>> publish(AsyncConfirmPublisher publisher, int count)
+			throws IOException, InterruptedException {
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			futures.add(publisher.publish("", queue, null, new byte[]{(byte) i}));
+		}
+		return futures;
+	}
+
+	/**
+	 * 채널의 디스패치 스레드를 붙잡아서, 래치를 풀 때까지 브로커의 컨펌이 발행자에게 가지 않게 한다.
+	 * 발행자보다 먼저 등록해야 한다.
+	 */
+	private CountDownLatch holdBrokerConfirms() throws IOException {
+		CountDownLatch latch = new CountDownLatch(1);
+		channel.confirmSelect();
+		channel.addConfirmListener(new ConfirmListener() {
+			@Override
+			public void handleAck(long deliveryTag, boolean multiple) {
+				await(latch);
+			}
+
+			@Override
+			public void handleNack(long deliveryTag, boolean multiple) {
+				await(latch);
+			}
+		});
+		return latch;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link AckCoalescer}. 메시지는 basic.get으로 받아서 딜리버리 태그를 1부터 차례대로 얻는다.
+ *
+ * @author Elex
+ */
+class AckCoalescerTest {
+	private EmbeddedBroker broker;
+	private Channel channel;
+	private String queue;
+
+	@BeforeEach
+	void setUp() throws IOException, TimeoutException {
+		broker = new EmbeddedBroker();
+		channel = broker.connectionFactory().newConnection().createChannel();
+		queue = channel.queueDeclare().getQueue();
+	}
+
+	@AfterEach
+	void tearDown() {
+		broker.close();
+	}
+
+	@Test
+	void outOfOrderCompletionWaitsForTheGap() throws IOException {
+		receive(6);
+		AckCoalescer coalescer = new AckCoalescer(channel, 3);
+
+		coalescer.ack(3);
+		coalescer.ack(2);
+		// 1이 끝나지 않았으므로 아무것도 보낼 수 없습니다.
+		assertEquals(0, coalescer.getPending());
+		coalescer.flush();
+		assertEquals(0, coalescer.getAckFrames());
+		assertEquals(0, broker.getAcknowledged());
+
+		coalescer.ack(1);
+		// 1, 2, 3이 이어지므로 multiple ack 하나로 보냅니다.
+		assertEquals(1, coalescer.getAckFrames());
+		assertEquals(3, broker.getAcknowledged());
+		assertEquals(0, coalescer.getPending());
+
+		coalescer.ack(6);
+		coalescer.ack(4);
+		assertEquals(1, coalescer.getPending());
+		coalescer.ack(5);
+		assertEquals(2, coalescer.getAckFrames());
+		assertEquals(6, broker.getAcknowledged());
+		assertEquals(2, broker.getAckFrames());
+	}
+
+	@Test
+	void flushSendsWhatIsContiguous() throws IOException {
+		receive(4);
+		AckCoalescer coalescer = new AckCoalescer(channel, 10);
+
+		coalescer.ack(1);
+		coalescer.ack(2);
+		coalescer.ack(4);
+		assertEquals(2, coalescer.getPending());
+		coalescer.flush();
+		assertEquals(2, broker.getAcknowledged());
+		assertEquals(0, coalescer.getPending());
+
+		// 다시 flush해도 보낼 것이 없습니다.
+		coalescer.flush();
+		assertEquals(1, coalescer.getAckFrames());
+	}
+
+	@Test
+	void rejectFillsTheGap() throws IOException, TimeoutException {
+		receive(3);
+		AckCoalescer coalescer = new AckCoalescer(channel, 2);
+
+		coalescer.ack(1);
+		coalescer.ack(3);
+		coalescer.reject(2, false);
+		coalescer.flush();
+
+		assertEquals(2, broker.getAcknowledged());
+		assertEquals(0, broker.getMessageCount(queue));
+		// 거절한 메시지가 채널에 남아 있으면 채널을 닫을 때 큐로 돌아옵니다.
+		channel.close();
+		assertEquals(0, broker.getMessageCount(queue));
+	}
+
+	@Test
+	void tagsFarAheadGrowTheRing() throws IOException {
+		int count = 100;
+		receive(count);
+		AckCoalescer coalescer = new AckCoalescer(channel, count);
+
+		for (int tag = count; tag >= 2; tag--) {
+			coalescer.ack(tag);
+		}
+		assertEquals(0, coalescer.getPending());
+		coalescer.ack(1);
+		assertEquals(count, broker.getAcknowledged());
+		assertEquals(1, broker.getAckFrames());
+	}
+
+	@Test
+	void lingerFlushesInTheBackground() throws IOException, InterruptedException {
+		receive(2);
+		AckCoalescer coalescer = new AckCoalescer(channel, 100)
+				.start(WorkerExecutors.sharedScheduler(), 10, TimeUnit.MILLISECONDS);
+		try {
+			coalescer.ack(1);
+			coalescer.ack(2);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (broker.getAcknowledged() < 2 && System.currentTimeMillis() < deadline) {
+				TimeUnit.MILLISECONDS.sleep(5);
+			}
+			assertEquals(2, broker.getAcknowledged());
+		} finally {
+			coalescer.close();
+		}
+	}
+
+	private void receive(int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			channel.basicPublish("", queue, null, new byte[]{(byte) i});
+		}
+		for (int i = 1; i <= count; i++) {
+			GetResponse response = channel.basicGet(queue, false);
+			assertNotNull(response);
+			assertEquals(i, response.getEnvelope().getDeliveryTag());
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import com.rabbitmq.client.Channel;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link AdaptivePrefetchController}가 정한 값을 지표로 내놓는지.
+ *
+ * @author Elex
+ */
+class AdaptivePrefetchControllerTest {
+	private EmbeddedBroker broker;
+	private Channel channel;
+
+	@BeforeEach
+	void setUp() throws IOException, TimeoutException {
+		broker = new EmbeddedBroker();
+		channel = broker.connectionFactory().newConnection().createChannel();
+	}
+
+	@AfterEach
+	void tearDown() {
+		broker.close();
+	}
+
+	@Test
+	void decisionsArePublishedAsMetrics() throws IOException, InterruptedException {
+		Metrics metrics = new Metrics();
+		AdaptivePrefetchController first = new AdaptivePrefetchController(channel, 4, 2, 100).withMetrics(metrics);
+		AdaptivePrefetchController second = new AdaptivePrefetchController(channel, 1, 5, 100).withMetrics(metrics);
+		first.start(10, TimeUnit.MILLISECONDS);
+		second.start(1, TimeUnit.HOURS);
+		// 처음에는 concurrency의 두 배를 씁니다.
+		assertEquals(8 + 5, metrics.getCounters().get(Metrics.PREFETCH));
+		assertEquals(2, metrics.histogram(Metrics.PREFETCH_RTT).snapshot().getCount());
+
+		// 처리 시간이 왕복 시간보다 훨씬 길면 concurrency 가까이 줄입니다.
+		long deadline = System.currentTimeMillis() + 5000;
+		while (first.getAdjustments() == 0 && System.currentTimeMillis() < deadline) {
+			long now = System.nanoTime();
+			first.record(now - TimeUnit.SECONDS.toNanos(1), now - TimeUnit.SECONDS.toNanos(1), now);
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertTrue(first.getPrefetch() < 8, "prefetch " + first.getPrefetch());
+		assertEquals(first.getPrefetch() + 5, metrics.getCounters().get(Metrics.PREFETCH));
+		assertEquals(first.getAdjustments(), metrics.getCounters().get(Metrics.PREFETCH_ADJUSTMENTS));
+		assertTrue(metrics.histogram(Metrics.PREFETCH_PROCESSING).snapshot().getCount() > 0);
+
+		first.close();
+		first.close();
+		assertEquals(5, metrics.getCounters().get(Metrics.PREFETCH));
+		second.close();
+		assertEquals(0, metrics.getCounters().get(Metrics.PREFETCH));
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link KeyPartitionedExecutor}가 키마다 순서를 지키면서 다른 키는 동시에 실행하는지.
+ *
+ * @author Elex
+ */
+class KeyPartitionedExecutorTest {
+	private KeyPartitionedExecutor executor;
+
+	@BeforeEach
+	void setUp() {
+		executor = new KeyPartitionedExecutor("test-lane", 4);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.close();
+	}
+
+	@Test
+	void sameKeyRunsInSubmissionOrder() throws InterruptedException {
+		Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+		Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+		AtomicInteger overlaps = new AtomicInteger();
+		for (int i = 0; i < 500; i++) {
+			for (int k = 0; k < 20; k++) {
+				String key = "key-" + k;
+				int sequence = i;
+				executor.execute(key, () -> {
+					AtomicInteger active = running.computeIfAbsent(key, x -> new AtomicInteger());
+					if (active.incrementAndGet() > 1) {
+						overlaps.incrementAndGet();
+					}
+					seen.computeIfAbsent(key, x -> new ArrayList<>()).add(sequence);
+					active.decrementAndGet();
+				});
+			}
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertEquals(0, overlaps.get());
+		assertEquals(20, seen.size());
+		for (Map.Entry<String, List<Integer>> entry : seen.entrySet()) {
+			List<Integer> sequences = entry.getValue();
+			assertEquals(500, sequences.size(), entry.getKey());
+			for (int i = 0; i < sequences.size(); i++) {
+				assertEquals(i, sequences.get(i), entry.getKey());
+			}
+		}
+	}
+
+	@Test
+	void differentLanesRunConcurrently() throws InterruptedException {
+		String first = "key-0";
+		String second = null;
+		for (int k = 1; null == second; k++) {
+			if (executor.lane("key-" + k) != executor.lane(first)) {
+				second = "key-" + k;
+			}
+		}
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		executor.execute(first, () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		// 첫 레인이 막혀 있어도 다른 레인의 작업은 실행됩니다.
+		executor.execute(second, () -> {
+			release.countDown();
+			done.countDown();
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void lanesAreStableAndSpread() {
+		assertEquals(0, executor.lane(null));
+		int[] counts = new int[executor.getLanes()];
+		for (int i = 0; i < 1000; i++) {
+			int lane = executor.lane(i);
+			assertEquals(lane, executor.lane(Integer.valueOf(i)));
+			counts[lane]++;
+		}
+		// 연속한 정수 키도 레인에 고르게 흩어집니다.
+		for (int count : counts) {
+			assertTrue(count > 150, Arrays.toString(counts));
+		}
+		assertThrows(IllegalArgumentException.class, () -> new KeyPartitionedExecutor("test-lane", 0));
+	}
+
+	@Test
+	void closeFinishesQueuedTasksAndRejectsNewOnes() {
+		AtomicInteger ran = new AtomicInteger();
+		for (int i = 0; i < 100; i++) {
+			executor.execute(i, () -> {
+				sleepQuietly();
+				ran.incrementAndGet();
+			});
+		}
+		executor.close();
+		assertEquals(100, ran.get());
+		assertThrows(RejectedExecutionException.class, () -> executor.execute("late", ran::incrementAndGet));
+	}
+
+	@Test
+	void interruptedCloseKeepsTheFlag() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		executor.execute("key", () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			done.countDown();
+		});
+		Thread.currentThread().interrupt();
+		executor.close();
+		assertTrue(Thread.interrupted());
+
+		// 남은 작업은 레인에서 마저 실행됩니다.
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	private static void sleepQuietly() {
+		try {
+			TimeUnit.MILLISECONDS.sleep(1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.embedded;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link EmbeddedBroker}의 배타적인 큐와 컨슈머, 자동으로 지워지는 큐.
+ *
+ * @author Elex
+ */
+class EmbeddedBrokerTest {
+	private EmbeddedBroker broker;
+	private ConnectionFactory connectionFactory;
+
+	@BeforeEach
+	void setUp() {
+		broker = new EmbeddedBroker();
+		connectionFactory = broker.connectionFactory();
+	}
+
+	@AfterEach
+	void tearDown() {
+		broker.close();
+	}
+
+	@Test
+	void exclusiveQueueBelongsToItsConnection() throws IOException, TimeoutException {
+		Connection owner = connectionFactory.newConnection();
+		Connection other = connectionFactory.newConnection();
+		Channel ownerChannel = owner.createChannel();
+		ownerChannel.queueDeclare("test.exclusive", false, true, false, null);
+		// 같은 연결의 다른 채널은 쓸 수 있습니다.
+		owner.createChannel().queueDeclare("test.exclusive", false, true, false, null);
+
+		Channel otherChannel = other.createChannel();
+		IOException declare = assertThrows(IOException.class,
+				() -> otherChannel.queueDeclare("test.exclusive", false, true, false, null));
+		assertTrue(declare.getMessage().startsWith("RESOURCE_LOCKED"), declare.getMessage());
+		Channel consumeChannel = other.createChannel();
+		assertThrows(IOException.class, () -> consumeChannel.basicConsume("test.exclusive", true, new DefaultConsumer(consumeChannel)));
+
+		// 보내는 것은 누구나 할 수 있습니다.
+		other.createChannel().basicPublish("", "test.exclusive", null, new byte[0]);
+		assertEquals(1, broker.getMessageCount("test.exclusive"));
+
+		// 선언한 연결이 닫히면 큐도 사라집니다.
+		owner.close();
+		assertEquals(-1, broker.getMessageCount("test.exclusive"));
+		other.createChannel().queueDeclare("test.exclusive", false, true, false, null);
+		assertEquals(0, broker.getMessageCount("test.exclusive"));
+	}
+
+	@Test
+	void serverNamedQueueIsExclusive() throws IOException, TimeoutException {
+		Connection owner = connectionFactory.newConnection();
+		String queue = owner.createChannel().queueDeclare().getQueue();
+		assertTrue(queue.startsWith("amq.gen-"), queue);
+
+		Channel other = connectionFactory.newConnection().createChannel();
+		assertThrows(IOException.class, () -> other.basicConsume(queue, true, new DefaultConsumer(other)));
+		owner.close();
+		assertEquals(-1, broker.getMessageCount(queue));
+	}
+
+	@Test
+	void exclusiveConsumerLocksTheQueue() throws IOException, TimeoutException {
+		Channel channel = connectionFactory.newConnection().createChannel();
+		channel.queueDeclare("test.shared", false, false, false, null);
+		String tag = channel.basicConsume("test.shared", true, "first", false, true, null, new DefaultConsumer(channel));
+
+		Channel second = connectionFactory.newConnection().createChannel();
+		IOException e = assertThrows(IOException.class,
+				() -> second.basicConsume("test.shared", true, new DefaultConsumer(second)));
+		assertTrue(e.getMessage().startsWith("ACCESS_REFUSED"), e.getMessage());
+
+		// 배타적인 컨슈머가 떨어지면 다른 컨슈머가 붙을 수 있습니다.
+		channel.basicCancel(tag);
+		Channel third = connectionFactory.newConnection().createChannel();
+		third.basicConsume("test.shared", true, new DefaultConsumer(third));
+
+		// 이미 컨슈머가 있으면 배타적으로 붙을 수 없습니다.
+		Channel fourth = connectionFactory.newConnection().createChannel();
+		assertThrows(IOException.class,
+				() -> fourth.basicConsume("test.shared", true, "fourth", false, true, null, new DefaultConsumer(fourth)));
+	}
+
+	@Test
+	void autoDeleteQueueGoesWithItsLastConsumer() throws Exception {
+		Channel channel = connectionFactory.newConnection().createChannel();
+		channel.queueDeclare("test.auto", false, false, true, null);
+		// 컨슈머가 붙은 적이 없으면 지우지 않습니다.
+		assertEquals(0, broker.getMessageCount("test.auto"));
+
+		CountDownLatch received = new CountDownLatch(1);
+		DefaultConsumer consumer = new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+				received.countDown();
+			}
+		};
+		String first = channel.basicConsume("test.auto", true, consumer);
+		String second = channel.basicConsume("test.auto", true, consumer);
+		channel.basicPublish("", "test.auto", null, new byte[0]);
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+
+		channel.basicCancel(first);
+		assertEquals(0, broker.getMessageCount("test.auto"));
+		channel.basicCancel(second);
+		assertEquals(-1, broker.getMessageCount("test.auto"));
+	}
+
+	@Test
+	void autoDeleteQueueGoesWhenTheChannelCloses() throws IOException, TimeoutException {
+		Connection connection = connectionFactory.newConnection();
+		Channel declaring = connection.createChannel();
+		declaring.queueDeclare("test.auto", false, false, true, null);
+		Channel consuming = connection.createChannel();
+		consuming.basicConsume("test.auto", false, new DefaultConsumer(consuming));
+
+		consuming.close();
+		assertEquals(-1, broker.getMessageCount("test.auto"));
+		// 지워진 큐에 보낸 메시지는 버려집니다.
+		declaring.basicPublish("", "test.auto", null, new byte[0]);
+		assertEquals(0, broker.getEnqueued());
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link LatencyHistogram}의 구간 계산과 백분위수.
+ *
+ * @author Elex
+ */
+class LatencyHistogramTest {
+	@Test
+	void smallValuesAreExact() {
+		for (long value = 0; value < 64; value++) {
+			assertEquals(value, LatencyHistogram.index(value));
+			assertEquals(value, LatencyHistogram.highestEquivalent((int) value));
+		}
+	}
+
+	@Test
+	void bucketsAreContiguous() {
+		int last = LatencyHistogram.index(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestEquivalent(last));
+		for (int i = 0; i < last; i++) {
+			long highest = LatencyHistogram.highestEquivalent(i);
+			// 구간의 가장 큰 값은 그 구간에, 바로 다음 값은 다음 구간에 듭니다.
+			assertEquals(i, LatencyHistogram.index(highest), "bucket " + i);
+			assertEquals(i + 1, LatencyHistogram.index(highest + 1), "bucket " + i);
+		}
+	}
+
+	@Test
+	void relativeErrorIsBounded() {
+		Random random = new Random(7);
+		for (int i = 0; i < 100_000; i++) {
+			long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+			long highest = LatencyHistogram.highestEquivalent(LatencyHistogram.index(value));
+			assertTrue(highest >= value, "value " + value);
+			assertTrue(highest - value <= value / 32, "value " + value + " -> " + highest);
+		}
+	}
+
+	@Test
+	void quantilesOfAUniformRange() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 1000; value++) {
+			histogram.record(value);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500_500, snapshot.getSum());
+		assertEquals(500, snapshot.getMean());
+		assertEquals(1000, snapshot.getMax());
+
+		assertEquals(1, snapshot.getValueAt(0));
+		assertWithin(500, snapshot.getP50());
+		assertWithin(990, snapshot.getP99());
+		assertWithin(999, snapshot.getP999());
+		// 가장 큰 구간의 끝이 아니라 기록한 가장 큰 값을 넘지 않습니다.
+		assertEquals(1000, snapshot.getValueAt(1));
+	}
+
+	@Test
+	void singleOutlierShowsUpOnlyAtTheTail() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 999; i++) {
+			histogram.record(10);
+		}
+		histogram.record(5_000_000);
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(10, snapshot.getP50());
+		assertEquals(10, snapshot.getValueAt(0.999));
+		assertEquals(5_000_000, snapshot.getValueAt(0.9999));
+	}
+
+	@Test
+	void emptyAndNegative() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.snapshot().getP99());
+		assertEquals(0, histogram.snapshot().getMean());
+		histogram.record(-5);
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1, snapshot.getCount());
+		assertEquals(0, snapshot.getSum());
+		assertEquals(0, snapshot.getMax());
+	}
+
+	@Test
+	void resetStartsOver() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(100);
+		histogram.record(200);
+		LatencyHistogram.Snapshot first = histogram.snapshotAndReset();
+		assertEquals(2, first.getCount());
+		assertEquals(200, first.getMax());
+
+		histogram.record(50);
+		LatencyHistogram.Snapshot second = histogram.snapshotAndReset();
+		assertEquals(1, second.getCount());
+		assertEquals(50, second.getMax());
+		assertEquals(0, histogram.snapshot().getCount());
+	}
+
+	@Test
+	void concurrentRecordsAreAllCounted() throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			long base = t * 1000L;
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 10_000; i++) {
+					histogram.record(base + i % 1000);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(40_000, snapshot.getCount());
+		assertEquals(3999, snapshot.getMax());
+		// 각 스레드가 0~999에 base를 더한 값을 10번씩 기록했습니다.
+		assertEquals(10L * (4 * 499_500 + 1000L * (0 + 1000 + 2000 + 3000)), snapshot.getSum());
+	}
+
+	/**
+	 * 백분위수는 구간의 끝 값이므로 실제 값보다 크거나 같고, 1/32보다 더 크지는 않다.
+	 */
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(actual >= expected && actual - expected <= expected / 32, expected + " ~ " + actual);
+	}
+}
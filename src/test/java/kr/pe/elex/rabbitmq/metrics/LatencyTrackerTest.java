@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.metrics;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link LatencyTracker}가 빠지거나 늦게 온 번호를 세고, 스트림이 넘치면 오래된 것을 잊는지.
+ *
+ * @author Elex
+ */
+class LatencyTrackerTest {
+	private static final Envelope FIRST = new Envelope(1, false, "", "key");
+	private static final Envelope REDELIVERED = new Envelope(1, true, "", "key");
+
+	private Metrics metrics;
+	private LatencyTracker tracker;
+
+	@BeforeEach
+	void setUp() {
+		metrics = new Metrics();
+		tracker = new LatencyTracker(metrics, "test");
+	}
+
+	@Test
+	void unstampedMessagesAreIgnored() {
+		assertFalse(tracker.record(FIRST, null));
+		assertFalse(tracker.record(FIRST, new AMQP.BasicProperties()));
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("other", 1);
+		assertFalse(tracker.record(FIRST, new AMQP.BasicProperties.Builder().headers(headers).build()));
+		assertEquals(0, tracker.getSnapshot().getCount());
+	}
+
+	@Test
+	void stampedMessagesInOrderHaveNoGaps() {
+		LatencyStamp stamp = new LatencyStamp("test", true);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(tracker.record(FIRST, stamp.stamp("key." + i % 3, null)));
+		}
+		assertEquals(100, tracker.getSnapshot().getCount());
+		assertEquals(0, tracker.getGaps());
+		assertEquals(0, tracker.getLate());
+		assertEquals(3, tracker.getStreamCount());
+		assertTrue(tracker.report().startsWith("test: count=100 "), tracker.report());
+	}
+
+	@Test
+	void gapsAndLateArrivalsAreCounted() {
+		for (long sequence : new long[]{1, 2, 5, 3, 6, 6, 9}) {
+			tracker.record(FIRST, stamped("s", sequence));
+		}
+		// 2 -> 5, 6 -> 9에서 두 개씩 건너뛰고, 3과 두 번째 6은 늦게 왔습니다.
+		assertEquals(4, tracker.getGaps());
+		assertEquals(2, tracker.getLate());
+		assertEquals(7, tracker.getSnapshot().getCount());
+	}
+
+	@Test
+	void numbersBeforeTheFirstAreNotGaps() {
+		tracker.record(FIRST, stamped("s", 100));
+		tracker.record(FIRST, stamped("s", 101));
+		assertEquals(0, tracker.getGaps());
+		tracker.record(FIRST, stamped("s", 50));
+		assertEquals(1, tracker.getLate());
+	}
+
+	@Test
+	void redeliveriesAreNotNumbered() {
+		tracker.record(FIRST, stamped("s", 1));
+		tracker.record(REDELIVERED, stamped("s", 1));
+		tracker.record(REDELIVERED, stamped("s", 7));
+		tracker.record(FIRST, stamped("s", 2));
+		assertEquals(2, tracker.getRedelivered());
+		assertEquals(0, tracker.getLate());
+		assertEquals(0, tracker.getGaps());
+	}
+
+	@Test
+	void streamsAreSeparate() {
+		tracker.record(FIRST, stamped("a", 1));
+		tracker.record(FIRST, stamped("b", 1));
+		// 브로커를 거친 헤더처럼 LongString이어도 같은 스트림입니다.
+		tracker.record(FIRST, stampedLongString("a", 3));
+		assertEquals(1, tracker.getGaps());
+		assertEquals(0, tracker.getLate());
+		assertEquals(2, tracker.getStreamCount());
+	}
+
+	@Test
+	void trackersWithTheSameNameShareCounters() {
+		LatencyTracker other = new LatencyTracker(metrics, "test");
+		tracker.record(FIRST, stamped("a", 1));
+		other.record(FIRST, stamped("b", 1));
+		other.record(FIRST, stamped("b", 3));
+		assertEquals(1, tracker.getGaps());
+		assertEquals(3, tracker.getSnapshot().getCount());
+		assertEquals(1, metrics.counter(Metrics.END_TO_END + "test.gap").sum());
+	}
+
+	@Test
+	void oldStreamsAreEvicted() {
+		tracker.record(FIRST, stamped("old", 1));
+		for (int i = 0; i < LatencyTracker.MAX_STREAMS; i++) {
+			tracker.record(FIRST, stamped("s" + i, 1));
+		}
+		// 넘치면 한 번에 3/4까지 줄입니다.
+		assertTrue(tracker.getStreamCount() <= LatencyTracker.MAX_STREAMS * 3 / 4, "" + tracker.getStreamCount());
+		assertTrue(tracker.getStreamCount() > LatencyTracker.MAX_STREAMS / 2, "" + tracker.getStreamCount());
+
+		// 잊은 스트림은 처음 받은 것처럼 셉니다.
+		tracker.record(FIRST, stamped("old", 10));
+		assertEquals(0, tracker.getGaps());
+		// 최근 스트림은 기억합니다.
+		tracker.record(FIRST, stamped("s" + (LatencyTracker.MAX_STREAMS - 2), 3));
+		assertEquals(1, tracker.getGaps());
+		// 넘치게 만든 스트림도 가장 최근에 본 것이므로 남습니다.
+		tracker.record(FIRST, stamped("s" + (LatencyTracker.MAX_STREAMS - 1), 3));
+		assertEquals(2, tracker.getGaps());
+	}
+
+	private static AMQP.BasicProperties stamped(String stream, long sequence) {
+		return stamped((Object) stream, sequence);
+	}
+
+	private static AMQP.BasicProperties stampedLongString(String stream, long sequence) {
+		return stamped(LongStringHelper.asLongString(stream), sequence);
+	}
+
+	private static AMQP.BasicProperties stamped(Object stream, long sequence) {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put(LatencyStamp.SENT_AT, LatencyStamp.now());
+		headers.put(LatencyStamp.STREAM, stream);
+		headers.put(LatencyStamp.SEQUENCE, sequence);
+		return new AMQP.BasicProperties.Builder().headers(headers).build();
+	}
+}
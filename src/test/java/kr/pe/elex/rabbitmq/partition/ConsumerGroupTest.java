@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.partition;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.core.read.ListAppender;
+import com.rabbitmq.client.Channel;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ConsumerGroup}. 멤버마다 연결 관리자를 따로 두고 같은 내장 브로커에 붙인다.
+ *
+ * @author Elex
+ */
+class ConsumerGroupTest {
+	private static final int PARTITIONS = 8;
+	private static final long TIMEOUT_MILLIS = 10_000;
+
+	private EmbeddedBroker broker;
+	private PartitionedQueues queues;
+	private final List<ConnectionManager> connectionManagers = new ArrayList<>();
+	private final List<ConsumerGroup> members = new ArrayList<>();
+	// 키마다 처리한 횟수입니다.
+	private final Map<String, AtomicInteger> processed = new ConcurrentHashMap<>();
+
+	@BeforeEach
+	void setUp() {
+		broker = new EmbeddedBroker();
+		queues = PartitionedQueues.builder("test.group")
+				.partitions(PARTITIONS)
+				.durable(false)
+				.build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		for (ConsumerGroup member : members) {
+			member.close();
+		}
+		for (ConnectionManager connectionManager : connectionManagers) {
+			connectionManager.close();
+		}
+		broker.close();
+	}
+
+	@Test
+	void partitionsAreSplitAndTakenBack() throws Exception {
+		ConsumerGroup a = join("a");
+		await(() -> a.getAssignment().size() == PARTITIONS);
+		assertEquals(Collections.singleton("a"), a.getMembers());
+
+		ConsumerGroup b = join("b");
+		Set<String> both = new TreeSet<>(Arrays.asList("a", "b"));
+		await(() -> both.equals(a.getMembers()) && both.equals(b.getMembers())
+				&& a.getAssignment().size() + b.getAssignment().size() == PARTITIONS);
+
+		// 두 멤버가 같은 규칙으로 나누므로 겹치거나 빠진 파티션이 없습니다.
+		for (int partition = 0; partition < PARTITIONS; partition++) {
+			ConsumerGroup owner = "a".equals(ConsumerGroup.owner(both, partition)) ? a : b;
+			ConsumerGroup other = owner == a ? b : a;
+			assertTrue(owner.getAssignment().contains(partition), "partition " + partition);
+			assertFalse(other.getAssignment().contains(partition), "partition " + partition);
+		}
+		assertFalse(a.getAssignment().isEmpty());
+		assertFalse(b.getAssignment().isEmpty());
+
+		publish(200);
+		await(() -> total() == 200);
+
+		// 떠나는 멤버의 파티션은 남은 멤버가 받습니다.
+		members.remove(b);
+		b.close();
+		await(() -> a.getAssignment().size() == PARTITIONS && Collections.singleton("a").equals(a.getMembers()));
+
+		publish(100);
+		await(() -> total() == 300);
+		for (AtomicInteger count : processed.values()) {
+			assertEquals(1, count.get());
+		}
+	}
+
+	@Test
+	void silentMemberTimesOut() throws Exception {
+		ConsumerGroup a = join("a");
+		ConnectionManager connectionManager = new ConnectionManager(broker.connectionFactory(), 1, 2);
+		connectionManagers.add(connectionManager);
+		ConsumerGroup b = ConsumerGroup.builder(connectionManager, queues)
+				.memberId("b")
+				.heartbeat(50, 300, TimeUnit.MILLISECONDS)
+				.start((consumerTag, envelope, properties, body) -> {
+				});
+		Set<String> both = new HashSet<>(Arrays.asList("a", "b"));
+		await(() -> both.equals(a.getMembers()));
+
+		// 떠난다고 알리지 않고 연결이 끊기면 하트비트가 멈춥니다.
+		connectionManager.close();
+		await(() -> Collections.singleton("a").equals(a.getMembers()) && a.getAssignment().size() == PARTITIONS);
+		b.close();
+	}
+
+	@Test
+	void leavingWhilePeersHeartbeatDropsTheirMessages() throws Exception {
+		// 컨슈머가 던진 예외는 내장 브로커가 로그로만 남기므로 로그를 봅니다.
+		Logger root = (Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+		ListAppender<ILoggingEvent> appender = new ListAppender<>();
+		appender.start();
+		root.addAppender(appender);
+		try {
+			ConnectionManager connectionManager = new ConnectionManager(broker.connectionFactory(), 1, 2);
+			connectionManagers.add(connectionManager);
+			ConsumerGroup a = ConsumerGroup.builder(connectionManager, queues)
+					.memberId("a")
+					.heartbeat(1, 300, TimeUnit.MILLISECONDS)
+					.start((consumerTag, envelope, properties, body) -> {
+					});
+			members.add(a);
+			for (int i = 0; i < 5; i++) {
+				ConsumerGroup b = join("b" + i);
+				await(() -> b.getMembers().contains("a"));
+				members.remove(b);
+				b.close();
+			}
+		} finally {
+			root.detachAppender(appender);
+		}
+		for (ILoggingEvent event : appender.list) {
+			for (IThrowableProxy cause = event.getThrowableProxy(); null != cause; cause = cause.getCause()) {
+				assertNotEquals(RejectedExecutionException.class.getName(), cause.getClassName(), event.getFormattedMessage());
+			}
+		}
+	}
+
+	@Test
+	void ownerIsStableForUnchangedMembers() {
+		Set<String> members = new TreeSet<>(Arrays.asList("a", "b", "c"));
+		Set<String> grown = new TreeSet<>(members);
+		grown.add("d");
+		int moved = 0;
+		for (int partition = 0; partition < 64; partition++) {
+			String before = ConsumerGroup.owner(members, partition);
+			String after = ConsumerGroup.owner(grown, partition);
+			assertEquals(before, ConsumerGroup.owner(new HashSet<>(members), partition));
+			if (!before.equals(after)) {
+				// 옮겨가는 파티션은 새 멤버에게만 갑니다.
+				assertEquals("d", after);
+				moved++;
+			}
+		}
+		assertTrue(moved > 0 && moved < 64);
+	}
+
+	private ConsumerGroup join(String memberId) throws Exception {
+		ConnectionManager connectionManager = new ConnectionManager(broker.connectionFactory(), 1, 2);
+		connectionManagers.add(connectionManager);
+		ConsumerGroup member = ConsumerGroup.builder(connectionManager, queues)
+				.memberId(memberId)
+				.workers(2)
+				.heartbeat(50, 300, TimeUnit.MILLISECONDS)
+				.start((consumerTag, envelope, properties, body) ->
+						processed.computeIfAbsent(new String(body, StandardCharsets.UTF_8), key -> new AtomicInteger())
+								.incrementAndGet());
+		members.add(member);
+		return member;
+	}
+
+	private void publish(int count) throws Exception {
+		ConnectionManager connectionManager = connectionManagers.get(0);
+		Channel channel = connectionManager.createChannel();
+		int offset = total();
+		for (int i = offset; i < offset + count; i++) {
+			String key = "key-" + i;
+			channel.basicPublish(queues.getExchange(), queues.routingKey(key), null, key.getBytes(StandardCharsets.UTF_8));
+		}
+		channel.close();
+	}
+
+	private int total() {
+		return processed.values().stream().mapToInt(AtomicInteger::get).sum();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Condition not met in " + TIMEOUT_MILLIS + " ms");
+			}
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.partition;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link PartitionedPublisher}가 자기 채널 하나로 보내서 키의 순서를 지키는지.
+ *
+ * @author Elex
+ */
+class PartitionedPublisherTest {
+	private static final int PARTITIONS = 4;
+
+	private EmbeddedBroker broker;
+	private ConnectionManager connectionManager;
+	private PartitionedQueues queues;
+
+	@BeforeEach
+	void setUp() {
+		broker = new EmbeddedBroker();
+		// 연결이 여럿이어도 발행자는 채널 하나만 씁니다.
+		connectionManager = new ConnectionManager(broker.connectionFactory(), 4, 4);
+		queues = PartitionedQueues.builder("test.partitioned")
+				.partitions(PARTITIONS)
+				.durable(false)
+				.build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		connectionManager.close();
+		broker.close();
+	}
+
+	@Test
+	void keysKeepTheirOrderAcrossThreads() throws Exception {
+		try (PartitionedPublisher publisher = new PartitionedPublisher(connectionManager, queues)) {
+			List<CompletableFuture<Void>> senders = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				String prefix = "thread-" + t + "-key-";
+				senders.add(CompletableFuture.runAsync(() -> {
+					for (int i = 0; i < 500; i++) {
+						String key = prefix + i % 10;
+						try {
+							publisher.publish(key, null, (key + ":" + i).getBytes(StandardCharsets.UTF_8));
+						} catch (Exception e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				}));
+			}
+			CompletableFuture.allOf(senders.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+			// 빌린 채널이 없으므로 풀은 비어 있습니다.
+			assertEquals(0, connectionManager.getChannelPool().idleCount());
+			assertEquals(0, connectionManager.getChannelPool().borrowedCount());
+		}
+
+		Channel channel = connectionManager.createChannel();
+		Map<String, Integer> last = new HashMap<>();
+		int total = 0;
+		for (int partition = 0; partition < PARTITIONS; partition++) {
+			GetResponse response;
+			while (null != (response = channel.basicGet(queues.getQueue(partition), true))) {
+				String[] message = new String(response.getBody(), StandardCharsets.UTF_8).split(":");
+				assertEquals(partition, queues.partition(message[0]));
+				int sequence = Integer.parseInt(message[1]);
+				Integer previous = last.put(message[0], sequence);
+				assertTrue(null == previous || previous < sequence, message[0] + " " + previous + " -> " + sequence);
+				total++;
+			}
+		}
+		assertEquals(2000, total);
+		assertEquals(40, last.size());
+	}
+
+	@Test
+	void closedChannelIsReplaced() throws Exception {
+		// 브로커를 다시 띄워도 남도록 durable로 선언합니다.
+		PartitionedQueues queues = PartitionedQueues.builder("test.durable")
+				.partitions(PARTITIONS)
+				.build();
+		try (PartitionedPublisher publisher = new PartitionedPublisher(connectionManager, queues)) {
+			publisher.publish("a", null, new byte[1]);
+			// 연결이 끊기면 발행자의 채널도 닫힙니다. persistent가 아닌 첫 메시지는 사라집니다.
+			broker.restart();
+			publisher.publish("a", null, new byte[1]);
+		}
+		assertEquals(1, broker.getMessageCount(queues.getQueue(queues.partition("a"))));
+	}
+}
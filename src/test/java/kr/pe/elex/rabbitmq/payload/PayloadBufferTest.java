@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.payload;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link PayloadBuffer}의 본문 배열을 다시 쓰는 규칙과 UTF-8 인코딩, {@link Payload} 뷰.
+ *
+ * @author Elex
+ */
+class PayloadBufferTest {
+	@Test
+	void sameLengthReusesTheBody() {
+		PayloadBuffer buffer = new PayloadBuffer();
+		byte[] first = buffer.append("abc").body();
+		byte[] second = buffer.clear().append("xyz").body();
+		// 같은 길이는 같은 배열에 다시 씁니다. 앞서 돌려준 배열의 내용도 바뀝니다.
+		assertSame(first, second);
+		assertArrayEquals("xyz".getBytes(StandardCharsets.US_ASCII), first);
+
+		byte[] other = buffer.clear().append("abcd").body();
+		assertNotSame(first, other);
+		assertEquals(4, other.length);
+		assertArrayEquals("xyz".getBytes(StandardCharsets.US_ASCII), first);
+	}
+
+	@Test
+	void longBodiesAreNotReused() {
+		PayloadBuffer buffer = new PayloadBuffer();
+		byte[] bytes = new byte[PayloadBuffer.MAX_REUSED_LENGTH + 1];
+		byte[] first = buffer.append(bytes).body();
+		byte[] second = buffer.clear().append(bytes).body();
+		assertNotSame(first, second);
+		assertEquals(bytes.length, first.length);
+
+		bytes = new byte[PayloadBuffer.MAX_REUSED_LENGTH];
+		assertSame(buffer.clear().append(bytes).body(), buffer.clear().append(bytes).body());
+	}
+
+	@Test
+	void emptyBodyIsReusedToo() {
+		PayloadBuffer buffer = new PayloadBuffer();
+		assertEquals(0, buffer.body().length);
+		assertSame(buffer.body(), buffer.clear().body());
+	}
+
+	@Test
+	void localBufferIsClearedAndPerThread() throws InterruptedException {
+		PayloadBuffer local = PayloadBuffer.local().append("left over");
+		assertSame(local, PayloadBuffer.local());
+		assertEquals(0, PayloadBuffer.local().length());
+
+		PayloadBuffer[] other = new PayloadBuffer[1];
+		Thread thread = new Thread(() -> other[0] = PayloadBuffer.local());
+		thread.start();
+		thread.join();
+		assertNotSame(local, other[0]);
+	}
+
+	@Test
+	void utf8MatchesTheJdk() {
+		String text = "hello, 안녕 éß 😀 end";
+		PayloadBuffer buffer = new PayloadBuffer().append(text);
+		assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), buffer.body());
+		assertEquals(text, buffer.view().decode());
+	}
+
+	@Test
+	void lonelySurrogateBecomesQuestionMark() {
+		assertEquals("a?b?", new PayloadBuffer().append("a\ud83db\ude00").view().decode());
+	}
+
+	@Test
+	void growsPastTheInitialCapacity() {
+		byte[] bytes = new byte[1000];
+		Arrays.fill(bytes, (byte) 7);
+		PayloadBuffer buffer = new PayloadBuffer().put((byte) 1).append(ByteBuffer.wrap(bytes)).append(bytes, 10, 5);
+		assertEquals(1006, buffer.length());
+		byte[] body = buffer.body();
+		assertEquals(1, body[0]);
+		assertEquals(7, body[1005]);
+	}
+
+	@Test
+	void viewFollowsTheBufferButCopiesDoNot() {
+		PayloadBuffer buffer = new PayloadBuffer().append("abc");
+		Payload view = buffer.view();
+		byte[] copy = view.toByteArray();
+		buffer.clear().append("xyz");
+		assertEquals("xyz", view.decode());
+		assertArrayEquals("abc".getBytes(StandardCharsets.US_ASCII), copy);
+	}
+
+	@Test
+	void payloadSlicesWithoutCopying() {
+		byte[] body = "key=value".getBytes(StandardCharsets.US_ASCII);
+		Payload payload = Payload.wrap(body);
+		Payload value = payload.slice(4, 5);
+		assertTrue(value.contentEqualsAscii("value"));
+		assertFalse(value.contentEqualsAscii("VALUE"));
+		assertEquals("key", payload.decode(0, 3));
+		assertEquals(Payload.wrap("value".getBytes(StandardCharsets.US_ASCII)), value);
+		assertEquals(Payload.wrap("value".getBytes(StandardCharsets.US_ASCII)).hashCode(), value.hashCode());
+
+		body[4] = 'V';
+		assertTrue(value.contentEqualsAscii("Value"));
+		assertEquals(5, value.asReadOnlyBuffer().remaining());
+		assertTrue(value.asReadOnlyBuffer().isReadOnly());
+		assertThrows(IndexOutOfBoundsException.class, () -> payload.slice(5, 5));
+		assertThrows(IndexOutOfBoundsException.class, () -> value.get(5));
+		assertTrue(Payload.wrap(null).isEmpty());
+	}
+
+	@Test
+	void appendToSkipsDecodingAscii() {
+		StringBuilder builder = new StringBuilder(">");
+		Payload.wrap("ascii".getBytes(StandardCharsets.US_ASCII)).appendTo(builder);
+		Payload.wrap("한글".getBytes(StandardCharsets.UTF_8)).appendTo(builder);
+		assertEquals(">ascii한글", builder.toString());
+	}
+
+	@Test
+	void poolHandsBackClearedBuffers() {
+		PayloadBufferPool pool = new PayloadBufferPool(1);
+		PayloadBuffer first = pool.acquire().append("x");
+		PayloadBuffer second = pool.acquire();
+		assertNotSame(first, second);
+		pool.release(first);
+		// 가득 차면 버립니다.
+		pool.release(second);
+		assertEquals(1, pool.getIdleCount());
+
+		PayloadBuffer again = pool.acquire();
+		assertSame(first, again);
+		assertEquals(0, again.length());
+		assertEquals(0, pool.getIdleCount());
+	}
+}
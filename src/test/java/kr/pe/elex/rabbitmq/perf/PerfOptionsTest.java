@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.perf;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link PerfOptions}가 명령줄 인자를 읽고 잘못된 값과 함께 쓸 수 없는 설정을 막는지.
+ *
+ * @author Elex
+ */
+class PerfOptionsTest {
+	@Test
+	void defaults() {
+		PerfOptions options = PerfOptions.parse();
+		assertEquals(Pattern.DIRECT, options.getPattern());
+		assertEquals(1, options.getProducers());
+		assertEquals(1, options.getConsumers());
+		assertEquals(256, options.getSize());
+		assertEquals(0, options.getRate());
+		assertEquals(0, options.getConfirm());
+		assertEquals(100, options.getPrefetch());
+		assertEquals(1, options.getAckBatch());
+		assertEquals(10, options.getDuration());
+		assertEquals(2, options.getConnections());
+		assertFalse(options.isAutoAck());
+		assertNull(options.getUri());
+		assertNull(options.getJson());
+	}
+
+	@Test
+	void everyOptionIsRead() {
+		PerfOptions options = PerfOptions.parse("--pattern", "fanout", "--producers", "3", "--consumers", "4",
+				"--size", "0", "--rate", "5000", "--confirm", "64", "--inflight", "8", "--prefetch", "0",
+				"--ack-batch", "10", "--duration", "2", "--connections", "1",
+				"--uri", "amqp://localhost", "--json", "out.json");
+		assertEquals(Pattern.FANOUT, options.getPattern());
+		assertEquals(3, options.getProducers());
+		assertEquals(4, options.getConsumers());
+		assertEquals(0, options.getSize());
+		assertEquals(5000, options.getRate());
+		assertEquals(64, options.getConfirm());
+		assertEquals(8, options.getInflight());
+		assertEquals(0, options.getPrefetch());
+		assertEquals(10, options.getAckBatch());
+		assertEquals(2, options.getDuration());
+		assertEquals(1, options.getConnections());
+		assertEquals("amqp://localhost", options.getUri());
+		assertEquals(Paths.get("out.json"), options.getJson());
+		assertTrue(options.toString().endsWith("broker=amqp"), options.toString());
+	}
+
+	@Test
+	void flagsTakeNoValue() {
+		PerfOptions options = PerfOptions.parse("--auto-ack", "--batch", "4096");
+		assertTrue(options.isAutoAck());
+		assertEquals(4096, options.getBatch());
+		assertTrue(PerfOptions.parse("--compress", "--size", "2048").isCompress());
+	}
+
+	@Test
+	void patternsByExampleOrConstantName() {
+		assertEquals(Pattern.WORK_QUEUE, Pattern.parse("loadbalance"));
+		assertEquals(Pattern.WORK_QUEUE, Pattern.parse("work-queue"));
+		assertEquals(Pattern.DIRECT, Pattern.parse(" Hello "));
+		assertEquals(Pattern.RPC, PerfOptions.parse("--pattern", "RPC").getPattern());
+		assertThrows(IllegalArgumentException.class, () -> Pattern.parse("mqtt"));
+	}
+
+	@Test
+	void malformedArgumentsAreRejected() {
+		assertMessage("Unknown option: --speed", "--speed", "1");
+		assertMessage("Missing value for --size", "--size");
+		assertMessage("Invalid number for --rate: fast", "--rate", "fast");
+		assertMessage("producers must be positive: 0", "--producers", "0");
+		assertMessage("size must not be negative: -1", "--size", "-1");
+		assertMessage("rate must not be negative: -5", "--rate", "-5");
+		assertMessage("duration must be positive: 0", "--duration", "0");
+		assertMessage("ackBatch must be positive: 0", "--ack-batch", "0");
+	}
+
+	@Test
+	void conflictingOptionsAreRejected() {
+		assertMessage("batch and compress cannot be used with confirm", "--batch", "1024", "--auto-ack", "--confirm", "1");
+		assertMessage("batch and compress cannot be used with confirm", "--compress", "--confirm", "1");
+		assertMessage("batch and compress cannot be used together", "--batch", "1024", "--auto-ack", "--compress");
+		assertMessage("batch needs autoAck", "--batch", "1024");
+		assertMessage("rpc cannot be used with batch, compress, autoAck or ackBatch", "--pattern", "rpc", "--auto-ack");
+		assertMessage("rpc cannot be used with batch, compress, autoAck or ackBatch", "--pattern", "rpc", "--ack-batch", "2");
+		assertMessage("rpc cannot be used with batch, compress, autoAck or ackBatch", "--pattern", "rpc", "--compress");
+		// 각각은 쓸 수 있습니다.
+		assertEquals(4, PerfOptions.parse("--pattern", "rpc", "--inflight", "4", "--confirm", "8").getInflight());
+	}
+
+	private static void assertMessage(String message, String... args) {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> PerfOptions.parse(args));
+		assertEquals(message, e.getMessage());
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.pool;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ConnectionManager}와 그 {@link ChannelPool}. 브로커 대신 열고 닫기만 하는 가짜 연결을 끼워 넣는다.
+ *
+ * @author Elex
+ */
+class ConnectionManagerTest {
+	private FakeConnections connections;
+	private ConnectionManager connectionManager;
+
+	@BeforeEach
+	void setUp() {
+		connections = new FakeConnections();
+		connectionManager = new ConnectionManager(connections, 2, 2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		connectionManager.close();
+	}
+
+	@Test
+	void connectionsAreOpenedLazilyAndUsedInTurn() throws IOException {
+		assertTrue(connections.names.isEmpty());
+		Connection first = connectionManager.connection();
+		Connection second = connectionManager.connection();
+		assertNotSame(first, second);
+		assertSame(first, connectionManager.connection());
+		assertSame(second, connectionManager.connection());
+		assertEquals(Arrays.asList("elex-0", "elex-1"), connections.names);
+	}
+
+	@Test
+	void closedConnectionIsReplaced() throws IOException {
+		Connection first = connectionManager.connection();
+		connectionManager.connection();
+		first.close();
+
+		Connection reopened = connectionManager.connection();
+		assertNotSame(first, reopened);
+		assertTrue(reopened.isOpen());
+		assertEquals(Arrays.asList("elex-0", "elex-1", "elex-0"), connections.names);
+	}
+
+	@Test
+	void recoverableConnectionIsKeptWhileDown() throws IOException {
+		connections.recoverable = true;
+		Connection first = connectionManager.connection();
+		connectionManager.connection();
+		first.close();
+
+		// 자동 복구에 맡기고 새로 열지 않습니다.
+		assertSame(first, connectionManager.connection());
+		assertEquals(2, connections.names.size());
+	}
+
+	@Test
+	void connectTimeoutIsReportedAsIOException() {
+		connections.timeout = true;
+		IOException e = assertThrows(IOException.class, connectionManager::connection);
+		assertTrue(e.getCause() instanceof TimeoutException);
+	}
+
+	@Test
+	void returnedChannelIsReused() throws IOException {
+		ChannelPool pool = connectionManager.getChannelPool();
+		Channel channel;
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			channel = pooled.getChannel();
+			assertEquals(1, pool.borrowedCount());
+			assertEquals(0, pool.idleCount());
+		}
+		assertEquals(0, pool.borrowedCount());
+		assertEquals(1, pool.idleCount());
+
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			assertSame(channel, pooled.getChannel());
+		}
+	}
+
+	@Test
+	void channelsAreSpreadOverConnections() throws IOException, TimeoutException {
+		Channel first = connectionManager.createChannel();
+		Channel second = connectionManager.createChannel();
+		assertEquals(2, connections.names.size());
+		first.close();
+		second.close();
+	}
+
+	@Test
+	void returningTwiceReleasesOnce() throws IOException {
+		ChannelPool pool = connectionManager.getChannelPool();
+		PooledChannel pooled = connectionManager.borrow();
+		pooled.close();
+		pooled.close();
+		assertEquals(0, pool.borrowedCount());
+		assertEquals(1, pool.idleCount());
+	}
+
+	@Test
+	void invalidatedChannelIsClosedInsteadOfPooled() throws IOException {
+		Channel channel;
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			channel = pooled.getChannel();
+			pooled.invalidate();
+		}
+		assertFalse(channel.isOpen());
+		assertEquals(0, connectionManager.getChannelPool().idleCount());
+	}
+
+	@Test
+	void closedChannelIsNotHandedOutAgain() throws IOException, TimeoutException {
+		Channel channel;
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			channel = pooled.getChannel();
+		}
+		channel.close();
+
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			assertNotSame(channel, pooled.getChannel());
+			assertTrue(pooled.getChannel().isOpen());
+		}
+	}
+
+	@Test
+	void borrowTimesOutWhenExhausted() throws IOException, InterruptedException, TimeoutException {
+		ChannelPool pool = connectionManager.getChannelPool();
+		try (PooledChannel first = pool.borrow(1, TimeUnit.SECONDS);
+		     PooledChannel second = pool.borrow(1, TimeUnit.SECONDS)) {
+			assertNotSame(first.getChannel(), second.getChannel());
+			assertThrows(TimeoutException.class, () -> pool.borrow(50, TimeUnit.MILLISECONDS));
+		}
+		assertEquals(2, pool.idleCount());
+	}
+
+	@Test
+	void closeClosesEverything() throws IOException {
+		Connection connection = connectionManager.connection();
+		Channel channel;
+		try (PooledChannel pooled = connectionManager.borrow()) {
+			channel = pooled.getChannel();
+		}
+		connectionManager.close();
+
+		assertFalse(connection.isOpen());
+		assertFalse(channel.isOpen());
+		assertThrows(IOException.class, connectionManager::connection);
+		assertThrows(IOException.class, connectionManager::borrow);
+	}
+
+	/**
+	 * 열고 닫을 수만 있는 연결과 채널을 만든다. 연결 관리자와 채널 풀은 그 이상을 쓰지 않는다.
+	 */
+	private static final class FakeConnections implements ConnectionManager.ConnectionSupplier {
+		private final List<String> names = new ArrayList<>();
+		private boolean recoverable;
+		private boolean timeout;
+
+		@Override
+		public Connection newConnection(String name) throws TimeoutException {
+			if (timeout) {
+				throw new TimeoutException("Fake connect timeout.");
+			}
+			names.add(name);
+			AtomicBoolean open = new AtomicBoolean(true);
+			Class<?>[] types = recoverable
+					? new Class<?>[]{Connection.class, Recoverable.class}
+					: new Class<?>[]{Connection.class};
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), types, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "isOpen":
+						return open.get();
+					case "close":
+					case "abort":
+						open.set(false);
+						return null;
+					case "createChannel":
+						return open.get() ? channel(open) : null;
+					case "toString":
+						return "FakeConnection(" + name + ")";
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+
+		private static Channel channel(AtomicBoolean connectionOpen) {
+			AtomicBoolean open = new AtomicBoolean(true);
+			return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class}, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "isOpen":
+						return open.get() && connectionOpen.get();
+					case "close":
+					case "abort":
+						open.set(false);
+						return null;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					case "toString":
+						return "FakeChannel";
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}
+}
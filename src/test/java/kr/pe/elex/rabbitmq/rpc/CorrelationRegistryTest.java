@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.rpc;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link CorrelationRegistry}.
+ *
+ * @author Elex
+ */
+class CorrelationRegistryTest {
+	private HashedWheelTimer timer;
+	private CorrelationRegistry<String> calls;
+
+	@BeforeEach
+	void setUp() {
+		timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 64);
+		calls = new CorrelationRegistry<>(timer);
+	}
+
+	@AfterEach
+	void tearDown() {
+		calls.close();
+		timer.close();
+	}
+
+	@Test
+	void callWithoutReplyTimesOut() throws InterruptedException {
+		Metrics metrics = new Metrics();
+		calls.withMetrics(metrics);
+		CorrelationRegistry.Call<String> call = calls.register(50, TimeUnit.MILLISECONDS);
+		assertEquals(1, calls.size());
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> call.getFuture().get(2, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof TimeoutException);
+		assertEquals(0, calls.size());
+		assertEquals(1, metrics.counter(Metrics.RPC_TIMEOUTS).sum());
+
+		// 타임아웃 뒤에 온 응답은 버립니다.
+		assertFalse(calls.complete(call.getCorrelationId(), "late"));
+	}
+
+	@Test
+	void replyBeforeTimeoutWins() throws Exception {
+		CorrelationRegistry.Call<String> call = calls.register(100, TimeUnit.MILLISECONDS);
+		assertTrue(calls.complete(call.getCorrelationId(), "pong"));
+		assertEquals("pong", call.getFuture().get());
+
+		// 타이머가 지나가도 결과는 그대로입니다.
+		TimeUnit.MILLISECONDS.sleep(200);
+		assertEquals("pong", call.getFuture().getNow(null));
+		assertEquals(0, calls.size());
+	}
+
+	@Test
+	void timeoutsAreIndependent() throws Exception {
+		CorrelationRegistry.Call<String> fast = calls.register(30, TimeUnit.MILLISECONDS);
+		CorrelationRegistry.Call<String> slow = calls.register(5, TimeUnit.SECONDS);
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> fast.getFuture().get(2, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof TimeoutException);
+		assertFalse(slow.getFuture().isDone());
+		assertEquals(1, calls.size());
+		assertTrue(calls.complete(slow.getCorrelationId(), "done"));
+		assertEquals("done", slow.getFuture().get());
+	}
+
+	@Test
+	void foreignCorrelationIdsAreIgnored() {
+		CorrelationRegistry.Call<String> call = calls.register(1, TimeUnit.SECONDS);
+		CorrelationRegistry<String> other = new CorrelationRegistry<>(timer);
+
+		assertFalse(other.complete(call.getCorrelationId(), "wrong"));
+		assertFalse(calls.complete(null, "null"));
+		assertFalse(calls.complete("garbage", "garbage"));
+		assertFalse(calls.complete(call.getCorrelationId() + "!", "suffix"));
+		assertFalse(call.getFuture().isDone());
+	}
+
+	@Test
+	void closeFailsPendingCalls() {
+		CorrelationRegistry.Call<String> call = calls.register(1, TimeUnit.SECONDS);
+		calls.close();
+		ExecutionException e = assertThrows(ExecutionException.class, () -> call.getFuture().get());
+		assertTrue(e.getCause() instanceof IllegalStateException);
+		assertEquals(0, calls.size());
+	}
+
+	@Test
+	void replyThroughBroker() throws Exception {
+		EmbeddedBroker broker = new EmbeddedBroker();
+		try {
+			Channel channel = broker.connectionFactory().newConnection().createChannel();
+			String replyTo = channel.queueDeclare().getQueue();
+			channel.basicConsume(replyTo, true, new DefaultConsumer(channel) {
+				@Override
+				public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+					calls.complete(properties.getCorrelationId(), new String(body, StandardCharsets.UTF_8));
+				}
+			});
+			CorrelationRegistry.Call<String> answered = calls.register(5, TimeUnit.SECONDS);
+			CorrelationRegistry.Call<String> unanswered = calls.register(100, TimeUnit.MILLISECONDS);
+
+			channel.basicPublish("", replyTo, new AMQP.BasicProperties.Builder()
+					.correlationId(answered.getCorrelationId())
+					.build(), "reply".getBytes(StandardCharsets.UTF_8));
+
+			assertEquals("reply", answered.getFuture().get(5, TimeUnit.SECONDS));
+			ExecutionException e = assertThrows(ExecutionException.class,
+					() -> unanswered.getFuture().get(5, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof TimeoutException);
+		} finally {
+			broker.close();
+		}
+	}
+}
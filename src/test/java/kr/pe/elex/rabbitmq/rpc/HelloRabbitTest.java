@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.rpc;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import kr.pe.elex.rabbitmq.pool.ConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link HelloRabbit}의 요청 발행이 실패할 때.
+ *
+ * @author Elex
+ */
+class HelloRabbitTest {
+	private EmbeddedBroker broker;
+	private ConnectionManager connectionManager;
+
+	@BeforeEach
+	void setUp() {
+		broker = new EmbeddedBroker();
+		connectionManager = new ConnectionManager(broker.connectionFactory(), 1, 2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		connectionManager.close();
+		broker.close();
+	}
+
+	@Test
+	void closedChannelFailsTheCallAtOnce() throws IOException {
+		HelloRabbit client = new HelloRabbit(connectionManager, ReplyMode.DIRECT);
+		// 연결이 닫히면 소비용 채널도 닫히고, Direct Reply-To 요청은 그 채널로 보냅니다.
+		connectionManager.connection().close();
+
+		assertThrows(AlreadyClosedException.class, () -> client.call("hello", 1, TimeUnit.MINUTES));
+		// 타임아웃을 기다리지 않고 호출을 치웁니다.
+		assertEquals(0, client.getPendingCalls());
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link HandshakeTimingSocketFactory}가 전체 핸드셰이크와 세션 재개를 구분하는지 로컬 {@link TlsEchoServer}로 확인한다.
+ *
+ * @author Elex
+ */
+class HandshakeTimingSocketFactoryTest {
+	private static TlsEchoServer server;
+	private static KeyMaterial keyMaterial;
+
+	private SSLContext context;
+	private HandshakeMetrics metrics;
+	private HandshakeTimingSocketFactory socketFactory;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		TestCertificates certificates = new TestCertificates();
+		server = new TlsEchoServer(certificates.serverContext);
+		keyMaterial = KeyMaterial.pkcs12(certificates.clientKeyStore, TestCertificates.PASSWORD,
+				TestCertificates.PASSWORD, certificates.trustStore, TestCertificates.PASSWORD);
+	}
+
+	@AfterAll
+	static void stopServer() throws IOException {
+		server.close();
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		// 테스트마다 세션 캐시가 빈 컨텍스트를 씁니다.
+		context = TlsHelper.sessionCache(keyMaterial.build(), 16, 3600);
+		metrics = new HandshakeMetrics();
+		socketFactory = new HandshakeTimingSocketFactory(name -> context, metrics);
+	}
+
+	@Test
+	void secondConnectionResumesTheSession() throws Exception {
+		echo();
+		assertEquals(1, metrics.getFullHandshakes());
+		assertEquals(0, metrics.getResumedHandshakes());
+
+		for (int i = 0; i < 3; i++) {
+			echo();
+		}
+		assertEquals(1, metrics.getFullHandshakes());
+		assertEquals(3, metrics.getResumedHandshakes());
+		assertTrue(metrics.getFullNanos() > 0);
+		assertTrue(metrics.getResumedNanos() > 0);
+	}
+
+	@Test
+	void forgottenSessionNeedsAFullHandshake() throws Exception {
+		echo();
+		SSLSessionContext cache = context.getClientSessionContext();
+		for (byte[] id : Collections.list(cache.getIds())) {
+			SSLSession session = cache.getSession(id);
+			if (null != session) {
+				session.invalidate();
+			}
+		}
+		echo();
+		assertEquals(2, metrics.getFullHandshakes());
+		assertEquals(0, metrics.getResumedHandshakes());
+	}
+
+	@Test
+	void negotiatedProtocolAndCipherAreCounted() throws Exception {
+		echo();
+		echo();
+		Map<String, Long> negotiated = metrics.getNegotiated();
+		assertEquals(1, negotiated.size(), negotiated.toString());
+		String key = negotiated.keySet().iterator().next();
+		assertTrue(key.startsWith("TLSv1.3 TLS_"), key);
+		assertEquals(2, negotiated.get(key));
+	}
+
+	/**
+	 * 연결해서 한 바이트를 주고받고 닫는다. TLS 1.3은 핸드셰이크 뒤에 세션 티켓을 보내므로 응답을 읽어야 캐시에 남는다.
+	 */
+	private void echo() throws IOException, InterruptedException {
+		try (Socket socket = socketFactory.createSocket()) {
+			socket.connect(new InetSocketAddress("localhost", server.getPort()));
+			socket.getOutputStream().write(42);
+			socket.getOutputStream().flush();
+			assertEquals(42, socket.getInputStream().read());
+		}
+		// 재개 여부는 세션을 만든 시각으로 판단하므로 밀리초가 바뀔 때까지 기다립니다.
+		TimeUnit.MILLISECONDS.sleep(2);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 테스트와 벤치마크에 쓸 CA, 서버, 클라이언트 인증서를 메모리에서 만든다. OpenSSL이나 파일이 필요 없다.
+ * <p>
+ * 클라이언트 키와 인증서는 {@link TlsHelper}가 읽는 PKCS12와 {@link TlsHelperWithBouncyCastle}가 읽는 PEM으로 모두 내보낸다.
+ *
+ * @author Elex
+ */
+final class TestCertificates {
+	static final char[] PASSWORD = "test".toCharArray();
+
+	final byte[] caCertPem;
+	final byte[] clientCertPem;
+	final byte[] clientKeyPem;
+	final byte[] clientKeyStore;
+	final byte[] trustStore;
+	final SSLContext serverContext;
+
+	TestCertificates() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair caKey = generator.generateKeyPair();
+		KeyPair serverKey = generator.generateKeyPair();
+		KeyPair clientKey = generator.generateKeyPair();
+
+		X509Certificate caCert = certificate("CN=elex-ca", caKey, "CN=elex-ca", caKey, true);
+		X509Certificate serverCert = certificate("CN=localhost", serverKey, "CN=elex-ca", caKey, false);
+		X509Certificate clientCert = certificate("CN=elex-client", clientKey, "CN=elex-ca", caKey, false);
+
+		caCertPem = pem(caCert);
+		clientCertPem = pem(clientCert);
+		clientKeyPem = pem(clientKey);
+
+		KeyStore clientStore = KeyStore.getInstance("PKCS12");
+		clientStore.load(null, null);
+		clientStore.setKeyEntry("client", clientKey.getPrivate(), PASSWORD, new Certificate[]{clientCert, caCert});
+		clientKeyStore = store(clientStore);
+
+		KeyStore caStore = KeyStore.getInstance("PKCS12");
+		caStore.load(null, null);
+		caStore.setCertificateEntry("ca", caCert);
+		trustStore = store(caStore);
+
+		// 서버는 클라이언트 인증서도 확인합니다.
+		KeyStore serverStore = KeyStore.getInstance("PKCS12");
+		serverStore.load(null, null);
+		serverStore.setKeyEntry("server", serverKey.getPrivate(), PASSWORD, new Certificate[]{serverCert, caCert});
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(serverStore, PASSWORD);
+		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(caStore);
+		serverContext = SSLContext.getInstance("TLSv1.3");
+		serverContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+	}
+
+	private static X509Certificate certificate(String subject, KeyPair subjectKey, String issuer, KeyPair issuerKey,
+	                                           boolean ca) throws Exception {
+		long now = System.currentTimeMillis();
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(issuer),
+				BigInteger.valueOf(now), new Date(now - TimeUnit.DAYS.toMillis(1)), new Date(now + TimeUnit.DAYS.toMillis(365)),
+				new X500Name(subject), subjectKey.getPublic());
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+		return new JcaX509CertificateConverter().getCertificate(
+				builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey.getPrivate())));
+	}
+
+	private static byte[] pem(Object object) throws Exception {
+		StringWriter writer = new StringWriter();
+		try (JcaPEMWriter pemWriter = new JcaPEMWriter(writer)) {
+			pemWriter.writeObject(object);
+		}
+		return writer.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] store(KeyStore keyStore) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		keyStore.store(out, PASSWORD);
+		return out.toByteArray();
+	}
+}
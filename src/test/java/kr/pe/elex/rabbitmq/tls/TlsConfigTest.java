@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link TlsConfig}가 프로토콜과 암호 스위트를 거는지. 협상 결과는 로컬 {@link TlsEchoServer}와 연결해서 본다.
+ *
+ * @author Elex
+ */
+class TlsConfigTest {
+	private static TlsEchoServer server;
+	private static KeyMaterial keyMaterial;
+
+	@BeforeAll
+	static void startServer() throws Exception {
+		TestCertificates certificates = new TestCertificates();
+		server = new TlsEchoServer(certificates.serverContext);
+		keyMaterial = KeyMaterial.pkcs12(certificates.clientKeyStore, TestCertificates.PASSWORD,
+				TestCertificates.PASSWORD, certificates.trustStore, TestCertificates.PASSWORD);
+	}
+
+	@AfterAll
+	static void stopServer() throws IOException {
+		server.close();
+	}
+
+	@Test
+	void unsupportedSuitesAreSkippedInOrder() throws Exception {
+		TlsConfig config = new TlsConfig.Builder()
+				.cipherSuites("TLS_NOT_A_SUITE", "TLS_AES_256_GCM_SHA384", "TLS_AES_128_GCM_SHA256")
+				.build();
+		SSLEngine engine = SSLContext.getDefault().createSSLEngine();
+		config.configure(engine);
+		assertEquals(Arrays.asList("TLS_AES_256_GCM_SHA384", "TLS_AES_128_GCM_SHA256"),
+				Arrays.asList(engine.getSSLParameters().getCipherSuites()));
+		assertTrue(engine.getSSLParameters().getUseCipherSuitesOrder());
+	}
+
+	@Test
+	void noSupportedSuiteKeepsTheDefaults() throws Exception {
+		SSLEngine engine = SSLContext.getDefault().createSSLEngine();
+		String[] defaults = engine.getSSLParameters().getCipherSuites();
+		new TlsConfig.Builder().cipherSuites("TLS_NOT_A_SUITE").build().configure(engine);
+		assertArrayEquals(defaults, engine.getSSLParameters().getCipherSuites());
+	}
+
+	@Test
+	void defaultsLeaveTheEngineAlone() throws Exception {
+		SSLEngine engine = SSLContext.getDefault().createSSLEngine();
+		String[] protocols = engine.getSSLParameters().getProtocols();
+		String[] suites = engine.getSSLParameters().getCipherSuites();
+		TlsConfig.defaults().configure(engine);
+		assertArrayEquals(protocols, engine.getSSLParameters().getProtocols());
+		assertArrayEquals(suites, engine.getSSLParameters().getCipherSuites());
+		assertEquals(TlsConfig.TlsProvider.JSSE, TlsConfig.defaults().getProvider());
+	}
+
+	@Test
+	void preferredSuitesAreOneOfTheOrders() {
+		assertTrue(TlsConfig.preferredCipherSuites() == TlsConfig.AES_GCM_FIRST
+				|| TlsConfig.preferredCipherSuites() == TlsConfig.CHACHA20_FIRST);
+	}
+
+	@Test
+	void chosenSuiteIsNegotiated() throws Exception {
+		assertEquals("TLSv1.3 TLS_CHACHA20_POLY1305_SHA256", negotiate(new TlsConfig.Builder()
+				.cipherSuites("TLS_CHACHA20_POLY1305_SHA256")
+				.build()));
+	}
+
+	@Test
+	void chosenProtocolIsNegotiated() throws Exception {
+		assertEquals("TLSv1.2 TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384", negotiate(new TlsConfig.Builder()
+				.protocols("TLSv1.2")
+				.cipherSuites("TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256")
+				.build()));
+	}
+
+	private static String negotiate(TlsConfig config) throws Exception {
+		SSLContext context = keyMaterial.build();
+		HandshakeMetrics metrics = new HandshakeMetrics();
+		HandshakeTimingSocketFactory socketFactory = new HandshakeTimingSocketFactory(name -> context, config, metrics);
+		try (Socket socket = socketFactory.createSocket()) {
+			socket.connect(new InetSocketAddress("localhost", server.getPort()));
+			socket.getOutputStream().write(1);
+			socket.getOutputStream().flush();
+			assertEquals(1, socket.getInputStream().read());
+		}
+		assertEquals(1, metrics.getNegotiated().size(), metrics.getNegotiated().toString());
+		return metrics.getNegotiated().keySet().iterator().next();
+	}
+}
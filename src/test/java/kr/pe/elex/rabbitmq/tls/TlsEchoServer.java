@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.tls;
+
+import kr.pe.elex.rabbitmq.consumer.WorkerExecutors;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 받은 바이트를 그대로 돌려주는 로컬 TLS 서버. 브로커 없이 TLS 연결과 세션 재개를 시험할 때 쓴다.
+ *
+ * @author Elex
+ */
+final class TlsEchoServer implements AutoCloseable {
+	private final SSLServerSocket serverSocket;
+	private final ExecutorService executor;
+
+	TlsEchoServer(SSLContext context) throws IOException {
+		serverSocket = (SSLServerSocket) context.getServerSocketFactory()
+				.createServerSocket(0, 128, InetAddress.getLoopbackAddress());
+		serverSocket.setNeedClientAuth(true);
+		executor = WorkerExecutors.fixed("elex-tls-echo", 8);
+		Thread acceptor = new Thread(this::accept, "elex-tls-echo-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				executor.execute(() -> echo(socket));
+			} catch (IOException e) {
+				// 닫혔습니다.
+			}
+		}
+	}
+
+	private static void echo(Socket socket) {
+		try (Socket s = socket) {
+			InputStream in = s.getInputStream();
+			OutputStream out = s.getOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+				out.flush();
+			}
+		} catch (IOException e) {
+			// 클라이언트가 끊었습니다.
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+}
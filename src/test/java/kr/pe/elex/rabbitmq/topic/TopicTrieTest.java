@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.topic;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link TopicTrie}. 같은 패턴과 라우팅-키를 내장 브로커의 토픽 익스체인지에도 보내서 결과가 같은지 본다.
+ *
+ * @author Elex
+ */
+class TopicTrieTest {
+	private static final List<String> PATTERNS = Arrays.asList(
+			"stock.usd.nyse", "stock.*.nyse", "stock.#", "*.usd.*", "#", "#.nyse", "stock.#.nyse",
+			"*", "*.*", "a.#.#.b", "#.*.#", "");
+	private static final List<String> KEYS = Arrays.asList(
+			"stock.usd.nyse", "stock.eur.nyse", "stock.usd.nasdaq", "stock", "stock.usd", "bond.usd.nyse",
+			"stock.a.b.c.nyse", "nyse", "a.b", "a.x.y.b", "a.b.c", "", "usd");
+
+	@Test
+	void wildcards() {
+		TopicTrie<String> trie = new TopicTrie<>();
+		for (String pattern : PATTERNS) {
+			trie.add(pattern, pattern);
+		}
+		assertEquals(set("stock.usd.nyse", "stock.*.nyse", "stock.#", "*.usd.*", "#", "#.nyse", "stock.#.nyse", "#.*.#"),
+				match(trie, "stock.usd.nyse"));
+		assertEquals(set("stock.#", "#", "*", "#.*.#"), match(trie, "stock"));
+		assertEquals(set("#", ""), match(trie, ""));
+		// '#'은 단어가 없어도 맞습니다.
+		assertEquals(set("#", "#.*.#", "*.*", "a.#.#.b"), match(trie, "a.b"));
+		assertEquals(set("#", "#.*.#", "a.#.#.b"), match(trie, "a.x.y.b"));
+		assertEquals(set("#", "#.*.#", "stock.#", "#.nyse", "stock.#.nyse"), match(trie, "stock.a.b.c.nyse"));
+	}
+
+	@Test
+	void valueMatchedByManyPatternsIsReturnedOnce() {
+		TopicTrie<String> trie = new TopicTrie<>();
+		trie.add("stock.#", "handler");
+		trie.add("stock.*", "handler");
+		trie.add("#", "handler");
+		List<String> out = new ArrayList<>();
+		trie.match("stock.usd", out);
+		assertEquals(Collections.singletonList("handler"), out);
+	}
+
+	@Test
+	void addAndRemoveReportFirstAndLast() {
+		TopicTrie<String> trie = new TopicTrie<>();
+		assertTrue(trie.add("a.*", "x"));
+		assertFalse(trie.add("a.*", "y"));
+		// '#.#'은 '#'과 같은 패턴입니다.
+		assertTrue(trie.add("b.#", "x"));
+		assertFalse(trie.add("b.#.#", "y"));
+		assertEquals(4, trie.size());
+
+		assertFalse(trie.remove("a.*", "x"));
+		assertTrue(trie.remove("a.*", "y"));
+		assertFalse(trie.remove("a.*", "y"));
+		assertFalse(trie.remove("c.d", "x"));
+		assertEquals(set(), match(trie, "a.b"));
+		assertEquals(set("x", "y"), match(trie, "b.c.d"));
+		assertEquals(2, trie.size());
+	}
+
+	@Test
+	void agreesWithTheBrokerTopicExchange() throws Exception {
+		TopicTrie<String> trie = new TopicTrie<>();
+		for (String pattern : PATTERNS) {
+			trie.add(pattern, pattern);
+		}
+		EmbeddedBroker broker = new EmbeddedBroker();
+		try {
+			Channel channel = broker.connectionFactory().newConnection().createChannel();
+			String exchange = "test.topic";
+			channel.exchangeDeclare(exchange, BuiltinExchangeType.TOPIC);
+			// 패턴마다 큐를 두고 라우팅-키마다 받은 큐를 모읍니다.
+			ConcurrentHashMap<String, Set<String>> routed = new ConcurrentHashMap<>();
+			for (String pattern : PATTERNS) {
+				String queue = channel.queueDeclare().getQueue();
+				channel.queueBind(queue, exchange, pattern);
+				channel.basicConsume(queue, true, new DefaultConsumer(channel) {
+					@Override
+					public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+						routed.computeIfAbsent(envelope.getRoutingKey(), key -> ConcurrentHashMap.newKeySet()).add(pattern);
+					}
+				});
+			}
+			int expected = 0;
+			for (String key : KEYS) {
+				channel.basicPublish(exchange, key, null, new byte[0]);
+				expected += match(trie, key).size();
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			while (routed.values().stream().mapToInt(Set::size).sum() < expected
+					&& System.currentTimeMillis() < deadline) {
+				TimeUnit.MILLISECONDS.sleep(5);
+			}
+			for (String key : KEYS) {
+				assertEquals(routed.getOrDefault(key, set()), match(trie, key), "routing key '" + key + "'");
+			}
+		} finally {
+			broker.close();
+		}
+	}
+
+	private static Set<String> match(TopicTrie<String> trie, String routingKey) {
+		List<String> out = new ArrayList<>();
+		trie.match(routingKey, out);
+		Set<String> matched = new HashSet<>(out);
+		assertEquals(out.size(), matched.size(), "duplicates for " + routingKey);
+		return matched;
+	}
+
+	private static Set<String> set(String... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.topology;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import kr.pe.elex.rabbitmq.embedded.EmbeddedBroker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link TopologyRegistry}가 선언을 한 번만 보내는지, 다른 채널이 선언하는 중이면 기다리는지, 실패하면 잊는지.
+ *
+ * @author Elex
+ */
+class TopologyRegistryTest {
+	private static final Topology ORDERS = Topology.builder()
+			.exchange("test.orders", BuiltinExchangeType.DIRECT, false)
+			.queue("test.orders.q", false, false, false)
+			.binding("test.orders.q", "test.orders", "new")
+			.build();
+
+	private EmbeddedBroker broker;
+	private Connection connection;
+	private TopologyRegistry registry;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		broker = new EmbeddedBroker();
+		connection = broker.connectionFactory().newConnection();
+		registry = new TopologyRegistry();
+	}
+
+	@AfterEach
+	void tearDown() {
+		broker.close();
+	}
+
+	@Test
+	void declarationsAreSentOnce() throws Exception {
+		Channel channel = connection.createChannel();
+		registry.declare(channel, ORDERS);
+		assertEquals(3, registry.getSent());
+		assertEquals(0, registry.getSkipped());
+		// 세 선언을 보내고 마지막에 한 번만 기다립니다.
+		assertEquals(1, registry.getRoundTrips());
+
+		registry.declare(connection.createChannel(), ORDERS);
+		assertEquals(3, registry.getSent());
+		assertEquals(3, registry.getSkipped());
+		assertEquals(1, registry.getRoundTrips());
+
+		channel.basicPublish("test.orders", "new", null, new byte[1]);
+		assertEquals(1, broker.getMessageCount("test.orders.q"));
+	}
+
+	@Test
+	void failedDeclarationsAreForgotten() throws Exception {
+		Topology missing = Topology.builder()
+				.queue("test.q", false, false, false)
+				.binding("test.q", "test.missing", "key")
+				.build();
+		assertThrows(IOException.class, () -> registry.declare(connection.createChannel(), missing));
+
+		// 큐도 함께 잊었으므로 다시 보냅니다.
+		long sent = registry.getSent();
+		connection.createChannel().exchangeDeclare("test.missing", BuiltinExchangeType.DIRECT);
+		registry.declare(connection.createChannel(), missing);
+		assertEquals(sent + 2, registry.getSent());
+		assertEquals(0, registry.getSkipped());
+	}
+
+	@Test
+	void bindingWaitsForAnotherChannelsExchange() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Channel slow = gated(connection.createChannel(), entered, release, false);
+		CompletableFuture<Void> first = CompletableFuture.runAsync(() -> declareQuietly(slow, Topology.builder()
+				.exchange("test.orders", BuiltinExchangeType.DIRECT, false)
+				.build()));
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		Channel other = connection.createChannel();
+		CompletableFuture<Void> second = CompletableFuture.runAsync(() -> declareQuietly(other, ORDERS));
+		TimeUnit.MILLISECONDS.sleep(50);
+		// 익스체인지는 첫 채널이 선언하는 중이므로 바인딩을 보내지 않고 기다립니다.
+		assertFalse(second.isDone());
+		assertEquals(1, registry.getSkipped());
+
+		release.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		second.get(5, TimeUnit.SECONDS);
+		assertEquals(3, registry.getSent());
+		Channel channel = connection.createChannel();
+		channel.basicPublish("test.orders", "new", null, new byte[1]);
+		assertEquals(1, broker.getMessageCount("test.orders.q"));
+	}
+
+	@Test
+	void waitersSeeAnotherChannelsFailure() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Channel failing = gated(connection.createChannel(), entered, release, true);
+		Topology exchange = Topology.builder()
+				.exchange("test.orders", BuiltinExchangeType.DIRECT, false)
+				.build();
+		CompletableFuture<Void> first = CompletableFuture.runAsync(() -> declareQuietly(failing, exchange));
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		Channel other = connection.createChannel();
+		CompletableFuture<Void> second = CompletableFuture.runAsync(() -> declareQuietly(other, exchange));
+		TimeUnit.MILLISECONDS.sleep(50);
+		release.countDown();
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause().getCause() instanceof IOException, e.toString());
+		assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+
+		// 실패한 선언은 잊었으므로 다음 채널이 다시 보냅니다.
+		long sent = registry.getSent();
+		registry.declare(connection.createChannel(), exchange);
+		assertEquals(sent + 1, registry.getSent());
+	}
+
+	@Test
+	void rebindAddsAndRemovesKeys() throws Exception {
+		Channel channel = connection.createChannel();
+		registry.declare(channel, Topology.builder()
+				.exchange("test.orders", BuiltinExchangeType.DIRECT, false)
+				.queue("test.orders.q", false, false, false)
+				.build());
+		registry.rebind(channel, "test.orders.q", "test.orders", Arrays.asList("a", "b"));
+		registry.rebind(channel, "test.orders.q", "test.orders", Arrays.asList("b", "c"));
+
+		for (String key : new String[]{"a", "b", "c"}) {
+			channel.basicPublish("test.orders", key, null, new byte[1]);
+		}
+		assertEquals(2, broker.getMessageCount("test.orders.q"));
+	}
+
+	@Test
+	void forgetSendsTheQueueAgain() throws Exception {
+		registry.declare(connection.createChannel(), ORDERS);
+		registry.forget("test.orders.q");
+		registry.declare(connection.createChannel(), ORDERS);
+		// 익스체인지만 건너뛰고 큐와 바인딩은 다시 보냅니다.
+		assertEquals(5, registry.getSent());
+		assertEquals(1, registry.getSkipped());
+
+		registry.clear();
+		registry.declare(connection.createChannel(), ORDERS);
+		assertEquals(8, registry.getSent());
+	}
+
+	private void declareQuietly(Channel channel, Topology topology) {
+		try {
+			registry.declare(channel, topology);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 응답을 기다리는 선언에서 {@code release}가 열릴 때까지 멈추는 채널. {@code fail}이면 그 뒤에 실패한다.
+	 */
+	private static Channel gated(Channel channel, CountDownLatch entered, CountDownLatch release, boolean fail) {
+		return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("exchangeDeclarePassive")) {
+						entered.countDown();
+						release.await();
+						if (fail) {
+							throw new IOException("Fake channel failure.");
+						}
+					}
+					try {
+						return method.invoke(channel, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+}
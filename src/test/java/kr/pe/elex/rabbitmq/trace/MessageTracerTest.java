@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2021. Elex. All Rights Reserved.
+ * https://www.elex-project.com/
+ */
+
+package kr.pe.elex.rabbitmq.trace;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link MessageTracer}의 링 버퍼와 {@link Sampler}. 남긴 로그는 테스트 로거에 붙인 {@link ListAppender}로 본다.
+ *
+ * @author Elex
+ */
+class MessageTracerTest {
+	private static final String LOGGER = "test.trace";
+
+	private Logger logger;
+	private ListAppender<ILoggingEvent> appender;
+
+	@BeforeEach
+	void setUp() {
+		logger = (Logger) LoggerFactory.getLogger(LOGGER);
+		logger.setLevel(Level.INFO);
+		appender = new ListAppender<>();
+		appender.start();
+		logger.addAppender(appender);
+	}
+
+	@AfterEach
+	void tearDown() {
+		logger.detachAppender(appender);
+		logger.setLevel(null);
+	}
+
+	@Test
+	void fullRingDropsAndWarns() {
+		// 비우는 주기를 길게 잡아서 close() 전에는 비우지 않습니다.
+		MessageTracer tracer = MessageTracer.builder()
+				.sampler(Sampler.always())
+				.capacity(3)
+				.drainInterval(TimeUnit.HOURS.toMillis(1))
+				.logger(LOGGER)
+				.build();
+		for (int i = 0; i < 10; i++) {
+			tracer.tx("test", "key." + i, body("message " + i));
+		}
+		// 용량은 4로 올라갑니다.
+		assertEquals(6, tracer.getDropped());
+		assertTrue(appender.list.isEmpty());
+
+		tracer.close();
+		List<String> messages = messages();
+		assertEquals(5, messages.size(), messages.toString());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(messages.get(i).startsWith("Tx [test] key." + i + " size=9 hash="), messages.get(i));
+		}
+		assertEquals("Trace buffer full, 6 records dropped.", messages.get(4));
+		assertEquals(Level.WARN, appender.list.get(4).getLevel());
+		assertEquals(0, tracer.getDropped());
+	}
+
+	@Test
+	void ringIsReusedAfterDraining() throws InterruptedException {
+		try (MessageTracer tracer = MessageTracer.builder()
+				.sampler(Sampler.always())
+				.capacity(2)
+				.drainInterval(1)
+				.logger(LOGGER)
+				.build()) {
+			for (int i = 0; i < 10; i++) {
+				tracer.rx("test", "key." + i, null);
+				int expected = i + 1;
+				long deadline = System.currentTimeMillis() + 5000;
+				while (appender.list.size() < expected && System.currentTimeMillis() < deadline) {
+					TimeUnit.MILLISECONDS.sleep(1);
+				}
+			}
+			assertEquals(0, tracer.getDropped());
+		}
+		List<String> messages = messages();
+		assertEquals(10, messages.size());
+		for (int i = 0; i < 10; i++) {
+			assertTrue(messages.get(i).startsWith("Rx [test] key." + i + " size=0 hash=811c9dc5"), messages.get(i));
+		}
+	}
+
+	@Test
+	void disabledTracerRecordsNothing() {
+		MessageTracer never = MessageTracer.builder()
+				.sampler(Sampler.never())
+				.capacity(2)
+				.logger(LOGGER)
+				.build();
+		logger.setLevel(Level.WARN);
+		MessageTracer quiet = MessageTracer.builder()
+				.sampler(Sampler.always())
+				.capacity(2)
+				.logger(LOGGER)
+				.build();
+		for (int i = 0; i < 10; i++) {
+			never.tx("test", "key", body("x"));
+			quiet.tx("test", "key", body("x"));
+		}
+		// 로그 수준이 꺼져 있으면 버퍼에 넣지도 않습니다.
+		assertEquals(0, never.getDropped());
+		assertEquals(0, quiet.getDropped());
+		never.close();
+		quiet.close();
+		assertTrue(appender.list.isEmpty());
+	}
+
+	@Test
+	void contentIsCopiedBeforeTheCallerReusesTheBody() {
+		MessageTracer tracer = MessageTracer.builder()
+				.sampler(Sampler.always())
+				.content(true)
+				.drainInterval(TimeUnit.HOURS.toMillis(1))
+				.logger(LOGGER)
+				.build();
+		// PayloadBuffer.body()처럼 같은 배열에 다음 본문을 씁니다.
+		byte[] body = body("first");
+		tracer.tx("test", "key", body);
+		System.arraycopy(body("again"), 0, body, 0, body.length);
+		tracer.tx("test", "key", body);
+		tracer.close();
+
+		List<String> messages = messages();
+		assertEquals(2, messages.size());
+		assertTrue(messages.get(0).endsWith(" : first"), messages.get(0));
+		assertTrue(messages.get(1).endsWith(" : again"), messages.get(1));
+	}
+
+	@Test
+	void hashIsFnv1a() {
+		assertEquals(0x811c9dc5, MessageTracer.hash(null));
+		assertEquals(0x811c9dc5, MessageTracer.hash(new byte[0]));
+		assertEquals(0xe40c292c, MessageTracer.hash(body("a")));
+		assertEquals(0xbf9cf968, MessageTracer.hash(body("foobar")));
+	}
+
+	@Test
+	void everyNthStartsWithTheFirst() {
+		Sampler sampler = Sampler.everyNth(3);
+		List<Boolean> picks = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			picks.add(sampler.sample());
+		}
+		assertEquals(Arrays.asList(true, false, false, true, false, false, true), picks);
+		assertSame(Sampler.always(), Sampler.everyNth(1));
+		assertThrows(IllegalArgumentException.class, () -> Sampler.everyNth(0));
+	}
+
+	@Test
+	void rateLimitAllowsOneSecondOfBurst() {
+		Sampler sampler = Sampler.rateLimited(10);
+		int picked = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (sampler.sample()) {
+				picked++;
+			}
+		}
+		assertTrue(picked >= 10 && picked <= 11, "picked " + picked);
+		assertThrows(IllegalArgumentException.class, () -> Sampler.rateLimited(0));
+	}
+
+	@Test
+	void parseReadsTheSpec() {
+		assertSame(Sampler.never(), Sampler.parse("off"));
+		assertSame(Sampler.never(), Sampler.parse(" 0 "));
+		assertSame(Sampler.always(), Sampler.parse("ALL"));
+		assertSame(Sampler.always(), Sampler.parse("1"));
+		Sampler everyOther = Sampler.parse("2");
+		assertTrue(everyOther.sample());
+		assertFalse(everyOther.sample());
+		assertTrue(Sampler.parse("5/s").sample());
+		assertThrows(IllegalArgumentException.class, () -> Sampler.parse("often"));
+		assertThrows(IllegalArgumentException.class, () -> Sampler.parse("x/s"));
+	}
+
+	private List<String> messages() {
+		List<String> messages = new ArrayList<>();
+		for (ILoggingEvent event : appender.list) {
+			messages.add(event.getFormattedMessage());
+		}
+		return messages;
+	}
+
+	private static byte[] body(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}